@@ -35,6 +35,13 @@ public class DiscreteDirectivitySphere implements DirectivitySphere {
     ThetaComparator thetaComparator = new ThetaComparator();
     PhiComparator phiComparator = new PhiComparator();
 
+    // Optional attenuation grid in energy [phi][theta][frequency], resampled from the records by precomputeGrid
+    float[] grid = null;
+    int gridPhiCount;
+    int gridThetaCount;
+    double gridPhiStep;
+    double gridThetaStep;
+
     /**
      * DiscreteDirectivitySphere defines the discrete directional sphere
      * @param directionIdentifier primary key of the directional sphere (a table with various directional sphere can be given by the user)
@@ -112,12 +119,37 @@ public class DiscreteDirectivitySphere implements DirectivitySphere {
      */
     @Override
     public double[] getAttenuationArray(double[] requestFrequencies, double phi, double theta) {
-        DirectivityRecord query = new DirectivityRecord(theta, phi, null);
-
-        DirectivityRecord record = getRecord(query.theta, query.phi, interpolationMethod);
-
         double[] returnAttenuation = new double[requestFrequencies.length];
+        getAttenuationArray(getFrequencyIndexes(requestFrequencies), phi, theta, returnAttenuation);
+        return returnAttenuation;
+    }
+
+    /**
+     * Returns the attenuation in dB of the directivity pattern at a given angle (phi, theta).
+     * If the grid has been computed with {@link #precomputeGrid(double)} the attenuation is read from the grid in
+     * constant time and no object is allocated.
+     * @param frequencyIndexes Index of the sphere frequencies, see {@link #getFrequencyIndexes(double[])}
+     * @param phi (0 2π) with 0 is front
+     * @param theta (-π/2 π/2) with 0 is horizontal; π is top
+     * @param attenuation Output attenuation level in dB, same length as frequencyIndexes
+     */
+    public void getAttenuationArray(int[] frequencyIndexes, double phi, double theta, double[] attenuation) {
+        if (grid != null) {
+            getGridAttenuation(frequencyIndexes, phi, theta, attenuation);
+        } else {
+            DirectivityRecord record = getRecord(theta, phi, interpolationMethod);
+            for (int frequencyIndex = 0; frequencyIndex < frequencyIndexes.length; frequencyIndex++) {
+                attenuation[frequencyIndex] = record.attenuation[frequencyIndexes[frequencyIndex]];
+            }
+        }
+    }
 
+    /**
+     * @param requestFrequencies Frequency array in Hertz
+     * @return Index of the exact or closest frequency of this sphere for each requested frequency
+     */
+    public int[] getFrequencyIndexes(double[] requestFrequencies) {
+        int[] indexes = new int[requestFrequencies.length];
         for (int frequencyIndex = 0; frequencyIndex < requestFrequencies.length; frequencyIndex++) {
             double frequency = requestFrequencies[frequencyIndex];
             // look for frequency index
@@ -132,10 +164,85 @@ public class DiscreteDirectivitySphere implements DirectivitySphere {
                             Math.abs(this.frequencies[last] - frequency) ? first : last;
                 }
             }
-            returnAttenuation[frequencyIndex] = record.attenuation[idFreq];
+            indexes[frequencyIndex] = idFreq;
         }
+        return indexes;
+    }
 
-        return returnAttenuation;
+    /**
+     * Resample the directivity records into a regular (phi, theta, frequency) grid.
+     * Subsequent attenuation queries are bilinear interpolations (or closest node if the interpolation method is 0)
+     * on this grid instead of searching and interpolating the records.
+     * The grid use 4 bytes per node and per frequency, ex. 2° step with 8 octave bands is 180*91*8*4 = 0.5 MB
+     * The grid is discarded if new records are added.
+     * @param angleStep Approximate angle between two grid nodes in radians
+     */
+    public void precomputeGrid(double angleStep) {
+        if (recordsTheta.isEmpty()) {
+            return;
+        }
+        int phiCount = Math.max(1, (int) Math.round(2 * Math.PI / angleStep));
+        int thetaCount = Math.max(2, (int) Math.round(Math.PI / angleStep) + 1);
+        double phiStep = 2 * Math.PI / phiCount;
+        double thetaStep = Math.PI / (thetaCount - 1);
+        float[] values = new float[phiCount * thetaCount * frequencies.length];
+        int cursor = 0;
+        for (int idPhi = 0; idPhi < phiCount; idPhi++) {
+            double phi = idPhi * phiStep;
+            for (int idTheta = 0; idTheta < thetaCount; idTheta++) {
+                double theta = -Math.PI / 2 + idTheta * thetaStep;
+                DirectivityRecord record = getRecord(theta, phi, interpolationMethod);
+                for (int idFrequency = 0; idFrequency < frequencies.length; idFrequency++) {
+                    values[cursor++] = (float) Utils.dbToW(record.attenuation[idFrequency]);
+                }
+            }
+        }
+        gridPhiCount = phiCount;
+        gridThetaCount = thetaCount;
+        gridPhiStep = phiStep;
+        gridThetaStep = thetaStep;
+        grid = values;
+    }
+
+    /**
+     * @return True if the attenuation is read from a grid computed by {@link #precomputeGrid(double)}
+     */
+    public boolean isGridPrecomputed() {
+        return grid != null;
+    }
+
+    private void getGridAttenuation(int[] frequencyIndexes, double phi, double theta, double[] attenuation) {
+        double phiModulo = phi % (2 * Math.PI);
+        if (phiModulo < 0) {
+            phiModulo += 2 * Math.PI;
+        }
+        double x = phiModulo / gridPhiStep;
+        int phi0 = Math.min((int) x, gridPhiCount - 1);
+        int phi1 = phi0 + 1 == gridPhiCount ? 0 : phi0 + 1;
+        x = Math.max(0, Math.min(1, x - phi0));
+        double y = (Math.max(-Math.PI / 2, Math.min(Math.PI / 2, theta)) + Math.PI / 2) / gridThetaStep;
+        int theta0 = Math.max(0, Math.min((int) y, gridThetaCount - 2));
+        int theta1 = theta0 + 1;
+        y = Math.max(0, Math.min(1, y - theta0));
+        final int frequencyCount = frequencies.length;
+        if (interpolationMethod == 0) {
+            int offset = ((x < 0.5 ? phi0 : phi1) * gridThetaCount + (y < 0.5 ? theta0 : theta1)) * frequencyCount;
+            for (int frequencyIndex = 0; frequencyIndex < frequencyIndexes.length; frequencyIndex++) {
+                attenuation[frequencyIndex] = Utils.wToDb(grid[offset + frequencyIndexes[frequencyIndex]]);
+            }
+        } else {
+            int offset00 = (phi0 * gridThetaCount + theta0) * frequencyCount;
+            int offset10 = (phi1 * gridThetaCount + theta0) * frequencyCount;
+            int offset01 = (phi0 * gridThetaCount + theta1) * frequencyCount;
+            int offset11 = (phi1 * gridThetaCount + theta1) * frequencyCount;
+            for (int frequencyIndex = 0; frequencyIndex < frequencyIndexes.length; frequencyIndex++) {
+                int idFrequency = frequencyIndexes[frequencyIndex];
+                attenuation[frequencyIndex] = Utils.wToDb(grid[offset00 + idFrequency] * (1 - x) * (1 - y)
+                        + grid[offset10 + idFrequency] * x * (1 - y)
+                        + grid[offset01 + idFrequency] * (1 - x) * y
+                        + grid[offset11 + idFrequency] * x * y);
+            }
+        }
     }
 
     /**
@@ -145,6 +252,7 @@ public class DiscreteDirectivitySphere implements DirectivitySphere {
      * @param attenuation Attenuation in dB
      */
     public void addDirectivityRecord(double theta, double phi, double[] attenuation) {
+        grid = null;
         DirectivityRecord record = new DirectivityRecord(theta, phi, attenuation);
         int index = Collections.binarySearch(recordsTheta, record, thetaComparator);
         if (index >= 0) {
@@ -265,6 +373,7 @@ public class DiscreteDirectivitySphere implements DirectivitySphere {
      * @param newRecords Records to push
      */
     public void addDirectivityRecords(Collection<DirectivityRecord> newRecords) {
+        grid = null;
         recordsTheta.addAll(newRecords);
         recordsTheta.sort(thetaComparator);
         recordsPhi.addAll(newRecords);
@@ -273,6 +382,36 @@ public class DiscreteDirectivitySphere implements DirectivitySphere {
 
 
 
+    /**
+     * Sample a directivity sphere into a discrete sphere with a precomputed grid.
+     * The records are placed on the grid nodes so the grid reproduce exactly the sampled sphere on the nodes.
+     * @param directionIdentifier primary key of the directional sphere
+     * @param sphere Directivity sphere to sample (ex. {@link org.noise_planet.noisemodelling.emission.directivity.cnossos.RailwayCnossosDirectivitySphere})
+     * @param frequencies array of frequencies (Hz)
+     * @param angleStep Approximate angle between two grid nodes in radians
+     * @return Discrete directivity sphere with a precomputed grid
+     */
+    public static DiscreteDirectivitySphere sampleDirectivitySphere(int directionIdentifier, DirectivitySphere sphere,
+                                                                    double[] frequencies, double angleStep) {
+        DiscreteDirectivitySphere discreteDirectivitySphere = new DiscreteDirectivitySphere(directionIdentifier,
+                frequencies);
+        int phiCount = Math.max(1, (int) Math.round(2 * Math.PI / angleStep));
+        int thetaCount = Math.max(2, (int) Math.round(Math.PI / angleStep) + 1);
+        double phiStep = 2 * Math.PI / phiCount;
+        double thetaStep = Math.PI / (thetaCount - 1);
+        List<DirectivityRecord> records = new ArrayList<>(phiCount * thetaCount);
+        for (int idPhi = 0; idPhi < phiCount; idPhi++) {
+            double phi = idPhi * phiStep;
+            for (int idTheta = 0; idTheta < thetaCount; idTheta++) {
+                double theta = -Math.PI / 2 + idTheta * thetaStep;
+                records.add(new DirectivityRecord(theta, phi, sphere.getAttenuationArray(frequencies, phi, theta)));
+            }
+        }
+        discreteDirectivitySphere.addDirectivityRecords(records);
+        discreteDirectivitySphere.precomputeGrid(angleStep);
+        return discreteDirectivitySphere;
+    }
+
     /**
      * Check if this sphere is capable of producing an attenuation for this frequency
      * @param frequency Frequency in Hertz
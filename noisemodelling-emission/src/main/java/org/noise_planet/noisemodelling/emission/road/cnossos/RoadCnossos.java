@@ -15,7 +15,10 @@ import com.fasterxml.jackson.databind.node.NullNode;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Arrays;
+import java.util.List;
 
+import static org.noise_planet.noisemodelling.emission.road.cnossos.RoadCnossosCoefficients.*;
 import static org.noise_planet.noisemodelling.emission.utils.Utils.*;
 
 /**
@@ -64,37 +67,9 @@ public class RoadCnossos {
      * @return a Road Coeff
      */
     public static Double getA_RoadSurfaceCoeff(int Freq, String vehCat, String roadSurface, int fileVersion) throws IOException {
-        int Freq_ind;
-        switch (Freq) {
-            case 63:
-                Freq_ind = 0;
-                break;
-            case 125:
-                Freq_ind = 1;
-                break;
-            case 250:
-                Freq_ind = 2;
-                break;
-            case 500:
-                Freq_ind = 3;
-                break;
-            case 1000:
-                Freq_ind = 4;
-                break;
-            case 2000:
-                Freq_ind = 5;
-                break;
-            case 4000:
-                Freq_ind = 6;
-                break;
-            case 8000:
-                Freq_ind = 7;
-                break;
-            default:
-                Freq_ind = 0;
-        }
-        if (getCnossosData(fileVersion).get("roads").get(roadSurface)==null)  throw new IOException("Error : the pavement "+roadSurface + " doesn't exist in the database.");
-        return getCnossosData(fileVersion).get("roads").get(roadSurface).get("ref").get(vehCat).get("spectrum").get(Freq_ind).doubleValue();
+        RoadCnossosCoefficients coefficients = RoadCnossosCoefficients.getCoefficients(fileVersion);
+        return coefficients.getRoadSurfaceSpectrum(getRoadSurfaceIndex(coefficients, roadSurface),
+                RoadCnossosCoefficients.getVehicleCategoryIndex(vehCat), RoadCnossosCoefficients.getFrequencyIndex(Freq));
     }
 
     /**
@@ -104,9 +79,15 @@ public class RoadCnossos {
      *                    search for NL01 or FR_R2 for example
      * @param fileVersion 2015 or 2019 coefficients version
      * @return a Road Coeff
+     * @throws IllegalArgumentException If the road surface does not exist in the catalogue
      */
     public static Double getB_RoadSurfaceCoeff(String vehCat, String roadSurface, int fileVersion) { //CNOSSOS-EU_Road_Catalogue_Final - 01April2014.xlsx - https://circabc.europa.eu/webdav/CircaBC/env/noisedir/Library/Public/cnossos-eu/Final_methods%26software
-        return getCnossosData(fileVersion).get("roads").get(roadSurface).get("ref").get(vehCat).get("ßm").doubleValue();
+        RoadCnossosCoefficients coefficients = RoadCnossosCoefficients.getCoefficients(fileVersion);
+        int roadSurfaceIndex = coefficients.getRoadSurfaceIndex(roadSurface);
+        if (roadSurfaceIndex < 0) {
+            throw new IllegalArgumentException("Error : the pavement "+roadSurface + " doesn't exist in the database.");
+        }
+        return coefficients.getRoadSurfaceBetaM(roadSurfaceIndex, RoadCnossosCoefficients.getVehicleCategoryIndex(vehCat));
     }
 
     /**
@@ -117,7 +98,7 @@ public class RoadCnossos {
      * @return Cr coefficient
      */
     public static double getCr(String vehCat, int k, int fileVersion) {
-        return getCnossosData(fileVersion).get("vehicles").get(vehCat).get(k == 1 ? "crossing" : "roundabout").get("cr").doubleValue();
+        return RoadCnossosCoefficients.getCoefficients(fileVersion).getCr(RoadCnossosCoefficients.getVehicleCategoryIndex(vehCat), k);
     }
 
     /**
@@ -128,7 +109,7 @@ public class RoadCnossos {
      * @return Cp coefficient
      */
     public static double getCp(String vehCat, int k, int fileVersion) {
-        return getCnossosData(fileVersion).get("vehicles").get(vehCat).get(k == 1 ? "crossing" : "roundabout").get("cp").doubleValue();
+        return RoadCnossosCoefficients.getCoefficients(fileVersion).getCp(RoadCnossosCoefficients.getVehicleCategoryIndex(vehCat), k);
     }
 
     /**
@@ -139,36 +120,27 @@ public class RoadCnossos {
      * @return Vehicle emission values coefficients
      */
     public static Double getCoeff(String coeff, int freq, String vehicleCategory, int coeffVer) {
-        int Freq_ind;
-        switch (freq) {
-            case 63:
-                Freq_ind = 0;
-                break;
-            case 125:
-                Freq_ind = 1;
-                break;
-            case 250:
-                Freq_ind = 2;
-                break;
-            case 500:
-                Freq_ind = 3;
-                break;
-            case 1000:
-                Freq_ind = 4;
-                break;
-            case 2000:
-                Freq_ind = 5;
-                break;
-            case 4000:
-                Freq_ind = 6;
-                break;
-            case 8000:
-                Freq_ind = 7;
-                break;
-            default:
-                Freq_ind = 0;
+        int coefficientIndex = Arrays.asList(RoadCnossosCoefficients.VEHICLE_COEFFICIENTS).indexOf(coeff);
+        if (coefficientIndex < 0) {
+            throw new IllegalArgumentException("Unknown vehicle coefficient " + coeff);
         }
-        return getCnossosData(coeffVer).get("vehicles").get(vehicleCategory).get(coeff).get(Freq_ind).doubleValue();
+        return RoadCnossosCoefficients.getCoefficients(coeffVer).getVehicleCoefficient(coefficientIndex,
+                RoadCnossosCoefficients.getVehicleCategoryIndex(vehicleCategory),
+                RoadCnossosCoefficients.getFrequencyIndex(freq));
+    }
+
+    /**
+     * @param coefficients Compiled coefficients
+     * @param roadSurface Road surface identifier
+     * @return Road surface index
+     * @throws IOException If the road surface does not exist in the catalogue
+     */
+    private static int getRoadSurfaceIndex(RoadCnossosCoefficients coefficients, String roadSurface) throws IOException {
+        int roadSurfaceIndex = coefficients.getRoadSurfaceIndex(roadSurface);
+        if (roadSurfaceIndex < 0) {
+            throw new IOException("Error : the pavement "+roadSurface + " doesn't exist in the database.");
+        }
+        return roadSurfaceIndex;
     }
 
     /**
@@ -191,17 +163,18 @@ public class RoadCnossos {
      * @param roadCnossosParameters every others parameters linked to RoadCnossosParameters class (e.g. speed on the road segment)
      * @param Pm_stud proportion of vehicle equipped of studded tyres
      * @param Ts_stud number of months they are equipped with studded tires
-     * @param freq Frequency in Hz (octave band)
-     * @param fileVersion
+     * @param coefficients Compiled coefficients
+     * @param band Band index
      * @return
      */
-    private static Double getDeltaStuddedTyres(RoadCnossosParameters roadCnossosParameters, double Pm_stud, double Ts_stud,
-                                               int freq, int fileVersion, double vRef) throws IOException {
+    private static double getDeltaStuddedTyres(RoadCnossosParameters roadCnossosParameters, double Pm_stud, double Ts_stud,
+                                               RoadCnossosCoefficients coefficients, int band, double vRef) throws IOException {
         double speed = roadCnossosParameters.getSpeedLv();
         double ps = Pm_stud * Ts_stud / 12;  // Eq. 2.2.7 yearly average proportion of vehicles equipped with studded tyres
         speed = (speed >= 90) ? 90 : speed;
         speed = (speed <= 50) ? 50 : speed;
-        double deltastud = getNoiseLvl(getCoeff("a", freq, "1", fileVersion), getCoeff("b", freq, "1", fileVersion), speed, vRef);
+        double deltastud = getNoiseLvl(coefficients.getVehicleCoefficient(A, CAT_1, band),
+                coefficients.getVehicleCoefficient(B, CAT_1, band), speed, vRef);
         return 10 * Math.log10((1 - ps) + ps * Math.pow(10, deltastud / 10)); // Eq. 2.2.8
         // Only for light vehicles (Eq.2.2.9)
     }
@@ -286,28 +259,83 @@ public class RoadCnossos {
      */
 
     public static double evaluate(RoadCnossosParameters roadCnossosParameters) throws IOException {
-        final int freqParam = roadCnossosParameters.getFrequency();
+        RoadCnossosCoefficients coefficients = RoadCnossosCoefficients.getCoefficients(roadCnossosParameters.getFileVersion());
+        return evaluate(roadCnossosParameters, coefficients,
+                getRoadSurfaceIndex(coefficients, roadCnossosParameters.getRoadSurface()),
+                RoadCnossosCoefficients.getFrequencyIndex(roadCnossosParameters.getFrequency()));
+    }
+
+    /**
+     * Return the noise emission spectrum of a road segment in dB/m.
+     * The frequency of the parameters is ignored.
+     * @param roadCnossosParameters every parameters linked to RoadCnossosParameters class (e.g. speed on the road segment)
+     * @param frequencies Frequencies in Hz (octave bands)
+     * @return Noise level in dB for each frequency
+     */
+    public static double[] evaluate(RoadCnossosParameters roadCnossosParameters, int[] frequencies) throws IOException {
+        RoadCnossosCoefficients coefficients = RoadCnossosCoefficients.getCoefficients(roadCnossosParameters.getFileVersion());
+        int roadSurfaceIndex = getRoadSurfaceIndex(coefficients, roadCnossosParameters.getRoadSurface());
+        double[] levels = new double[frequencies.length];
+        for (int idFreq = 0; idFreq < frequencies.length; idFreq++) {
+            levels[idFreq] = evaluate(roadCnossosParameters, coefficients, roadSurfaceIndex,
+                    RoadCnossosCoefficients.getFrequencyIndex(frequencies[idFreq]));
+        }
+        return levels;
+    }
+
+    /**
+     * Return the noise emission spectrum of many road segments in dB/m.
+     * The frequency of the parameters is ignored.
+     * @param roadSegments parameters of each road segment
+     * @param frequencies Frequencies in Hz (octave bands)
+     * @return Noise level in dB [segment][frequency]
+     */
+    public static double[][] evaluate(List<RoadCnossosParameters> roadSegments, int[] frequencies) throws IOException {
+        int[] bands = new int[frequencies.length];
+        for (int idFreq = 0; idFreq < frequencies.length; idFreq++) {
+            bands[idFreq] = RoadCnossosCoefficients.getFrequencyIndex(frequencies[idFreq]);
+        }
+        double[][] levels = new double[roadSegments.size()][frequencies.length];
+        for (int idSegment = 0; idSegment < levels.length; idSegment++) {
+            RoadCnossosParameters roadCnossosParameters = roadSegments.get(idSegment);
+            RoadCnossosCoefficients coefficients = RoadCnossosCoefficients.getCoefficients(roadCnossosParameters.getFileVersion());
+            int roadSurfaceIndex = getRoadSurfaceIndex(coefficients, roadCnossosParameters.getRoadSurface());
+            for (int idFreq = 0; idFreq < bands.length; idFreq++) {
+                levels[idSegment][idFreq] = evaluate(roadCnossosParameters, coefficients, roadSurfaceIndex, bands[idFreq]);
+            }
+        }
+        return levels;
+    }
+
+    /**
+     * Return the noise emission level of a road segment in dB/m
+     * @param roadCnossosParameters every parameters linked to RoadCnossosParameters class (e.g. speed on the road segment)
+     * @param coefficients Compiled coefficients
+     * @param roadSurface Road surface index
+     * @param band Band index
+     * @return Noise level in dB
+     */
+    private static double evaluate(RoadCnossosParameters roadCnossosParameters, RoadCnossosCoefficients coefficients,
+                                   int roadSurface, int band) throws IOException {
         final double Temperature = roadCnossosParameters.getTemperature();
         final double Ts_stud = roadCnossosParameters.getTsStud();
         final double Pm_stud = roadCnossosParameters.getqStudRatio();
         final double Junc_dist = roadCnossosParameters.getJunc_dist();
         final int Junc_type = roadCnossosParameters.getJunc_type();
-        final String roadSurface = roadCnossosParameters.getRoadSurface();
-        final int coeffVer = roadCnossosParameters.getFileVersion();
         double vRef = 70.;
 
         /**
          * Rolling Noise
          */
         // Rolling noise level Eq. 2.2.4
-        double lvRoadLvl = getNoiseLvl(getCoeff("ar", freqParam, "1", coeffVer), getCoeff("br", freqParam, "1", coeffVer), roadCnossosParameters.getSpeedLv(), vRef);
-        double medRoadLvl = getNoiseLvl(getCoeff("ar", freqParam, "2", coeffVer), getCoeff("br", freqParam, "2", coeffVer), roadCnossosParameters.getSpeedMv(), vRef);
-        double hgvRoadLvl = getNoiseLvl(getCoeff("ar", freqParam, "3", coeffVer), getCoeff("br", freqParam, "3", coeffVer), roadCnossosParameters.getSpeedHgv(), vRef);
+        double lvRoadLvl = getNoiseLvl(coefficients.getVehicleCoefficient(AR, CAT_1, band), coefficients.getVehicleCoefficient(BR, CAT_1, band), roadCnossosParameters.getSpeedLv(), vRef);
+        double medRoadLvl = getNoiseLvl(coefficients.getVehicleCoefficient(AR, CAT_2, band), coefficients.getVehicleCoefficient(BR, CAT_2, band), roadCnossosParameters.getSpeedMv(), vRef);
+        double hgvRoadLvl = getNoiseLvl(coefficients.getVehicleCoefficient(AR, CAT_3, band), coefficients.getVehicleCoefficient(BR, CAT_3, band), roadCnossosParameters.getSpeedHgv(), vRef);
         // Rolling noise is only for categories 1, 2 and 3
 
         // Correction for studded tyres - Eq. 2.2.6
         if (Pm_stud > 0 && Ts_stud > 0) {
-            lvRoadLvl = lvRoadLvl + getDeltaStuddedTyres(roadCnossosParameters, Pm_stud, Ts_stud, freqParam, coeffVer, vRef);
+            lvRoadLvl = lvRoadLvl + getDeltaStuddedTyres(roadCnossosParameters, Pm_stud, Ts_stud, coefficients, band, vRef);
         }
 
         // Effect of air temperature on rolling noise correction Eq 2.2.10
@@ -319,11 +347,11 @@ public class RoadCnossos {
          * Propulsion Noise
          */
         // General equation - Eq. 2.2.11
-        double lvMotorLvl = getCoeff("ap", freqParam, "1", coeffVer) + getCoeff("bp", freqParam, "1", coeffVer) * (roadCnossosParameters.getSpeedLv() - vRef) / vRef;
-        double medMotorLvl = getCoeff("ap", freqParam, "2", coeffVer) + getCoeff("bp", freqParam, "2", coeffVer) * (roadCnossosParameters.getSpeedMv() - vRef) / vRef;
-        double hgvMotorLvl = getCoeff("ap", freqParam, "3", coeffVer) + getCoeff("bp", freqParam, "3", coeffVer) * (roadCnossosParameters.getSpeedHgv() - vRef) / vRef;
-        double wheelaMotorLvl = getCoeff("ap", freqParam, "4a", coeffVer) + getCoeff("bp", freqParam, "4a", coeffVer) * (roadCnossosParameters.getSpeedWav() - vRef) / vRef;
-        double wheelbMotorLvl = getCoeff("ap", freqParam, "4b", coeffVer) + getCoeff("bp", freqParam, "4b", coeffVer) * (roadCnossosParameters.getSpeedWbv() - vRef) / vRef;
+        double lvMotorLvl = coefficients.getVehicleCoefficient(AP, CAT_1, band) + coefficients.getVehicleCoefficient(BP, CAT_1, band) * (roadCnossosParameters.getSpeedLv() - vRef) / vRef;
+        double medMotorLvl = coefficients.getVehicleCoefficient(AP, CAT_2, band) + coefficients.getVehicleCoefficient(BP, CAT_2, band) * (roadCnossosParameters.getSpeedMv() - vRef) / vRef;
+        double hgvMotorLvl = coefficients.getVehicleCoefficient(AP, CAT_3, band) + coefficients.getVehicleCoefficient(BP, CAT_3, band) * (roadCnossosParameters.getSpeedHgv() - vRef) / vRef;
+        double wheelaMotorLvl = coefficients.getVehicleCoefficient(AP, CAT_4A, band) + coefficients.getVehicleCoefficient(BP, CAT_4A, band) * (roadCnossosParameters.getSpeedWav() - vRef) / vRef;
+        double wheelbMotorLvl = coefficients.getVehicleCoefficient(AP, CAT_4B, band) + coefficients.getVehicleCoefficient(BP, CAT_4B, band) * (roadCnossosParameters.getSpeedWbv() - vRef) / vRef;
 
         // Effect of road gradients
         // This correction implicitly includes the effect of slope on speed.
@@ -352,27 +380,27 @@ public class RoadCnossos {
         // Todo Here, we should get the Junc_dist by another way that we are doing now to be more precise issue #524
         double coefficientJunctionDistance = Math.max(1 - Math.abs(Junc_dist) / 100, 0);
         // Effect of the acceleration and deceleration of vehicles - Rolling Noise Eq 2.2.17
-        lvRoadLvl = lvRoadLvl + getCr("1", Junc_type, coeffVer) * coefficientJunctionDistance;
-        medRoadLvl = medRoadLvl + getCr("2", Junc_type, coeffVer) * coefficientJunctionDistance;
-        hgvRoadLvl = hgvRoadLvl + getCr("3", Junc_type, coeffVer) * coefficientJunctionDistance;
+        lvRoadLvl = lvRoadLvl + coefficients.getCr(CAT_1, Junc_type) * coefficientJunctionDistance;
+        medRoadLvl = medRoadLvl + coefficients.getCr(CAT_2, Junc_type) * coefficientJunctionDistance;
+        hgvRoadLvl = hgvRoadLvl + coefficients.getCr(CAT_3, Junc_type) * coefficientJunctionDistance;
         // Effect of the acceleration and deceleration of vehicles - Propulsion Noise Eq 2.2.18
-        lvMotorLvl = lvMotorLvl + getCp("1", Junc_type, coeffVer) * coefficientJunctionDistance;
-        medMotorLvl = medMotorLvl + getCp("2", Junc_type, coeffVer) * coefficientJunctionDistance;
-        hgvMotorLvl = hgvMotorLvl + getCp("3", Junc_type, coeffVer) * coefficientJunctionDistance;
-        wheelaMotorLvl = wheelaMotorLvl + getCp("4a", Junc_type, coeffVer) * coefficientJunctionDistance;
-        wheelbMotorLvl = wheelbMotorLvl + getCp("4b", Junc_type, coeffVer) * coefficientJunctionDistance;
+        lvMotorLvl = lvMotorLvl + coefficients.getCp(CAT_1, Junc_type) * coefficientJunctionDistance;
+        medMotorLvl = medMotorLvl + coefficients.getCp(CAT_2, Junc_type) * coefficientJunctionDistance;
+        hgvMotorLvl = hgvMotorLvl + coefficients.getCp(CAT_3, Junc_type) * coefficientJunctionDistance;
+        wheelaMotorLvl = wheelaMotorLvl + coefficients.getCp(CAT_4A, Junc_type) * coefficientJunctionDistance;
+        wheelbMotorLvl = wheelbMotorLvl + coefficients.getCp(CAT_4B, Junc_type) * coefficientJunctionDistance;
 
         // Effect of the type of road surface - Eq. 2.2.19
-        lvRoadLvl = lvRoadLvl + getNoiseLvl(getA_RoadSurfaceCoeff(freqParam, "1", roadCnossosParameters.getRoadSurface(), coeffVer), getB_RoadSurfaceCoeff("1", roadSurface, coeffVer), roadCnossosParameters.getSpeedLv(), 70.);
-        medRoadLvl = medRoadLvl + getNoiseLvl(getA_RoadSurfaceCoeff(freqParam, "2", roadCnossosParameters.getRoadSurface(), coeffVer), getB_RoadSurfaceCoeff("2", roadSurface, coeffVer), roadCnossosParameters.getSpeedMv(), 70.);
-        hgvRoadLvl = hgvRoadLvl + getNoiseLvl(getA_RoadSurfaceCoeff(freqParam, "3", roadCnossosParameters.getRoadSurface(), coeffVer), getB_RoadSurfaceCoeff("3", roadSurface, coeffVer), roadCnossosParameters.getSpeedHgv(), 70.);
+        lvRoadLvl = lvRoadLvl + getNoiseLvl(coefficients.getRoadSurfaceSpectrum(roadSurface, CAT_1, band), coefficients.getRoadSurfaceBetaM(roadSurface, CAT_1), roadCnossosParameters.getSpeedLv(), 70.);
+        medRoadLvl = medRoadLvl + getNoiseLvl(coefficients.getRoadSurfaceSpectrum(roadSurface, CAT_2, band), coefficients.getRoadSurfaceBetaM(roadSurface, CAT_2), roadCnossosParameters.getSpeedMv(), 70.);
+        hgvRoadLvl = hgvRoadLvl + getNoiseLvl(coefficients.getRoadSurfaceSpectrum(roadSurface, CAT_3, band), coefficients.getRoadSurfaceBetaM(roadSurface, CAT_3), roadCnossosParameters.getSpeedHgv(), 70.);
 
         // Correction road on propulsion noise - Eq. 2.2.20
-        lvMotorLvl = lvMotorLvl + Math.min(getA_RoadSurfaceCoeff(freqParam, "1", roadSurface, coeffVer), 0.);
-        medMotorLvl = medMotorLvl + Math.min(getA_RoadSurfaceCoeff(freqParam, "2", roadSurface, coeffVer), 0.);
-        hgvMotorLvl = hgvMotorLvl + Math.min(getA_RoadSurfaceCoeff(freqParam, "3", roadSurface, coeffVer), 0.);
-        wheelaMotorLvl = wheelaMotorLvl + Math.min(getA_RoadSurfaceCoeff(freqParam, "4a", roadSurface, coeffVer), 0.);
-        wheelbMotorLvl = wheelbMotorLvl + Math.min(getA_RoadSurfaceCoeff(freqParam, "4b", roadSurface, coeffVer), 0.);
+        lvMotorLvl = lvMotorLvl + Math.min(coefficients.getRoadSurfaceSpectrum(roadSurface, CAT_1, band), 0.);
+        medMotorLvl = medMotorLvl + Math.min(coefficients.getRoadSurfaceSpectrum(roadSurface, CAT_2, band), 0.);
+        hgvMotorLvl = hgvMotorLvl + Math.min(coefficients.getRoadSurfaceSpectrum(roadSurface, CAT_3, band), 0.);
+        wheelaMotorLvl = wheelaMotorLvl + Math.min(coefficients.getRoadSurfaceSpectrum(roadSurface, CAT_4A, band), 0.);
+        wheelbMotorLvl = wheelbMotorLvl + Math.min(coefficients.getRoadSurfaceSpectrum(roadSurface, CAT_4B, band), 0.);
 
         /**
          * Combine Propulsion and Rolling Noise - Eq. 2.2.2
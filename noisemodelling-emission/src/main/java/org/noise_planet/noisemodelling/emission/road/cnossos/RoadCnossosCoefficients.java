@@ -0,0 +1,227 @@
+/**
+ * NoiseModelling is a library capable of producing noise maps. It can be freely used either for research and education, as well as by experts in a professional use.
+ * <p>
+ * NoiseModelling is distributed under GPL 3 license. You can read a copy of this License in the file LICENCE provided with this software.
+ * <p>
+ * Official webpage : http://noise-planet.org/noisemodelling.html
+ * Contact: contact@noise-planet.org
+ */
+
+package org.noise_planet.noisemodelling.emission.road.cnossos;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable primitive tables of the CNOSSOS road emission coefficients.
+ * The JSON catalogues are compiled once, then coefficients are accessed by vehicle category index,
+ * road surface index and octave band index without any string key lookup.
+ * @author Nicolas Fortin, Université Gustave Eiffel
+ */
+public class RoadCnossosCoefficients {
+    /** Vehicle categories, the position in this list is the vehicle category index */
+    public static final List<String> VEHICLE_CATEGORIES = Collections.unmodifiableList(Arrays.asList("1", "2", "3",
+            "4a", "4b", "5"));
+    /** Octave bands, the position in this list is the band index */
+    public static final List<Integer> OCTAVE_BANDS = Collections.unmodifiableList(Arrays.asList(63, 125, 250, 500,
+            1000, 2000, 4000, 8000));
+    public static final int CAT_1 = 0;
+    public static final int CAT_2 = 1;
+    public static final int CAT_3 = 2;
+    public static final int CAT_4A = 3;
+    public static final int CAT_4B = 4;
+
+    /** Rolling noise coefficient A */
+    public static final int AR = 0;
+    /** Rolling noise coefficient B */
+    public static final int BR = 1;
+    /** Propulsion noise coefficient A */
+    public static final int AP = 2;
+    /** Propulsion noise coefficient B */
+    public static final int BP = 3;
+    /** Studded tyres coefficient a */
+    public static final int A = 4;
+    /** Studded tyres coefficient b */
+    public static final int B = 5;
+    static final String[] VEHICLE_COEFFICIENTS = new String[] {"ar", "br", "ap", "bp", "a", "b"};
+
+    private static final RoadCnossosCoefficients COEFFICIENTS_2015 =
+            new RoadCnossosCoefficients(RoadCnossos.getCnossosData(1));
+    private static final RoadCnossosCoefficients COEFFICIENTS_2020 =
+            new RoadCnossosCoefficients(RoadCnossos.getCnossosData(2));
+
+    /** [coefficient][vehicle category][band], NaN if not defined */
+    private final double[][][] vehicleCoefficients;
+    /** [vehicle category][k-1] */
+    private final double[][] cr;
+    /** [vehicle category][k-1] */
+    private final double[][] cp;
+    private final Map<String, Integer> roadSurfaceIndex = new HashMap<>();
+    /** [road surface][vehicle category][band] */
+    private final double[][][] roadSurfaceSpectrum;
+    /** [road surface][vehicle category] */
+    private final double[][] roadSurfaceBetaM;
+
+    /**
+     * Compile the coefficients of a CNOSSOS road JSON catalogue
+     * @param cnossosData Root node of the catalogue
+     */
+    public RoadCnossosCoefficients(JsonNode cnossosData) {
+        final int categoryCount = VEHICLE_CATEGORIES.size();
+        final int bandCount = OCTAVE_BANDS.size();
+        vehicleCoefficients = new double[VEHICLE_COEFFICIENTS.length][categoryCount][bandCount];
+        cr = new double[categoryCount][2];
+        cp = new double[categoryCount][2];
+        for (double[][] coefficient : vehicleCoefficients) {
+            for (double[] values : coefficient) {
+                Arrays.fill(values, Double.NaN);
+            }
+        }
+        JsonNode vehicles = cnossosData.path("vehicles");
+        for (int idCat = 0; idCat < categoryCount; idCat++) {
+            JsonNode vehicle = vehicles.get(VEHICLE_CATEGORIES.get(idCat));
+            if (vehicle == null) {
+                continue;
+            }
+            for (int idCoeff = 0; idCoeff < VEHICLE_COEFFICIENTS.length; idCoeff++) {
+                JsonNode values = vehicle.get(VEHICLE_COEFFICIENTS[idCoeff]);
+                if (values != null) {
+                    for (int idBand = 0; idBand < bandCount && idBand < values.size(); idBand++) {
+                        vehicleCoefficients[idCoeff][idCat][idBand] = values.get(idBand).doubleValue();
+                    }
+                }
+            }
+            cr[idCat][0] = vehicle.path("crossing").path("cr").doubleValue();
+            cr[idCat][1] = vehicle.path("roundabout").path("cr").doubleValue();
+            cp[idCat][0] = vehicle.path("crossing").path("cp").doubleValue();
+            cp[idCat][1] = vehicle.path("roundabout").path("cp").doubleValue();
+        }
+        JsonNode roads = cnossosData.path("roads");
+        roadSurfaceSpectrum = new double[roads.size()][categoryCount][bandCount];
+        roadSurfaceBetaM = new double[roads.size()][categoryCount];
+        Iterator<Map.Entry<String, JsonNode>> roadsIterator = roads.fields();
+        int idSurface = 0;
+        while (roadsIterator.hasNext()) {
+            Map.Entry<String, JsonNode> road = roadsIterator.next();
+            roadSurfaceIndex.put(road.getKey(), idSurface);
+            JsonNode ref = road.getValue().path("ref");
+            for (int idCat = 0; idCat < categoryCount; idCat++) {
+                JsonNode refCategory = ref.path(VEHICLE_CATEGORIES.get(idCat));
+                JsonNode spectrum = refCategory.path("spectrum");
+                for (int idBand = 0; idBand < bandCount && idBand < spectrum.size(); idBand++) {
+                    roadSurfaceSpectrum[idSurface][idCat][idBand] = spectrum.get(idBand).doubleValue();
+                }
+                roadSurfaceBetaM[idSurface][idCat] = refCategory.path("ßm").doubleValue();
+            }
+            idSurface++;
+        }
+    }
+
+    /**
+     * @param fileVersion 1 for 2015 coefficients, other for the 2020 amendments
+     * @return Compiled coefficients of this version
+     */
+    public static RoadCnossosCoefficients getCoefficients(int fileVersion) {
+        return fileVersion == 1 ? COEFFICIENTS_2015 : COEFFICIENTS_2020;
+    }
+
+    /**
+     * @param frequency Frequency in Hz (octave band)
+     * @return Band index, 0 if the frequency is not an octave band
+     */
+    public static int getFrequencyIndex(int frequency) {
+        switch (frequency) {
+            case 125:
+                return 1;
+            case 250:
+                return 2;
+            case 500:
+                return 3;
+            case 1000:
+                return 4;
+            case 2000:
+                return 5;
+            case 4000:
+                return 6;
+            case 8000:
+                return 7;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * @param vehicleCategory Vehicle category (1,2,3,4a,4b,5)
+     * @return Vehicle category index
+     * @throws IllegalArgumentException If the category is unknown
+     */
+    public static int getVehicleCategoryIndex(String vehicleCategory) {
+        int index = VEHICLE_CATEGORIES.indexOf(vehicleCategory);
+        if (index < 0) {
+            throw new IllegalArgumentException("Unknown vehicle category " + vehicleCategory);
+        }
+        return index;
+    }
+
+    /**
+     * @param roadSurface Road surface identifier (NL01, FR_R2..)
+     * @return Road surface index or -1 if this road surface does not exist in the catalogue
+     */
+    public int getRoadSurfaceIndex(String roadSurface) {
+        Integer index = roadSurfaceIndex.get(roadSurface);
+        return index == null ? -1 : index;
+    }
+
+    /**
+     * @param coefficient One of {@link #AR}, {@link #BR}, {@link #AP}, {@link #BP}, {@link #A}, {@link #B}
+     * @param vehicleCategory Vehicle category index
+     * @param band Band index
+     * @return Vehicle emission coefficient, NaN if not defined for this vehicle category
+     */
+    public double getVehicleCoefficient(int coefficient, int vehicleCategory, int band) {
+        return vehicleCoefficients[coefficient][vehicleCategory][band];
+    }
+
+    /**
+     * @param vehicleCategory Vehicle category index
+     * @param k k=1 Crossing lights, other roundabout
+     * @return Cr coefficient
+     */
+    public double getCr(int vehicleCategory, int k) {
+        return cr[vehicleCategory][k == 1 ? 0 : 1];
+    }
+
+    /**
+     * @param vehicleCategory Vehicle category index
+     * @param k k=1 Crossing lights, other roundabout
+     * @return Cp coefficient
+     */
+    public double getCp(int vehicleCategory, int k) {
+        return cp[vehicleCategory][k == 1 ? 0 : 1];
+    }
+
+    /**
+     * @param roadSurface Road surface index
+     * @param vehicleCategory Vehicle category index
+     * @param band Band index
+     * @return "a" road surface coefficient
+     */
+    public double getRoadSurfaceSpectrum(int roadSurface, int vehicleCategory, int band) {
+        return roadSurfaceSpectrum[roadSurface][vehicleCategory][band];
+    }
+
+    /**
+     * @param roadSurface Road surface index
+     * @param vehicleCategory Vehicle category index
+     * @return "b" road surface coefficient
+     */
+    public double getRoadSurfaceBetaM(int roadSurface, int vehicleCategory) {
+        return roadSurfaceBetaM[roadSurface][vehicleCategory];
+    }
+}
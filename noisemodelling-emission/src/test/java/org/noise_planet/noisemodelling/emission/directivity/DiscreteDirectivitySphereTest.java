@@ -11,6 +11,8 @@ package org.noise_planet.noisemodelling.emission.directivity;
 import org.junit.jupiter.api.Test;
 import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import org.noise_planet.noisemodelling.emission.LineSource;
 import org.noise_planet.noisemodelling.emission.directivity.cnossos.RailwayCnossosDirectivitySphere;
 
@@ -85,4 +87,58 @@ public class DiscreteDirectivitySphereTest {
 
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testPrecomputedGrid() {
+        DiscreteDirectivitySphere d = new DiscreteDirectivitySphere(1, freqTest);
+
+        RailwayCnossosDirectivitySphere att = new RailwayCnossosDirectivitySphere(new LineSource("TRACTIONB"));
+
+        for (int yaw = 0; yaw < 360; yaw += 5) {
+            float phi = (float) Math.toRadians(yaw);
+            for (int pitch = -85; pitch < 90; pitch += 5) {
+                float theta = (float) Math.toRadians(pitch);
+                d.addDirectivityRecord(theta, phi, att.getAttenuationArray(freqTest, phi, theta));
+            }
+        }
+        double[][] angles = new double[][] {{31, 26}, {2, 12}, {358, -40}, {181, 3}, {90, 80}, {270, -60}};
+        double[][] expected = new double[angles.length][];
+        for (int i = 0; i < angles.length; i++) {
+            expected[i] = d.getAttenuationArray(freqTest, Math.toRadians(angles[i][0]), Math.toRadians(angles[i][1]));
+        }
+        d.precomputeGrid(Math.toRadians(1));
+        assertTrue(d.isGridPrecomputed());
+        int[] frequencyIndexes = d.getFrequencyIndexes(freqTest);
+        double[] attenuation = new double[freqTest.length];
+        for (int i = 0; i < angles.length; i++) {
+            assertArrayEquals(expected[i], d.getAttenuationArray(freqTest, Math.toRadians(angles[i][0]),
+                    Math.toRadians(angles[i][1])), 0.1);
+            d.getAttenuationArray(frequencyIndexes, Math.toRadians(angles[i][0]), Math.toRadians(angles[i][1]),
+                    attenuation);
+            assertArrayEquals(expected[i], attenuation, 0.1);
+        }
+        // same angle with a phi outside of (0 2π)
+        assertArrayEquals(expected[2], d.getAttenuationArray(freqTest, Math.toRadians(-2), Math.toRadians(-40)),
+                0.1);
+
+        // adding records discard the grid
+        d.addDirectivityRecord(Math.toRadians(87), 0, new double[freqTest.length]);
+        assertFalse(d.isGridPrecomputed());
+    }
+
+    @Test
+    public void testSampleDirectivitySphere() {
+        RailwayCnossosDirectivitySphere att = new RailwayCnossosDirectivitySphere(new LineSource("TRACTIONB"));
+        DiscreteDirectivitySphere d = DiscreteDirectivitySphere.sampleDirectivitySphere(1, att, freqTest,
+                Math.toRadians(2));
+        assertTrue(d.isGridPrecomputed());
+        for (int yaw = 0; yaw < 360; yaw += 7) {
+            for (int pitch = -84; pitch < 90; pitch += 7) {
+                double phi = Math.toRadians(yaw);
+                double theta = Math.toRadians(pitch);
+                assertArrayEquals(att.getAttenuationArray(freqTest, phi, theta),
+                        d.getAttenuationArray(freqTest, phi, theta), 0.2);
+            }
+        }
+    }
+
+}
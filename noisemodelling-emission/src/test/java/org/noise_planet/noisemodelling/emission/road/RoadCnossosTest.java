@@ -11,6 +11,9 @@ package org.noise_planet.noisemodelling.emission.road;
 import org.noise_planet.noisemodelling.emission.road.cnossos.RoadCnossos;
 import org.noise_planet.noisemodelling.emission.road.cnossos.RoadCnossosParameters;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
 import org.junit.jupiter.api.Test;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
@@ -246,4 +249,74 @@ public class RoadCnossosTest {
             assertThrows(IOException.class, () -> RoadCnossos.evaluate(rsParameters));
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testBatchEvaluate() throws IOException {
+        List<RoadCnossosParameters> segments = new ArrayList<>();
+        String[] surfaces = new String[]{"NL01", "NL05", "FR_R2", "DEF"};
+        for (int idSegment = 0; idSegment < surfaces.length * 2; idSegment++) {
+            RoadCnossosParameters rsParameters = new RoadCnossosParameters(30 + idSegment * 10, 40, 45, 35, 50,
+                    1000 - idSegment * 50, 100, 50 + idSegment, 10, 20, 0, 15, surfaces[idSegment % surfaces.length],
+                    4, 0.5, 20 * idSegment, 1 + idSegment % 2);
+            rsParameters.setSlopePercentage(idSegment - 4);
+            rsParameters.setWay(1 + idSegment % 3);
+            rsParameters.setFileVersion(1 + idSegment % 2);
+            segments.add(rsParameters);
+        }
+        double[][] levels = RoadCnossos.evaluate(segments, FREQUENCIES);
+        for (int idSegment = 0; idSegment < segments.size(); idSegment++) {
+            RoadCnossosParameters rsParameters = segments.get(idSegment);
+            for (int idFreq = 0; idFreq < FREQUENCIES.length; idFreq++) {
+                rsParameters.setFrequency(FREQUENCIES[idFreq]);
+                assertEquals(RoadCnossos.evaluate(rsParameters), levels[idSegment][idFreq], 1e-12);
+            }
+        }
+    }
+
+    @Test
+    public void testCompiledCoefficients() throws IOException {
+        assertEquals(83.1, RoadCnossos.getCoeff("ar", 63, "1", 2), 1e-12);
+        assertEquals(12.0, RoadCnossos.getCoeff("bp", 8000, "4b", 2), 1e-12);
+        assertEquals(-4.4, RoadCnossos.getCr("1", 2, 2), 1e-12);
+        assertEquals(5.5, RoadCnossos.getCp("1", 1, 1), 1e-12);
+        assertEquals(5.4, RoadCnossos.getA_RoadSurfaceCoeff(125, "1", "NL01", 2), 1e-12);
+        assertEquals(-6.5, RoadCnossos.getB_RoadSurfaceCoeff("1", "NL01", 2), 1e-12);
+        assertThrows(IOException.class, () -> RoadCnossos.getA_RoadSurfaceCoeff(125, "1", "wrongPavement", 2));
+        assertThrows(IllegalArgumentException.class, () -> RoadCnossos.getB_RoadSurfaceCoeff("1", "wrongPavement", 2));
+    }
+
+    /**
+     * Reference values read in RoadCnossos_2015.json and RoadCnossos_2020.json
+     */
+    @Test
+    public void testCompiledCoefficientsReferenceValues() throws IOException {
+        // vehicle coefficients
+        assertEquals(87.0, RoadCnossos.getCoeff("ar", 63, "3", 1), 1e-12);
+        assertEquals(91.7, RoadCnossos.getCoeff("ar", 63, "3", 2), 1e-12);
+        assertEquals(31.8, RoadCnossos.getCoeff("br", 1000, "3", 2), 1e-12);
+        assertEquals(101.7, RoadCnossos.getCoeff("ap", 250, "3", 1), 1e-12);
+        assertEquals(87.5, RoadCnossos.getCoeff("ap", 8000, "3", 2), 1e-12);
+        assertEquals(4.6, RoadCnossos.getCoeff("bp", 250, "3", 2), 1e-12);
+        // intersections
+        assertEquals(-2.3, RoadCnossos.getCr("3", 2, 1), 1e-12);
+        assertEquals(6.7, RoadCnossos.getCp("3", 2, 2), 1e-12);
+        assertEquals(-4.0, RoadCnossos.getCr("2", 1, 2), 1e-12);
+        assertEquals(9, RoadCnossos.getCp("2", 1, 1), 1e-12);
+        // road surfaces
+        assertEquals(3.3, RoadCnossos.getA_RoadSurfaceCoeff(125, "1", "NL01", 1), 1e-12);
+        assertEquals(-1.3, RoadCnossos.getA_RoadSurfaceCoeff(1000, "1", "NL01", 1), 1e-12);
+        assertEquals(9.3, RoadCnossos.getA_RoadSurfaceCoeff(63, "3", "NL01", 2), 1e-12);
+        assertEquals(20.6, RoadCnossos.getA_RoadSurfaceCoeff(63, "2", "FR_R2", 1), 1e-12);
+        assertEquals(5.8, RoadCnossos.getA_RoadSurfaceCoeff(8000, "3", "FR_R2", 2), 1e-12);
+        assertEquals(-7.1, RoadCnossos.getA_RoadSurfaceCoeff(2000, "1", "NL14", 1), 1e-12);
+        assertEquals(13.8, RoadCnossos.getA_RoadSurfaceCoeff(63, "2", "NL14", 2), 1e-12);
+        assertEquals(0, RoadCnossos.getA_RoadSurfaceCoeff(500, "4a", "FR_R2", 2), 1e-12);
+        assertEquals(-1.0, RoadCnossos.getB_RoadSurfaceCoeff("1", "NL05", 1), 1e-12);
+        assertEquals(-1.4, RoadCnossos.getB_RoadSurfaceCoeff("1", "NL05", 2), 1e-12);
+        assertEquals(3.5, RoadCnossos.getB_RoadSurfaceCoeff("3", "FR_R2", 1), 1e-12);
+        assertEquals(-1.2, RoadCnossos.getB_RoadSurfaceCoeff("2", "FR_R2", 2), 1e-12);
+        assertEquals(-1.5, RoadCnossos.getB_RoadSurfaceCoeff("1", "NL14", 1), 1e-12);
+        assertEquals(-1.8, RoadCnossos.getB_RoadSurfaceCoeff("1", "NL14", 2), 1e-12);
+        assertEquals(0, RoadCnossos.getB_RoadSurfaceCoeff("5", "DEF", 2), 1e-12);
+    }
+}
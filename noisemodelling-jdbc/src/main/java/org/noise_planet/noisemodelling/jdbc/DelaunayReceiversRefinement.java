@@ -0,0 +1,492 @@
+/**
+ * NoiseModelling is a library capable of producing noise maps. It can be freely used either for research and education, as well as by experts in a professional use.
+ * <p>
+ * NoiseModelling is distributed under GPL 3 license. You can read a copy of this License in the file LICENCE provided with this software.
+ * <p>
+ * Official webpage : http://noise-planet.org/noisemodelling.html
+ * Contact: contact@noise-planet.org
+ */
+
+package org.noise_planet.noisemodelling.jdbc;
+
+import org.h2gis.utilities.JDBCUtilities;
+import org.h2gis.utilities.SpatialResultSet;
+import org.h2gis.utilities.TableLocation;
+import org.h2gis.utilities.dbtypes.DBTypes;
+import org.h2gis.utilities.dbtypes.DBUtils;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.PrecisionModel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.h2gis.utilities.GeometryTableUtilities.getSRID;
+
+/**
+ * Adaptive refinement of the receivers generated by {@link DelaunayReceiversMaker}.
+ * The triangles where the level difference between the vertices exceed a threshold are split, the new receivers are
+ * placed at the middle of the split edges. Only the new receivers are computed at each iteration, until no triangle
+ * need to be split. Flat areas keep the coarse mesh while the areas with strong level variations (near the sources,
+ * behind buildings) are refined, the iso surfaces are computed from the refined triangle table.
+ * The triangles are split by longest edge bisection, the neighbor triangles are also split in order to keep a
+ * conforming mesh. The new triangles are inside the split triangle, so the building constraints of the original mesh
+ * are preserved.
+ * @author Nicolas Fortin, Université Gustave Eiffel
+ */
+public class DelaunayReceiversRefinement {
+    private static final int BATCH_MAX_SIZE = 100;
+    private final Logger logger = LoggerFactory.getLogger(DelaunayReceiversRefinement.class);
+    private final String receiversTableName;
+    private final String trianglesTableName;
+    private final String levelsTableName;
+    private double levelThreshold = 3;
+    private double minimumArea = 10;
+    private int maximumIterations = 5;
+    private String levelField = "LAEQ";
+    private String period = "";
+    private boolean verbose = true;
+
+    /**
+     * Computation of the levels of the receivers
+     */
+    public interface ReceiversLevelComputation {
+        /**
+         * @param connection Active connection
+         * @param receiversTableName Receivers to compute
+         * @param levelsTableName Table to create with the levels of the receivers
+         * @throws SQLException If an SQL exception occurs
+         */
+        void compute(Connection connection, String receiversTableName, String levelsTableName) throws SQLException;
+    }
+
+    /**
+     * @param receiversTableName Receivers table with PK and THE_GEOM fields
+     * @param trianglesTableName Triangles table with PK, PK_1, PK_2, PK_3 and CELL_ID fields
+     * @param levelsTableName Levels of the receivers with IDRECEIVER and the level field
+     */
+    public DelaunayReceiversRefinement(String receiversTableName, String trianglesTableName, String levelsTableName) {
+        this.receiversTableName = receiversTableName;
+        this.trianglesTableName = trianglesTableName;
+        this.levelsTableName = levelsTableName;
+    }
+
+    /**
+     * @return A triangle is split if the level difference between two of its vertices is greater than this value (dB)
+     */
+    public double getLevelThreshold() {
+        return levelThreshold;
+    }
+
+    /**
+     * @param levelThreshold A triangle is split if the level difference between two of its vertices is greater than
+     *                       this value (dB)
+     */
+    public void setLevelThreshold(double levelThreshold) {
+        this.levelThreshold = levelThreshold;
+    }
+
+    /**
+     * @return Triangles are not split into triangles smaller than this area (m²)
+     */
+    public double getMinimumArea() {
+        return minimumArea;
+    }
+
+    /**
+     * @param minimumArea Triangles are not split into triangles smaller than this area (m²)
+     */
+    public void setMinimumArea(double minimumArea) {
+        this.minimumArea = minimumArea;
+    }
+
+    /**
+     * @return Maximum number of refinement iterations
+     */
+    public int getMaximumIterations() {
+        return maximumIterations;
+    }
+
+    /**
+     * @param maximumIterations Maximum number of refinement iterations
+     */
+    public void setMaximumIterations(int maximumIterations) {
+        this.maximumIterations = maximumIterations;
+    }
+
+    /**
+     * @return Field of the levels table used to compare the vertices
+     */
+    public String getLevelField() {
+        return levelField;
+    }
+
+    /**
+     * @param levelField Field of the levels table used to compare the vertices
+     */
+    public void setLevelField(String levelField) {
+        this.levelField = levelField;
+    }
+
+    /**
+     * @return Period of the levels table used to compare the vertices, empty for all the periods
+     */
+    public String getPeriod() {
+        return period;
+    }
+
+    /**
+     * @param period Period of the levels table used to compare the vertices, empty for all the periods
+     */
+    public void setPeriod(String period) {
+        this.period = period;
+    }
+
+    public boolean isVerbose() {
+        return verbose;
+    }
+
+    public void setVerbose(boolean verbose) {
+        this.verbose = verbose;
+    }
+
+    /**
+     * Compute the levels of the receivers, then refine the mesh and compute the new receivers until the mesh does
+     * not change or the maximum number of iterations is reached. The levels of the new receivers are appended to the
+     * levels table.
+     * @param connection Active connection
+     * @param computation Computation of the levels of a receivers table
+     * @param computeInitialLevels True to compute the levels of the receivers table first, false if the levels table
+     *                             is already computed
+     * @return Number of receivers added to the receivers table
+     * @throws SQLException If an SQL exception occurs
+     */
+    public int run(Connection connection, ReceiversLevelComputation computation, boolean computeInitialLevels)
+            throws SQLException {
+        DBTypes dbType = DBUtils.getDBType(connection.unwrap(Connection.class));
+        if(computeInitialLevels) {
+            computation.compute(connection, receiversTableName, levelsTableName);
+        }
+        String newReceiversTable = TableLocation.parse(receiversTableName + "_REFINED", dbType).toString();
+        String newLevelsTable = TableLocation.parse(levelsTableName + "_REFINED", dbType).toString();
+        int addedReceivers = 0;
+        for(int iteration = 0; iteration < maximumIterations; iteration++) {
+            int newReceivers = refine(connection, newReceiversTable);
+            if(verbose) {
+                logger.info("Refinement iteration {}, {} new receivers", iteration + 1, newReceivers);
+            }
+            if(newReceivers == 0) {
+                break;
+            }
+            addedReceivers += newReceivers;
+            computation.compute(connection, newReceiversTable, newLevelsTable);
+            try(Statement st = connection.createStatement()) {
+                st.execute("INSERT INTO " + TableLocation.parse(levelsTableName, dbType) + " SELECT * FROM " +
+                        newLevelsTable);
+                st.execute("DROP TABLE IF EXISTS " + newLevelsTable + ", " + newReceiversTable);
+            }
+        }
+        return addedReceivers;
+    }
+
+    /**
+     * Split the triangles where the level difference exceed the threshold
+     * @param connection Active connection
+     * @param newReceiversTableName Table to create with the new receivers, they are also added to the receivers table
+     * @return Number of new receivers
+     * @throws SQLException If an SQL exception occurs
+     */
+    public int refine(Connection connection, String newReceiversTableName) throws SQLException {
+        DBTypes dbType = DBUtils.getDBType(connection.unwrap(Connection.class));
+        TableLocation receiversTable = TableLocation.parse(receiversTableName, dbType);
+        TableLocation trianglesTable = TableLocation.parse(trianglesTableName, dbType);
+        TableLocation newReceiversTable = TableLocation.parse(newReceiversTableName, dbType);
+        int srid = getSRID(connection, receiversTable);
+        GeometryFactory geometryFactory = new GeometryFactory(new PrecisionModel(), srid);
+
+        // Fetch the mesh
+        Map<Integer, Coordinate> vertices = new HashMap<>();
+        int nextPk = 0;
+        try(Statement st = connection.createStatement();
+            SpatialResultSet rs = st.executeQuery("SELECT PK, THE_GEOM FROM " + receiversTable)
+                    .unwrap(SpatialResultSet.class)) {
+            while (rs.next()) {
+                int pk = rs.getInt(1);
+                vertices.put(pk, rs.getGeometry(2).getCoordinate());
+                nextPk = Math.max(nextPk, pk + 1);
+            }
+        }
+        List<int[]> triangles = new ArrayList<>();
+        try(Statement st = connection.createStatement();
+            ResultSet rs = st.executeQuery("SELECT PK, PK_1, PK_2, PK_3, CELL_ID FROM " + trianglesTable)) {
+            while (rs.next()) {
+                triangles.add(new int[]{rs.getInt(1), rs.getInt(2), rs.getInt(3), rs.getInt(4), rs.getInt(5)});
+            }
+        }
+        Map<Long, Map<String, Double>> levels = fetchLevels(connection, dbType);
+
+        // Mark the longest edge of the triangles to split, then mark the longest edges of the neighbor triangles
+        // until all the triangles with a split edge have their longest edge split
+        Map<Long, List<Integer>> edgeTriangles = new HashMap<>();
+        for(int idTriangle = 0; idTriangle < triangles.size(); idTriangle++) {
+            int[] triangle = triangles.get(idTriangle);
+            for(int vertex = 0; vertex < 3; vertex++) {
+                edgeTriangles.computeIfAbsent(edgeKey(triangle[1 + vertex], triangle[1 + (vertex + 1) % 3]),
+                        k -> new ArrayList<>(2)).add(idTriangle);
+            }
+        }
+        Map<Long, Integer> splitEdges = new HashMap<>();
+        Deque<Long> newSplitEdges = new ArrayDeque<>();
+        for(int[] triangle : triangles) {
+            if(isRefinementNeeded(triangle, vertices, levels)) {
+                long longestEdge = getLongestEdge(triangle, vertices);
+                if(!splitEdges.containsKey(longestEdge)) {
+                    splitEdges.put(longestEdge, -1);
+                    newSplitEdges.add(longestEdge);
+                }
+            }
+        }
+        while (!newSplitEdges.isEmpty()) {
+            long edge = newSplitEdges.removeFirst();
+            for(int idTriangle : edgeTriangles.get(edge)) {
+                long longestEdge = getLongestEdge(triangles.get(idTriangle), vertices);
+                if(!splitEdges.containsKey(longestEdge)) {
+                    splitEdges.put(longestEdge, -1);
+                    newSplitEdges.add(longestEdge);
+                }
+            }
+        }
+        if(splitEdges.isEmpty()) {
+            return 0;
+        }
+
+        // Create the receivers at the middle of the split edges
+        List<Integer> newVerticesPk = new ArrayList<>(splitEdges.size());
+        for(Map.Entry<Long, Integer> entry : splitEdges.entrySet()) {
+            Coordinate a = vertices.get((int) (entry.getKey() >> 32));
+            Coordinate b = vertices.get((int) (long) entry.getKey());
+            vertices.put(nextPk, new Coordinate((a.x + b.x) / 2, (a.y + b.y) / 2, (a.z + b.z) / 2));
+            entry.setValue(nextPk);
+            newVerticesPk.add(nextPk);
+            nextPk++;
+        }
+
+        // Split the triangles
+        List<Integer> removedTriangles = new ArrayList<>();
+        List<int[]> newTriangles = new ArrayList<>();
+        for(int[] triangle : triangles) {
+            List<int[]> subTriangles = new ArrayList<>();
+            splitTriangle(new int[]{triangle[1], triangle[2], triangle[3]}, vertices, splitEdges, subTriangles);
+            if(subTriangles.size() > 1) {
+                removedTriangles.add(triangle[0]);
+                for(int[] subTriangle : subTriangles) {
+                    newTriangles.add(new int[]{subTriangle[0], subTriangle[1], subTriangle[2], triangle[4]});
+                }
+            }
+        }
+
+        // Update the tables
+        try(Statement st = connection.createStatement()) {
+            st.execute("DROP TABLE IF EXISTS " + newReceiversTable);
+            st.execute("CREATE TABLE " + newReceiversTable + "(PK INTEGER NOT NULL, THE_GEOM GEOMETRY(POINTZ, " +
+                    srid + ") NOT NULL, PRIMARY KEY(PK))");
+        }
+        for(TableLocation table : new TableLocation[]{receiversTable, newReceiversTable}) {
+            try(PreparedStatement ps = connection.prepareStatement("INSERT INTO " + table +
+                    "(PK, THE_GEOM) VALUES (?, ?)")) {
+                int batchSize = 0;
+                for(int pk : newVerticesPk) {
+                    ps.setInt(1, pk);
+                    ps.setObject(2, geometryFactory.createPoint(vertices.get(pk)));
+                    ps.addBatch();
+                    batchSize++;
+                    if (batchSize >= BATCH_MAX_SIZE) {
+                        ps.executeBatch();
+                        ps.clearBatch();
+                        batchSize = 0;
+                    }
+                }
+                if (batchSize > 0) {
+                    ps.executeBatch();
+                }
+            }
+        }
+        try(PreparedStatement ps = connection.prepareStatement("DELETE FROM " + trianglesTable + " WHERE PK = ?")) {
+            int batchSize = 0;
+            for(int pk : removedTriangles) {
+                ps.setInt(1, pk);
+                ps.addBatch();
+                batchSize++;
+                if (batchSize >= BATCH_MAX_SIZE) {
+                    ps.executeBatch();
+                    ps.clearBatch();
+                    batchSize = 0;
+                }
+            }
+            if (batchSize > 0) {
+                ps.executeBatch();
+            }
+        }
+        boolean exportTrianglesGeometries = JDBCUtilities.hasField(connection, trianglesTable.toString(), "THE_GEOM");
+        PreparedStatement ps;
+        if(exportTrianglesGeometries) {
+            ps = connection.prepareStatement("INSERT INTO " + trianglesTable + "(the_geom, PK_1, PK_2, PK_3, CELL_ID) VALUES (?, ?, ?, ?, ?);");
+        } else {
+            ps = connection.prepareStatement("INSERT INTO " + trianglesTable + "(PK_1, PK_2, PK_3, CELL_ID) VALUES (?, ?, ?, ?);");
+        }
+        try {
+            int batchSize = 0;
+            for(int[] t : newTriangles) {
+                int rowIndex = 1;
+                if(exportTrianglesGeometries) {
+                    ps.setObject(rowIndex++, geometryFactory.createPolygon(new Coordinate[]{vertices.get(t[0]),
+                            vertices.get(t[1]), vertices.get(t[2]), vertices.get(t[0])}));
+                }
+                ps.setInt(rowIndex++, t[0]);
+                ps.setInt(rowIndex++, t[1]);
+                ps.setInt(rowIndex++, t[2]);
+                ps.setInt(rowIndex, t[3]);
+                ps.addBatch();
+                batchSize++;
+                if (batchSize >= BATCH_MAX_SIZE) {
+                    ps.executeBatch();
+                    ps.clearBatch();
+                    batchSize = 0;
+                }
+            }
+            if (batchSize > 0) {
+                ps.executeBatch();
+            }
+        } finally {
+            ps.close();
+        }
+        return newVerticesPk.size();
+    }
+
+    /**
+     * @return Levels of each receiver by period, the period is empty if the levels table has no PERIOD field
+     */
+    private Map<Long, Map<String, Double>> fetchLevels(Connection connection, DBTypes dbType) throws SQLException {
+        TableLocation levelsTable = TableLocation.parse(levelsTableName, dbType);
+        boolean filterPeriod = !period.isEmpty();
+        boolean hasPeriod = JDBCUtilities.hasField(connection, levelsTable.toString(), "PERIOD");
+        String query = "SELECT IDRECEIVER, " + TableLocation.quoteIdentifier(levelField, dbType) +
+                (hasPeriod ? ", PERIOD" : "") + " FROM " + levelsTable + (filterPeriod ? " WHERE PERIOD = ?" : "");
+        Map<Long, Map<String, Double>> levels = new HashMap<>();
+        try(PreparedStatement st = connection.prepareStatement(query)) {
+            if(filterPeriod) {
+                st.setString(1, period);
+            }
+            try(ResultSet rs = st.executeQuery()) {
+                while (rs.next()) {
+                    String levelPeriod = hasPeriod ? rs.getString(3) : "";
+                    levels.computeIfAbsent(rs.getLong(1), k -> new HashMap<>()).put(
+                            levelPeriod == null ? "" : levelPeriod, rs.getDouble(2));
+                }
+            }
+        }
+        return levels;
+    }
+
+    private static long edgeKey(int pk1, int pk2) {
+        return (((long) Math.min(pk1, pk2)) << 32) | (Math.max(pk1, pk2) & 0xFFFFFFFFL);
+    }
+
+    private static double area(Coordinate a, Coordinate b, Coordinate c) {
+        return Math.abs((b.x - a.x) * (c.y - a.y) - (c.x - a.x) * (b.y - a.y)) / 2;
+    }
+
+    /**
+     * @return True if the levels of the vertices are too different and the split triangles are not too small
+     */
+    private boolean isRefinementNeeded(int[] triangle, Map<Integer, Coordinate> vertices,
+                                       Map<Long, Map<String, Double>> levels) {
+        if(area(vertices.get(triangle[1]), vertices.get(triangle[2]), vertices.get(triangle[3])) / 2 < minimumArea) {
+            return false;
+        }
+        Map<String, Double> levelsA = levels.get((long) triangle[1]);
+        Map<String, Double> levelsB = levels.get((long) triangle[2]);
+        Map<String, Double> levelsC = levels.get((long) triangle[3]);
+        if(levelsA == null || levelsB == null || levelsC == null) {
+            return false;
+        }
+        // compare the levels of the same period
+        for(Map.Entry<String, Double> levelA : levelsA.entrySet()) {
+            Double levelB = levelsB.get(levelA.getKey());
+            Double levelC = levelsC.get(levelA.getKey());
+            if(levelB == null || levelC == null) {
+                continue;
+            }
+            double a = levelA.getValue();
+            double b = levelB;
+            double c = levelC;
+            if(Math.max(a, Math.max(b, c)) - Math.min(a, Math.min(b, c)) > levelThreshold) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static long getLongestEdge(int[] triangle, Map<Integer, Coordinate> vertices) {
+        long longestEdge = 0;
+        double longestLength = -1;
+        for(int vertex = 0; vertex < 3; vertex++) {
+            int pk1 = triangle[1 + vertex];
+            int pk2 = triangle[1 + (vertex + 1) % 3];
+            double length = vertices.get(pk1).distance(vertices.get(pk2));
+            // tie break with the key in order to have the same choice in both triangles sharing the edge
+            long key = edgeKey(pk1, pk2);
+            if(length > longestLength || (length == longestLength && key < longestEdge)) {
+                longestLength = length;
+                longestEdge = key;
+            }
+        }
+        return longestEdge;
+    }
+
+    /**
+     * Split a triangle on its longest split edge, then split the two sub-triangles on their remaining split edge.
+     * The vertex order of the triangle is kept in the sub-triangles.
+     * @param triangle Vertices primary keys
+     * @param vertices Vertices positions
+     * @param splitEdges Split edges with the primary key of the middle vertex
+     * @param subTriangles (Out) triangles that do not contain a split edge
+     */
+    private static void splitTriangle(int[] triangle, Map<Integer, Coordinate> vertices,
+                                      Map<Long, Integer> splitEdges, List<int[]> subTriangles) {
+        int splitVertex = -1;
+        double longestLength = -1;
+        for(int vertex = 0; vertex < 3; vertex++) {
+            int pk1 = triangle[vertex];
+            int pk2 = triangle[(vertex + 1) % 3];
+            if(splitEdges.containsKey(edgeKey(pk1, pk2))) {
+                double length = vertices.get(pk1).distance(vertices.get(pk2));
+                if(length > longestLength) {
+                    longestLength = length;
+                    splitVertex = vertex;
+                }
+            }
+        }
+        if(splitVertex == -1) {
+            subTriangles.add(triangle);
+            return;
+        }
+        int a = triangle[splitVertex];
+        int b = triangle[(splitVertex + 1) % 3];
+        int c = triangle[(splitVertex + 2) % 3];
+        int middle = splitEdges.get(edgeKey(a, b));
+        splitTriangle(new int[]{a, middle, c}, vertices, splitEdges, subTriangles);
+        splitTriangle(new int[]{middle, b, c}, vertices, splitEdges, subTriangles);
+    }
+}
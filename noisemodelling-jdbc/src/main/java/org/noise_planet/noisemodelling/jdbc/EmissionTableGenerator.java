@@ -21,6 +21,7 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
@@ -33,6 +34,7 @@ import static org.noise_planet.noisemodelling.pathfinder.utils.AcousticIndicator
  */
 public class EmissionTableGenerator {
     public static final List<Integer> roadOctaveFrequencyBands = Arrays.asList(AcousticIndicatorsFunctions.asOctaveBands(ProfileBuilder.DEFAULT_FREQUENCIES_THIRD_OCTAVE));
+    private static final int[] ROAD_OCTAVE_FREQUENCIES = roadOctaveFrequencyBands.stream().mapToInt(Integer::intValue).toArray();
     public static final String DEN_PERIOD = "DEN";
 
     public enum STANDARD_PERIOD {DAY, EVENING, NIGHT}
@@ -66,6 +68,27 @@ public class EmissionTableGenerator {
      * @return Emission spectrum in dB
      */
     public static double[] getEmissionFromTrafficTable(ResultSet rs, String period, double slope, int coefficientVersion, Map<String, Integer> sourceFieldsCache) throws SQLException {
+        RoadCnossosParameters rsParametersCnossos = getTrafficParameters(rs, period, slope, coefficientVersion,
+                sourceFieldsCache);
+        try {
+            return RoadCnossos.evaluate(rsParametersCnossos, ROAD_OCTAVE_FREQUENCIES);
+        } catch (IOException ex) {
+            throw new SQLException(ex);
+        }
+    }
+
+    /**
+     * Read the road traffic parameters for the specified period from the given result set.
+     * The emission can then be evaluated later, without the result set, using {@link RoadCnossos}
+     * @param rs result set of source
+     * @param period optional column name to add after attribute fields _D or _E or _N
+     * @param slope Default, gradient percentage of road from -12 % to 12 %
+     * @param coefficientVersion Cnossos coefficient version  (1 = 2015, 2 = 2020)
+     * @param sourceFieldsCache SQL Fields cache
+     * @return Road traffic parameters
+     * @throws SQLException If error occurred
+     */
+    public static RoadCnossosParameters getTrafficParameters(ResultSet rs, String period, double slope, int coefficientVersion, Map<String, Integer> sourceFieldsCache) throws SQLException {
         cacheFields(sourceFieldsCache, rs);
         // Set default values
         double tv = 0; // old format "total vehicles"
@@ -166,23 +189,20 @@ public class EmissionTableGenerator {
         if(hv > 0) {
             hgvPerHour = hv;
         }
-        // Compute emission
-        double[] lvl = new double[roadOctaveFrequencyBands.size()];
-        for (int idFreq = 0; idFreq < roadOctaveFrequencyBands.size(); idFreq++) {
-            int freq = roadOctaveFrequencyBands.get(idFreq);
-            RoadCnossosParameters rsParametersCnossos = new RoadCnossosParameters(lv_speed, mv_speed, hgv_speed, wav_speed,
-                    wbv_speed, lvPerHour, mvPerHour, hgvPerHour, wavPerHour, wbvPerHour, freq, temperature,
-                    roadSurface, tsStud, pmStud, junctionDistance, junctionType);
-            rsParametersCnossos.setSlopePercentage(slope);
-            rsParametersCnossos.setWay(way);
-            rsParametersCnossos.setFileVersion(coefficientVersion);
-            try {
-                lvl[idFreq] = RoadCnossos.evaluate(rsParametersCnossos);
-            } catch (IOException ex) {
-                throw new SQLException(ex);
-            }
-        }
-        return lvl;
+        RoadCnossosParameters rsParametersCnossos = new RoadCnossosParameters(lv_speed, mv_speed, hgv_speed, wav_speed,
+                wbv_speed, lvPerHour, mvPerHour, hgvPerHour, wavPerHour, wbvPerHour, 0, temperature,
+                roadSurface, tsStud, pmStud, junctionDistance, junctionType);
+        rsParametersCnossos.setSlopePercentage(slope);
+        rsParametersCnossos.setWay(way);
+        rsParametersCnossos.setFileVersion(coefficientVersion);
+        return rsParametersCnossos;
+    }
+
+    /**
+     * @return Octave bands frequencies of the road emission spectrum
+     */
+    public static int[] getRoadOctaveFrequencies() {
+        return ROAD_OCTAVE_FREQUENCIES.clone();
     }
 
     /**
@@ -253,6 +273,34 @@ public class EmissionTableGenerator {
      */
     public static void makeTrainLWTable(Connection connection, String railSectionTableName, String railTrafficTableName, String outputTable, String frequencyPrepend) throws SQLException {
 
+        String insertIntoQuery = createTrainLWTable(connection, outputTable, frequencyPrepend);
+
+        // Get Class to compute HZ
+        RailWayLWIterator railWayLWIterator = new RailWayLWIterator(connection,railSectionTableName, railTrafficTableName);
+
+        try (PreparedStatement ps = connection.prepareStatement(insertIntoQuery)) {
+            while (railWayLWIterator.hasNext()) {
+                RailWayLWGeom railWayLWGeom = railWayLWIterator.next();
+                for (TrainSourceRow row : computeTrainSourceRows(railWayLWGeom, railWayLWGeom.getRailWayLWGeometry())) {
+                    row.addBatch(ps);
+                }
+                ps.executeBatch();
+            }
+        }
+
+        // Add primary key to the LW table
+        addTrainLWPrimaryKey(connection, outputTable);
+    }
+
+    /**
+     * Drop and create the railway emission table
+     * @param connection Database connection
+     * @param outputTable Output table name
+     * @param frequencyPrepend Prepend to frequency columns (e.g. "HZ_")
+     * @return Insert query of the railway emission table
+     * @throws SQLException If error occurred
+     */
+    static String createTrainLWTable(Connection connection, String outputTable, String frequencyPrepend) throws SQLException {
         // drop table LW_RAILWAY if exists and the create and prepare the table
         connection.createStatement().execute("drop table if exists " + outputTable);
 
@@ -262,29 +310,15 @@ public class EmissionTableGenerator {
         StringBuilder insertIntoQuery = new StringBuilder("INSERT INTO "+outputTable+"(PK_SECTION, the_geom," +
                 " DIR_ID, GS");
         StringBuilder insertIntoValuesQuery = new StringBuilder("?,?,?,?");
-        for(int thirdOctave : ProfileBuilder.DEFAULT_FREQUENCIES_THIRD_OCTAVE) {
-            createTableQuery.append(", ").append(frequencyPrepend).append("D");
-            createTableQuery.append(thirdOctave);
-            createTableQuery.append(" double precision");
-            insertIntoQuery.append(", ").append(frequencyPrepend).append("D");
-            insertIntoQuery.append(thirdOctave);
-            insertIntoValuesQuery.append(", ?");
-        }
-        for(int thirdOctave : ProfileBuilder.DEFAULT_FREQUENCIES_THIRD_OCTAVE) {
-            createTableQuery.append(", ").append(frequencyPrepend).append("E");
-            createTableQuery.append(thirdOctave);
-            createTableQuery.append(" double precision");
-            insertIntoQuery.append(", ").append(frequencyPrepend).append("E");
-            insertIntoQuery.append(thirdOctave);
-            insertIntoValuesQuery.append(", ?");
-        }
-        for(int thirdOctave : ProfileBuilder.DEFAULT_FREQUENCIES_THIRD_OCTAVE) {
-            createTableQuery.append(", ").append(frequencyPrepend).append("N");
-            createTableQuery.append(thirdOctave);
-            createTableQuery.append(" double precision");
-            insertIntoQuery.append(", ").append(frequencyPrepend).append("N");
-            insertIntoQuery.append(thirdOctave);
-            insertIntoValuesQuery.append(", ?");
+        for(String period : STANDARD_PERIOD_VALUE) {
+            for (int thirdOctave : ProfileBuilder.DEFAULT_FREQUENCIES_THIRD_OCTAVE) {
+                createTableQuery.append(", ").append(frequencyPrepend).append(period);
+                createTableQuery.append(thirdOctave);
+                createTableQuery.append(" double precision");
+                insertIntoQuery.append(", ").append(frequencyPrepend).append(period);
+                insertIntoQuery.append(thirdOctave);
+                insertIntoValuesQuery.append(", ?");
+            }
         }
 
         createTableQuery.append(")");
@@ -292,107 +326,146 @@ public class EmissionTableGenerator {
         insertIntoQuery.append(insertIntoValuesQuery);
         insertIntoQuery.append(")");
         connection.createStatement().execute(createTableQuery.toString());
+        return insertIntoQuery.toString();
+    }
 
-        // Get Class to compute HZ
-        RailWayLWIterator railWayLWIterator = new RailWayLWIterator(connection,railSectionTableName, railTrafficTableName);
-
-        while (railWayLWIterator.hasNext()) {
-            RailWayLWGeom railWayLWGeom = railWayLWIterator.next();
-
-            RailWayParameters railWayLWDay = railWayLWGeom.getRailWayLWDay();
-            RailWayParameters railWayLWEvening = railWayLWGeom.getRailWayLWEvening();
-            RailWayParameters railWayLWNight = railWayLWGeom.getRailWayLWNight();
-            List<LineString> geometries = railWayLWGeom.getRailWayLWGeometry();
-
-            int pk = railWayLWGeom.getPK();
-            double[] LWDay = new double[ProfileBuilder.DEFAULT_FREQUENCIES_THIRD_OCTAVE.length];
-            double[] LWEvening = new double[ProfileBuilder.DEFAULT_FREQUENCIES_THIRD_OCTAVE.length];
-            double[] LWNight = new double[ProfileBuilder.DEFAULT_FREQUENCIES_THIRD_OCTAVE.length];
-            Arrays.fill(LWDay, -99.00);
-            Arrays.fill(LWEvening, -99.00);
-            Arrays.fill(LWNight, -99.00);
-            double heightSource = 0;
-            int directivityId = 0;
-            boolean day = (!railWayLWDay.getRailwaySourceList().isEmpty());
-            boolean evening = (!railWayLWEvening.getRailwaySourceList().isEmpty());
-            boolean night = (!railWayLWNight.getRailwaySourceList().isEmpty());
-            for (int iSource = 0; iSource < 6; iSource++) {
-
-                heightSource = 0;
-                switch (iSource) {
-                    case 0:
-                        if (day) LWDay = railWayLWDay.getRailwaySourceList().get("ROLLING").getlW();
-                        if (evening) LWEvening = railWayLWEvening.getRailwaySourceList().get("ROLLING").getlW();
-                        if (night) LWNight = railWayLWNight.getRailwaySourceList().get("ROLLING").getlW();
-                        if (day) heightSource = 4; //railWayLWDay.getRailwaySourceList().get("ROLLING").getSourceHeight();
-                        directivityId = 1;
-                        break;
-                    case 1:
-                        if (day) LWDay = railWayLWDay.getRailwaySourceList().get("TRACTIONA").getlW();
-                        if (evening) LWEvening = railWayLWEvening.getRailwaySourceList().get("TRACTIONA").getlW();
-                        if (night) LWNight = railWayLWNight.getRailwaySourceList().get("TRACTIONA").getlW();
-                        heightSource = 0.5;
-                        directivityId = 2;
-                        break;
-                    case 2:
-                        if (day) LWDay = railWayLWDay.getRailwaySourceList().get("TRACTIONB").getlW();
-                        if (evening) LWEvening = railWayLWEvening.getRailwaySourceList().get("TRACTIONB").getlW();
-                        if (night) LWNight = railWayLWNight.getRailwaySourceList().get("TRACTIONB").getlW();
-                        heightSource = 4;
-                        directivityId = 3;
-                        break;
-                    case 3:
-                        if (day) LWDay = railWayLWDay.getRailwaySourceList().get("AERODYNAMICA").getlW();
-                        if (evening) LWEvening = railWayLWEvening.getRailwaySourceList().get("AERODYNAMICA").getlW();
-                        if (night)  LWNight = railWayLWNight.getRailwaySourceList().get("AERODYNAMICA").getlW();
-                        heightSource = 0.5;
-                        directivityId = 4;
-                        break;
-                    case 4:
-                        if (day) LWDay = railWayLWDay.getRailwaySourceList().get("AERODYNAMICB").getlW();
-                        if (evening) LWEvening = railWayLWEvening.getRailwaySourceList().get("AERODYNAMICB").getlW();
-                        if (night)  LWNight = railWayLWNight.getRailwaySourceList().get("AERODYNAMICB").getlW();
-                        heightSource = 4;
-                        directivityId = 5;
-                        break;
-                    case 5:
-                        if (day) LWDay = railWayLWDay.getRailwaySourceList().get("BRIDGE").getlW();
-                        if (evening) LWEvening = railWayLWEvening.getRailwaySourceList().get("BRIDGE").getlW();
-                        if (night)  LWNight = railWayLWNight.getRailwaySourceList().get("BRIDGE").getlW();
-                        heightSource = 0.5;
-                        directivityId = 6;
-                        break;
-                }
-
-                PreparedStatement ps = connection.prepareStatement(insertIntoQuery.toString());
-                for (Geometry trackGeometry : geometries) {
-
-                    Geometry sourceGeometry = ST_UpdateZ.updateZ(ST_Force3D.force3D(trackGeometry), heightSource).copy() ;
+    /**
+     * Add the auto-increment primary key of the railway emission table
+     * @param connection Database connection
+     * @param outputTable Output table name
+     * @throws SQLException If error occurred
+     */
+    static void addTrainLWPrimaryKey(Connection connection, String outputTable) throws SQLException {
+        connection.createStatement().execute("ALTER TABLE "+outputTable+" ADD PK INT AUTO_INCREMENT PRIMARY KEY;");
+    }
 
-                    int cursor = 1;
-                    ps.setInt(cursor++, pk);
-                    ps.setObject(cursor++, sourceGeometry);
-                    ps.setInt(cursor++, directivityId);
-                    ps.setDouble(cursor++, railWayLWGeom.getGs());
-                    for (double v : LWDay) {
-                        ps.setDouble(cursor++, v);
-                    }
-                    for (double v : LWEvening) {
-                        ps.setDouble(cursor++, v);
-                    }
-                    for (double v : LWNight) {
-                        ps.setDouble(cursor++, v);
-                    }
-                    ps.addBatch();
-                }
-                ps.executeBatch();
+    /**
+     * Compute the rows of the railway emission table for one rail section.
+     * One row is created for each source type (rolling, traction, aerodynamic, bridge) and each track geometry.
+     * This method does not access the database.
+     * @param railWayLWGeom Rail section with evaluated emission
+     * @param geometries Track geometries of this section {@link RailWayLWGeom#getRailWayLWGeometry()}
+     * @return Rows to insert
+     */
+    static List<TrainSourceRow> computeTrainSourceRows(RailWayLWGeom railWayLWGeom, List<LineString> geometries) {
+        List<TrainSourceRow> rows = new ArrayList<>(geometries.size() * 6);
+        RailWayParameters railWayLWDay = railWayLWGeom.getRailWayLWDay();
+        RailWayParameters railWayLWEvening = railWayLWGeom.getRailWayLWEvening();
+        RailWayParameters railWayLWNight = railWayLWGeom.getRailWayLWNight();
+
+        int pk = railWayLWGeom.getPK();
+        double[] LWDay = new double[ProfileBuilder.DEFAULT_FREQUENCIES_THIRD_OCTAVE.length];
+        double[] LWEvening = new double[ProfileBuilder.DEFAULT_FREQUENCIES_THIRD_OCTAVE.length];
+        double[] LWNight = new double[ProfileBuilder.DEFAULT_FREQUENCIES_THIRD_OCTAVE.length];
+        Arrays.fill(LWDay, -99.00);
+        Arrays.fill(LWEvening, -99.00);
+        Arrays.fill(LWNight, -99.00);
+        double heightSource = 0;
+        int directivityId = 0;
+        boolean day = (!railWayLWDay.getRailwaySourceList().isEmpty());
+        boolean evening = (!railWayLWEvening.getRailwaySourceList().isEmpty());
+        boolean night = (!railWayLWNight.getRailwaySourceList().isEmpty());
+        for (int iSource = 0; iSource < 6; iSource++) {
+
+            heightSource = 0;
+            switch (iSource) {
+                case 0:
+                    if (day) LWDay = railWayLWDay.getRailwaySourceList().get("ROLLING").getlW();
+                    if (evening) LWEvening = railWayLWEvening.getRailwaySourceList().get("ROLLING").getlW();
+                    if (night) LWNight = railWayLWNight.getRailwaySourceList().get("ROLLING").getlW();
+                    if (day) heightSource = 4; //railWayLWDay.getRailwaySourceList().get("ROLLING").getSourceHeight();
+                    directivityId = 1;
+                    break;
+                case 1:
+                    if (day) LWDay = railWayLWDay.getRailwaySourceList().get("TRACTIONA").getlW();
+                    if (evening) LWEvening = railWayLWEvening.getRailwaySourceList().get("TRACTIONA").getlW();
+                    if (night) LWNight = railWayLWNight.getRailwaySourceList().get("TRACTIONA").getlW();
+                    heightSource = 0.5;
+                    directivityId = 2;
+                    break;
+                case 2:
+                    if (day) LWDay = railWayLWDay.getRailwaySourceList().get("TRACTIONB").getlW();
+                    if (evening) LWEvening = railWayLWEvening.getRailwaySourceList().get("TRACTIONB").getlW();
+                    if (night) LWNight = railWayLWNight.getRailwaySourceList().get("TRACTIONB").getlW();
+                    heightSource = 4;
+                    directivityId = 3;
+                    break;
+                case 3:
+                    if (day) LWDay = railWayLWDay.getRailwaySourceList().get("AERODYNAMICA").getlW();
+                    if (evening) LWEvening = railWayLWEvening.getRailwaySourceList().get("AERODYNAMICA").getlW();
+                    if (night)  LWNight = railWayLWNight.getRailwaySourceList().get("AERODYNAMICA").getlW();
+                    heightSource = 0.5;
+                    directivityId = 4;
+                    break;
+                case 4:
+                    if (day) LWDay = railWayLWDay.getRailwaySourceList().get("AERODYNAMICB").getlW();
+                    if (evening) LWEvening = railWayLWEvening.getRailwaySourceList().get("AERODYNAMICB").getlW();
+                    if (night)  LWNight = railWayLWNight.getRailwaySourceList().get("AERODYNAMICB").getlW();
+                    heightSource = 4;
+                    directivityId = 5;
+                    break;
+                case 5:
+                    if (day) LWDay = railWayLWDay.getRailwaySourceList().get("BRIDGE").getlW();
+                    if (evening) LWEvening = railWayLWEvening.getRailwaySourceList().get("BRIDGE").getlW();
+                    if (night)  LWNight = railWayLWNight.getRailwaySourceList().get("BRIDGE").getlW();
+                    heightSource = 0.5;
+                    directivityId = 6;
+                    break;
             }
 
+            for (Geometry trackGeometry : geometries) {
+                Geometry sourceGeometry = ST_UpdateZ.updateZ(ST_Force3D.force3D(trackGeometry), heightSource).copy() ;
+                rows.add(new TrainSourceRow(pk, sourceGeometry, directivityId, railWayLWGeom.getGs(), LWDay,
+                        LWEvening, LWNight));
+            }
         }
-
-        // Add primary key to the LW table
-        connection.createStatement().execute("ALTER TABLE "+outputTable+" ADD PK INT AUTO_INCREMENT PRIMARY KEY;");
+        return rows;
     }
 
+    /**
+     * One row of the railway emission table
+     */
+    static class TrainSourceRow {
+        final int pk;
+        final Geometry geometry;
+        final int directivityId;
+        final double gs;
+        final double[] lwDay;
+        final double[] lwEvening;
+        final double[] lwNight;
+
+        TrainSourceRow(int pk, Geometry geometry, int directivityId, double gs, double[] lwDay, double[] lwEvening,
+                       double[] lwNight) {
+            this.pk = pk;
+            this.geometry = geometry;
+            this.directivityId = directivityId;
+            this.gs = gs;
+            this.lwDay = lwDay;
+            this.lwEvening = lwEvening;
+            this.lwNight = lwNight;
+        }
 
+        /**
+         * Set the parameters of the insert query created by createTrainLWTable and add it to the batch
+         * @param ps Insert statement
+         * @throws SQLException If error occurred
+         */
+        void addBatch(PreparedStatement ps) throws SQLException {
+            int cursor = 1;
+            ps.setInt(cursor++, pk);
+            ps.setObject(cursor++, geometry);
+            ps.setInt(cursor++, directivityId);
+            ps.setDouble(cursor++, gs);
+            for (double v : lwDay) {
+                ps.setDouble(cursor++, v);
+            }
+            for (double v : lwEvening) {
+                ps.setDouble(cursor++, v);
+            }
+            for (double v : lwNight) {
+                ps.setDouble(cursor++, v);
+            }
+            ps.addBatch();
+        }
+    }
 }
@@ -0,0 +1,517 @@
+/**
+ * NoiseModelling is a library capable of producing noise maps. It can be freely used either for research and education, as well as by experts in a professional use.
+ * <p>
+ * NoiseModelling is distributed under GPL 3 license. You can read a copy of this License in the file LICENCE provided with this software.
+ * <p>
+ * Official webpage : http://noise-planet.org/noisemodelling.html
+ * Contact: contact@noise-planet.org
+ */
+
+package org.noise_planet.noisemodelling.jdbc;
+
+import org.h2gis.utilities.GeometryTableUtilities;
+import org.h2gis.utilities.JDBCUtilities;
+import org.h2gis.utilities.SpatialResultSet;
+import org.h2gis.utilities.TableLocation;
+import org.h2gis.utilities.Tuple;
+import org.h2gis.utilities.dbtypes.DBTypes;
+import org.h2gis.utilities.dbtypes.DBUtils;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.LineString;
+import org.noise_planet.noisemodelling.emission.railway.cnossos.RailWayCnossosParameters;
+import org.noise_planet.noisemodelling.emission.railway.cnossos.RailwayCnossos;
+import org.noise_planet.noisemodelling.emission.road.cnossos.RoadCnossos;
+import org.noise_planet.noisemodelling.emission.road.cnossos.RoadCnossosParameters;
+import org.noise_planet.noisemodelling.jdbc.railway.RailWayLWGeom;
+import org.noise_planet.noisemodelling.jdbc.railway.RailWayLWIterator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Create emission tables from traffic data (RAIL or ROADS) using a read / compute / write pipeline.
+ * Traffic rows are read with a large fetch size, the emission of each batch of rows is evaluated in parallel in a
+ * fork-join pool while the next batch is read, then the results are written with large JDBC batches.
+ * The output tables are the same as the ones created row by row with {@link EmissionTableGenerator}.
+ * @author Nicolas Fortin, Université Gustave Eiffel
+ */
+public class EmissionTablePipeline {
+    public static final int DEFAULT_FETCH_SIZE = 5000;
+    public static final int DEFAULT_BATCH_SIZE = 10000;
+    /** Do not split the evaluation of a batch below this number of records */
+    private static final int SEQUENTIAL_THRESHOLD = 64;
+    private static final Logger LOGGER = LoggerFactory.getLogger(EmissionTablePipeline.class);
+
+    private int fetchSize = DEFAULT_FETCH_SIZE;
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+    private int coefficientVersion = 2;
+    private long readRows = 0;
+    private double rowsPerSecond = 0;
+
+    /**
+     * @return Number of rows fetched from the database at each round trip
+     */
+    public int getFetchSize() {
+        return fetchSize;
+    }
+
+    /**
+     * @param fetchSize Number of rows fetched from the database at each round trip
+     */
+    public void setFetchSize(int fetchSize) {
+        this.fetchSize = fetchSize;
+    }
+
+    /**
+     * @return Number of traffic records evaluated together, this is also the size of the JDBC insert batches
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * @param batchSize Number of traffic records evaluated together, this is also the size of the JDBC insert batches
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    /**
+     * @return Number of threads used to evaluate the emissions
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * @param parallelism Number of threads used to evaluate the emissions
+     */
+    public void setParallelism(int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * @return Cnossos road coefficient version  (1 = 2015, 2 = 2020)
+     */
+    public int getCoefficientVersion() {
+        return coefficientVersion;
+    }
+
+    /**
+     * @param coefficientVersion Cnossos road coefficient version  (1 = 2015, 2 = 2020)
+     */
+    public void setCoefficientVersion(int coefficientVersion) {
+        this.coefficientVersion = coefficientVersion;
+    }
+
+    /**
+     * @return Number of records (road rows or rail sections) evaluated by the last run
+     */
+    public long getReadRows() {
+        return readRows;
+    }
+
+    /**
+     * @return Throughput of the last run, in evaluated records per second
+     */
+    public double getRowsPerSecond() {
+        return rowsPerSecond;
+    }
+
+    /**
+     * Generate the road emission table from the road traffic table.
+     * If the traffic table contains a PERIOD field the output table have one spectrum per row (HZ63..HZ8000)
+     * else the output table have the day evening and night spectrum (HZD63..HZN8000) computed from the _D _E _N
+     * traffic fields. The primary key, IDSOURCE and geometry fields are copied into the output table.
+     * @param connection Database connection
+     * @param roadsTableName Road traffic table name
+     * @param outputTable Output table name
+     * @return Number of rows inserted
+     * @throws SQLException If error occurred
+     */
+    public long makeRoadLWTable(Connection connection, String roadsTableName, String outputTable) throws SQLException {
+        DBTypes dbType = DBUtils.getDBType(connection);
+        TableLocation sourceTableIdentifier = TableLocation.parse(roadsTableName, dbType);
+        List<String> geomFields = GeometryTableUtilities.getGeometryColumnNames(connection, sourceTableIdentifier);
+        Tuple<String, Integer> primaryKeyColumn = JDBCUtilities.getIntegerPrimaryKeyNameAndIndex(connection,
+                sourceTableIdentifier);
+        List<String> columnNames = JDBCUtilities.getColumnNames(connection, sourceTableIdentifier);
+        boolean hasPeriodField = false;
+        boolean hasIdSourceField = false;
+        for (String columnName : columnNames) {
+            hasPeriodField |= "PERIOD".equalsIgnoreCase(columnName);
+            hasIdSourceField |= "IDSOURCE".equalsIgnoreCase(columnName);
+        }
+        String geomField = geomFields.isEmpty() ? null : geomFields.get(0);
+
+        // Create the output table
+        List<String> outputFields = new ArrayList<>();
+        StringBuilder createTableQuery = new StringBuilder("CREATE TABLE " + outputTable + " (");
+        if (primaryKeyColumn != null) {
+            outputFields.add(primaryKeyColumn.first());
+            createTableQuery.append(primaryKeyColumn.first()).append(" integer not null, ");
+        }
+        if (hasIdSourceField) {
+            outputFields.add("IDSOURCE");
+            createTableQuery.append("IDSOURCE integer, ");
+        }
+        if (geomField != null) {
+            outputFields.add(geomField);
+            createTableQuery.append(geomField).append(" Geometry, ");
+        }
+        List<String> periods = new ArrayList<>();
+        if (hasPeriodField) {
+            outputFields.add("PERIOD");
+            createTableQuery.append("PERIOD varchar, ");
+            periods.add("");
+        } else {
+            Collections.addAll(periods, EmissionTableGenerator.STANDARD_PERIOD_VALUE);
+        }
+        for (String period : periods) {
+            for (int frequency : EmissionTableGenerator.roadOctaveFrequencyBands) {
+                outputFields.add("HZ" + period + frequency);
+                createTableQuery.append("HZ").append(period).append(frequency).append(" double precision, ");
+            }
+        }
+        createTableQuery.setLength(createTableQuery.length() - 2);
+        createTableQuery.append(")");
+        StringBuilder insertQuery = new StringBuilder("INSERT INTO " + outputTable + "(");
+        insertQuery.append(String.join(", ", outputFields));
+        insertQuery.append(") VALUES (");
+        insertQuery.append(String.join(", ", Collections.nCopies(outputFields.size(), "?")));
+        insertQuery.append(")");
+        try (Statement st = connection.createStatement()) {
+            st.execute("DROP TABLE IF EXISTS " + outputTable);
+            st.execute(createTableQuery.toString());
+        }
+
+        final int[] frequencies = EmissionTableGenerator.getRoadOctaveFrequencies();
+        final boolean readIdSource = hasIdSourceField;
+        final boolean readPeriod = hasPeriodField;
+        try (Statement st = connection.createStatement();
+             PreparedStatement ps = connection.prepareStatement(insertQuery.toString())) {
+            st.setFetchSize(fetchSize);
+            SpatialResultSet rs = st.executeQuery("SELECT * FROM " + roadsTableName).unwrap(SpatialResultSet.class);
+            Map<String, Integer> sourceFieldsCache = new HashMap<>();
+            BatchReader<RoadRecord> reader = () -> {
+                List<RoadRecord> batch = new ArrayList<>(batchSize);
+                while (batch.size() < batchSize && rs.next()) {
+                    RoadRecord record = new RoadRecord(frequencies, periods.size());
+                    if (primaryKeyColumn != null) {
+                        record.pk = rs.getInt(primaryKeyColumn.first());
+                    }
+                    if (readIdSource) {
+                        record.idSource = rs.getInt("IDSOURCE");
+                    }
+                    double slope = 0;
+                    if (geomField != null) {
+                        record.geometry = rs.getGeometry(geomField);
+                        slope = EmissionTableGenerator.getSlope(record.geometry);
+                    }
+                    if (readPeriod) {
+                        record.period = rs.getString("PERIOD");
+                    }
+                    for (int idPeriod = 0; idPeriod < periods.size(); idPeriod++) {
+                        String fieldSuffix = readPeriod ? "" : "_" + periods.get(idPeriod);
+                        record.parameters[idPeriod] = EmissionTableGenerator.getTrafficParameters(rs, fieldSuffix,
+                                slope, coefficientVersion, sourceFieldsCache);
+                    }
+                    batch.add(record);
+                }
+                return batch;
+            };
+            BatchWriter<RoadRecord> writer = batch -> {
+                for (RoadRecord record : batch) {
+                    int cursor = 1;
+                    if (primaryKeyColumn != null) {
+                        ps.setInt(cursor++, record.pk);
+                    }
+                    if (readIdSource) {
+                        ps.setInt(cursor++, record.idSource);
+                    }
+                    if (geomField != null) {
+                        ps.setObject(cursor++, record.geometry);
+                    }
+                    if (readPeriod) {
+                        ps.setString(cursor++, record.period);
+                    }
+                    for (double[] levels : record.levels) {
+                        for (double level : levels) {
+                            ps.setDouble(cursor++, level);
+                        }
+                    }
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+                return batch.size();
+            };
+            return run(outputTable, reader, writer);
+        }
+    }
+
+    /**
+     * Generate Train emission from train geometry tracks and train traffic.
+     * The output table is the same as {@link EmissionTableGenerator#makeTrainLWTable(Connection, String, String, String, String)}
+     * @param connection Database connection
+     * @param railSectionTableName Table name of rail sections
+     * @param railTrafficTableName Table name of rail traffic
+     * @param outputTable Output table name
+     * @param frequencyPrepend Prepend to frequency columns (e.g. "HZ_")
+     * @return Number of rows inserted
+     * @throws SQLException If error occurred
+     */
+    public long makeTrainLWTable(Connection connection, String railSectionTableName, String railTrafficTableName,
+                                 String outputTable, String frequencyPrepend) throws SQLException {
+        String insertQuery = EmissionTableGenerator.createTrainLWTable(connection, outputTable, frequencyPrepend);
+
+        RailwayCnossos railway = new RailwayCnossos();
+        railway.setVehicleDataFile("RailwayVehiclesCnossos.json");
+        railway.setTrainSetDataFile("RailwayTrainsets.json");
+        railway.setRailwayDataFile("RailwayCnossosSNCF_2021.json");
+
+        Tuple<String, Integer> trackKey = JDBCUtilities.getIntegerPrimaryKeyNameAndIndex(connection,
+                TableLocation.parse(railSectionTableName, DBUtils.getDBType(connection)));
+        long insertedRows;
+        try (Statement st = connection.createStatement();
+             PreparedStatement ps = connection.prepareStatement(insertQuery)) {
+            st.setFetchSize(fetchSize);
+            SpatialResultSet rs = st.executeQuery("SELECT r1." + trackKey.first() + " trackid, r1.*, r2.* FROM " +
+                    railSectionTableName + " r1, " + railTrafficTableName + " r2 WHERE r1.IDSECTION=R2.IDSECTION" +
+                    " ORDER BY R1." + trackKey.first()).unwrap(SpatialResultSet.class);
+            Map<String, Integer> sourceFields = new HashMap<>();
+            EmissionTableGenerator.cacheFields(sourceFields, rs);
+            // Rows of the same rail section are consecutive, a section is complete when the next one is found
+            RailSection[] nextSection = new RailSection[] {null};
+            boolean[] hasRow = new boolean[] {rs.next()};
+            BatchReader<RailSection> reader = () -> {
+                List<RailSection> batch = new ArrayList<>(batchSize);
+                while (batch.size() < batchSize && hasRow[0]) {
+                    int pk = rs.getInt("trackid");
+                    if (nextSection[0] == null || nextSection[0].pk != pk) {
+                        if (nextSection[0] != null) {
+                            batch.add(nextSection[0]);
+                        }
+                        RailSection section = new RailSection(railway, pk);
+                        if (sourceFields.containsKey("TRACKSPC")) {
+                            section.distance = rs.getDouble("TRACKSPC");
+                        }
+                        section.nbTrack = rs.getInt("NTRACK");
+                        section.idSection = rs.getString("IDSECTION");
+                        if (sourceFields.containsKey("GS")) {
+                            section.gs = rs.getDouble("GS");
+                        }
+                        section.geometry = RailWayLWIterator.splitGeometry(rs.getGeometry());
+                        nextSection[0] = section;
+                    }
+                    nextSection[0].traffic.add(new RailWayLWIterator.RailwayTraffic[] {
+                            RailWayLWIterator.readRailwayTraffic(rs, sourceFields, "DAY"),
+                            RailWayLWIterator.readRailwayTraffic(rs, sourceFields, "EVENING"),
+                            RailWayLWIterator.readRailwayTraffic(rs, sourceFields, "NIGHT")});
+                    hasRow[0] = rs.next();
+                }
+                if (!hasRow[0] && nextSection[0] != null) {
+                    batch.add(nextSection[0]);
+                    nextSection[0] = null;
+                }
+                return batch;
+            };
+            BatchWriter<RailSection> writer = batch -> {
+                int rowCount = 0;
+                for (RailSection section : batch) {
+                    for (EmissionTableGenerator.TrainSourceRow row : section.rows) {
+                        row.addBatch(ps);
+                        rowCount++;
+                        if (rowCount % batchSize == 0) {
+                            ps.executeBatch();
+                        }
+                    }
+                }
+                ps.executeBatch();
+                return rowCount;
+            };
+            insertedRows = run(outputTable, reader, writer);
+        }
+
+        // Add primary key to the LW table
+        EmissionTableGenerator.addTrainLWPrimaryKey(connection, outputTable);
+        return insertedRows;
+    }
+
+    /**
+     * Run the pipeline. The reading and writing are done in the calling thread (a connection is not thread safe)
+     * while the evaluation of the previous batch is done in the fork-join pool.
+     * @param outputTable Output table name, for the log
+     * @param reader Read the next batch of records, empty if there is no more records
+     * @param writer Write a batch of evaluated records
+     * @return Number of rows inserted
+     * @throws SQLException If error occurred
+     */
+    private <T extends PipelineRecord> long run(String outputTable, BatchReader<T> reader, BatchWriter<T> writer)
+            throws SQLException {
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        long start = System.currentTimeMillis();
+        long read = 0;
+        long inserted = 0;
+        try {
+            List<T> pendingBatch = Collections.emptyList();
+            ForkJoinTask<Void> pendingTask = null;
+            while (true) {
+                List<T> batch = reader.readBatch();
+                read += batch.size();
+                ForkJoinTask<Void> task = batch.isEmpty() ? null : pool.submit(new EvaluateTask<>(batch, 0, batch.size()));
+                if (pendingTask != null) {
+                    join(pendingTask);
+                    inserted += writer.writeBatch(pendingBatch);
+                }
+                if (task == null) {
+                    break;
+                }
+                pendingBatch = batch;
+                pendingTask = task;
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        double elapsed = Math.max(1, System.currentTimeMillis() - start) / 1000.0;
+        readRows = read;
+        rowsPerSecond = read / elapsed;
+        LOGGER.info(String.format(Locale.ROOT, "Table %s created, %d records evaluated in %.3f s (%.0f records/s)" +
+                ", %d rows inserted", outputTable, read, elapsed, rowsPerSecond, inserted));
+        return inserted;
+    }
+
+    private static void join(ForkJoinTask<Void> task) throws SQLException {
+        try {
+            task.join();
+        } catch (UncheckedIOException ex) {
+            throw new SQLException(ex.getCause());
+        }
+    }
+
+    /**
+     * A traffic record that can be evaluated without the database connection
+     */
+    private interface PipelineRecord {
+        void evaluate() throws IOException;
+    }
+
+    private interface BatchReader<T> {
+        List<T> readBatch() throws SQLException;
+    }
+
+    private interface BatchWriter<T> {
+        int writeBatch(List<T> batch) throws SQLException;
+    }
+
+    /**
+     * Evaluate a range of records, the range is split in two sub-tasks until the sequential threshold is reached
+     */
+    private static class EvaluateTask<T extends PipelineRecord> extends RecursiveAction {
+        private final List<T> records;
+        private final int from;
+        private final int to;
+
+        EvaluateTask(List<T> records, int from, int to) {
+            this.records = records;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= SEQUENTIAL_THRESHOLD) {
+                try {
+                    for (int i = from; i < to; i++) {
+                        records.get(i).evaluate();
+                    }
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            } else {
+                int middle = (from + to) >>> 1;
+                invokeAll(new EvaluateTask<>(records, from, middle), new EvaluateTask<>(records, middle, to));
+            }
+        }
+    }
+
+    private static class RoadRecord implements PipelineRecord {
+        final int[] frequencies;
+        int pk;
+        int idSource;
+        Geometry geometry;
+        String period;
+        final RoadCnossosParameters[] parameters;
+        final double[][] levels;
+
+        RoadRecord(int[] frequencies, int periodCount) {
+            this.frequencies = frequencies;
+            this.parameters = new RoadCnossosParameters[periodCount];
+            this.levels = new double[periodCount][];
+        }
+
+        @Override
+        public void evaluate() throws IOException {
+            for (int idPeriod = 0; idPeriod < parameters.length; idPeriod++) {
+                levels[idPeriod] = RoadCnossos.evaluate(parameters[idPeriod], frequencies);
+            }
+        }
+    }
+
+    private static class RailSection implements PipelineRecord {
+        final RailwayCnossos railway;
+        final int pk;
+        String idSection;
+        int nbTrack;
+        double distance = 2;
+        double gs = 1.0;
+        List<LineString> geometry;
+        /** Day, evening and night traffic of each traffic row of this section */
+        final List<RailWayLWIterator.RailwayTraffic[]> traffic = new ArrayList<>();
+        List<EmissionTableGenerator.TrainSourceRow> rows = Collections.emptyList();
+
+        RailSection(RailwayCnossos railway, int pk) {
+            this.railway = railway;
+            this.pk = pk;
+        }
+
+        @Override
+        public void evaluate() throws IOException {
+            RailWayCnossosParameters[] emission = new RailWayCnossosParameters[3];
+            for (RailWayLWIterator.RailwayTraffic[] periodTraffic : traffic) {
+                for (int idPeriod = 0; idPeriod < emission.length; idPeriod++) {
+                    RailWayCnossosParameters lw = RailWayLWIterator.evaluate(railway, periodTraffic[idPeriod]);
+                    emission[idPeriod] = emission[idPeriod] == null ? lw :
+                            RailWayCnossosParameters.sumRailwaySource(emission[idPeriod], lw);
+                }
+            }
+            RailWayLWGeom railWayLWGeom = new RailWayLWGeom();
+            railWayLWGeom.setPK(pk);
+            railWayLWGeom.setIdSection(idSection);
+            railWayLWGeom.setNbTrack(nbTrack);
+            railWayLWGeom.setDistance(distance);
+            railWayLWGeom.setGs(gs);
+            railWayLWGeom.setGeometry(geometry);
+            railWayLWGeom.setRailWayLW(emission[0]);
+            railWayLWGeom.setRailWayLWDay(emission[0]);
+            railWayLWGeom.setRailWayLWEvening(emission[1]);
+            railWayLWGeom.setRailWayLWNight(emission[2]);
+            rows = EmissionTableGenerator.computeTrainSourceRows(railWayLWGeom, railWayLWGeom.getRailWayLWGeometry());
+        }
+    }
+}
@@ -20,9 +20,11 @@ import org.locationtech.jts.geom.PrecisionModel;
 import org.locationtech.jts.index.strtree.STRtree;
 import org.locationtech.jts.io.WKTWriter;
 import org.noise_planet.noisemodelling.jdbc.input.DefaultTableLoader;
+import org.noise_planet.noisemodelling.jdbc.input.SceneChanges;
 import org.noise_planet.noisemodelling.jdbc.input.SceneDatabaseInputSettings;
 import org.noise_planet.noisemodelling.jdbc.input.SceneWithEmission;
 import org.noise_planet.noisemodelling.jdbc.output.DefaultCutPlaneProcessing;
+import org.noise_planet.noisemodelling.jdbc.output.NoiseMapCheckpoint;
 import org.noise_planet.noisemodelling.jdbc.utils.CellIndex;
 import org.noise_planet.noisemodelling.pathfinder.CutPlaneVisitorFactory;
 import org.noise_planet.noisemodelling.pathfinder.PathFinder;
@@ -32,8 +34,10 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.*;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -52,7 +56,14 @@ public class NoiseMapByReceiverMaker extends GridMapMaker {
     private IComputeRaysOutFactory computeRaysOutFactory = new DefaultCutPlaneProcessing(noiseMapDatabaseParameters, exitWhenDone, aborted);
     private Logger logger = LoggerFactory.getLogger(NoiseMapByReceiverMaker.class);
     private int threadCount = 0;
+    private boolean groupStackedReceivers = false;
+    private double maximumFarFieldError = 0;
+    private double horizonRadius = 0;
+    private String receiverAbsoluteZTableName = "";
+    private SceneChanges sceneChanges = null;
     private ProfilerThread profilerThread;
+    private NoiseMapCheckpoint checkpoint = null;
+    private boolean resumedFromCheckpoint = false;
 
     SceneDatabaseInputSettings sceneDatabaseInputSettings = new SceneDatabaseInputSettings();
 
@@ -156,6 +167,13 @@ public class NoiseMapByReceiverMaker extends GridMapMaker {
         this.profilerThread = profilerThread;
     }
 
+    /**
+     * @return Factory to create output data handler for each cell
+     */
+    public IComputeRaysOutFactory getComputeRaysOutFactory() {
+        return computeRaysOutFactory;
+    }
+
     /**
      * @param computeRaysOutFactory Factory to create output data handler for each cell
      */
@@ -192,6 +210,147 @@ public class NoiseMapByReceiverMaker extends GridMapMaker {
         this.threadCount = threadCount;
     }
 
+    /**
+     * @return True if the receivers at the same x,y location share the computation that does not depend on the
+     * receiver altitude
+     */
+    public boolean isGroupStackedReceivers() {
+        return groupStackedReceivers;
+    }
+
+    /**
+     * @param groupStackedReceivers True to share the computation that does not depend on the receiver altitude between
+     *                              the receivers at the same x,y location (receivers on each floor of a building facade)
+     */
+    public void setGroupStackedReceivers(boolean groupStackedReceivers) {
+        this.groupStackedReceivers = groupStackedReceivers;
+    }
+
+    /**
+     * @return Maximum error in dB on the geometric divergence when the far parts of a line source are merged into a
+     * single point source. 0 if the aggregation is disabled
+     */
+    public double getMaximumFarFieldError() {
+        return maximumFarFieldError;
+    }
+
+    /**
+     * @param maximumFarFieldError Maximum error in dB on the geometric divergence when the consecutive points of a line
+     *                             source far from the receiver are merged into a single point source, 0 to compute
+     *                             all the points of the regular split
+     */
+    public void setMaximumFarFieldError(double maximumFarFieldError) {
+        this.maximumFarFieldError = maximumFarFieldError;
+    }
+
+    /**
+     * @return Distance from the receiver of the walls and topography used to build the receiver horizon, 0 if disabled
+     */
+    public double getHorizonRadius() {
+        return horizonRadius;
+    }
+
+    /**
+     * @param horizonRadius When the vertical diffraction is disabled, the sources hidden by the walls and topography
+     *                      located at less than this distance from the receiver are skipped without computing the
+     *                      direct cut profile. 0 to disable
+     */
+    public void setHorizonRadius(double horizonRadius) {
+        this.horizonRadius = horizonRadius;
+    }
+
+    /**
+     * @return Table where the receivers with the altitude absolute to the sea level are stored, empty if disabled
+     */
+    public String getReceiverAbsoluteZTableName() {
+        return receiverAbsoluteZTableName;
+    }
+
+    /**
+     * When the receivers Z are relative to the ground, the receivers table is copied into this table and the geometries
+     * are updated with the altitude absolute to the sea level computed for each cell. Later runs can use this table as
+     * the receivers table with {@link #setReceiverHasAbsoluteZCoordinates(boolean)} set to true and skip the ground
+     * altitude evaluation. Not used in incremental mode because only the impacted receivers are processed.
+     * @param receiverAbsoluteZTableName Table to create, empty to disable
+     */
+    public void setReceiverAbsoluteZTableName(String receiverAbsoluteZTableName) {
+        this.receiverAbsoluteZTableName = receiverAbsoluteZTableName;
+    }
+
+    private boolean isReceiverAbsoluteZStored() {
+        return !receiverHasAbsoluteZCoordinates && !receiverAbsoluteZTableName.isEmpty() && sceneChanges == null;
+    }
+
+    /**
+     * Copy the receivers table into {@link #receiverAbsoluteZTableName}
+     * @param connection Active connection
+     * @throws SQLException If an SQL exception occurs
+     */
+    private void createReceiverAbsoluteZTable(Connection connection) throws SQLException {
+        DBTypes dbType = DBUtils.getDBType(connection.unwrap(Connection.class));
+        TableLocation receiverTable = TableLocation.parse(receiverTableName, dbType);
+        TableLocation outputTable = TableLocation.parse(receiverAbsoluteZTableName, dbType);
+        Tuple<String, Integer> primaryKey = JDBCUtilities.getIntegerPrimaryKeyNameAndIndex(
+                connection.unwrap(Connection.class), receiverTable);
+        if(primaryKey == null) {
+            throw new SQLException(String.format("Table %s missing primary key for receiver identification",
+                    receiverTableName));
+        }
+        String geomField = TableLocation.quoteIdentifier(GeometryTableUtilities.getGeometryColumnNames(connection,
+                receiverTable).get(0), dbType);
+        try(Statement st = connection.createStatement()) {
+            st.execute("DROP TABLE IF EXISTS " + outputTable);
+            st.execute("CREATE TABLE " + outputTable + " AS SELECT * FROM " + receiverTable);
+            st.execute("ALTER TABLE " + outputTable + " ADD PRIMARY KEY(" +
+                    TableLocation.quoteIdentifier(primaryKey.first(), dbType) + ")");
+            if (dbType == DBTypes.POSTGIS || dbType == DBTypes.POSTGRESQL) {
+                st.execute("CREATE INDEX ON " + outputTable + " USING GIST(" + geomField + ")");
+            } else {
+                st.execute("CREATE SPATIAL INDEX ON " + outputTable + "(" + geomField + ")");
+            }
+        }
+    }
+
+    /**
+     * Update the geometries of the receivers of the cell in {@link #receiverAbsoluteZTableName}
+     * @param connection Active connection
+     * @param scene Cell data with the receivers altitude absolute to the sea level
+     * @throws SQLException If an SQL exception occurs
+     */
+    private void storeReceiverAbsoluteZ(Connection connection, SceneWithEmission scene) throws SQLException {
+        DBTypes dbType = DBUtils.getDBType(connection.unwrap(Connection.class));
+        TableLocation outputTable = TableLocation.parse(receiverAbsoluteZTableName, dbType);
+        Tuple<String, Integer> primaryKey = JDBCUtilities.getIntegerPrimaryKeyNameAndIndex(
+                connection.unwrap(Connection.class), outputTable);
+        String geomField = GeometryTableUtilities.getGeometryColumnNames(connection, outputTable).get(0);
+        try(PreparedStatement st = connection.prepareStatement("UPDATE " + outputTable + " SET " +
+                TableLocation.quoteIdentifier(geomField, dbType) + " = ? WHERE " +
+                TableLocation.quoteIdentifier(primaryKey.first(), dbType) + " = ?")) {
+            for(int idReceiver = 0; idReceiver < scene.receivers.size(); idReceiver++) {
+                st.setObject(1, geometryFactory.createPoint(scene.receivers.get(idReceiver)));
+                st.setLong(2, scene.receiversPk.get(idReceiver));
+                st.addBatch();
+            }
+            st.executeBatch();
+        }
+    }
+
+    /**
+     * @return Edited areas of the scene in incremental mode, null if all the receivers are computed
+     */
+    public SceneChanges getSceneChanges() {
+        return sceneChanges;
+    }
+
+    /**
+     * Incremental mode: the results of a previous computation are kept in the output tables, only the receivers that
+     * may have a propagation path going near the edited areas are computed again and their previous results replaced.
+     * @param sceneChanges Edited areas of the scene since the previous computation, null to compute all the receivers
+     */
+    public void setSceneChanges(SceneChanges sceneChanges) {
+        this.sceneChanges = sceneChanges;
+    }
+
     /**
      * Initialisation of data structures needed for sound propagation.
      * @param connection JDBC Connection
@@ -291,6 +450,16 @@ public class NoiseMapByReceiverMaker extends GridMapMaker {
                                         ProgressVisitor progression, Set<Long> skipReceivers) throws SQLException, IOException {
         SceneWithEmission scene = prepareCell(connection, cellIndex, skipReceivers);
 
+        if(sceneChanges != null) {
+            int receiverCount = scene.receivers.size();
+            List<Long> impactedReceivers = sceneChanges.keepImpactedReceivers(scene);
+            if(verbose) {
+                logger.info(String.format("Incremental mode, %d/%d receivers of this computation area are impacted " +
+                                "by the scene changes", impactedReceivers.size(), receiverCount));
+            }
+            computeRaysOutFactory.clearReceivers(impactedReceivers);
+        }
+
         if(verbose) {
             logger.info(String.format("This computation area contains %d receivers %d sound sources and %d buildings",
                     scene.receivers.size(), scene.sourceGeometries.size(),
@@ -309,8 +478,14 @@ public class NoiseMapByReceiverMaker extends GridMapMaker {
             computeRays.setThreadCount(threadCount);
         }
 
+        computeRays.setGroupStackedReceivers(groupStackedReceivers);
+        computeRays.setHorizonRadius(horizonRadius);
+
         if(!receiverHasAbsoluteZCoordinates) {
             computeRays.makeReceiverRelativeZToAbsolute();
+            if(isReceiverAbsoluteZStored()) {
+                storeReceiverAbsoluteZ(connection, scene);
+            }
         }
 
         if(!sourceHasAbsoluteZCoordinates) {
@@ -337,10 +512,63 @@ public class NoiseMapByReceiverMaker extends GridMapMaker {
     @Override
     public void initialize(Connection connection) throws SQLException {
         super.initialize(connection);
+        if(isReceiverAbsoluteZStored()) {
+            createReceiverAbsoluteZTable(connection);
+        }
         tableLoader.initialize(connection, this);
         computeRaysOutFactory.initialize(connection, this);
     }
 
+    /**
+     * @return Journal of the progression of the computation, null if the computation is not journaled
+     */
+    public NoiseMapCheckpoint getCheckpoint() {
+        return checkpoint;
+    }
+
+    /**
+     * @return True if the computation resumes an interrupted computation
+     */
+    public boolean isResumedFromCheckpoint() {
+        return resumedFromCheckpoint;
+    }
+
+    /**
+     * Read the journal of an interrupted computation if it exists, remove the results written after its last
+     * checkpoint or create a new journal
+     * @param connection Active connection
+     * @param finishedReceivers Receivers to skip
+     * @param finishedCells Computation areas to skip
+     * @throws SQLException If an SQL exception occurs
+     */
+    void openCheckpoint(Connection connection, Set<Long> finishedReceivers, Set<CellIndex> finishedCells)
+            throws SQLException {
+        checkpoint = null;
+        resumedFromCheckpoint = false;
+        if(noiseMapDatabaseParameters.checkpointTable.isEmpty()) {
+            return;
+        }
+        if(noiseMapDatabaseParameters.sqlOutputFile != null) {
+            logger.warn("The computation progression is not journaled when the results are written in a sql file");
+            return;
+        }
+        checkpoint = new NoiseMapCheckpoint(connection, noiseMapDatabaseParameters.checkpointTable);
+        resumedFromCheckpoint = checkpoint.load(finishedReceivers, finishedCells);
+        if(resumedFromCheckpoint) {
+            logger.info(String.format("Resume the computation, %d computation areas and %d receivers are already " +
+                    "done", finishedCells.size(), finishedReceivers.size()));
+            List<String> resultsTables = new ArrayList<>();
+            resultsTables.add(noiseMapDatabaseParameters.receiversLevelTable);
+            if(noiseMapDatabaseParameters.getExportRaysMethod() ==
+                    NoiseMapDatabaseParameters.ExportRaysMethods.TO_RAYS_TABLE) {
+                resultsTables.add(noiseMapDatabaseParameters.raysTable);
+            }
+            checkpoint.clearUnfinishedResults(finishedReceivers, resultsTables);
+        } else {
+            checkpoint.create();
+        }
+    }
+
     /**
      * Run NoiseModelling with provided parameters, return when computation is done
      */
@@ -349,24 +577,37 @@ public class NoiseMapByReceiverMaker extends GridMapMaker {
 
         // Set of already processed receivers
         Set<Long> receivers = new HashSet<>();
+        // Computation areas done by an interrupted computation
+        Set<CellIndex> finishedCells = new HashSet<>();
+        openCheckpoint(connection, receivers, finishedCells);
 
         // Fetch cell identifiers with receivers
         Map<CellIndex, Integer> cells = searchPopulatedCells(connection);
         ProgressVisitor progressVisitor = progressLogger.subProcess(cells.size());
 
+        boolean completed = false;
         try {
             computeRaysOutFactory.start(progressVisitor);
             for (CellIndex cellIndex : new TreeSet<>(cells.keySet())) {
+                if(finishedCells.contains(cellIndex)) {
+                    progressVisitor.endStep();
+                    continue;
+                }
                 // Run ray propagation
                 try {
                     evaluateCell(connection, cellIndex, progressVisitor, receivers);
                 } catch (IOException ex) {
                     throw new SQLException(ex);
                 }
+                computeRaysOutFactory.cellCompleted(cellIndex);
             }
+            completed = true;
         } finally {
             computeRaysOutFactory.stop();
         }
+        if(completed && checkpoint != null && !aborted.get()) {
+            checkpoint.drop();
+        }
     }
 
     /**
@@ -419,6 +660,23 @@ public class NoiseMapByReceiverMaker extends GridMapMaker {
          */
         void stop() throws SQLException;
 
+        /**
+         * Called in incremental mode before the computation of receivers that may already have results from a
+         * previous computation
+         * @param receiversPk Primary keys of the receivers that will be computed again
+         * @throws SQLException If an SQL exception occurs
+         */
+        default void clearReceivers(List<Long> receiversPk) throws SQLException {
+        }
+
+        /**
+         * Called when all the receivers of a computation area have been processed
+         * @param cellIndex Computation area index
+         * @throws SQLException If an SQL exception occurs
+         */
+        default void cellCompleted(CellIndex cellIndex) throws SQLException {
+        }
+
         /**
          * Creates an object that computes paths out for noise map computation.
          * @param cellData the scene data for the current computation cell
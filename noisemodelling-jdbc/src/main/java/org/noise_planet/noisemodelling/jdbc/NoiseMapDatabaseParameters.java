@@ -40,6 +40,11 @@ public class NoiseMapDatabaseParameters {
      * With attenuation export also the json of the related cnossos path, for debugging purpose
      */
     public boolean exportCnossosPathWithAttenuation = false;
+    /**
+     * Store the exported cnossos path using the compact binary encoding instead of json
+     * @see org.noise_planet.noisemodelling.propagation.cnossos.CnossosPathCodec
+     */
+    public boolean exportCnossosPathAsBinary = false;
     public boolean keepAbsorption = false; // in rays, keep store detailed absorption data
     public int maximumRaysOutputCount = 0; // if export rays, do not keep more than this number of rays (0 infinite)
 
@@ -71,6 +76,20 @@ public class NoiseMapDatabaseParameters {
     public Boolean sqlOutputFileCompression = true;
     public Boolean dropResultsTable = true;
     public boolean computeLAEQOnly = false;
+    /**
+     * If not empty, the progression of the computation is journaled in this table. If the table of an interrupted
+     * computation exists, the computation resumes from the last checkpoint.
+     */
+    public String checkpointTable = "";
+    /** Maximum delay in milliseconds between two checkpoints */
+    public long checkpointInterval = 30000;
+    /**
+     * If true, when the result stack is full the receiver levels are written in temporary files instead of waiting
+     * for the database
+     */
+    public boolean spillResultsToDisk = false;
+    /** Folder of the temporary files of the receiver levels, null for the default temporary folder */
+    public File spillDirectory = null;
 
     /**
      * If true the position of the receiver (with the altitude if available) will be exported into the results tables
@@ -129,6 +148,21 @@ public class NoiseMapDatabaseParameters {
         this.exportCnossosPathWithAttenuation = exportCnossosPathWithAttenuation;
     }
 
+    /**
+     * @return True if the exported cnossos path is stored using the compact binary encoding instead of json
+     */
+    public boolean isExportCnossosPathAsBinary() {
+        return exportCnossosPathAsBinary;
+    }
+
+    /**
+     * @param exportCnossosPathAsBinary True to store the exported cnossos path using the compact binary encoding
+     *                                  instead of json, the PATH column is then a binary column
+     */
+    public void setExportCnossosPathAsBinary(boolean exportCnossosPathAsBinary) {
+        this.exportCnossosPathAsBinary = exportCnossosPathAsBinary;
+    }
+
     /**
      * @return With attenuation export also the json of the related cnossos path, for debugging purpose
      */
@@ -227,4 +261,66 @@ public class NoiseMapDatabaseParameters {
     public void setReceiversLevelTable(String receiversLevelTable) {
         this.receiversLevelTable = receiversLevelTable;
     }
+
+    /**
+     * @return Journal table of the progression of the computation, empty if the computation is not journaled
+     */
+    public String getCheckpointTable() {
+        return checkpointTable;
+    }
+
+    /**
+     * @param checkpointTable Journal table of the progression of the computation. If the table of an interrupted
+     *                        computation exists, the finished computation areas and receivers are skipped. The table
+     *                        is removed at the end of the computation.
+     */
+    public void setCheckpointTable(String checkpointTable) {
+        this.checkpointTable = checkpointTable;
+    }
+
+    /**
+     * @return Maximum delay in milliseconds between two checkpoints
+     */
+    public long getCheckpointInterval() {
+        return checkpointInterval;
+    }
+
+    /**
+     * @param checkpointInterval Maximum delay in milliseconds between two checkpoints
+     */
+    public void setCheckpointInterval(long checkpointInterval) {
+        this.checkpointInterval = checkpointInterval;
+    }
+
+    /**
+     * @return True if the receiver levels are written in temporary files when the result stack is full
+     */
+    public boolean isSpillResultsToDisk() {
+        return spillResultsToDisk;
+    }
+
+    /**
+     * @param spillResultsToDisk If true, when the result stack is full ({@link #setOutputMaximumQueue(int)}) the
+     *                           receiver levels are written in temporary files instead of waiting for the database.
+     *                           The computation threads do not wait for a slow database and the memory usage
+     *                           stays bounded.
+     */
+    public void setSpillResultsToDisk(boolean spillResultsToDisk) {
+        this.spillResultsToDisk = spillResultsToDisk;
+    }
+
+    /**
+     * @return Folder of the temporary files of the receiver levels, null for the default temporary folder
+     */
+    public File getSpillDirectory() {
+        return spillDirectory;
+    }
+
+    /**
+     * @param spillDirectory Folder of the temporary files of the receiver levels, null for the default temporary
+     *                       folder
+     */
+    public void setSpillDirectory(File spillDirectory) {
+        this.spillDirectory = spillDirectory;
+    }
 }
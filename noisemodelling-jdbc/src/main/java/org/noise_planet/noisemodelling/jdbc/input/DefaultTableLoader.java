@@ -24,7 +24,9 @@ import org.noise_planet.noisemodelling.emission.railway.cnossos.RailWayCnossosPa
 import org.noise_planet.noisemodelling.jdbc.EmissionTableGenerator;
 import org.noise_planet.noisemodelling.jdbc.NoiseMapByReceiverMaker;
 import org.noise_planet.noisemodelling.jdbc.utils.CellIndex;
+import org.noise_planet.noisemodelling.pathfinder.ThreadPool;
 import org.noise_planet.noisemodelling.pathfinder.profilebuilder.Building;
+import org.noise_planet.noisemodelling.pathfinder.profilebuilder.GroundAbsorption;
 import org.noise_planet.noisemodelling.pathfinder.profilebuilder.ProfileBuilder;
 import org.noise_planet.noisemodelling.pathfinder.profilebuilder.Wall;
 import org.noise_planet.noisemodelling.pathfinder.utils.AcousticIndicatorsFunctions;
@@ -32,8 +34,12 @@ import org.noise_planet.noisemodelling.propagation.AttenuationParameters;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.sql.DataSource;
 import java.sql.*;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import static org.h2gis.utilities.GeometryTableUtilities.getGeometryColumnNames;
 
@@ -56,6 +62,12 @@ public class DefaultTableLoader implements NoiseMapByReceiverMaker.TableLoader {
 
     public static final int DEFAULT_FETCH_SIZE = 300;
     protected int fetchSize = DEFAULT_FETCH_SIZE;
+    /** Number of queries run concurrently by {@link #fetchCellConcurrently} */
+    static final int CONCURRENT_FETCH_COUNT = 5;
+    /** If set, the cell data is fetched concurrently using connections from this data source */
+    protected DataSource dataSource = null;
+    /** Threads of the concurrent fetch, shared by all the cells. Idle threads are released */
+    private ThreadPool fetchThreadPool = null;
 
     /**
      * Attenuation and other attributes relative to direction on sphere
@@ -66,11 +78,25 @@ public class DefaultTableLoader implements NoiseMapByReceiverMaker.TableLoader {
      * Inserts directivity attributes for noise sources for trains into the directionAttributes map.
      */
     public void insertTrainDirectivity() {
+        insertTrainDirectivity(null, 0);
+    }
+
+    /**
+     * Inserts directivity attributes for noise sources for trains into the directionAttributes map.
+     * @param frequencies Frequencies of the resampled spheres (Hz)
+     * @param gridAngleStep If greater than 0, the train directivity spheres are resampled into a grid with this angle
+     *                      step in radians
+     */
+    public void insertTrainDirectivity(double[] frequencies, double gridAngleStep) {
         directionAttributes.clear();
         directionAttributes.put(0, new OmnidirectionalDirection());
         int i=1;
         for(String typeSource : RailWayCnossosParameters.sourceType) {
-            directionAttributes.put(i, new RailwayCnossosDirectivitySphere(new LineSource(typeSource)));
+            DirectivitySphere sphere = new RailwayCnossosDirectivitySphere(new LineSource(typeSource));
+            if(gridAngleStep > 0 && frequencies != null) {
+                sphere = DiscreteDirectivitySphere.sampleDirectivitySphere(i, sphere, frequencies, gridAngleStep);
+            }
+            directionAttributes.put(i, sphere);
             i++;
         }
     }
@@ -149,10 +175,13 @@ public class DefaultTableLoader implements NoiseMapByReceiverMaker.TableLoader {
             parameters.setFrequencies(frequencyArray);
         }
         // Load source directivity
+        double gridAngleStep = Math.toRadians(inputSettings.directivityGridAngleStep);
         if(inputSettings.useTrainDirectivity) {
-            insertTrainDirectivity();
+            insertTrainDirectivity(frequencyArray.stream().mapToDouble(Integer::doubleValue).toArray(),
+                    gridAngleStep);
         } else if (!inputSettings.directivityTableName.isEmpty()) {
-            directionAttributes = fetchDirectivity(connection, inputSettings.directivityTableName, 1, noiseMapByReceiverMaker.getFrequencyFieldPrepend());
+            directionAttributes = fetchDirectivity(connection, inputSettings.directivityTableName, 1,
+                    noiseMapByReceiverMaker.getFrequencyFieldPrepend(), gridAngleStep);
             if(noiseMapByReceiverMaker.isVerbose()) {
                 LOGGER.info("Loaded {} directivities from the database", directionAttributes.size());
             }
@@ -213,6 +242,24 @@ public class DefaultTableLoader implements NoiseMapByReceiverMaker.TableLoader {
         return fetchSize;
     }
 
+    /**
+     * @return Data source used to fetch the cell data concurrently, null if the data is fetched sequentially with the
+     * connection given to {@link #create(Connection, CellIndex, Set)}
+     */
+    public DataSource getDataSource() {
+        return dataSource;
+    }
+
+    /**
+     * @param dataSource If not null, the buildings, topography, soil areas, sources and receivers of each cell are
+     *                   fetched concurrently, each on its own connection opened from this data source (ex. a PostGIS
+     *                   connection pool). The data source must give access to the same database as the connection
+     *                   given to {@link #create(Connection, CellIndex, Set)}
+     */
+    public void setDataSource(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
     public Map<Integer, DirectivitySphere> getDirectionAttributes() {
         return directionAttributes;
     }
@@ -238,7 +285,6 @@ public class DefaultTableLoader implements NoiseMapByReceiverMaker.TableLoader {
     @Override
     public SceneWithEmission create(Connection connection, CellIndex cellIndex,
                                     Set<Long> skipReceivers) throws SQLException {
-        DBTypes dbType = DBUtils.getDBType(connection.unwrap(Connection.class));
         GeometryFactory geometryFactory = noiseMapByReceiverMaker.getGeometryFactory();
 
         Envelope cellEnvelope = noiseMapByReceiverMaker.getCellEnv(cellIndex);
@@ -252,6 +298,9 @@ public class DefaultTableLoader implements NoiseMapByReceiverMaker.TableLoader {
 
         ProfileBuilder profileBuilder = new ProfileBuilder();
         profileBuilder.setFrequencyArray(frequencyArray);
+        if(noiseMapByReceiverMaker.getThreadCount() > 0) {
+            profileBuilder.setThreadCount(noiseMapByReceiverMaker.getThreadCount());
+        }
         SceneWithEmission scene = new SceneWithEmission(profileBuilder, noiseMapByReceiverMaker.getSceneInputSettings());
         scene.setDirectionAttributes(directionAttributes);
         scene.cnossosParametersPerPeriod = cnossosParametersPerPeriod;
@@ -259,32 +308,151 @@ public class DefaultTableLoader implements NoiseMapByReceiverMaker.TableLoader {
         scene.periodSet.addAll(cnossosParametersPerPeriod.keySet());
 
 
-        // //////////////////////////////////////////////////////
-        // feed freeFieldFinder for fast intersection query
-        // optimization
-        // Fetch buildings in extendedEnvelope
-        fetchCellBuildings(connection, noiseMapByReceiverMaker.getBuildingTableParameters(), expandedCellEnvelop,
-                scene.profileBuilder, geometryFactory);
+        if(dataSource == null) {
+            // //////////////////////////////////////////////////////
+            // feed freeFieldFinder for fast intersection query
+            // optimization
+            // Fetch buildings in extendedEnvelope
+            fetchCellBuildings(connection, noiseMapByReceiverMaker.getBuildingTableParameters(), expandedCellEnvelop,
+                    scene.profileBuilder, geometryFactory);
 
-        //if we have topographic points data
-        fetchCellDem(connection, expandedCellEnvelop, scene.profileBuilder);
+            //if we have topographic points data
+            fetchCellDem(connection, expandedCellEnvelop, scene.profileBuilder);
 
-        // Fetch soil areas
-        fetchCellSoilAreas(connection, expandedCellEnvelop, scene.profileBuilder);
+            // Fetch soil areas
+            fetchCellSoilAreas(connection, expandedCellEnvelop, scene.profileBuilder);
 
-        scene.profileBuilder.finishFeeding();
+            scene.profileBuilder.finishFeeding();
+
+            // Fetch all source located in expandedCellEnvelop
+            fetchCellSource(connection, expandedCellEnvelop, scene, true);
+
+            // Fetch receivers
+            fetchCellReceivers(connection, cellEnvelope, scene, skipReceivers);
+        } else {
+            fetchCellConcurrently(expandedCellEnvelop, cellEnvelope, scene, skipReceivers);
+        }
 
         scene.reflexionOrder = noiseMapByReceiverMaker.getSoundReflectionOrder();
         scene.setBodyBarrier(noiseMapByReceiverMaker.isBodyBarrier());
         scene.maxRefDist = maximumReflectionDistance;
         scene.maxSrcDist = maximumPropagationDistance;
+        scene.setMaximumFarFieldError(noiseMapByReceiverMaker.getMaximumFarFieldError());
         scene.setComputeVerticalDiffraction(noiseMapByReceiverMaker.isComputeVerticalDiffraction());
         scene.setComputeHorizontalDiffraction(noiseMapByReceiverMaker.isComputeHorizontalDiffraction());
 
-        // Fetch all source located in expandedCellEnvelop
-        fetchCellSource(connection, expandedCellEnvelop, scene, true);
+        return scene;
+    }
+
+    /**
+     * Fetch the buildings, topography, soil areas, sources and receivers of a cell concurrently. Each query is run
+     * on its own connection opened from {@link #getDataSource()}, then the profile builder is fed with the obstacles
+     * in the same order as the sequential fetch.
+     * Unlike the sequential fetch, the sources are loaded before {@link ProfileBuilder#finishFeeding()}, they only
+     * depend on the frequency array of the profile builder.
+     * @param expandedCellEnvelope Envelope of the cell expanded by the propagation distance
+     * @param cellEnvelope Envelope of the cell (receivers)
+     * @param scene (Out) scene to feed
+     * @param skipReceivers Receivers already processed by another cell (will be updated)
+     * @throws SQLException if an SQL exception occurs while fetching the cell data.
+     */
+    protected void fetchCellConcurrently(Envelope expandedCellEnvelope, Envelope cellEnvelope,
+                                         SceneWithEmission scene, Set<Long> skipReceivers) throws SQLException {
+        GeometryFactory geometryFactory = noiseMapByReceiverMaker.getGeometryFactory();
+        List<Building> buildings = new ArrayList<>();
+        List<Wall> walls = new ArrayList<>();
+        List<Coordinate> topographicPoints = new ArrayList<>();
+        List<GroundAbsorption> groundAbsorptions = new ArrayList<>();
+        ThreadPool executorService = getFetchThreadPool();
+        List<Future<?>> fetchTasks = new ArrayList<>(CONCURRENT_FETCH_COUNT);
+        try {
+            fetchTasks.add(submitFetch(executorService, connection -> fetchCellBuildings(connection,
+                    noiseMapByReceiverMaker.getBuildingTableParameters(), expandedCellEnvelope, buildings, walls,
+                    geometryFactory)));
+            fetchTasks.add(submitFetch(executorService, connection -> fetchCellDem(connection, expandedCellEnvelope,
+                    topographicPoints)));
+            fetchTasks.add(submitFetch(executorService, connection -> fetchCellSoilAreas(connection,
+                    expandedCellEnvelope, groundAbsorptions)));
+            // sources and receivers are stored in distinct fields of the scene
+            fetchTasks.add(submitFetch(executorService, connection -> fetchCellSource(connection,
+                    expandedCellEnvelope, scene, true)));
+            fetchTasks.add(submitFetch(executorService, connection -> fetchCellReceivers(connection, cellEnvelope,
+                    scene, skipReceivers)));
+            for (Future<?> fetchTask : fetchTasks) {
+                try {
+                    fetchTask.get();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new SQLException(ex);
+                } catch (ExecutionException ex) {
+                    if (ex.getCause() instanceof SQLException) {
+                        throw (SQLException) ex.getCause();
+                    } else if (ex.getCause() instanceof RuntimeException) {
+                        throw (RuntimeException) ex.getCause();
+                    }
+                    throw new SQLException(ex.getCause());
+                }
+            }
+        } finally {
+            // stop the remaining queries of this cell if one of them failed
+            for (Future<?> fetchTask : fetchTasks) {
+                fetchTask.cancel(true);
+            }
+        }
+        for (Building building : buildings) {
+            scene.profileBuilder.addBuilding(building);
+        }
+        for (Wall wall : walls) {
+            scene.profileBuilder.addWall(wall);
+        }
+        for (Coordinate topographicPoint : topographicPoints) {
+            scene.profileBuilder.addTopographicPoint(topographicPoint);
+        }
+        for (GroundAbsorption groundAbsorption : groundAbsorptions) {
+            scene.profileBuilder.addGroundEffect(groundAbsorption.getGeometry(), groundAbsorption.getCoefficient());
+        }
+        scene.profileBuilder.finishFeeding();
+    }
+
+    /**
+     * @return Thread pool of the concurrent fetch, created on the first cell
+     */
+    private synchronized ThreadPool getFetchThreadPool() {
+        if (fetchThreadPool == null) {
+            fetchThreadPool = new ThreadPool(CONCURRENT_FETCH_COUNT, CONCURRENT_FETCH_COUNT, 60, TimeUnit.SECONDS);
+            fetchThreadPool.allowCoreThreadTimeOut(true);
+        }
+        return fetchThreadPool;
+    }
+
+    private Future<?> submitFetch(ThreadPool executorService, FetchTask fetchTask) {
+        return executorService.submit(() -> {
+            try (Connection connection = JDBCUtilities.wrapConnection(dataSource.getConnection())) {
+                fetchTask.fetch(connection);
+            }
+            return null;
+        });
+    }
 
-        // Fetch receivers
+    /**
+     * Query run on a dedicated connection
+     */
+    private interface FetchTask {
+        void fetch(Connection connection) throws SQLException;
+    }
+
+    /**
+     * Fetch the receivers located in the cell envelope
+     * @param connection Active connection
+     * @param cellEnvelope Envelope of the cell
+     * @param scene (Out) Propagation process input data
+     * @param skipReceivers Receivers already processed by another cell (will be updated)
+     * @throws SQLException if an SQL exception occurs while fetching the receivers.
+     */
+    public void fetchCellReceivers(Connection connection, Envelope cellEnvelope, SceneWithEmission scene,
+                                   Set<Long> skipReceivers) throws SQLException {
+        DBTypes dbType = DBUtils.getDBType(connection.unwrap(Connection.class));
+        GeometryFactory geometryFactory = noiseMapByReceiverMaker.getGeometryFactory();
         String receiverTableName = noiseMapByReceiverMaker.getReceiverTableName();
         String receiverGeomName = GeometryTableUtilities.getGeometryColumnNames(connection,
                 TableLocation.parse(receiverTableName)).get(0);
@@ -321,8 +489,6 @@ public class DefaultTableLoader implements NoiseMapByReceiverMaker.TableLoader {
                 }
             }
         }
-
-        return scene;
     }
 
     /**
@@ -338,6 +504,20 @@ public class DefaultTableLoader implements NoiseMapByReceiverMaker.TableLoader {
      * @return Map of directivity spheres
      */
     public static Map<Integer, DirectivitySphere> fetchDirectivity(Connection connection, String tableName, int defaultInterpolation, String frequencyFieldPrepend) throws SQLException {
+        return fetchDirectivity(connection, tableName, defaultInterpolation, frequencyFieldPrepend, 0);
+    }
+
+    /**
+     * Same as {@link #fetchDirectivity(Connection, String, int, String)} with the option to resample each sphere
+     * into a grid at load time, see {@link DiscreteDirectivitySphere#precomputeGrid(double)}
+     * @param connection Connection
+     * @param tableName Table name
+     * @param defaultInterpolation Interpolation if applicable
+     * @param frequencyFieldPrepend Frequency field name ex. HZ for HZ1000
+     * @param gridAngleStep Angle step of the grid in radians, 0 to keep the records only
+     * @return Map of directivity spheres
+     */
+    public static Map<Integer, DirectivitySphere> fetchDirectivity(Connection connection, String tableName, int defaultInterpolation, String frequencyFieldPrepend, double gridAngleStep) throws SQLException {
         Map<Integer, DirectivitySphere> directionAttributes = new HashMap<>();
         List<String> fields = JDBCUtilities.getColumnNames(connection, tableName);
         // fetch provided frequencies
@@ -379,6 +559,9 @@ public class DefaultTableLoader implements NoiseMapByReceiverMaker.TableLoader {
                         DiscreteDirectivitySphere attributes = new DiscreteDirectivitySphere(lastDirId, frequencies);
                         attributes.setInterpolationMethod(defaultInterpolation);
                         attributes.addDirectivityRecords(rows);
+                        if(gridAngleStep > 0) {
+                            attributes.precomputeGrid(gridAngleStep);
+                        }
                         directionAttributes.put(lastDirId, attributes);
                         rows.clear();
                     }
@@ -396,6 +579,9 @@ public class DefaultTableLoader implements NoiseMapByReceiverMaker.TableLoader {
                     DiscreteDirectivitySphere attributes = new DiscreteDirectivitySphere(lastDirId, frequencies);
                     attributes.setInterpolationMethod(defaultInterpolation);
                     attributes.addDirectivityRecords(rows);
+                    if(gridAngleStep > 0) {
+                        attributes.precomputeGrid(gridAngleStep);
+                    }
                     directionAttributes.put(lastDirId, attributes);
                 }
             }
@@ -579,6 +765,22 @@ public class DefaultTableLoader implements NoiseMapByReceiverMaker.TableLoader {
      * @throws SQLException if an SQL exception occurs while fetching the DEM data.
      */
     protected void fetchCellDem(Connection connection, Envelope fetchEnvelope, ProfileBuilder profileBuilder) throws SQLException {
+        List<Coordinate> topographicPoints = new ArrayList<>();
+        fetchCellDem(connection, fetchEnvelope, topographicPoints);
+        for (Coordinate topographicPoint : topographicPoints) {
+            profileBuilder.addTopographicPoint(topographicPoint);
+        }
+    }
+
+    /**
+     * Fetches digital elevation model (DEM) data for the specified cell envelope and adds it to the provided list.
+     * @param connection the database connection to use for querying the DEM data.
+     * @param fetchEnvelope  the envelope representing the cell to fetch DEM data for.
+     * @param topographicPoints the list to which the topographic points will be added.
+     * @throws SQLException if an SQL exception occurs while fetching the DEM data.
+     */
+    protected void fetchCellDem(Connection connection, Envelope fetchEnvelope, List<Coordinate> topographicPoints)
+            throws SQLException {
         String demTable = noiseMapByReceiverMaker.getDemTable();
         if(!demTable.isEmpty()) {
             GeometryFactory geometryFactory = noiseMapByReceiverMaker.getGeometryFactory();
@@ -601,7 +803,7 @@ public class DefaultTableLoader implements NoiseMapByReceiverMaker.TableLoader {
                         Geometry pt = rs.getGeometry();
                         if(pt != null) {
                             Coordinate ptCoordinate = pt.getCoordinate();
-                            profileBuilder.addTopographicPoint(ptCoordinate);
+                            topographicPoints.add(ptCoordinate);
                             if(!Double.isNaN(ptCoordinate.z)) {
                                 sumZ+=ptCoordinate.z;
                                 topoCount+=1;
@@ -619,7 +821,7 @@ public class DefaultTableLoader implements NoiseMapByReceiverMaker.TableLoader {
                 Coordinate[] coordinates = geometryFactory.toGeometry(extentedEnvelope).getCoordinates();
                 for (int i = 0; i < coordinates.length - 1; i++) {
                     Coordinate coordinate = coordinates[i];
-                    profileBuilder.addTopographicPoint(new Coordinate(coordinate.x, coordinate.y, averageZ));
+                    topographicPoints.add(new Coordinate(coordinate.x, coordinate.y, averageZ));
                 }
             }
         }
@@ -635,6 +837,22 @@ public class DefaultTableLoader implements NoiseMapByReceiverMaker.TableLoader {
      */
     protected void fetchCellSoilAreas(Connection connection, Envelope fetchEnvelope, ProfileBuilder builder)
             throws SQLException {
+        List<GroundAbsorption> groundAbsorptions = new ArrayList<>();
+        fetchCellSoilAreas(connection, fetchEnvelope, groundAbsorptions);
+        for (GroundAbsorption groundAbsorption : groundAbsorptions) {
+            builder.addGroundEffect(groundAbsorption.getGeometry(), groundAbsorption.getCoefficient());
+        }
+    }
+
+    /**
+     * Fetches soil areas data for the specified cell envelope and adds them to the provided list.
+     * @param connection         the database connection to use for querying the soil areas data.
+     * @param fetchEnvelope      the envelope representing the cell to fetch soil areas data for.
+     * @param groundAbsorptions  the list to which the soil areas split by {@link #groundSurfaceSplitSideLength} will be added.
+     * @throws SQLException      if an SQL exception occurs while fetching the soil areas data.
+     */
+    protected void fetchCellSoilAreas(Connection connection, Envelope fetchEnvelope,
+                                      List<GroundAbsorption> groundAbsorptions) throws SQLException {
         String soilTableName = noiseMapByReceiverMaker.getSoilTableName();
         if(!soilTableName.isEmpty()){
             GeometryFactory geometryFactory = noiseMapByReceiverMaker.getGeometryFactory();
@@ -673,7 +891,7 @@ public class DefaultTableLoader implements NoiseMapByReceiverMaker.TableLoader {
                                                 try {
                                                     Geometry inters = poly.intersection(envGeom);
                                                     if (!inters.isEmpty() && (inters instanceof Polygon || inters instanceof MultiPolygon)) {
-                                                        builder.addGroundEffect(inters, g);
+                                                        groundAbsorptions.add(new GroundAbsorption(inters, g));
                                                     }
                                                 } catch (TopologyException | IllegalArgumentException ex) {
                                                     // Ignore
@@ -0,0 +1,247 @@
+/**
+ * NoiseModelling is a library capable of producing noise maps. It can be freely used either for research and education, as well as by experts in a professional use.
+ * <p>
+ * NoiseModelling is distributed under GPL 3 license. You can read a copy of this License in the file LICENCE provided with this software.
+ * <p>
+ * Official webpage : http://noise-planet.org/noisemodelling.html
+ * Contact: contact@noise-planet.org
+ */
+
+package org.noise_planet.noisemodelling.jdbc.input;
+
+import org.h2gis.utilities.SpatialResultSet;
+import org.h2gis.utilities.TableLocation;
+import org.h2gis.utilities.dbtypes.DBTypes;
+import org.h2gis.utilities.dbtypes.DBUtils;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.index.strtree.STRtree;
+import org.noise_planet.noisemodelling.pathfinder.path.Scene;
+
+import java.sql.Connection;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import static org.h2gis.utilities.GeometryTableUtilities.getGeometryColumnNames;
+
+/**
+ * Areas of the scene that have been edited since a previous computation (buildings, walls, ground absorption or
+ * topography). Used by {@link org.noise_planet.noisemodelling.jdbc.NoiseMapByReceiverMaker} in incremental mode in
+ * order to compute again only the receivers that may have a propagation path going near the changes.
+ * @author Nicolas Fortin, Université Gustave Eiffel
+ */
+public class SceneChanges {
+    private final List<Geometry> changedGeometries = new ArrayList<>();
+    private STRtree changedGeometriesIndex = null;
+    private final GeometryFactory geometryFactory = new GeometryFactory();
+
+    /**
+     * Add an edited area. For a moved or modified object both the previous and the new geometry must be provided.
+     * @param geometry Footprint of the edited object
+     */
+    public void addChangedGeometry(Geometry geometry) {
+        if (geometry != null && !geometry.isEmpty()) {
+            changedGeometries.add(geometry);
+            changedGeometriesIndex = null;
+        }
+    }
+
+    /**
+     * @return Footprints of the edited objects
+     */
+    public List<Geometry> getChangedGeometries() {
+        return Collections.unmodifiableList(changedGeometries);
+    }
+
+    /**
+     * @return True if there is no edited area
+     */
+    public boolean isEmpty() {
+        return changedGeometries.isEmpty();
+    }
+
+    /**
+     * Compare two versions of a table (buildings, walls, ground absorption or topography) and add the geometries of the
+     * rows that have been added, removed or modified. Rows are matched using the primary key field, a row is modified
+     * if any column value is not the same.
+     * @param connection Active connection
+     * @param previousTableName Table used in the previous computation
+     * @param currentTableName Table to use for the new computation
+     * @param primaryKeyField Field that identify the same row in both tables
+     * @return Number of changed rows
+     * @throws SQLException If an SQL exception occurs
+     */
+    public int addTableChanges(Connection connection, String previousTableName, String currentTableName,
+                               String primaryKeyField) throws SQLException {
+        Map<Long, Map<String, Object>> previousRows = fetchRows(connection, previousTableName, primaryKeyField);
+        Map<Long, Map<String, Object>> currentRows = fetchRows(connection, currentTableName, primaryKeyField);
+        int changedRows = 0;
+        for (Map.Entry<Long, Map<String, Object>> entry : previousRows.entrySet()) {
+            Map<String, Object> currentRow = currentRows.remove(entry.getKey());
+            if (!entry.getValue().equals(currentRow)) {
+                changedRows++;
+                addRowGeometry(entry.getValue());
+                if (currentRow != null) {
+                    addRowGeometry(currentRow);
+                }
+            }
+        }
+        // remaining rows have been added
+        for (Map<String, Object> row : currentRows.values()) {
+            changedRows++;
+            addRowGeometry(row);
+        }
+        return changedRows;
+    }
+
+    private void addRowGeometry(Map<String, Object> row) {
+        for (Object value : row.values()) {
+            if (value instanceof Geometry) {
+                addChangedGeometry((Geometry) value);
+            }
+        }
+    }
+
+    private static Map<Long, Map<String, Object>> fetchRows(Connection connection, String tableName,
+                                                          String primaryKeyField) throws SQLException {
+        DBTypes dbType = DBUtils.getDBType(connection);
+        TableLocation tableLocation = TableLocation.parse(tableName, dbType);
+        String geometryField = getGeometryColumnNames(connection, tableLocation).get(0);
+        Map<Long, Map<String, Object>> rows = new HashMap<>();
+        try (Statement st = connection.createStatement();
+             SpatialResultSet rs = st.executeQuery("SELECT * FROM " + tableLocation).unwrap(SpatialResultSet.class)) {
+            ResultSetMetaData metaData = rs.getMetaData();
+            while (rs.next()) {
+                Map<String, Object> row = new HashMap<>();
+                for (int columnIndex = 1; columnIndex <= metaData.getColumnCount(); columnIndex++) {
+                    String columnName = metaData.getColumnName(columnIndex);
+                    if (columnName.equalsIgnoreCase(geometryField)) {
+                        row.put(columnName, rs.getGeometry(columnIndex));
+                    } else {
+                        row.put(columnName, rs.getObject(columnIndex));
+                    }
+                }
+                rows.put(rs.getLong(primaryKeyField), row);
+            }
+        }
+        return rows;
+    }
+
+    private STRtree getIndex() {
+        if (changedGeometriesIndex == null) {
+            changedGeometriesIndex = new STRtree();
+            for (Geometry geometry : changedGeometries) {
+                changedGeometriesIndex.insert(geometry.getEnvelopeInternal(), geometry);
+            }
+            changedGeometriesIndex.build();
+        }
+        return changedGeometriesIndex;
+    }
+
+    /**
+     * Propagation paths between a source and a receiver stay in the vicinity of the convex hull of the source and the
+     * receiver. Reflections of first order are limited to the walls located at less than the maximum reflection
+     * distance of the source. Paths with more reflections or with diffractions on vertical edges are not longer than
+     * the maximum propagation distance so they are inside the ellipse with the source and the receiver as foci.
+     * @param scene Scene settings (propagation distances, reflection order and diffraction)
+     * @param sourceDistance Distance between the receiver and the nearest point of the source
+     * @return Distance from the hull of the source and the receiver where changes can alter the propagation paths
+     */
+    public static double getPathsMargin(Scene scene, double sourceDistance) {
+        double margin = 0;
+        if (scene.reflexionOrder > 0) {
+            margin = scene.maxRefDist;
+        }
+        if (scene.reflexionOrder > 1 || scene.computeHorizontalDiffraction) {
+            double maximumDistance = scene.maxSrcDist;
+            margin = Math.max(margin, Math.sqrt(Math.max(0, maximumDistance * maximumDistance -
+                    sourceDistance * sourceDistance)) / 2.0);
+        }
+        return margin;
+    }
+
+    /**
+     * @param scene Scene settings
+     * @param receiver Receiver position
+     * @param source Source geometry
+     * @return True if a change may alter a propagation path between this source and this receiver
+     */
+    public boolean isPathImpacted(Scene scene, Coordinate receiver, Geometry source) {
+        Geometry receiverPoint = geometryFactory.createPoint(receiver);
+        double sourceDistance = source.distance(receiverPoint);
+        if (sourceDistance >= scene.maxSrcDist) {
+            return false;
+        }
+        double margin = getPathsMargin(scene, sourceDistance);
+        Geometry hull = source.union(receiverPoint).convexHull();
+        Envelope searchEnvelope = new Envelope(hull.getEnvelopeInternal());
+        searchEnvelope.expandBy(margin);
+        for (Object item : getIndex().query(searchEnvelope)) {
+            if (((Geometry) item).isWithinDistance(hull, margin)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param scene Scene settings and sources
+     * @param receiver Receiver position
+     * @return True if a change may alter a propagation path between any source and this receiver
+     */
+    public boolean isReceiverImpacted(Scene scene, Coordinate receiver) {
+        if (changedGeometries.isEmpty()) {
+            return false;
+        }
+        // no change within the largest margin around the propagation disc
+        Envelope changesEnvelope = new Envelope(receiver);
+        changesEnvelope.expandBy(scene.maxSrcDist + getPathsMargin(scene, 0));
+        if (getIndex().query(changesEnvelope).isEmpty()) {
+            return false;
+        }
+        Envelope sourcesEnvelope = new Envelope(receiver);
+        sourcesEnvelope.expandBy(scene.maxSrcDist);
+        Iterator<Integer> sources = scene.sourcesIndex.query(sourcesEnvelope);
+        while (sources.hasNext()) {
+            if (isPathImpacted(scene, receiver, scene.sourceGeometries.get(sources.next()))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Remove from the scene the receivers that are not impacted by the changes
+     * @param scene Scene to filter
+     * @return Primary keys of the kept receivers (or index if there is no primary key)
+     */
+    public List<Long> keepImpactedReceivers(Scene scene) {
+        List<Coordinate> receivers = new ArrayList<>(scene.receivers.size());
+        List<Long> receiversPk = new ArrayList<>(scene.receiversPk.size());
+        List<Long> impactedReceivers = new ArrayList<>();
+        for (int receiverIndex = 0; receiverIndex < scene.receivers.size(); receiverIndex++) {
+            Coordinate receiver = scene.receivers.get(receiverIndex);
+            if (isReceiverImpacted(scene, receiver)) {
+                receivers.add(receiver);
+                long pk = receiverIndex;
+                if (receiverIndex < scene.receiversPk.size()) {
+                    pk = scene.receiversPk.get(receiverIndex);
+                    receiversPk.add(pk);
+                }
+                impactedReceivers.add(pk);
+            }
+        }
+        scene.receivers = receivers;
+        scene.receiversPk = receiversPk;
+        return impactedReceivers;
+    }
+}
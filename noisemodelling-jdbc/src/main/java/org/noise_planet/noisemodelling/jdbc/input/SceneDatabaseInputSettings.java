@@ -38,6 +38,8 @@ public class SceneDatabaseInputSettings {
 
     String directivityTableName = "";
     boolean useTrainDirectivity = false;
+    /** If greater than 0, resample the directivity spheres into a grid with this angle step in degrees */
+    double directivityGridAngleStep = 0;
 
     /**
      * Read {@link org.noise_planet.noisemodelling.propagation.AttenuationParameters} values from this table
@@ -72,6 +74,19 @@ public class SceneDatabaseInputSettings {
         this.useTrainDirectivity = useTrainDirectivity;
     }
 
+    public double getDirectivityGridAngleStep() {
+        return directivityGridAngleStep;
+    }
+
+    /**
+     * Resample each directivity sphere into a regular grid at load time. The attenuation of each propagation path is
+     * then read from the grid with a bilinear interpolation instead of searching the directivity records.
+     * @param directivityGridAngleStep Angle step of the grid in degrees, 0 to disable (default)
+     */
+    public void setDirectivityGridAngleStep(double directivityGridAngleStep) {
+        this.directivityGridAngleStep = directivityGridAngleStep;
+    }
+
     public int getCoefficientVersion() {
         return coefficientVersion;
     }
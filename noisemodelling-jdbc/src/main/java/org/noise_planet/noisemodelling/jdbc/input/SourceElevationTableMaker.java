@@ -0,0 +1,281 @@
+/**
+ * NoiseModelling is a library capable of producing noise maps. It can be freely used either for research and education, as well as by experts in a professional use.
+ * <p>
+ * NoiseModelling is distributed under GPL 3 license. You can read a copy of this License in the file LICENCE provided with this software.
+ * <p>
+ * Official webpage : http://noise-planet.org/noisemodelling.html
+ * Contact: contact@noise-planet.org
+ */
+
+package org.noise_planet.noisemodelling.jdbc.input;
+
+import org.h2gis.utilities.GeometryTableUtilities;
+import org.h2gis.utilities.JDBCUtilities;
+import org.h2gis.utilities.SpatialResultSet;
+import org.h2gis.utilities.TableLocation;
+import org.h2gis.utilities.Tuple;
+import org.h2gis.utilities.dbtypes.DBTypes;
+import org.h2gis.utilities.dbtypes.DBUtils;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.PrecisionModel;
+import org.noise_planet.noisemodelling.jdbc.NoiseMapByReceiverMaker;
+import org.noise_planet.noisemodelling.pathfinder.PathFinder;
+import org.noise_planet.noisemodelling.pathfinder.profilebuilder.ProfileBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.h2gis.utilities.GeometryTableUtilities.getGeometryColumnNames;
+
+/**
+ * Copy the source table of a {@link NoiseMapByReceiverMaker} into a new table where the Z of the source geometries are
+ * absolute to the sea level. The line sources are split on the topography edges.
+ * Sources are draped once for the whole domain instead of once for each computation cell that contains them. The
+ * computation must then use the new table with {@link NoiseMapByReceiverMaker#setSourceHasAbsoluteZCoordinates(boolean)}
+ * set to true.
+ * The domain is processed by tiles, the topography of each tile is triangulated and the sources are draped by
+ * several threads.
+ * @author Nicolas Fortin, Université Gustave Eiffel
+ */
+public class SourceElevationTableMaker {
+    private static final Logger LOGGER = LoggerFactory.getLogger(SourceElevationTableMaker.class);
+    public static final double DEFAULT_TILE_SIZE = 1000;
+    /** The topography is fetched at this distance around the sources of the tile */
+    public static final double DEM_MARGIN = 50;
+    private final NoiseMapByReceiverMaker noiseMapByReceiverMaker;
+    private double tileSize = DEFAULT_TILE_SIZE;
+    private int threadCount = 0;
+    private int batchSize = 500;
+
+    /**
+     * @param noiseMapByReceiverMaker Settings of the computation (sources, buildings and digital elevation model tables)
+     */
+    public SourceElevationTableMaker(NoiseMapByReceiverMaker noiseMapByReceiverMaker) {
+        this.noiseMapByReceiverMaker = noiseMapByReceiverMaker;
+    }
+
+    /**
+     * @return Side length of the tiles in meters
+     */
+    public double getTileSize() {
+        return tileSize;
+    }
+
+    /**
+     * @param tileSize Side length of the tiles in meters. The topography of a tile is triangulated in one piece.
+     */
+    public void setTileSize(double tileSize) {
+        this.tileSize = tileSize;
+    }
+
+    /**
+     * @return Number of threads used to drape the sources, 0 means the number of CPU cores
+     */
+    public int getThreadCount() {
+        return threadCount;
+    }
+
+    /**
+     * @param threadCount Number of threads used to drape the sources, 0 means the number of CPU cores
+     */
+    public void setThreadCount(int threadCount) {
+        this.threadCount = threadCount;
+    }
+
+    /**
+     * Create the output table and drape all the sources
+     * @param connection Active connection
+     * @param outputTableName Name of the table to create, with the same columns as the source table
+     * @return Number of updated sources
+     * @throws SQLException If an SQL exception occurs
+     */
+    public int run(Connection connection, String outputTableName) throws SQLException {
+        String sourcesTableName = noiseMapByReceiverMaker.getSourcesTableName();
+        DBTypes dbType = DBUtils.getDBType(connection.unwrap(Connection.class));
+        TableLocation sourceTableIdentifier = TableLocation.parse(sourcesTableName, dbType);
+        TableLocation outputTableIdentifier = TableLocation.parse(outputTableName, dbType);
+        List<String> geomFields = getGeometryColumnNames(connection, sourceTableIdentifier);
+        if (geomFields.isEmpty()) {
+            throw new SQLException(String.format("The table %s does not exists or does not contain a geometry field",
+                    sourceTableIdentifier));
+        }
+        String geomField = TableLocation.quoteIdentifier(geomFields.get(0), dbType);
+        Tuple<String, Integer> primaryKey = JDBCUtilities.getIntegerPrimaryKeyNameAndIndex(
+                connection.unwrap(Connection.class), sourceTableIdentifier);
+        if (primaryKey == null) {
+            throw new IllegalArgumentException(String.format("Source table %s does not contain a primary key",
+                    sourceTableIdentifier));
+        }
+        String pkField = TableLocation.quoteIdentifier(primaryKey.first(), dbType);
+        int srid = GeometryTableUtilities.getSRID(connection, sourceTableIdentifier);
+        GeometryFactory geometryFactory = new GeometryFactory(new PrecisionModel(), srid);
+        try (Statement st = connection.createStatement()) {
+            st.execute("DROP TABLE IF EXISTS " + outputTableIdentifier);
+            st.execute("CREATE TABLE " + outputTableIdentifier + " AS SELECT * FROM " + sourceTableIdentifier);
+            st.execute("ALTER TABLE " + outputTableIdentifier + " ADD PRIMARY KEY(" + pkField + ")");
+        }
+        Envelope domain = GeometryTableUtilities.getEnvelope(connection, sourceTableIdentifier).getEnvelopeInternal();
+        if (domain.isNull()) {
+            return 0;
+        }
+        // Used to fetch the digital elevation model of each tile
+        DefaultTableLoader topographyLoader = new DefaultTableLoader();
+        topographyLoader.noiseMapByReceiverMaker = noiseMapByReceiverMaker;
+        int tileCountX = Math.max(1, (int) Math.ceil(domain.getWidth() / tileSize));
+        int tileCountY = Math.max(1, (int) Math.ceil(domain.getHeight() / tileSize));
+        int threads = threadCount > 0 ? threadCount : Runtime.getRuntime().availableProcessors();
+        ExecutorService executorService = Executors.newFixedThreadPool(threads);
+        int updatedSources = 0;
+        try (PreparedStatement updateSt = connection.prepareStatement("UPDATE " + outputTableIdentifier + " SET " +
+                geomField + " = ? WHERE " + pkField + " = ?")) {
+            Deque<Future<TileResult>> pendingTiles = new ArrayDeque<>();
+            for (int i = 0; i < tileCountX; i++) {
+                for (int j = 0; j < tileCountY; j++) {
+                    Envelope tile = new Envelope(domain.getMinX() + i * tileSize,
+                            domain.getMinX() + (i + 1) * tileSize, domain.getMinY() + j * tileSize,
+                            domain.getMinY() + (j + 1) * tileSize);
+                    TileResult tileResult = fetchTile(connection, tile, geomField, pkField, sourceTableIdentifier,
+                            geometryFactory, topographyLoader, i == tileCountX - 1, j == tileCountY - 1);
+                    if (tileResult.sources.isEmpty()) {
+                        continue;
+                    }
+                    pendingTiles.add(executorService.submit(tileResult));
+                    // Keep a limited number of tiles in memory
+                    while (pendingTiles.size() > threads * 2) {
+                        updatedSources += writeTile(pendingTiles.removeFirst(), updateSt, srid);
+                    }
+                }
+            }
+            while (!pendingTiles.isEmpty()) {
+                updatedSources += writeTile(pendingTiles.removeFirst(), updateSt, srid);
+            }
+        } finally {
+            executorService.shutdownNow();
+        }
+        try (Statement st = connection.createStatement()) {
+            if (dbType == DBTypes.POSTGIS || dbType == DBTypes.POSTGRESQL) {
+                st.execute("CREATE INDEX ON " + outputTableIdentifier + " USING GIST(" + geomField + ")");
+            } else {
+                st.execute("CREATE SPATIAL INDEX ON " + outputTableIdentifier + "(" + geomField + ")");
+            }
+        }
+        if (noiseMapByReceiverMaker.isVerbose()) {
+            LOGGER.info("{} sources of {} have been draped on the topography into {}", updatedSources,
+                    sourceTableIdentifier, outputTableIdentifier);
+        }
+        return updatedSources;
+    }
+
+    /**
+     * Fetch the sources that belong to the tile and the topography and buildings around them. A source belongs to the
+     * tile that contains the lower left corner of its envelope.
+     */
+    private TileResult fetchTile(Connection connection, Envelope tile, String geomField, String pkField,
+                                 TableLocation sourceTableIdentifier, GeometryFactory geometryFactory,
+                                 DefaultTableLoader topographyLoader, boolean lastColumn, boolean lastRow)
+            throws SQLException {
+        TileResult tileResult = new TileResult();
+        Envelope fetchEnvelope = new Envelope(tile);
+        try (PreparedStatement st = connection.prepareStatement("SELECT " + pkField + ", " + geomField + " FROM " +
+                sourceTableIdentifier + " WHERE " + geomField + " && ?::geometry")) {
+            st.setObject(1, geometryFactory.toGeometry(tile));
+            try (SpatialResultSet rs = st.executeQuery().unwrap(SpatialResultSet.class)) {
+                while (rs.next()) {
+                    Geometry geometry = rs.getGeometry(2);
+                    if (geometry == null || geometry.isEmpty()) {
+                        continue;
+                    }
+                    Envelope sourceEnvelope = geometry.getEnvelopeInternal();
+                    if (belongsTo(sourceEnvelope.getMinX(), tile.getMinX(), tile.getMaxX(), lastColumn) &&
+                            belongsTo(sourceEnvelope.getMinY(), tile.getMinY(), tile.getMaxY(), lastRow)) {
+                        tileResult.primaryKeys.add(rs.getLong(1));
+                        tileResult.sources.add(geometry);
+                        fetchEnvelope.expandToInclude(sourceEnvelope);
+                    }
+                }
+            }
+        }
+        if (!tileResult.sources.isEmpty()) {
+            fetchEnvelope.expandBy(DEM_MARGIN);
+            DefaultTableLoader.fetchCellBuildings(connection, noiseMapByReceiverMaker.getBuildingTableParameters(),
+                    fetchEnvelope, tileResult.profileBuilder, geometryFactory);
+            topographyLoader.fetchCellDem(connection, fetchEnvelope, tileResult.profileBuilder);
+        }
+        return tileResult;
+    }
+
+    private static boolean belongsTo(double value, double min, double max, boolean last) {
+        return value >= min && (value < max || (last && value <= max));
+    }
+
+    private int writeTile(Future<TileResult> pendingTile, PreparedStatement updateSt, int srid) throws SQLException {
+        TileResult tileResult;
+        try {
+            tileResult = pendingTile.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new SQLException(ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+            throw new SQLException(ex.getCause());
+        }
+        int batchCount = 0;
+        for (int idSource = 0; idSource < tileResult.sources.size(); idSource++) {
+            Geometry source = tileResult.sources.get(idSource);
+            // point sources inside buildings are ignored by the computation (null geometry)
+            if (source != null) {
+                source.setSRID(srid);
+                updateSt.setObject(1, source);
+            } else {
+                updateSt.setNull(1, Types.OTHER);
+            }
+            updateSt.setLong(2, tileResult.primaryKeys.get(idSource));
+            updateSt.addBatch();
+            batchCount++;
+            if (batchCount >= batchSize) {
+                updateSt.executeBatch();
+                batchCount = 0;
+            }
+        }
+        if (batchCount > 0) {
+            updateSt.executeBatch();
+        }
+        return tileResult.sources.size();
+    }
+
+    /**
+     * Sources of a tile, draped in place when called
+     */
+    private static class TileResult implements Callable<TileResult> {
+        final ProfileBuilder profileBuilder = new ProfileBuilder();
+        final List<Long> primaryKeys = new ArrayList<>();
+        final List<Geometry> sources = new ArrayList<>();
+
+        @Override
+        public TileResult call() {
+            // the tiles are already processed concurrently
+            profileBuilder.setThreadCount(1);
+            profileBuilder.finishFeeding();
+            sources.replaceAll(source -> PathFinder.makeSourceGeometryAbsoluteZ(source, profileBuilder));
+            return this;
+        }
+    }
+}
@@ -51,6 +51,11 @@ public class AttenuationOutputSingleThread implements CutPlaneVisitor {
      */
     Map<Integer, TimePeriodParameters> receiverAttenuationList = new HashMap<>();
 
+    /**
+     * Merge sources mode, energy of all the sources on the current receiver summed in place for each period
+     */
+    final TimePeriodParameters mergedSourcesLevels = new TimePeriodParameters(new PathFinder.SourcePointInfo());
+
     /**
      * MaxError DB Processing variable
      * Current, power at receiver, only used to stop looking for far sources
@@ -65,6 +70,12 @@ public class AttenuationOutputSingleThread implements CutPlaneVisitor {
      */
     Map<String, HashMap<Coordinate, Double>> maximumWjExpectedSplAtReceiver = new HashMap<>();
 
+    /**
+     * MaxError DB Processing variable
+     * Upper bound of the power of the skipped reflection and lateral diffraction paths, for each period
+     */
+    Map<String, Double> prunedWjAtReceiver = new HashMap<>();
+
     public AtomicInteger cutProfileCount = new AtomicInteger(0);
 
     ProgressVisitor progressVisitor;
@@ -89,9 +100,18 @@ public class AttenuationOutputSingleThread implements CutPlaneVisitor {
      */
     private static double[] computeFastAttenuation(PathFinder.SourcePointInfo sourceInfo,
                                                    PathFinder.ReceiverPointInfo receiverInfo, AttenuationParameters cnossosParameters) {
+        return computeFastAttenuation(sourceInfo.position.distance3D(receiverInfo.position), cnossosParameters);
+    }
+
+    /**
+     * @param pathLength Length of the propagation path
+     * @param cnossosParameters Atmospheric settings
+     * @return Attenuation in dB
+     */
+    private static double[] computeFastAttenuation(double pathLength, AttenuationParameters cnossosParameters) {
         // For the quick attenuation evaluation
         // only take account of geometric dispersion and atmospheric attenuation
-        double distance = Math.max(1.0, sourceInfo.position.distance3D(receiverInfo.position));
+        double distance = Math.max(1.0, pathLength);
         // 3 dB gain as we consider source G path is equal to 0
         double attenuationDivGeom = AttenuationCnossos.getADiv(distance) - 3;
         return AcousticIndicatorsFunctions.multiplicationArray(AcousticIndicatorsFunctions.sumArray(
@@ -156,6 +176,10 @@ public class AttenuationOutputSingleThread implements CutPlaneVisitor {
                             scene.cnossosParametersPerPeriod.entrySet()) {
                         double[] attenuation = dBToW(processAndStoreAttenuation(cnossosParametersEntry.getValue(),
                                 cnossosPath, cnossosParametersEntry.getKey()));
+                        if(dbSettings.isMergeSources()) {
+                            mergedSourcesLevels.accumulate(cnossosParametersEntry.getKey(), attenuation, null);
+                            continue;
+                        }
                         ReceiverNoiseLevel receiverNoiseLevel =
                                 new ReceiverNoiseLevel(new PathFinder.SourcePointInfo(source),
                                         new PathFinder.ReceiverPointInfo(receiver), cnossosParametersEntry.getKey(),
@@ -164,11 +188,15 @@ public class AttenuationOutputSingleThread implements CutPlaneVisitor {
                     }
                 } else {
                     double[] attenuation = dBToW(processAndStoreAttenuation(scene.defaultCnossosParameters, cnossosPath, ""));
-                    ReceiverNoiseLevel receiverNoiseLevel =
-                            new ReceiverNoiseLevel(new PathFinder.SourcePointInfo(source),
-                                    new PathFinder.ReceiverPointInfo(receiver), "",
-                                    attenuation);
-                    processNoiseLevel(receiverNoiseLevel);
+                    if(dbSettings.isMergeSources()) {
+                        mergedSourcesLevels.accumulate("", attenuation, null);
+                    } else {
+                        ReceiverNoiseLevel receiverNoiseLevel =
+                                new ReceiverNoiseLevel(new PathFinder.SourcePointInfo(source),
+                                        new PathFinder.ReceiverPointInfo(receiver), "",
+                                        attenuation);
+                        processNoiseLevel(receiverNoiseLevel);
+                    }
                 }
             } else {
                 // Apply period attenuation to emission for each time period covered by the source emission
@@ -190,6 +218,15 @@ public class AttenuationOutputSingleThread implements CutPlaneVisitor {
                             }
                             attenuation = defaultAttenuation;
                         }
+                        if(dbSettings.isMergeSources()) {
+                            // sum the energy without allocating a row for each source
+                            double powerSum = mergedSourcesLevels.accumulate(period, attenuation,
+                                    periodEmission.emission);
+                            if(dbSettings.maximumError > 0) {
+                                wjAtReceiver.merge(period, powerSum, Double::sum);
+                            }
+                            continue;
+                        }
                         double[] levels = multiplicationArray(attenuation, periodEmission.emission);
                         ReceiverNoiseLevel receiverNoiseLevel =
                                 new ReceiverNoiseLevel(new PathFinder.SourcePointInfo(source),
@@ -229,7 +266,7 @@ public class AttenuationOutputSingleThread implements CutPlaneVisitor {
                     // Evaluate the current noise level at receiver compared to the final
                     // expected noise level at the receiver
                     double nonProcessedPower = maximumWjExpectedSplAtReceiver.get(period).values().stream()
-                            .reduce(Double::sum).orElse(0.0);
+                            .reduce(Double::sum).orElse(0.0) + prunedWjAtReceiver.getOrDefault(period, 0.0);
                     double maximumExpectedLevelInDb = AcousticIndicatorsFunctions.wToDb(levelAtReceiver
                             + nonProcessedPower);
                     double dBDiff = maximumExpectedLevelInDb - wToDb(levelAtReceiver);
@@ -258,6 +295,7 @@ public class AttenuationOutputSingleThread implements CutPlaneVisitor {
                 wjAtReceiver.put(period, 0.0);
             }
             maximumWjExpectedSplAtReceiver.clear();
+            prunedWjAtReceiver.clear();
 
             final SceneWithEmission scene = multiThread.sceneWithEmission;
             for (PathFinder.SourcePointInfo sourcePointInfo : sourceList) {
@@ -281,12 +319,62 @@ public class AttenuationOutputSingleThread implements CutPlaneVisitor {
         }
     }
 
+    /**
+     * Skip the path if its maximum power can't change the noise level at the receiver by more than half of the
+     * maximum error, the other half is left for the farthest sources. The skipped power is accumulated, so the sum of
+     * all the skipped paths stays in this budget.
+     */
+    @Override
+    public boolean acceptPath(PathFinder.SourcePointInfo source, PathFinder.ReceiverPointInfo receiver,
+                              double pathLength, double[] energyRatio) {
+        final SceneWithEmission scene = multiThread.sceneWithEmission;
+        if(dbSettings.getMaximumError() <= 0 || !scene.wjSources.containsKey(source.sourcePk) ||
+                !scene.isOmnidirectional(source.sourceIndex)) {
+            // the directivity of the source is not bounded
+            return true;
+        }
+        ArrayList<SceneWithEmission.PeriodEmission> emissions = scene.wjSources.get(source.sourcePk);
+        double[] attenuation = dBToW(computeFastAttenuation(pathLength, scene.defaultCnossosParameters));
+        // energy of the line source segment
+        double li = source.li > 1.0 ? source.li : 1.0;
+        double budgetRatio = (dBToW(dbSettings.getMaximumError()) - 1) / 2;
+        double[] pathPower = new double[emissions.size()];
+        for (int idEmission = 0; idEmission < emissions.size(); idEmission++) {
+            SceneWithEmission.PeriodEmission periodEmission = emissions.get(idEmission);
+            if(periodEmission.emission.length != attenuation.length) {
+                return true;
+            }
+            double power = 0;
+            for (int idFreq = 0; idFreq < attenuation.length; idFreq++) {
+                double ratio = energyRatio.length == attenuation.length ? energyRatio[idFreq] : 1.0;
+                power += attenuation[idFreq] * periodEmission.emission[idFreq] * ratio * li;
+            }
+            double levelAtReceiver = wjAtReceiver.getOrDefault(periodEmission.period, 0.0);
+            if(prunedWjAtReceiver.getOrDefault(periodEmission.period, 0.0) + power > levelAtReceiver * budgetRatio) {
+                return true;
+            }
+            pathPower[idEmission] = power;
+        }
+        for (int idEmission = 0; idEmission < emissions.size(); idEmission++) {
+            prunedWjAtReceiver.merge(emissions.get(idEmission).period, pathPower[idEmission], Double::sum);
+        }
+        multiThread.resultsCache.prunedPathCount.incrementAndGet();
+        return false;
+    }
+
     /**
      * Pushes attenuation data into a concurrent linked deque.
      * @param stack Stack to feed
      * @param data receiver noise level in dB
      */
     public void pushInStack(ConcurrentLinkedDeque<ReceiverNoiseLevel> stack, ReceiverNoiseLevel data) {
+        ReceiverLevelsSpill spill = multiThread.resultsCache.receiverLevelsSpill;
+        // once rows are stored in the spill the following rows are appended after them
+        if(spill != null && stack == multiThread.resultsCache.receiverLevels && (!spill.isEmpty() ||
+                multiThread.resultsCache.queueSize.get() > dbSettings.outputMaximumQueue) && spill.offer(data)) {
+            multiThread.resultsCache.queueSize.incrementAndGet();
+            return;
+        }
         while(multiThread.resultsCache.queueSize.get() > dbSettings.outputMaximumQueue) {
             try {
                 Thread.sleep(10);
@@ -367,6 +455,9 @@ public class AttenuationOutputSingleThread implements CutPlaneVisitor {
         // Convert to dB then pushed cached entries for this receiver into multi-thread instance
 
         boolean computeLden = isComputeLden();
+        if(dbSettings.isMergeSources() && !mergedSourcesLevels.levelsPerPeriod.isEmpty()) {
+            receiverAttenuationList.put(UNKNOWN_SOURCE_ID, mergedSourcesLevels);
+        }
         Set<String> collectedPeriod = new HashSet<>();
         for (Map.Entry<Integer, TimePeriodParameters> periodParametersEntry : receiverAttenuationList.entrySet()) {
             TimePeriodParameters periodParameters = periodParametersEntry.getValue();
@@ -410,8 +501,15 @@ public class AttenuationOutputSingleThread implements CutPlaneVisitor {
                         new ReceiverNoiseLevel(new PathFinder.SourcePointInfo(), receiver, period, levels));
             }
         }
+        // a canceled receiver may have incomplete results
+        if(multiThread.resultsCache.trackFinishedReceivers && !multiThread.aborted.get() &&
+                (progressVisitor == null || !progressVisitor.isCanceled())) {
+            multiThread.resultsCache.finishedReceivers.add(receiver.receiverPk);
+        }
         receiverAttenuationList.clear();
+        mergedSourcesLevels.levelsPerPeriod.clear();
         maximumWjExpectedSplAtReceiver.clear();
+        prunedWjAtReceiver.clear();
         wjAtReceiver.clear();
         this.cnossosPaths.clear();
     }
@@ -461,5 +559,32 @@ public class AttenuationOutputSingleThread implements CutPlaneVisitor {
             }
             return this;
         }
+
+        /**
+         * Sum in place a contribution in w, the arrays of the arguments are not kept
+         * @param period Time period
+         * @param attenuation Attenuation in w
+         * @param emission Emission in w, null to sum only the attenuation
+         * @return Global power of the contribution in w
+         */
+        public double accumulate(String period, double[] attenuation, double[] emission) {
+            if(emission != null && emission.length != attenuation.length) {
+                throw new IllegalArgumentException("Not same size array");
+            }
+            double[] energy = levelsPerPeriod.get(period);
+            if(energy == null || energy.length == 0) {
+                energy = new double[attenuation.length];
+                levelsPerPeriod.put(period, energy);
+            } else if(attenuation.length != 0 && energy.length != attenuation.length) {
+                throw new IllegalArgumentException("Arrays with different size");
+            }
+            double power = 0;
+            for (int idFreq = 0; idFreq < attenuation.length; idFreq++) {
+                double value = emission == null ? attenuation[idFreq] : attenuation[idFreq] * emission[idFreq];
+                energy[idFreq] += value;
+                power += value;
+            }
+            return power;
+        }
     }
 }
@@ -4,6 +4,7 @@ import org.h2gis.api.ProgressVisitor;
 import org.noise_planet.noisemodelling.jdbc.NoiseMapByReceiverMaker;
 import org.noise_planet.noisemodelling.jdbc.NoiseMapDatabaseParameters;
 import org.noise_planet.noisemodelling.jdbc.input.SceneWithEmission;
+import org.noise_planet.noisemodelling.jdbc.utils.CellIndex;
 import org.noise_planet.noisemodelling.pathfinder.CutPlaneVisitorFactory;
 import org.noise_planet.noisemodelling.pathfinder.ThreadPool;
 import org.noise_planet.noisemodelling.pathfinder.utils.profiler.JVMMemoryMetric;
@@ -11,8 +12,10 @@ import org.noise_planet.noisemodelling.pathfinder.utils.profiler.ProfilerThread;
 import org.noise_planet.noisemodelling.pathfinder.utils.profiler.ProgressMetric;
 import org.noise_planet.noisemodelling.pathfinder.utils.profiler.ReceiverStatsMetric;
 
+import java.io.IOException;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.List;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -41,6 +44,13 @@ public class DefaultCutPlaneProcessing implements NoiseMapByReceiverMaker.ICompu
         this.aborted = aborted;
     }
 
+    /**
+     * @return Results awaiting to be written in the database and computation counters
+     */
+    public ResultsCache getResultsCache() {
+        return resultsCache;
+    }
+
     /**
      *  Creates a new instance of IComputePathsOut using the provided Scene data and AttenuationParameters for different time periods.
      * @param scene       the scene data for the current computation thread.
@@ -72,6 +82,15 @@ public class DefaultCutPlaneProcessing implements NoiseMapByReceiverMaker.ICompu
     public void start(ProgressVisitor progressLogger) throws SQLException {
         noiseMapWriter = new NoiseMapWriter(connection, noiseMapByReceiverMaker, resultsCache, exitWhenDone, aborted);
         exitWhenDone.set(false);
+        resultsCache.trackFinishedReceivers = noiseMapByReceiverMaker.getCheckpoint() != null;
+        if(noiseMapDatabaseParameters.spillResultsToDisk) {
+            try {
+                resultsCache.receiverLevelsSpill = new ReceiverLevelsSpill(noiseMapDatabaseParameters.spillDirectory,
+                        noiseMapDatabaseParameters.outputMaximumQueue);
+            } catch (IOException ex) {
+                throw new SQLException(ex);
+            }
+        }
         if(profilerThread != null) {
             profilerThread.addMetric(new ProgressMetric(progressLogger));
             postProcessingThreadPool.submit(profilerThread);
@@ -84,6 +103,19 @@ public class DefaultCutPlaneProcessing implements NoiseMapByReceiverMaker.ICompu
         noiseMapWriterFuture = postProcessingThreadPool.submitBlocking(noiseMapWriter);
     }
 
+    @Override
+    public void clearReceivers(List<Long> receiversPk) {
+        // The writer thread deletes the previous results before inserting the new results of these receivers
+        resultsCache.clearedReceivers.addAll(receiversPk);
+    }
+
+    @Override
+    public void cellCompleted(CellIndex cellIndex) {
+        if(resultsCache.trackFinishedReceivers) {
+            resultsCache.finishedCells.add(cellIndex);
+        }
+    }
+
     /**
      * Write the last results and stop the sql writing thread
      * This method is blocked until the data is written or if there is an issue
@@ -95,6 +127,11 @@ public class DefaultCutPlaneProcessing implements NoiseMapByReceiverMaker.ICompu
             noiseMapWriterFuture.get();
         } catch (Exception e) {
             throw new SQLException(e);
+        } finally {
+            if(resultsCache.receiverLevelsSpill != null) {
+                resultsCache.receiverLevelsSpill.close();
+                resultsCache.receiverLevelsSpill = null;
+            }
         }
         // Shutdown the thread pool
         // previously submitted tasks are executed, but no new tasks will be accepted.
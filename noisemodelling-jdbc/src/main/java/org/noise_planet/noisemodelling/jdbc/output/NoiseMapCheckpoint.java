@@ -0,0 +1,252 @@
+/**
+ * NoiseModelling is a library capable of producing noise maps. It can be freely used either for research and education, as well as by experts in a professional use.
+ * <p>
+ * NoiseModelling is distributed under GPL 3 license. You can read a copy of this License in the file LICENCE provided with this software.
+ * <p>
+ * Official webpage : http://noise-planet.org/noisemodelling.html
+ * Contact: contact@noise-planet.org
+ */
+
+package org.noise_planet.noisemodelling.jdbc.output;
+
+import org.h2gis.utilities.JDBCUtilities;
+import org.h2gis.utilities.dbtypes.DBTypes;
+import org.h2gis.utilities.dbtypes.DBUtils;
+import org.noise_planet.noisemodelling.jdbc.utils.CellIndex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Set;
+
+/**
+ * Journal of the progression of a noise map computation, stored in a table of the results database.
+ * Each row contains the primary keys of receivers (encoded as a bitmap or as delta varints, whichever is the smallest)
+ * or the index of a computation area. A row is inserted only when all the results of its receivers have been written
+ * in the results tables, so an interrupted computation can skip the finished areas and receivers.
+ * @author Nicolas Fortin, Université Gustave Eiffel
+ */
+public class NoiseMapCheckpoint {
+    static final byte BITMAP_ENCODING = 0;
+    static final byte DELTA_ENCODING = 1;
+    private static final Logger LOGGER = LoggerFactory.getLogger(NoiseMapCheckpoint.class);
+
+    private final Connection connection;
+    private final String tableName;
+
+    /**
+     * @param connection Database connection
+     * @param tableName Journal table
+     */
+    public NoiseMapCheckpoint(Connection connection, String tableName) {
+        this.connection = connection;
+        this.tableName = tableName;
+    }
+
+    /**
+     * @return Journal table
+     */
+    public String getTableName() {
+        return tableName;
+    }
+
+    /**
+     * Drop and create the journal table
+     * @throws SQLException If an SQL exception occurs
+     */
+    public void create() throws SQLException {
+        DBTypes dbType = DBUtils.getDBType(connection);
+        String binaryType = dbType == DBTypes.POSTGIS || dbType == DBTypes.POSTGRESQL ? "BYTEA" : "VARBINARY";
+        try (Statement st = connection.createStatement()) {
+            st.execute("DROP TABLE IF EXISTS " + tableName);
+            st.execute("CREATE TABLE " + tableName + "(PK SERIAL PRIMARY KEY, LONGITUDE_INDEX INTEGER," +
+                    " LATITUDE_INDEX INTEGER, RECEIVERS " + binaryType + ")");
+        }
+    }
+
+    /**
+     * Remove the journal table, once the computation is complete
+     * @throws SQLException If an SQL exception occurs
+     */
+    public void drop() throws SQLException {
+        try (Statement st = connection.createStatement()) {
+            st.execute("DROP TABLE IF EXISTS " + tableName);
+        }
+    }
+
+    /**
+     * Read the journal of a previous computation
+     * @param finishedReceivers Receivers with all results written
+     * @param finishedCells Computation areas with all results written
+     * @return True if the journal of a previous computation has been found
+     * @throws SQLException If an SQL exception occurs
+     */
+    public boolean load(Set<Long> finishedReceivers, Set<CellIndex> finishedCells) throws SQLException {
+        if (!JDBCUtilities.tableExists(connection, tableName)) {
+            return false;
+        }
+        boolean found = false;
+        try (Statement st = connection.createStatement();
+             ResultSet rs = st.executeQuery("SELECT LONGITUDE_INDEX, LATITUDE_INDEX, RECEIVERS FROM " + tableName)) {
+            while (rs.next()) {
+                found = true;
+                byte[] receivers = rs.getBytes(3);
+                if (receivers != null) {
+                    decode(receivers, finishedReceivers);
+                } else {
+                    finishedCells.add(new CellIndex(rs.getInt(1), rs.getInt(2)));
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Append the finished receivers and computation areas in the journal
+     * @param receivers Receivers with all results written
+     * @param cells Computation areas with all results written
+     * @throws SQLException If an SQL exception occurs
+     */
+    public void write(Collection<Long> receivers, Collection<CellIndex> cells) throws SQLException {
+        try (PreparedStatement ps = connection.prepareStatement("INSERT INTO " + tableName +
+                "(LONGITUDE_INDEX, LATITUDE_INDEX, RECEIVERS) VALUES (?, ?, ?)")) {
+            if (!receivers.isEmpty()) {
+                ps.setObject(1, null);
+                ps.setObject(2, null);
+                ps.setBytes(3, encode(receivers));
+                ps.addBatch();
+            }
+            for (CellIndex cellIndex : cells) {
+                ps.setInt(1, cellIndex.getLongitudeIndex());
+                ps.setInt(2, cellIndex.getLatitudeIndex());
+                ps.setBytes(3, null);
+                ps.addBatch();
+            }
+            ps.executeBatch();
+        }
+    }
+
+    /**
+     * Remove the results of the receivers not recorded in the journal, they have been written after the last
+     * checkpoint of the interrupted computation and will be computed again.
+     * The results tables are not indexed yet, so the journaled receivers are copied in an indexed work table and each
+     * results table is cleaned with a single delete query.
+     * @param finishedReceivers Receivers with all results written
+     * @param tables Results tables with an IDRECEIVER column
+     * @return Number of removed rows
+     * @throws SQLException If an SQL exception occurs
+     */
+    public int clearUnfinishedResults(Set<Long> finishedReceivers, Collection<String> tables) throws SQLException {
+        String finishedTable = tableName + "_FINISHED";
+        int removedRows = 0;
+        try (Statement st = connection.createStatement()) {
+            st.execute("DROP TABLE IF EXISTS " + finishedTable);
+            st.execute("CREATE TABLE " + finishedTable + "(IDRECEIVER BIGINT PRIMARY KEY)");
+            try (PreparedStatement ps = connection.prepareStatement("INSERT INTO " + finishedTable +
+                    "(IDRECEIVER) VALUES (?)")) {
+                int batchSize = 0;
+                for (long receiverPk : finishedReceivers) {
+                    ps.setLong(1, receiverPk);
+                    ps.addBatch();
+                    batchSize++;
+                    if (batchSize >= NoiseMapWriter.BATCH_MAX_SIZE) {
+                        ps.executeBatch();
+                        ps.clearBatch();
+                        batchSize = 0;
+                    }
+                }
+                if (batchSize > 0) {
+                    ps.executeBatch();
+                }
+            }
+            for (String table : tables) {
+                if (!JDBCUtilities.tableExists(connection, table)) {
+                    continue;
+                }
+                int removed = st.executeUpdate("DELETE FROM " + table + " WHERE IDRECEIVER NOT IN (SELECT" +
+                        " IDRECEIVER FROM " + finishedTable + ")");
+                if (removed > 0) {
+                    LOGGER.info(String.format("Removed %d results of unfinished receivers from %s", removed, table));
+                }
+                removedRows += removed;
+            }
+        } finally {
+            try (Statement st = connection.createStatement()) {
+                st.execute("DROP TABLE IF EXISTS " + finishedTable);
+            }
+        }
+        return removedRows;
+    }
+
+    /**
+     * @param receivers Receivers primary keys
+     * @return Receivers encoded as a bitmap or sorted delta varints, whichever is the smallest
+     */
+    static byte[] encode(Collection<Long> receivers) {
+        long[] sorted = receivers.stream().mapToLong(Long::longValue).sorted().distinct().toArray();
+        long first = sorted[0];
+        long range = sorted[sorted.length - 1] - first + 1;
+        ByteArrayOutputStream deltas = new ByteArrayOutputStream();
+        long previous = first;
+        for (int i = 1; i < sorted.length; i++) {
+            long delta = sorted[i] - previous;
+            previous = sorted[i];
+            while ((delta & ~0x7FL) != 0) {
+                deltas.write((int) ((delta & 0x7F) | 0x80));
+                delta >>>= 7;
+            }
+            deltas.write((int) delta);
+        }
+        if (range < Integer.MAX_VALUE && range / 8 < deltas.size()) {
+            BitSet bitSet = new BitSet((int) range);
+            for (long receiver : sorted) {
+                bitSet.set((int) (receiver - first));
+            }
+            byte[] bitmap = bitSet.toByteArray();
+            return ByteBuffer.allocate(1 + Long.BYTES + bitmap.length).put(BITMAP_ENCODING).putLong(first)
+                    .put(bitmap).array();
+        }
+        return ByteBuffer.allocate(1 + Long.BYTES + deltas.size()).put(DELTA_ENCODING).putLong(first)
+                .put(deltas.toByteArray()).array();
+    }
+
+    /**
+     * @param data Encoded receivers
+     * @param receivers Decoded receivers primary keys
+     */
+    static void decode(byte[] data, Set<Long> receivers) {
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        byte encoding = buffer.get();
+        long first = buffer.getLong();
+        if (encoding == BITMAP_ENCODING) {
+            BitSet bitSet = BitSet.valueOf(Arrays.copyOfRange(data, buffer.position(), data.length));
+            for (int i = bitSet.nextSetBit(0); i >= 0; i = bitSet.nextSetBit(i + 1)) {
+                receivers.add(first + i);
+            }
+        } else {
+            long receiver = first;
+            receivers.add(receiver);
+            while (buffer.hasRemaining()) {
+                long delta = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    b = buffer.get();
+                    delta |= (long) (b & 0x7F) << shift;
+                    shift += 7;
+                } while ((b & 0x80) != 0);
+                receiver += delta;
+                receivers.add(receiver);
+            }
+        }
+    }
+}
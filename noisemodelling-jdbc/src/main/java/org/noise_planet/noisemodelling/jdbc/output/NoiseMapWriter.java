@@ -12,11 +12,16 @@ package org.noise_planet.noisemodelling.jdbc.output;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.ObjectWriter;
+import org.h2gis.utilities.JDBCUtilities;
+import org.h2gis.utilities.TableLocation;
+import org.h2gis.utilities.dbtypes.DBTypes;
+import org.h2gis.utilities.dbtypes.DBUtils;
 import org.locationtech.jts.geom.*;
 import org.noise_planet.noisemodelling.jdbc.NoiseMapByReceiverMaker;
 import org.noise_planet.noisemodelling.jdbc.NoiseMapDatabaseParameters;
 import org.noise_planet.noisemodelling.jdbc.input.DefaultTableLoader;
 import org.noise_planet.noisemodelling.jdbc.input.SceneDatabaseInputSettings;
+import org.noise_planet.noisemodelling.jdbc.utils.CellIndex;
 import org.noise_planet.noisemodelling.jdbc.utils.StringPreparedStatements;
 import org.noise_planet.noisemodelling.pathfinder.profilebuilder.ProfileBuilder;
 import org.noise_planet.noisemodelling.pathfinder.utils.AcousticIndicatorsFunctions;
@@ -24,16 +29,21 @@ import org.noise_planet.noisemodelling.pathfinder.utils.geometry.CoordinateMixin
 import org.noise_planet.noisemodelling.pathfinder.utils.geometry.LineSegmentMixin;
 import org.noise_planet.noisemodelling.propagation.ReceiverNoiseLevel;
 import org.noise_planet.noisemodelling.propagation.cnossos.CnossosPath;
+import org.noise_planet.noisemodelling.propagation.cnossos.CnossosPathCodec;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentLinkedDeque;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -59,6 +69,11 @@ public class NoiseMapWriter implements Callable<Boolean> {
     ResultsCache resultsCache;
     Writer writer;
     ObjectWriter jsonWriter;
+    CnossosPathCodec pathCodec;
+    /** Incremental mode, the results table of a previous computation is kept */
+    boolean keepResultsTable = false;
+    /** Journal of the written results, null if the computation is not journaled */
+    NoiseMapCheckpoint checkpoint;
     int srid;
     public List<Integer> frequencyArray = Arrays.asList(AcousticIndicatorsFunctions.asOctaveBands(ProfileBuilder.DEFAULT_FREQUENCIES_THIRD_OCTAVE));
     public double[] aWeightingArray = Arrays.stream(
@@ -85,7 +100,9 @@ public class NoiseMapWriter implements Callable<Boolean> {
         }
         this.exitWhenDone = exitWhenDone;
         this.aborted = aborted;
-        if(databaseParameters.exportCnossosPathWithAttenuation) {
+        if(databaseParameters.exportCnossosPathWithAttenuation && databaseParameters.exportCnossosPathAsBinary) {
+            pathCodec = new CnossosPathCodec();
+        } else if(databaseParameters.exportCnossosPathWithAttenuation) {
             ObjectMapper mapper = new ObjectMapper();
             mapper.addMixIn(Coordinate.class, CoordinateMixin.class);
             mapper.addMixIn(LineSegment.class, LineSegmentMixin.class);
@@ -102,6 +119,15 @@ public class NoiseMapWriter implements Callable<Boolean> {
         return mapper.readValue(json, CnossosPath.class);
     }
 
+    /**
+     * @param data PATH column content when the paths are exported using the binary encoding
+     * @return Decoded path
+     * @throws IOException If the data is not a supported encoded path
+     */
+    public static CnossosPath binaryToPropagationPath(byte[] data) throws IOException {
+        return CnossosPathCodec.decode(data);
+    }
+
     /**
      * Processes the stack of CnossosPath objects and inserts their data into the rays table.
      * @param stack the stack of CnossosPath objects containing the data to be inserted into the rays table
@@ -151,7 +177,15 @@ public class NoiseMapWriter implements Callable<Boolean> {
             ps.setObject(parameterIndex++, lineString);
             ps.setLong(parameterIndex++, row.getCutProfile().getReceiver().receiverPk);
             ps.setLong(parameterIndex++, row.getCutProfile().getSource().sourcePk);
-            if(databaseParameters.exportCnossosPathWithAttenuation) {
+            if(pathCodec != null) {
+                byte[] data = new byte[0];
+                try {
+                    data = pathCodec.encode(row);
+                } catch (IOException ex) {
+                    //ignore
+                }
+                ps.setBytes(parameterIndex++, data);
+            } else if(databaseParameters.exportCnossosPathWithAttenuation) {
                 String json = "";
                 try {
                     json = propagationPathAsJSON(row);
@@ -171,12 +205,14 @@ public class NoiseMapWriter implements Callable<Boolean> {
             ps.addBatch();
             batchSize++;
             if (batchSize >= BATCH_MAX_SIZE) {
+                processClearedReceivers();
                 ps.executeBatch();
                 ps.clearBatch();
                 batchSize = 0;
             }
         }
         if (batchSize > 0) {
+            processClearedReceivers();
             ps.executeBatch();
         }
 
@@ -263,6 +299,7 @@ public class NoiseMapWriter implements Callable<Boolean> {
             ps.addBatch();
             batchSize++;
             if (batchSize >= BATCH_MAX_SIZE) {
+                processClearedReceivers();
                 ps.executeBatch();
                 ps.clearBatch();
                 batchSize = 0;
@@ -274,6 +311,7 @@ public class NoiseMapWriter implements Callable<Boolean> {
             }
         }
         if (batchSize > 0) {
+            processClearedReceivers();
             ps.executeBatch();
         }
     }
@@ -362,10 +400,14 @@ public class NoiseMapWriter implements Callable<Boolean> {
      * @throws IOException
      */
     public void init() throws SQLException, IOException {
+        checkpoint = noiseMapByReceiverMaker.getCheckpoint();
+        keepResultsTable = (noiseMapByReceiverMaker.getSceneChanges() != null ||
+                noiseMapByReceiverMaker.isResumedFromCheckpoint()) && sqlFilePath == null &&
+                JDBCUtilities.tableExists(connection, databaseParameters.receiversLevelTable);
         if(databaseParameters.getExportRaysMethod() == NoiseMapDatabaseParameters.ExportRaysMethods.TO_RAYS_TABLE) {
             boolean exportPeriod = !noiseMapByReceiverMaker.getSceneInputSettings().getInputMode().
                     equals(SceneDatabaseInputSettings.INPUT_MODE.INPUT_MODE_ATTENUATION);
-            if(databaseParameters.dropResultsTable) {
+            if(databaseParameters.dropResultsTable && !keepResultsTable) {
                 String q = String.format("DROP TABLE IF EXISTS %s;", databaseParameters.raysTable);
                 processQuery(q);
             }
@@ -374,7 +416,13 @@ public class NoiseMapWriter implements Callable<Boolean> {
             sb.append(srid);
             sb.append("), IDRECEIVER bigint NOT NULL, IDSOURCE bigint NOT NULL");
             if(databaseParameters.exportCnossosPathWithAttenuation) {
-                sb.append(", PATH VARCHAR");
+                if(!databaseParameters.exportCnossosPathAsBinary) {
+                    sb.append(", PATH VARCHAR");
+                } else if(isPostgreSQL()) {
+                    sb.append(", PATH BYTEA");
+                } else {
+                    sb.append(", PATH VARBINARY");
+                }
             }
             if(databaseParameters.exportAttenuationMatrix) {
                 sb.append(", LEQ DOUBLE");
@@ -386,6 +434,9 @@ public class NoiseMapWriter implements Callable<Boolean> {
             sb.append(");");
             processQuery(sb.toString());
         }
+        if(keepResultsTable) {
+            return;
+        }
         if(databaseParameters.dropResultsTable) {
             String q = String.format("DROP TABLE IF EXISTS %s;", databaseParameters.receiversLevelTable);
             processQuery(q);
@@ -394,20 +445,148 @@ public class NoiseMapWriter implements Callable<Boolean> {
         processQuery(q);
     }
 
+    /**
+     * Incremental mode, remove the results of a previous computation for the receivers pushed in
+     * {@link ResultsCache#clearedReceivers}. The receivers are pushed before their new results, so this method must be
+     * called after the new rows have been popped and before they are inserted.
+     * @return Number of removed rows
+     * @throws SQLException if an SQL exception occurs while executing the DELETE query
+     */
+    int processClearedReceivers() throws SQLException {
+        if(resultsCache.clearedReceivers.isEmpty()) {
+            return 0;
+        }
+        Set<Long> receiversPk = new HashSet<>();
+        while(!resultsCache.clearedReceivers.isEmpty()) {
+            receiversPk.add(resultsCache.clearedReceivers.pop());
+        }
+        if(!keepResultsTable) {
+            return 0;
+        }
+        List<String> tables = new ArrayList<>();
+        tables.add(databaseParameters.receiversLevelTable);
+        if(databaseParameters.getExportRaysMethod() == NoiseMapDatabaseParameters.ExportRaysMethods.TO_RAYS_TABLE) {
+            tables.add(databaseParameters.raysTable);
+        }
+        String clearedTable = databaseParameters.receiversLevelTable + "_CLEARED";
+        int removedRows = 0;
+        try (Statement st = connection.createStatement()) {
+            st.execute("DROP TABLE IF EXISTS " + clearedTable);
+            st.execute("CREATE TABLE " + clearedTable + "(IDRECEIVER BIGINT PRIMARY KEY)");
+            try (PreparedStatement ps = connection.prepareStatement("INSERT INTO " + clearedTable +
+                    "(IDRECEIVER) VALUES (?)")) {
+                int batchSize = 0;
+                for (long receiverPk : receiversPk) {
+                    ps.setLong(1, receiverPk);
+                    ps.addBatch();
+                    batchSize++;
+                    if (batchSize >= BATCH_MAX_SIZE) {
+                        ps.executeBatch();
+                        ps.clearBatch();
+                        batchSize = 0;
+                    }
+                }
+                if (batchSize > 0) {
+                    ps.executeBatch();
+                }
+            }
+            for (String tableName : tables) {
+                removedRows += st.executeUpdate("DELETE FROM " + tableName + " WHERE IDRECEIVER IN (SELECT" +
+                        " IDRECEIVER FROM " + clearedTable + ")");
+            }
+        } finally {
+            try (Statement st = connection.createStatement()) {
+                st.execute("DROP TABLE IF EXISTS " + clearedTable);
+            }
+        }
+        return removedRows;
+    }
+
+    /**
+     * Write the results of the finished receivers and computation areas then append them in the journal
+     * @throws SQLException
+     * @throws IOException If a temporary file of the spilled receiver levels cannot be read
+     */
+    void writeCheckpoint() throws SQLException, IOException {
+        // The receivers and areas are pushed after their results, so their results are written once the stacks
+        // are emptied
+        List<CellIndex> cells = new ArrayList<>();
+        while(!resultsCache.finishedCells.isEmpty()) {
+            cells.add(resultsCache.finishedCells.pop());
+        }
+        List<Long> receivers = new ArrayList<>();
+        while(!resultsCache.finishedReceivers.isEmpty()) {
+            receivers.add(resultsCache.finishedReceivers.pop());
+        }
+        if(cells.isEmpty() && receivers.isEmpty()) {
+            return;
+        }
+        // Only the rows spilled before the receivers have been popped are required, the newer rows are written by
+        // the main loop
+        ReceiverLevelsSpill spill = resultsCache.receiverLevelsSpill;
+        long spilledRows = spill == null ? 0 : spill.size();
+        processStack(databaseParameters.receiversLevelTable, resultsCache.receiverLevels);
+        while(spilledRows > 0) {
+            int insertedRows = processSpilledLevels();
+            if(insertedRows == 0 || aborted.get()) {
+                break;
+            }
+            spilledRows -= insertedRows;
+        }
+        if(aborted.get()) {
+            return;
+        }
+        processRaysStack(resultsCache.cnossosPaths);
+        if(!aborted.get()) {
+            checkpoint.write(receivers, cells);
+        }
+    }
+
+    /**
+     * Insert the oldest batch of receiver levels stored in the temporary files, they are more recent than the rows of
+     * the stack
+     * @return Number of inserted rows, 0 if there is no spilled rows
+     * @throws SQLException
+     * @throws IOException If a temporary file cannot be read
+     */
+    int processSpilledLevels() throws SQLException, IOException {
+        ReceiverLevelsSpill spill = resultsCache.receiverLevelsSpill;
+        if(spill == null || spill.isEmpty()) {
+            return 0;
+        }
+        List<ReceiverNoiseLevel> rows = spill.poll();
+        if(!rows.isEmpty()) {
+            processStack(databaseParameters.receiversLevelTable, new ConcurrentLinkedDeque<>(rows));
+        }
+        return rows.size();
+    }
+
     /**
      * Main loop for processing attenuated paths and stacking results.
      * @throws SQLException
      * @throws IOException
      */
     void mainLoop() throws SQLException, IOException {
+        long lastCheckpoint = System.currentTimeMillis();
         while (!aborted.get()) {
             try {
+                if(checkpoint != null && (!resultsCache.finishedCells.isEmpty() ||
+                        System.currentTimeMillis() - lastCheckpoint >= databaseParameters.checkpointInterval)) {
+                    writeCheckpoint();
+                    lastCheckpoint = System.currentTimeMillis();
+                }
                 if(!resultsCache.receiverLevels.isEmpty()) {
                     processStack(databaseParameters.receiversLevelTable, resultsCache.receiverLevels);
+                } else if(processSpilledLevels() > 0) {
+                    continue;
                 } else if(!resultsCache.cnossosPaths.isEmpty()) {
                     processRaysStack(resultsCache.cnossosPaths);
                 } else {
                     if(exitWhenDone.get()) {
+                        processClearedReceivers();
+                        if(checkpoint != null) {
+                            writeCheckpoint();
+                        }
                         break;
                     } else {
                         Thread.sleep(50);
@@ -426,12 +605,34 @@ public class NoiseMapWriter implements Callable<Boolean> {
      * @throws IOException
      */
     void createKeys()  throws SQLException, IOException {
+        if(keepResultsTable && !noiseMapByReceiverMaker.isResumedFromCheckpoint()) {
+            // keys have been created by the previous computation
+            return;
+        }
+        if(noiseMapByReceiverMaker.isResumedFromCheckpoint() && databaseParameters.mergeSources &&
+                hasPrimaryKey(databaseParameters.receiversLevelTable)) {
+            // the interrupted computation has been stopped after the creation of the keys
+            return;
+        }
         // Set primary keys
         LOGGER.info("Write done, apply primary keys");
         processQuery(forgePkTable(databaseParameters.receiversLevelTable));
         LOGGER.info("Primary keys applied");
     }
 
+    private boolean isPostgreSQL() throws SQLException {
+        DBTypes dbType = DBUtils.getDBType(connection);
+        return dbType == DBTypes.POSTGIS || dbType == DBTypes.POSTGRESQL;
+    }
+
+    private boolean hasPrimaryKey(String tableName) throws SQLException {
+        TableLocation location = TableLocation.parse(tableName, DBUtils.getDBType(connection));
+        String schema = location.getSchema().isEmpty() ? null : location.getSchema();
+        try(ResultSet rs = connection.getMetaData().getPrimaryKeys(null, schema, location.getTable())) {
+            return rs.next();
+        }
+    }
+
     /**
      * Gets an OutputStreamWriter for writing data to a file stream.
      * @return an OutputStreamWriter for writing data to a file stream
@@ -469,6 +670,9 @@ public class NoiseMapWriter implements Callable<Boolean> {
                 throw e;
             }
         }
+        if(pathCodec != null) {
+            pathCodec.close();
+        }
         return true;
     }
 }
\ No newline at end of file
@@ -0,0 +1,215 @@
+/**
+ * NoiseModelling is a library capable of producing noise maps. It can be freely used either for research and education, as well as by experts in a professional use.
+ * <p>
+ * NoiseModelling is distributed under GPL 3 license. You can read a copy of this License in the file LICENCE provided with this software.
+ * <p>
+ * Official webpage : http://noise-planet.org/noisemodelling.html
+ * Contact: contact@noise-planet.org
+ */
+
+package org.noise_planet.noisemodelling.jdbc.output;
+
+import org.locationtech.jts.geom.Coordinate;
+import org.noise_planet.noisemodelling.pathfinder.PathFinder;
+import org.noise_planet.noisemodelling.propagation.ReceiverNoiseLevel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Overflow of the receiver levels awaiting writing in the database. When the database is slower than the computation
+ * the rows are appended in a binary batch, full batches are written in temporary files. The batches are read back in
+ * the order of insertion. Only the attributes written in the results table are kept: primary keys, receiver position,
+ * period and levels.
+ * @author Nicolas Fortin, Université Gustave Eiffel
+ */
+public class ReceiverLevelsSpill implements Closeable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ReceiverLevelsSpill.class);
+
+    private final File directory;
+    private final int batchSize;
+    private final Deque<File> files = new ArrayDeque<>();
+    private ByteArrayOutputStream currentBatch = new ByteArrayOutputStream();
+    private DataOutputStream out = new DataOutputStream(currentBatch);
+    private int currentBatchCount = 0;
+    private int fileCount = 0;
+    private final AtomicLong rowCount = new AtomicLong(0);
+    private volatile boolean failed = false;
+
+    /**
+     * @param parentDirectory Folder of the temporary files, null for the default temporary folder
+     * @param batchSize Number of rows in a temporary file
+     * @throws IOException If the temporary folder cannot be created
+     */
+    public ReceiverLevelsSpill(File parentDirectory, int batchSize) throws IOException {
+        this.directory = parentDirectory == null ? Files.createTempDirectory("noisemodelling_spill").toFile() :
+                Files.createTempDirectory(parentDirectory.toPath(), "noisemodelling_spill").toFile();
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    /**
+     * @return Number of rows awaiting to be read
+     */
+    public long size() {
+        return rowCount.get();
+    }
+
+    /**
+     * @return True if there is no rows awaiting to be read
+     */
+    public boolean isEmpty() {
+        return rowCount.get() == 0;
+    }
+
+    /**
+     * Append a row after the previous rows
+     * @param row Row to store
+     * @return False if the row could not be stored (ex: no space left on the device), the spill is then disabled
+     */
+    public synchronized boolean offer(ReceiverNoiseLevel row) {
+        if(failed) {
+            return false;
+        }
+        try {
+            writeRow(out, row);
+            currentBatchCount++;
+            rowCount.incrementAndGet();
+            if(currentBatchCount >= batchSize) {
+                File file = new File(directory, String.format("batch_%d.bin", fileCount++));
+                try (OutputStream fileStream = new BufferedOutputStream(new FileOutputStream(file))) {
+                    DataOutputStream fileOut = new DataOutputStream(fileStream);
+                    fileOut.writeInt(currentBatchCount);
+                    currentBatch.writeTo(fileOut);
+                    fileOut.flush();
+                }
+                files.add(file);
+                currentBatch = new ByteArrayOutputStream();
+                out = new DataOutputStream(currentBatch);
+                currentBatchCount = 0;
+            }
+            return true;
+        } catch (IOException ex) {
+            LOGGER.error("Could not store the receiver levels in " + directory + ", the computation will wait for" +
+                    " the database", ex);
+            failed = true;
+            return false;
+        }
+    }
+
+    /**
+     * Read and remove the oldest batch of rows
+     * @return Rows in the order of insertion, empty if there is no rows awaiting
+     * @throws IOException If a temporary file cannot be read
+     */
+    public synchronized List<ReceiverNoiseLevel> poll() throws IOException {
+        File file = files.poll();
+        if(file != null) {
+            List<ReceiverNoiseLevel> rows;
+            try (InputStream fileStream = new BufferedInputStream(new FileInputStream(file))) {
+                DataInputStream in = new DataInputStream(fileStream);
+                rows = readRows(in, in.readInt());
+            }
+            Files.delete(file.toPath());
+            rowCount.addAndGet(-rows.size());
+            return rows;
+        } else if(currentBatchCount > 0) {
+            out.flush();
+            List<ReceiverNoiseLevel> rows = readRows(new DataInputStream(
+                    new ByteArrayInputStream(currentBatch.toByteArray())), currentBatchCount);
+            currentBatch = new ByteArrayOutputStream();
+            out = new DataOutputStream(currentBatch);
+            currentBatchCount = 0;
+            rowCount.addAndGet(-rows.size());
+            return rows;
+        }
+        return Collections.emptyList();
+    }
+
+    private static void writeRow(DataOutputStream out, ReceiverNoiseLevel row) throws IOException {
+        out.writeInt(row.receiver.receiverIndex);
+        out.writeLong(row.receiver.receiverPk);
+        Coordinate position = row.receiver.position;
+        out.writeBoolean(position != null);
+        if(position != null) {
+            out.writeDouble(position.x);
+            out.writeDouble(position.y);
+            out.writeDouble(position.getZ());
+        }
+        out.writeBoolean(row.source != null);
+        if(row.source != null) {
+            out.writeInt(row.source.sourceIndex);
+            out.writeLong(row.source.sourcePk);
+        }
+        out.writeUTF(row.period == null ? "" : row.period);
+        out.writeShort(row.levels.length);
+        for (double level : row.levels) {
+            out.writeDouble(level);
+        }
+    }
+
+    private static List<ReceiverNoiseLevel> readRows(DataInputStream in, int count) throws IOException {
+        List<ReceiverNoiseLevel> rows = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int receiverIndex = in.readInt();
+            long receiverPk = in.readLong();
+            Coordinate position = null;
+            if(in.readBoolean()) {
+                position = new Coordinate(in.readDouble(), in.readDouble(), in.readDouble());
+            }
+            PathFinder.SourcePointInfo source = null;
+            if(in.readBoolean()) {
+                source = new PathFinder.SourcePointInfo();
+                source.sourceIndex = in.readInt();
+                source.sourcePk = in.readLong();
+            }
+            String period = in.readUTF();
+            double[] levels = new double[in.readShort()];
+            for (int idFreq = 0; idFreq < levels.length; idFreq++) {
+                levels[idFreq] = in.readDouble();
+            }
+            rows.add(new ReceiverNoiseLevel(source, new PathFinder.ReceiverPointInfo(receiverIndex, receiverPk,
+                    position), period, levels));
+        }
+        return rows;
+    }
+
+    /**
+     * Remove the temporary files
+     */
+    @Override
+    public synchronized void close() {
+        File[] remaining = directory.listFiles();
+        if(remaining != null) {
+            for (File file : remaining) {
+                if(!file.delete()) {
+                    file.deleteOnExit();
+                }
+            }
+        }
+        if(!directory.delete()) {
+            directory.deleteOnExit();
+        }
+        files.clear();
+        rowCount.set(0);
+    }
+}
@@ -9,6 +9,7 @@
 
 package org.noise_planet.noisemodelling.jdbc.output;
 
+import org.noise_planet.noisemodelling.jdbc.utils.CellIndex;
 import org.noise_planet.noisemodelling.pathfinder.utils.profiler.ProfilerThread;
 import org.noise_planet.noisemodelling.propagation.ReceiverNoiseLevel;
 import org.noise_planet.noisemodelling.propagation.cnossos.CnossosPath;
@@ -25,8 +26,26 @@ public class ResultsCache implements ProfilerThread.Metric {
      */
     public final AtomicLong queueSize = new AtomicLong(0);
     public final AtomicLong totalRaysInserted = new AtomicLong(0);
+    /** Number of reflection and lateral diffraction paths skipped by the maximum error */
+    public final AtomicLong prunedPathCount = new AtomicLong(0);
     public final ConcurrentLinkedDeque<ReceiverNoiseLevel> receiverLevels = new ConcurrentLinkedDeque<>();
     public final ConcurrentLinkedDeque<CnossosPath> cnossosPaths = new ConcurrentLinkedDeque<>();
+    /**
+     * Checkpoint mode, receivers pushed after all their results, so their results are written once the stacks are
+     * emptied
+     */
+    public final ConcurrentLinkedDeque<Long> finishedReceivers = new ConcurrentLinkedDeque<>();
+    /**
+     * Incremental mode, receivers pushed before their new results, their previous results are deleted before the
+     * insertion of the new results
+     */
+    public final ConcurrentLinkedDeque<Long> clearedReceivers = new ConcurrentLinkedDeque<>();
+    /** Checkpoint mode, computation areas pushed after all their receivers */
+    public final ConcurrentLinkedDeque<CellIndex> finishedCells = new ConcurrentLinkedDeque<>();
+    /** If true the finished receivers and computation areas are pushed in the stacks */
+    public volatile boolean trackFinishedReceivers = false;
+    /** If not null, receiver levels that overflow the stack, they are written after the rows of receiverLevels */
+    public volatile ReceiverLevelsSpill receiverLevelsSpill = null;
 
 
     @Override
@@ -83,7 +83,7 @@ public class RailWayLWIterator implements Iterator<RailWayLWGeom> {
      * @param geometry
      * @return a list of LineString objects extracted from the input geometry.
      */
-    private List<LineString> splitGeometry(Geometry geometry){
+    public static List<LineString> splitGeometry(Geometry geometry){
         List<LineString> inputLineStrings = new ArrayList<>();
         for (int id = 0; id < geometry.getNumGeometries(); id++) {
             Geometry subGeom = geometry.getGeometryN(id);
@@ -222,34 +222,39 @@ public class RailWayLWIterator implements Iterator<RailWayLWGeom> {
      * @return Emission spectrum in dB
      */
     public RailWayCnossosParameters getRailwayEmissionFromResultSet(ResultSet rs, String period) throws SQLException, IOException {
-        String train = "FRET";
-        double vehicleSpeed = 160;
-        double vehiclePerHour = 1;
-        int rollingCondition = 0;
-        double idlingTime = 0;
+        return evaluate(railway, readRailwayTraffic(rs, sourceFields, period));
+    }
+
+    /**
+     * Read the railway traffic attributes of the current row for a specified period.
+     * @param rs     result set of source
+     * @param sourceFields Upper case field names and index of the result set
+     * @param period Day or Evening or Night
+     * @return Railway traffic attributes
+     */
+    public static RailwayTraffic readRailwayTraffic(ResultSet rs, Map<String, Integer> sourceFields, String period) throws SQLException {
+        RailwayTraffic traffic = new RailwayTraffic();
+        double vMaxInfra = 160;
         int trackTransfer = 4;
         int impactNoise = 0;
         int bridgeTransfert = 0;
         int curvature = 0;
         int railRoughness = 1;
-        int nbTrack = 2;
-        double vMaxInfra = 160;
         double commercialSpeed = 160;
         boolean isTunnel = false;
-        String idSection = "";
 
         // Read fields
         if (sourceFields.containsKey("TRAINSPD")) {
-            vehicleSpeed = rs.getDouble("TRAINSPD");
+            traffic.vehicleSpeed = rs.getDouble("TRAINSPD");
         }
         if (sourceFields.containsKey("T" + period)) {
-            vehiclePerHour = rs.getDouble("T" + period);
+            traffic.vehiclePerHour = rs.getDouble("T" + period);
         }
         if (sourceFields.containsKey("ROLLINGCONDITION")) {
-            rollingCondition = rs.getInt("ROLLINGCONDITION");
+            traffic.rollingCondition = rs.getInt("ROLLINGCONDITION");
         }
         if (sourceFields.containsKey("IDLINGTIME")) {
-            idlingTime = rs.getDouble("IDLINGTIME");
+            traffic.idlingTime = rs.getDouble("IDLINGTIME");
         }
         if (sourceFields.containsKey("TRANSFER")) {
             trackTransfer = rs.getInt("TRANSFER");
@@ -276,11 +281,11 @@ public class RailWayLWIterator implements Iterator<RailWayLWGeom> {
             commercialSpeed = rs.getDouble("COMSPD");
         }
         if (sourceFields.containsKey("TRAINTYPE")) {
-            train = rs.getString("TRAINTYPE");
+            traffic.train = rs.getString("TRAINTYPE");
         }
 
         if (sourceFields.containsKey("TYPETRAIN")) {
-            train = rs.getString("TYPETRAIN");
+            traffic.train = rs.getString("TYPETRAIN");
         }
 
         if (sourceFields.containsKey("ISTUNNEL")) {
@@ -293,48 +298,66 @@ public class RailWayLWIterator implements Iterator<RailWayLWGeom> {
         }
 
         if (sourceFields.containsKey("NTRACK")) {
-            nbTrack = rs.getInt("NTRACK");
+            traffic.nbTrack = rs.getInt("NTRACK");
         }
 
+        traffic.trackParameters = new RailwayTrackCnossosParameters(vMaxInfra, trackTransfer, railRoughness,
+                impactNoise, bridgeTransfert, curvature, commercialSpeed, isTunnel, traffic.nbTrack);
+        return traffic;
+    }
 
+    /**
+     * Evaluate the railway emission of the traffic attributes. This method does not access the database.
+     * @param railway Railway emission model
+     * @param traffic Railway traffic attributes
+     * @return Emission spectrum in dB
+     */
+    public static RailWayCnossosParameters evaluate(RailwayCnossos railway, RailwayTraffic traffic) throws IOException {
         RailWayCnossosParameters  lWRailWay = new RailWayCnossosParameters();
 
-        RailwayTrackCnossosParameters trackParameters = new RailwayTrackCnossosParameters(vMaxInfra, trackTransfer, railRoughness,
-                impactNoise, bridgeTransfert, curvature, commercialSpeed, isTunnel, nbTrack);
-
-        Map<String, Integer> vehicles = railway.getVehicleFromTrainset(train);
+        Map<String, Integer> vehicles = railway.getVehicleFromTrainset(traffic.train);
        // double vehiclePerHouri=vehiclePerHour;
         if (vehicles!=null){
             int i = 0;
             for (Map.Entry<String,Integer> entry : vehicles.entrySet()){
                 String typeTrain = entry.getKey();
-                double vehiclePerHouri = vehiclePerHour * entry.getValue();
+                double vehiclePerHouri = traffic.vehiclePerHour * entry.getValue();
                 if (vehiclePerHouri>0) {
-                    RailwayVehicleCnossosParameters vehicleParameters = new RailwayVehicleCnossosParameters(typeTrain, vehicleSpeed,
-                            vehiclePerHouri / (double) nbTrack, rollingCondition, idlingTime);
+                    RailwayVehicleCnossosParameters vehicleParameters = new RailwayVehicleCnossosParameters(typeTrain,
+                            traffic.vehicleSpeed, vehiclePerHouri / (double) traffic.nbTrack,
+                            traffic.rollingCondition, traffic.idlingTime);
 
                     if (i == 0) {
-                        lWRailWay = railway.evaluate(vehicleParameters, trackParameters);
+                        lWRailWay = railway.evaluate(vehicleParameters, traffic.trackParameters);
                     } else {
-                        lWRailWay = RailWayCnossosParameters.sumRailwaySource(lWRailWay, railway.evaluate(vehicleParameters, trackParameters));
+                        lWRailWay = RailWayCnossosParameters.sumRailwaySource(lWRailWay, railway.evaluate(vehicleParameters, traffic.trackParameters));
                     }
                 }
                 i++;
             }
 
-        }else if (railway.isInVehicleList(train)){
-            if (vehiclePerHour>0) {
-                RailwayVehicleCnossosParameters vehicleParameters = new RailwayVehicleCnossosParameters(train, vehicleSpeed,
-                        vehiclePerHour / (double) nbTrack, rollingCondition, idlingTime);
-                lWRailWay = railway.evaluate(vehicleParameters, trackParameters);
+        }else if (railway.isInVehicleList(traffic.train)){
+            if (traffic.vehiclePerHour>0) {
+                RailwayVehicleCnossosParameters vehicleParameters = new RailwayVehicleCnossosParameters(traffic.train,
+                        traffic.vehicleSpeed, traffic.vehiclePerHour / (double) traffic.nbTrack,
+                        traffic.rollingCondition, traffic.idlingTime);
+                lWRailWay = railway.evaluate(vehicleParameters, traffic.trackParameters);
             }
         }
 
         return lWRailWay;
     }
 
-
-
+    /**
+     * Railway traffic attributes of one row of the track and traffic tables, for one period
+     */
+    public static class RailwayTraffic {
+        String train = "FRET";
+        double vehicleSpeed = 160;
+        double vehiclePerHour = 1;
+        int rollingCondition = 0;
+        double idlingTime = 0;
+        int nbTrack = 2;
+        RailwayTrackCnossosParameters trackParameters;
+    }
 }
-
-
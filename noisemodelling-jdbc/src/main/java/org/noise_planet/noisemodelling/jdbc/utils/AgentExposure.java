@@ -0,0 +1,609 @@
+/**
+ * NoiseModelling is a library capable of producing noise maps. It can be freely used either for research and education, as well as by experts in a professional use.
+ * <p>
+ * NoiseModelling is distributed under GPL 3 license. You can read a copy of this License in the file LICENCE provided with this software.
+ * <p>
+ * Official webpage : http://noise-planet.org/noisemodelling.html
+ * Contact: contact@noise-planet.org
+ */
+
+package org.noise_planet.noisemodelling.jdbc.utils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.stream.IntStream;
+
+/**
+ * Compute the noise exposure of agents (ex. MATSim persons) from the time sliced noise levels at the receivers
+ * linked with the activity facilities.
+ * The facility levels are loaded once into an array index, then the exposure of the agents is evaluated in parallel
+ * and written with JDBC batches.
+ * @author Nicolas Fortin, Université Gustave Eiffel
+ */
+public class AgentExposure {
+    /** Duration of the day in seconds */
+    public static final int DAY_DURATION = 86400;
+    /** The day start at 4h (time slices before 4h are shifted to the end of the day) */
+    public static final int DAY_START = 4 * 3600;
+    /** End time of an activity without end time (28h) */
+    public static final double DEFAULT_ACTIVITY_END = DAY_DURATION + DAY_START;
+    public static final String TRAVELLING = "travelling";
+    public static final String OUTSIDE = "outside";
+    public static final String POINT_EMPTY = "POINT EMPTY";
+    public static final double NO_LEVEL = -99.0;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AgentExposure.class);
+
+    private final FacilityNoiseIndex facilityNoiseIndex;
+    private int threadCount = Runtime.getRuntime().availableProcessors();
+    private int batchSize = 1000;
+
+    /**
+     * @param facilityNoiseIndex Time series of noise levels of each facility
+     */
+    public AgentExposure(FacilityNoiseIndex facilityNoiseIndex) {
+        this.facilityNoiseIndex = facilityNoiseIndex;
+    }
+
+    /**
+     * @return Number of threads used to evaluate the agents exposure
+     */
+    public int getThreadCount() {
+        return threadCount;
+    }
+
+    /**
+     * @param threadCount Number of threads used to evaluate the agents exposure
+     */
+    public void setThreadCount(int threadCount) {
+        this.threadCount = Math.max(1, threadCount);
+    }
+
+    /**
+     * @return Number of agents evaluated and inserted together
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * @param batchSize Number of agents evaluated and inserted together
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    /**
+     * @return Time series of noise levels of each facility
+     */
+    public FacilityNoiseIndex getFacilityNoiseIndex() {
+        return facilityNoiseIndex;
+    }
+
+    /**
+     * Evaluate the exposure of one agent. This method does not access the database and can be called concurrently.
+     * @param agent Agent and its activities
+     * @return Exposure over the day and the activity sequence for each time bin
+     */
+    public Exposure computeExposure(Agent agent) {
+        final int timeBinSize = facilityNoiseIndex.getTimeBinSize();
+        final int nbTimeBins = facilityNoiseIndex.getTimeBinCount();
+        // the weights of the activities are divided by the number of complete time bins in the day, a partial
+        // trailing time bin is evaluated but does not change the divider
+        final int nbWeightTimeBins = Math.max(1, DAY_DURATION / timeBinSize);
+        Exposure exposure = new Exposure(agent, nbTimeBins);
+        // resolve facility indexes once
+        int[] facilityIndexes = new int[agent.activities.size()];
+        for (int idActivity = 0; idActivity < facilityIndexes.length; idActivity++) {
+            Activity activity = agent.activities.get(idActivity);
+            facilityIndexes[idActivity] = facilityNoiseIndex.getFacilityIndex(activity.facilityId);
+            if (activity.type.contains("home")) {
+                exposure.homeId = activity.facilityId;
+                if (activity.geometry != null) {
+                    exposure.homeGeometry = activity.geometry;
+                }
+            }
+            if (activity.type.contains("work")) {
+                exposure.workId = activity.facilityId;
+                if (activity.geometry != null) {
+                    exposure.workGeometry = activity.geometry;
+                }
+            }
+        }
+        double laeqEnergy = Math.pow(10, NO_LEVEL / 10);
+        for (int idTimeBin = 0; idTimeBin < nbTimeBins; idTimeBin++) {
+            int timeBin = idTimeBin * timeBinSize;
+            SequenceElement sequence = new SequenceElement();
+            exposure.sequence[idTimeBin] = sequence;
+
+            double timeSliceStart = timeBin;
+            double timeSliceEnd = timeBin + timeBinSize;
+            if (timeSliceStart < DAY_START) {
+                timeSliceStart += DAY_DURATION;
+            }
+            if (timeSliceEnd <= DAY_START) {
+                timeSliceEnd += DAY_DURATION;
+            }
+
+            boolean hasActivity = false;
+            boolean isOutside = false;
+            boolean hasLevel = false; // in case there is no propagation path arriving to this facility's receiver.
+            for (int idActivity = 0; idActivity < facilityIndexes.length; idActivity++) {
+                Activity activity = agent.activities.get(idActivity);
+                if (OUTSIDE.equals(activity.type)) {
+                    isOutside = true;
+                    continue;
+                }
+                double activityStart = activity.startTime;
+                double activityEnd = activity.endTime;
+                double timeWeight = 0.0;
+                if (activityStart >= activityEnd) {
+                    continue;
+                }
+                if (activityStart >= timeSliceEnd || activityEnd < timeSliceStart) {
+                    continue;
+                }
+                hasActivity = true;
+                String activityGeometry = POINT_EMPTY;
+                if (activity.geometry == null) {
+                    if ("home".equals(activity.type)) {
+                        activityGeometry = exposure.homeGeometry;
+                    }
+                } else {
+                    activityGeometry = activity.geometry;
+                }
+                // examples with time slice : 1h to 2h (timeBin = 3600, timeBinSize = 3600)
+                if (activityStart <= timeSliceStart) { // activity starts before the current time slice (ie. 00:05:07)
+                    sequence.startActivityId = activity.facilityId;
+                    sequence.startActivityType = activity.type;
+                    sequence.startActivityGeometry = activityGeometry;
+                    if (activityEnd > timeSliceEnd) { // activity ends after the current time slice (ie. 02:30:00)
+                        timeWeight = 1.0 / nbWeightTimeBins;
+                        sequence.endActivityId = activity.facilityId;
+                        sequence.endActivityType = activity.type;
+                        sequence.endActivityGeometry = activityGeometry;
+                    }
+                    if (activityEnd < timeSliceEnd) { // activity ends in current time slice (ie. 01:38:00)
+                        timeWeight = ((activityEnd - timeSliceStart) / timeBinSize) / nbWeightTimeBins;
+                    }
+                }
+                if (activityStart > timeSliceStart && activityStart < timeSliceEnd) { // activity start is in the current time slice (ie. 01:05:07)
+                    if (activityEnd > timeSliceEnd) { // activity ends after the current time slice (ie. 02:30:00)
+                        timeWeight = ((timeSliceEnd - activityStart) / timeBinSize) / nbWeightTimeBins;
+                        sequence.endActivityId = activity.facilityId;
+                        sequence.endActivityType = activity.type;
+                        sequence.endActivityGeometry = activityGeometry;
+                    }
+                    if (activityEnd < timeSliceEnd) { // activity ends in current time slice (ie. 01:38:00)
+                        timeWeight = ((activityEnd - activityStart) / timeBinSize) / nbWeightTimeBins;
+                    }
+                }
+                if (timeWeight > sequence.weight) {
+                    sequence.weight = timeWeight;
+                    sequence.mainActivityId = activity.facilityId;
+                    sequence.mainActivityType = activity.type;
+                    sequence.mainActivityGeometry = activityGeometry;
+                }
+                double value = facilityNoiseIndex.getLevel(facilityIndexes[idActivity], idTimeBin);
+                if (!Double.isNaN(value)) {
+                    laeqEnergy += timeWeight * Math.pow(10, value / 10);
+                    sequence.level = value;
+                    hasLevel = true;
+                }
+            }
+            if (!hasLevel) {
+                sequence.level = NO_LEVEL;
+            }
+            if (!hasActivity && isOutside) {
+                sequence.startActivityId = OUTSIDE;
+                sequence.startActivityType = OUTSIDE;
+                sequence.mainActivityId = OUTSIDE;
+                sequence.mainActivityType = OUTSIDE;
+                sequence.endActivityId = OUTSIDE;
+                sequence.endActivityType = OUTSIDE;
+            }
+            // else keep default 'travelling' activity
+        }
+        exposure.laeq = 10 * Math.log10(laeqEnergy);
+        return exposure;
+    }
+
+    /**
+     * Drop and create the agent exposure table and the time bins sequence table (outTableName_SEQUENCE)
+     * @param connection Database connection
+     * @param outTableName Output table name
+     * @throws SQLException If error occurred
+     */
+    public static void createTables(Connection connection, String outTableName) throws SQLException {
+        try (Statement st = connection.createStatement()) {
+            st.execute("DROP TABLE IF EXISTS " + outTableName);
+            st.execute("DROP TABLE IF EXISTS " + outTableName + "_SEQUENCE");
+            st.execute("CREATE TABLE " + outTableName + " (\n" +
+                    "    PK integer PRIMARY KEY AUTO_INCREMENT,\n" +
+                    "    PERSON_ID varchar(255),\n" +
+                    "    AGE int,\n" +
+                    "    SEX varchar,\n" +
+                    "    INCOME double,\n" +
+                    "    EMPLOYED double,\n" +
+                    "    HOME_FACILITY varchar(255),\n" +
+                    "    HOME_GEOM geometry,\n" +
+                    "    WORK_FACILITY varchar(255),\n" +
+                    "    WORK_GEOM geometry,\n" +
+                    "    LAEQ real\n" +
+                    ");");
+            st.execute("CREATE TABLE " + outTableName + "_SEQUENCE (\n" +
+                    "    PK integer PRIMARY KEY AUTO_INCREMENT,\n" +
+                    "    PERSON_ID varchar(255),\n" +
+                    "    TIME int,\n" +
+                    "    LEVEL double,\n" +
+                    "    START_ACTIVITY_ID varchar,\n" +
+                    "    START_ACTIVITY_TYPE varchar,\n" +
+                    "    START_ACTIVITY_GEOM geometry,\n" +
+                    "    MAIN_ACTIVITY_ID varchar,\n" +
+                    "    MAIN_ACTIVITY_TYPE varchar,\n" +
+                    "    MAIN_ACTIVITY_GEOM geometry,\n" +
+                    "    END_ACTIVITY_ID varchar,\n" +
+                    "    END_ACTIVITY_TYPE varchar,\n" +
+                    "    END_ACTIVITY_GEOM geometry\n" +
+                    ");");
+        }
+    }
+
+    /**
+     * Create the output tables then evaluate and insert the exposure of all agents.
+     * The agents are read from the iterator in the calling thread by batch of {@link #getBatchSize()}, the exposure of
+     * a batch is evaluated in parallel while the previous batch is inserted.
+     * @param connection Database connection
+     * @param agents Agents to evaluate
+     * @param outTableName Output table name
+     * @param srid Projection identifier of the activities geometries
+     * @return Number of agents processed
+     * @throws SQLException If error occurred
+     */
+    public long computeExposures(Connection connection, Iterator<Agent> agents, String outTableName, int srid)
+            throws SQLException {
+        createTables(connection, outTableName);
+        ForkJoinPool pool = new ForkJoinPool(threadCount);
+        long start = System.currentTimeMillis();
+        long counter = 0;
+        long doPrint = 1;
+        try (PreparedStatement personStatement = connection.prepareStatement("INSERT INTO " + outTableName +
+                " VALUES(DEFAULT, ?, ?, ?, ?, ?, ?, ST_GeomFromText(?, " + srid + "), ?, ST_GeomFromText(?, " +
+                srid + "), ?)");
+             PreparedStatement sequenceStatement = connection.prepareStatement("INSERT INTO " + outTableName +
+                     "_SEQUENCE VALUES(DEFAULT, ?, ?, ?, ?, ?, ST_GeomFromText(?, " + srid + "), ?, ?," +
+                     " ST_GeomFromText(?, " + srid + "), ?, ?, ST_GeomFromText(?, " + srid + "))")) {
+            Exposure[] pendingBatch = null;
+            ForkJoinTask<?> pendingTask = null;
+            while (true) {
+                List<Agent> batch = new ArrayList<>(batchSize);
+                while (batch.size() < batchSize && agents.hasNext()) {
+                    batch.add(agents.next());
+                }
+                Exposure[] exposures = new Exposure[batch.size()];
+                ForkJoinTask<?> task = batch.isEmpty() ? null : pool.submit(() -> IntStream.range(0, batch.size())
+                        .parallel().forEach(i -> exposures[i] = computeExposure(batch.get(i))));
+                if (pendingTask != null) {
+                    try {
+                        pendingTask.get();
+                    } catch (InterruptedException | ExecutionException ex) {
+                        throw new SQLException(ex);
+                    }
+                    writeExposures(personStatement, sequenceStatement, pendingBatch);
+                    counter += pendingBatch.length;
+                    if (counter >= doPrint) {
+                        while (doPrint <= counter) {
+                            doPrint *= 2;
+                        }
+                        double elapsed = (System.currentTimeMillis() - start + 1) / 1000.0;
+                        LOGGER.info(String.format(Locale.ROOT, "Processing Person %d - elapsed : %.1fs (%.1fit/s)",
+                                counter, elapsed, counter / elapsed));
+                    }
+                }
+                if (task == null) {
+                    break;
+                }
+                pendingBatch = exposures;
+                pendingTask = task;
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        return counter;
+    }
+
+    private void writeExposures(PreparedStatement personStatement, PreparedStatement sequenceStatement,
+                                Exposure[] exposures) throws SQLException {
+        final int timeBinSize = facilityNoiseIndex.getTimeBinSize();
+        for (Exposure exposure : exposures) {
+            Agent agent = exposure.agent;
+            personStatement.setString(1, agent.personId);
+            if (agent.age != null) {
+                personStatement.setInt(2, agent.age);
+            } else {
+                personStatement.setNull(2, Types.INTEGER);
+            }
+            personStatement.setString(3, agent.sex);
+            if (agent.income != null) {
+                personStatement.setDouble(4, agent.income);
+            } else {
+                personStatement.setNull(4, Types.DOUBLE);
+            }
+            if (agent.employed != null) {
+                personStatement.setBoolean(5, agent.employed);
+            } else {
+                personStatement.setNull(5, Types.DOUBLE);
+            }
+            personStatement.setString(6, exposure.homeId);
+            personStatement.setString(7, exposure.homeGeometry);
+            personStatement.setString(8, exposure.workId);
+            personStatement.setString(9, exposure.workGeometry);
+            personStatement.setDouble(10, exposure.laeq);
+            personStatement.addBatch();
+            for (int idTimeBin = 0; idTimeBin < exposure.sequence.length; idTimeBin++) {
+                SequenceElement sequence = exposure.sequence[idTimeBin];
+                sequenceStatement.setString(1, agent.personId);
+                sequenceStatement.setInt(2, idTimeBin * timeBinSize);
+                sequenceStatement.setDouble(3, sequence.level);
+                sequenceStatement.setString(4, sequence.startActivityId);
+                sequenceStatement.setString(5, sequence.startActivityType);
+                sequenceStatement.setString(6, sequence.startActivityGeometry);
+                sequenceStatement.setString(7, sequence.mainActivityId);
+                sequenceStatement.setString(8, sequence.mainActivityType);
+                sequenceStatement.setString(9, sequence.mainActivityGeometry);
+                sequenceStatement.setString(10, sequence.endActivityId);
+                sequenceStatement.setString(11, sequence.endActivityType);
+                sequenceStatement.setString(12, sequence.endActivityGeometry);
+                sequenceStatement.addBatch();
+            }
+        }
+        personStatement.executeBatch();
+        sequenceStatement.executeBatch();
+    }
+
+    /**
+     * Noise level time series of each facility, stored in a single array [facility][time bin].
+     */
+    public static class FacilityNoiseIndex {
+        private final int timeBinSize;
+        private final int timeBinCount;
+        private final Map<String, Integer> facilityIndex;
+        private final double[] levels;
+
+        /**
+         * @param timeBinSize Size of the time bins in seconds
+         * @param facilityIndex Index of each facility identifier
+         * @param levels Levels [facility][time bin], NaN if not available
+         */
+        public FacilityNoiseIndex(int timeBinSize, Map<String, Integer> facilityIndex, double[] levels) {
+            this.timeBinSize = timeBinSize;
+            this.timeBinCount = DAY_DURATION / timeBinSize + (DAY_DURATION % timeBinSize == 0 ? 0 : 1);
+            this.facilityIndex = facilityIndex;
+            this.levels = levels;
+            if (levels.length != facilityIndex.size() * timeBinCount) {
+                throw new IllegalArgumentException("Expected " + facilityIndex.size() * timeBinCount + " levels, got "
+                        + levels.length);
+            }
+        }
+
+        /**
+         * Load the noise levels of the facilities with a single query.
+         * @param connection Database connection
+         * @param dataTable Noise levels table with IDRECEIVER, PERIOD (time bin start in seconds) and LAEQ fields
+         * @param receiversTable Receivers table with PK and FACILITY fields
+         * @param timeBinSize Size of the time bins in seconds, periods that are not the start of a time bin are ignored
+         * @return The index
+         * @throws SQLException If error occurred
+         */
+        public static FacilityNoiseIndex load(Connection connection, String dataTable, String receiversTable,
+                                              int timeBinSize) throws SQLException {
+            int timeBinCount = DAY_DURATION / timeBinSize + (DAY_DURATION % timeBinSize == 0 ? 0 : 1);
+            Map<String, Integer> facilityIndex = new HashMap<>();
+            double[] levels = new double[1024 * timeBinCount];
+            Arrays.fill(levels, Double.NaN);
+            try (Statement st = connection.createStatement()) {
+                st.setFetchSize(10000);
+                try (ResultSet rs = st.executeQuery("SELECT R.FACILITY, D.PERIOD, D.LAEQ FROM " + dataTable +
+                        " D INNER JOIN " + receiversTable + " R ON D.IDRECEIVER = R.PK WHERE D.PERIOD != ''")) {
+                    while (rs.next()) {
+                        String facility = rs.getString(1);
+                        int timeBin;
+                        try {
+                            timeBin = Integer.parseInt(rs.getString(2));
+                        } catch (NumberFormatException ex) {
+                            // not a time slice
+                            continue;
+                        }
+                        if (facility == null || timeBin < 0 || timeBin >= DAY_DURATION || timeBin % timeBinSize != 0) {
+                            continue;
+                        }
+                        Integer idFacility = facilityIndex.get(facility);
+                        if (idFacility == null) {
+                            idFacility = facilityIndex.size();
+                            facilityIndex.put(facility, idFacility);
+                            if ((idFacility + 1) * timeBinCount > levels.length) {
+                                int oldLength = levels.length;
+                                levels = Arrays.copyOf(levels, oldLength * 2);
+                                Arrays.fill(levels, oldLength, levels.length, Double.NaN);
+                            }
+                        }
+                        levels[idFacility * timeBinCount + timeBin / timeBinSize] = rs.getDouble(3);
+                    }
+                }
+            }
+            levels = Arrays.copyOf(levels, facilityIndex.size() * timeBinCount);
+            LOGGER.info("Loaded noise levels of {} facilities", facilityIndex.size());
+            return new FacilityNoiseIndex(timeBinSize, facilityIndex, levels);
+        }
+
+        /**
+         * @param facilityId Facility identifier
+         * @return Facility index or -1 if there is no level for this facility
+         */
+        public int getFacilityIndex(String facilityId) {
+            Integer index = facilityIndex.get(facilityId);
+            return index == null ? -1 : index;
+        }
+
+        /**
+         * @param facilityIndex Facility index
+         * @param timeBinIndex Time bin index
+         * @return Noise level or NaN if not available
+         */
+        public double getLevel(int facilityIndex, int timeBinIndex) {
+            if (facilityIndex < 0) {
+                return Double.NaN;
+            }
+            return levels[facilityIndex * timeBinCount + timeBinIndex];
+        }
+
+        public int getTimeBinSize() {
+            return timeBinSize;
+        }
+
+        public int getTimeBinCount() {
+            return timeBinCount;
+        }
+
+        public int getFacilityCount() {
+            return facilityIndex.size();
+        }
+    }
+
+    /**
+     * Activity of an agent in a facility
+     */
+    public static class Activity {
+        final String facilityId;
+        final String type;
+        final double startTime;
+        final double endTime;
+        final String geometry;
+
+        /**
+         * @param facilityId Facility identifier
+         * @param type Activity type (home, work, outside..)
+         * @param startTime Start time in seconds (0 if not defined)
+         * @param endTime End time in seconds ({@link #DEFAULT_ACTIVITY_END} if not defined)
+         * @param geometry Activity location in WKT, null if not defined
+         */
+        public Activity(String facilityId, String type, double startTime, double endTime, String geometry) {
+            this.facilityId = facilityId;
+            this.type = type;
+            this.startTime = startTime;
+            this.endTime = endTime;
+            this.geometry = geometry;
+        }
+    }
+
+    /**
+     * Agent attributes and ordered activities
+     */
+    public static class Agent {
+        final String personId;
+        final Integer age;
+        final String sex;
+        final Double income;
+        final Boolean employed;
+        final List<Activity> activities;
+
+        public Agent(String personId, Integer age, String sex, Double income, Boolean employed,
+                     List<Activity> activities) {
+            this.personId = personId;
+            this.age = age;
+            this.sex = sex;
+            this.income = income;
+            this.employed = employed;
+            this.activities = Collections.unmodifiableList(activities);
+        }
+
+        public String getPersonId() {
+            return personId;
+        }
+    }
+
+    /**
+     * Activities and noise level of an agent in a time bin
+     */
+    public static class SequenceElement {
+        double weight = -1; // used only to define 'main' activity
+        String startActivityId = TRAVELLING;
+        String startActivityType = TRAVELLING;
+        String startActivityGeometry = POINT_EMPTY;
+        String mainActivityId = TRAVELLING;
+        String mainActivityType = TRAVELLING;
+        String mainActivityGeometry = POINT_EMPTY;
+        String endActivityId = TRAVELLING;
+        String endActivityType = TRAVELLING;
+        String endActivityGeometry = POINT_EMPTY;
+        double level;
+
+        public String getStartActivityId() {
+            return startActivityId;
+        }
+
+        public String getMainActivityId() {
+            return mainActivityId;
+        }
+
+        public String getEndActivityId() {
+            return endActivityId;
+        }
+
+        public double getLevel() {
+            return level;
+        }
+    }
+
+    /**
+     * Exposure of an agent over the day
+     */
+    public static class Exposure {
+        final Agent agent;
+        String homeId = "";
+        String homeGeometry = POINT_EMPTY;
+        String workId = "";
+        String workGeometry = POINT_EMPTY;
+        double laeq;
+        final SequenceElement[] sequence;
+
+        Exposure(Agent agent, int timeBinCount) {
+            this.agent = agent;
+            this.sequence = new SequenceElement[timeBinCount];
+        }
+
+        public double getLaeq() {
+            return laeq;
+        }
+
+        public String getHomeId() {
+            return homeId;
+        }
+
+        public String getWorkId() {
+            return workId;
+        }
+
+        public SequenceElement[] getSequence() {
+            return sequence;
+        }
+    }
+}
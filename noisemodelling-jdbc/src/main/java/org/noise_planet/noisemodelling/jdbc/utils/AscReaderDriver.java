@@ -19,9 +19,23 @@ import org.h2gis.utilities.dbtypes.DBUtils;
 import org.locationtech.jts.geom.*;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
 import java.sql.*;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Scanner;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.zip.GZIPInputStream;
 
 /**
@@ -45,6 +59,9 @@ import java.util.zip.GZIPInputStream;
  *
  * NODATA_value : arbitrary value assigned to unknown cells.
  *
+ * Uncompressed files are memory mapped and split into chunks parsed in parallel, the cells outside the extract
+ * envelope or removed by the down scale are filtered before the creation of the geometries.
+ *
  * @author Nicolas Fortin (Université Gustave Eiffel 2020)
  * @author Erwan Bocher, CNRS, 2020
  */
@@ -52,6 +69,13 @@ public class AscReaderDriver {
 
     private static final int BATCH_MAX_SIZE = 100;
     private static final int BUFFER_SIZE = 16384;
+    /** Size in bytes of the parts of the file parsed in parallel */
+    private static final int DEFAULT_CHUNK_SIZE = 1 << 20;
+    /** Values overlapping the end of a chunk are read up to this length */
+    private static final int MAXIMUM_TOKEN_LENGTH = 256;
+    private static final int HEADER_MAXIMUM_SIZE = 65536;
+    private static final double[] POWERS_OF_TEN = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
     private boolean as3DPoint = true;
     private Envelope extractEnvelope = null;
     private int downScale = 1;
@@ -68,6 +92,9 @@ public class AscReaderDriver {
     private boolean deleteTable = false;
     private String encoding = "UTF-8";
     private boolean importNodata = false;
+    private boolean memoryMapped = true;
+    private int threadCount = Runtime.getRuntime().availableProcessors();
+    private int chunkSize = DEFAULT_CHUNK_SIZE;
 
     /**
      * @return If true ASC is imported as 3D points cloud, Raster is imported in
@@ -116,7 +143,47 @@ public class AscReaderDriver {
         this.downScale = downScale;
     }
 
-    private void readHeader(Scanner scanner) throws IOException {
+    /**
+     * @return True if uncompressed files are memory mapped and parsed in parallel
+     */
+    public boolean isMemoryMapped() {
+        return memoryMapped;
+    }
+
+    /**
+     * @param memoryMapped True if uncompressed files are memory mapped and parsed in parallel, the compressed files
+     *                     are always read sequentially
+     */
+    public void setMemoryMapped(boolean memoryMapped) {
+        this.memoryMapped = memoryMapped;
+    }
+
+    /**
+     * @return Number of threads used to parse the memory mapped files
+     */
+    public int getThreadCount() {
+        return threadCount;
+    }
+
+    /**
+     * @param threadCount Number of threads used to parse the memory mapped files
+     */
+    public void setThreadCount(int threadCount) {
+        this.threadCount = Math.max(1, threadCount);
+    }
+
+    /**
+     * @param chunkSize Size in bytes of the parts of the file parsed in parallel
+     */
+    void setChunkSize(int chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    private interface TokenReader {
+        String next() throws IOException;
+    }
+
+    private void readHeader(TokenReader scanner) throws IOException {
         // NCOLS
         lastWord = scanner.next();
         if (!lastWord.equalsIgnoreCase("NCOLS")) {
@@ -214,8 +281,12 @@ public class AscReaderDriver {
                 stmt.execute("DROP TABLE IF EXISTS " + outputTableName);
                 stmt.close();
             }
-            try (FileInputStream inputStream = new FileInputStream(fileName)) {
-                outputTableName = readAsc(connection, inputStream, progress, outputTableName, srid);
+            if (memoryMapped && isAsciiCompatible()) {
+                outputTableName = readMappedAsc(connection, fileName, progress, outputTableName, srid);
+            } else {
+                try (FileInputStream inputStream = new FileInputStream(fileName)) {
+                    outputTableName = readAsc(connection, inputStream, progress, outputTableName, srid);
+                }
             }
             return new String[]{outputTableName};
         } else if (fileName != null && fileName.getName().toLowerCase().endsWith(".gz")) {
@@ -257,56 +328,24 @@ public class AscReaderDriver {
         try {
             Scanner scanner = new Scanner(reader);
             // Read HEADER
-            readHeader(scanner);
+            readHeader(scanner::next);
             // Read values
             connection.setAutoCommit(false);
             Statement st = connection.createStatement();
             PreparedStatement preparedStatement;
 
-            int index=0;
-            if (!JDBCUtilities.tableExists(connection,outputTable)) {
-                if (as3DPoint) {
-                    if (zType == 1) {
-                        st.execute("CREATE TABLE " + outputTable + "(PK INT PRIMARY KEY, THE_GEOM GEOMETRY(POINTZ, " + srid + "), Z integer)");
-                        connection.commit();
-                    } else {
-                        st.execute("CREATE TABLE " + outputTable + "(PK INT PRIMARY KEY, THE_GEOM GEOMETRY(POINTZ, " + srid + "), Z double precision)");
-                        connection.commit();
-                    }
-                } else {
-                    if (zType == 1) {
-                        st.execute("CREATE TABLE " + outputTable + "(PK INT PRIMARY KEY, THE_GEOM GEOMETRY(POLYGONZ, " + srid + "),Z integer)");
-                        connection.commit();
-                    } else {
-                        st.execute("CREATE TABLE " + outputTable + "(PK INT PRIMARY KEY, THE_GEOM GEOMETRY(POLYGONZ, " + srid + "),Z double precision)");
-                        connection.commit();
-                    }
-                }
-            } else {
-                // restore the incremental index from the existing table
-                try(ResultSet rs = st.executeQuery("SELECT MAX(PK) FROM " +  outputTable)) {
-                    if(rs.next()) {
-                        index = rs.getInt(1) + 1;
-                    }
-                }
-            }
+            int index = createTable(connection, st, outputTable, srid);
             preparedStatement = connection.prepareStatement("INSERT INTO " + outputTable
                     + "(PK, the_geom, Z) VALUES (?, ?, ?)");
 
             // Read data
             GeometryFactory factory = new GeometryFactory(new PrecisionModel(),srid);
             int batchSize = 0;
-            int firstRow = 0;
-            int firstCol = 0;
-            int lastRow = nrows;
-            int lastCol = ncols;
-            // Compute envelope
-            if (extractEnvelope != null) {
-                firstCol = (int) Math.floor((extractEnvelope.getMinX() - xValue) / cellSize);
-                lastCol = (int) Math.ceil((extractEnvelope.getMaxX() - xValue) / cellSize);
-                firstRow = nrows - (int) Math.ceil((extractEnvelope.getMaxY() - (yValue - cellSize * nrows)) / cellSize);
-                lastRow = nrows - (int) Math.ceil((extractEnvelope.getMinY() - (yValue - cellSize * nrows)) / cellSize);
-            }
+            int[] extractRange = getExtractRange();
+            int firstRow = extractRange[0];
+            int lastRow = extractRange[1];
+            int firstCol = extractRange[2];
+            int lastCol = extractRange[3];
             ProgressVisitor cellProgress = new EmptyProgressVisitor();
             if (progress != null) {
                 cellProgress = progress.subProcess(lastRow);
@@ -380,6 +419,420 @@ public class AscReaderDriver {
         }
     }
 
+    /**
+     * @return First row, last row, first column and last column of the cells inside the extract envelope
+     */
+    private int[] getExtractRange() {
+        int firstRow = 0;
+        int firstCol = 0;
+        int lastRow = nrows;
+        int lastCol = ncols;
+        // Compute envelope
+        if (extractEnvelope != null) {
+            firstCol = (int) Math.floor((extractEnvelope.getMinX() - xValue) / cellSize);
+            lastCol = (int) Math.ceil((extractEnvelope.getMaxX() - xValue) / cellSize);
+            firstRow = nrows - (int) Math.ceil((extractEnvelope.getMaxY() - (yValue - cellSize * nrows)) / cellSize);
+            lastRow = nrows - (int) Math.ceil((extractEnvelope.getMinY() - (yValue - cellSize * nrows)) / cellSize);
+        }
+        return new int[]{firstRow, lastRow, firstCol, lastCol};
+    }
+
+    /**
+     * Create the output table if it does not exist
+     * @return First primary key value to insert
+     */
+    private int createTable(Connection connection, Statement st, String outputTable, int srid) throws SQLException {
+        int index = 0;
+        if (!JDBCUtilities.tableExists(connection,outputTable)) {
+            String geometryType = as3DPoint ? "POINTZ" : "POLYGONZ";
+            String zFieldType = zType == 1 ? "integer" : "double precision";
+            st.execute("CREATE TABLE " + outputTable + "(PK INT PRIMARY KEY, THE_GEOM GEOMETRY(" + geometryType +
+                    ", " + srid + "), Z " + zFieldType + ")");
+            connection.commit();
+        } else {
+            // restore the incremental index from the existing table
+            try(ResultSet rs = st.executeQuery("SELECT MAX(PK) FROM " +  outputTable)) {
+                if(rs.next()) {
+                    index = rs.getInt(1) + 1;
+                }
+            }
+        }
+        return index;
+    }
+
+    /**
+     * @return True if the digits are encoded using one byte in the file encoding
+     */
+    private boolean isAsciiCompatible() {
+        try {
+            return Arrays.equals("-0.5e9".getBytes(Charset.forName(encoding)), "-0.5e9".getBytes(Charset.forName("US-ASCII")));
+        } catch (IllegalArgumentException ex) {
+            return false;
+        }
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\n' || b == '\r' || b == '\t' || b == '\f' || b == 0x0B;
+    }
+
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+
+    /**
+     * Parse a decimal number. Values with up to 18 significant digits and a small exponent are computed exactly
+     * without the creation of a string, the other values are parsed using {@link Double#parseDouble(String)}.
+     * @param buffer Buffer
+     * @param start First byte of the number
+     * @param end Byte after the number
+     * @return Parsed value
+     * @throws NumberFormatException If the bytes are not a number
+     */
+    static double parseDouble(ByteBuffer buffer, int start, int end) {
+        int position = start;
+        boolean negative = false;
+        byte b = buffer.get(position);
+        if (b == '-' || b == '+') {
+            negative = b == '-';
+            position++;
+        }
+        long mantissa = 0;
+        int significantDigits = 0;
+        int exponent = 0;
+        boolean hasDigits = false;
+        boolean fastPath = true;
+        while (position < end && isDigit(b = buffer.get(position))) {
+            hasDigits = true;
+            if (mantissa != 0 || b != '0') {
+                mantissa = mantissa * 10 + (b - '0');
+                significantDigits++;
+            }
+            position++;
+        }
+        if (position < end && buffer.get(position) == '.') {
+            position++;
+            while (position < end && isDigit(b = buffer.get(position))) {
+                hasDigits = true;
+                if (mantissa != 0 || b != '0') {
+                    mantissa = mantissa * 10 + (b - '0');
+                    significantDigits++;
+                }
+                exponent--;
+                position++;
+            }
+        }
+        if (hasDigits && position < end && (buffer.get(position) == 'e' || buffer.get(position) == 'E')) {
+            position++;
+            boolean negativeExponent = false;
+            if (position < end && (buffer.get(position) == '-' || buffer.get(position) == '+')) {
+                negativeExponent = buffer.get(position) == '-';
+                position++;
+            }
+            int exponentValue = 0;
+            boolean hasExponentDigits = false;
+            while (position < end && isDigit(b = buffer.get(position))) {
+                hasExponentDigits = true;
+                exponentValue = Math.min(exponentValue * 10 + (b - '0'), 100000);
+                position++;
+            }
+            if (!hasExponentDigits) {
+                fastPath = false;
+            }
+            exponent += negativeExponent ? -exponentValue : exponentValue;
+        }
+        if (!hasDigits || position != end || significantDigits > 18) {
+            fastPath = false;
+        }
+        if (fastPath) {
+            if (mantissa == 0) {
+                return negative ? -0.0 : 0.0;
+            }
+            // mantissa and power of ten are exact doubles, the result is correctly rounded
+            if (mantissa < (1L << 53) && Math.abs(exponent) < POWERS_OF_TEN.length) {
+                double value = exponent >= 0 ? mantissa * POWERS_OF_TEN[exponent] :
+                        mantissa / POWERS_OF_TEN[-exponent];
+                return negative ? -value : value;
+            }
+        }
+        byte[] bytes = new byte[end - start];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buffer.get(start + i);
+        }
+        return Double.parseDouble(new String(bytes, Charset.forName("US-ASCII")));
+    }
+
+    /**
+     * Read the header tokens of a memory mapped file
+     */
+    private static final class MappedTokenReader implements TokenReader {
+        private final ByteBuffer buffer;
+        private int position = 0;
+        private int tokenStart = 0;
+
+        MappedTokenReader(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public String next() throws IOException {
+            while (position < buffer.limit() && isWhitespace(buffer.get(position))) {
+                position++;
+            }
+            if (position >= buffer.limit()) {
+                throw new IOException("Unexpected end of header");
+            }
+            tokenStart = position;
+            StringBuilder word = new StringBuilder();
+            while (position < buffer.limit() && !isWhitespace(buffer.get(position))) {
+                word.append((char) buffer.get(position++));
+            }
+            return word.toString();
+        }
+    }
+
+    private interface TokenVisitor {
+        void visit(ByteBuffer buffer, int start, int end) throws IOException;
+    }
+
+    /**
+     * Part of the file, the chunk contains the values that begin in [start, end[
+     */
+    private static final class Chunk {
+        final long start;
+        final long end;
+        long firstToken;
+        int tokenCount;
+
+        Chunk(long start, long end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        /**
+         * Visit the values that begin in this chunk
+         */
+        void scan(FileChannel channel, long fileSize, TokenVisitor visitor) throws IOException {
+            long mapStart = Math.max(0, start - 1);
+            long mapEnd = Math.min(fileSize, end + MAXIMUM_TOKEN_LENGTH);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, mapStart, mapEnd - mapStart);
+            int position = (int) (start - mapStart);
+            int ownedEnd = (int) (end - mapStart);
+            int limit = buffer.limit();
+            // the value overlapping the chunk start belongs to the previous chunk
+            if (position > 0 && !isWhitespace(buffer.get(position - 1))) {
+                while (position < limit && !isWhitespace(buffer.get(position))) {
+                    position++;
+                }
+            }
+            while (true) {
+                while (position < ownedEnd && isWhitespace(buffer.get(position))) {
+                    position++;
+                }
+                if (position >= ownedEnd) {
+                    break;
+                }
+                int tokenStart = position;
+                while (position < limit && !isWhitespace(buffer.get(position))) {
+                    position++;
+                }
+                if (position == limit && mapEnd < fileSize) {
+                    throw new IOException("Value too long at byte " + (mapStart + tokenStart));
+                }
+                visitor.visit(buffer, tokenStart, position);
+            }
+        }
+    }
+
+    /**
+     * Cells parsed from a chunk
+     */
+    private static final class ChunkCells {
+        int size = 0;
+        int[] pk = new int[0];
+        double[] z = new double[0];
+        Geometry[] geometries = new Geometry[0];
+
+        void add(int cellPk, Geometry geometry, double cellZ) {
+            if (size == pk.length) {
+                int capacity = Math.max(16, size * 2);
+                pk = Arrays.copyOf(pk, capacity);
+                z = Arrays.copyOf(z, capacity);
+                geometries = Arrays.copyOf(geometries, capacity);
+            }
+            pk[size] = cellPk;
+            geometries[size] = geometry;
+            z[size] = cellZ;
+            size++;
+        }
+    }
+
+    /**
+     * @return Number of values in [lowerBound, value[ kept by the down scale
+     */
+    private int keptBefore(int lowerBound, int value) {
+        if (value <= lowerBound) {
+            return 0;
+        }
+        if (downScale <= 1) {
+            return value - lowerBound;
+        }
+        return Math.floorDiv(value - 1, downScale) - Math.floorDiv(lowerBound - 1, downScale);
+    }
+
+    /**
+     * Read an uncompressed asc file using memory mapping, the file is split into chunks parsed in parallel.
+     * The values are counted in a first pass in order to locate the cells of each chunk.
+     * The imported rows are the same as {@link #readAsc(Connection, InputStream, ProgressVisitor, String, int)}
+     * @return output table name
+     */
+    private String readMappedAsc(Connection connection, File file, ProgressVisitor progress, String outputTable,
+                                 int srid) throws SQLException, IOException {
+        ExecutorService executorService = Executors.newFixedThreadPool(threadCount);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+            MappedTokenReader headerReader = new MappedTokenReader(channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    Math.min(fileSize, HEADER_MAXIMUM_SIZE)));
+            try {
+                readHeader(headerReader);
+            } catch (NumberFormatException ex) {
+                throw new SQLException("Unexpected word " + lastWord, ex);
+            }
+            // without NODATA_VALUE the last read word is the first value
+            long dataStart = readFirst ? headerReader.position : headerReader.tokenStart;
+            List<Chunk> chunks = new ArrayList<>();
+            for (long start = dataStart; start < fileSize; start += chunkSize) {
+                chunks.add(new Chunk(start, Math.min(fileSize, start + chunkSize)));
+            }
+            // First pass, count the values of each chunk
+            List<Future<Integer>> counts = new ArrayList<>(chunks.size());
+            for (Chunk chunk : chunks) {
+                counts.add(executorService.submit(() -> {
+                    int[] count = new int[1];
+                    chunk.scan(channel, fileSize, (buffer, start, end) -> count[0]++);
+                    return count[0];
+                }));
+            }
+            long tokenCount = 0;
+            for (int i = 0; i < chunks.size(); i++) {
+                chunks.get(i).firstToken = tokenCount;
+                chunks.get(i).tokenCount = counts.get(i).get();
+                tokenCount += chunks.get(i).tokenCount;
+            }
+            int[] extractRange = getExtractRange();
+            final int firstRow = Math.max(0, extractRange[0]);
+            final int lastRow = Math.min(nrows - 1, extractRange[1]);
+            final int firstCol = Math.max(0, extractRange[2]);
+            final int lastCol = Math.min(ncols - 1, extractRange[3]);
+            if (lastRow >= 0 && tokenCount < (long) (lastRow + 1) * ncols) {
+                throw new SQLException("Unexpected end of file, expected " + ((long) (lastRow + 1) * ncols) +
+                        " values got " + tokenCount);
+            }
+            connection.setAutoCommit(false);
+            int index;
+            try (Statement st = connection.createStatement()) {
+                index = createTable(connection, st, outputTable, srid);
+            }
+            final int firstPk = index;
+            final int keptColumns = keptBefore(firstCol, lastCol + 1);
+            final GeometryFactory factory = new GeometryFactory(new PrecisionModel(), srid);
+            final long firstKeptToken = (long) firstRow * ncols;
+            final long lastKeptToken = (long) (lastRow + 1) * ncols;
+            ProgressVisitor chunkProgress = new EmptyProgressVisitor();
+            if (progress != null) {
+                chunkProgress = progress.subProcess(chunks.size());
+            }
+            // Second pass, parse the chunks in parallel and insert the cells in the file order
+            Deque<Future<ChunkCells>> pending = new ArrayDeque<>();
+            int nextChunk = 0;
+            int batchSize = 0;
+            try (PreparedStatement preparedStatement = connection.prepareStatement("INSERT INTO " + outputTable
+                    + "(PK, the_geom, Z) VALUES (?, ?, ?)")) {
+                for (int idChunk = 0; idChunk < chunks.size(); idChunk++) {
+                    while (nextChunk < chunks.size() && pending.size() < threadCount * 2) {
+                        Chunk chunk = chunks.get(nextChunk++);
+                        if (chunk.firstToken + chunk.tokenCount <= firstKeptToken ||
+                                chunk.firstToken >= lastKeptToken) {
+                            pending.add(executorService.submit(ChunkCells::new));
+                        } else {
+                            pending.add(executorService.submit(() -> parseChunk(channel, fileSize, chunk, firstRow,
+                                    lastRow, firstCol, lastCol, keptColumns, firstPk, factory)));
+                        }
+                    }
+                    ChunkCells cells = pending.removeFirst().get();
+                    for (int i = 0; i < cells.size; i++) {
+                        preparedStatement.setObject(1, cells.pk[i]);
+                        preparedStatement.setObject(2, cells.geometries[i]);
+                        preparedStatement.setObject(3, cells.z[i]);
+                        preparedStatement.addBatch();
+                        batchSize++;
+                        if (batchSize >= BATCH_MAX_SIZE) {
+                            preparedStatement.executeBatch();
+                            connection.commit();
+                            preparedStatement.clearBatch();
+                            batchSize = 0;
+                        }
+                    }
+                    chunkProgress.endStep();
+                }
+                if (batchSize > 0) {
+                    preparedStatement.executeBatch();
+                    connection.commit();
+                }
+            }
+            connection.setAutoCommit(true);
+            return outputTable;
+        } catch (InterruptedException ex) {
+            throw new SQLException(ex);
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof NumberFormatException) {
+                throw new SQLException("Unexpected word " + cause.getMessage(), cause);
+            } else if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new SQLException(cause);
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    private ChunkCells parseChunk(FileChannel channel, long fileSize, Chunk chunk, int firstRow, int lastRow,
+                                  int firstCol, int lastCol, int keptColumns, int firstPk, GeometryFactory factory)
+            throws IOException {
+        ChunkCells cells = new ChunkCells();
+        long[] tokenIndex = new long[]{chunk.firstToken};
+        chunk.scan(channel, fileSize, (buffer, start, end) -> {
+            long token = tokenIndex[0]++;
+            int i = (int) (token / ncols);
+            int j = (int) (token % ncols);
+            if (i < firstRow || i > lastRow || j < firstCol || j > lastCol ||
+                    (downScale > 1 && (i % downScale != 0 || j % downScale != 0))) {
+                return;
+            }
+            int pk = firstPk + keptBefore(firstRow, i) * keptColumns + keptBefore(firstCol, j);
+            double z = parseDouble(buffer, start, end);
+            if (Math.abs(noData - z) == 0) {
+                if (!importNodata) {
+                    return;
+                }
+                z = noData;
+            }
+            double x = xValue + j * cellSize;
+            double y = yValue - i * cellSize;
+            Geometry cell;
+            if (as3DPoint) {
+                cell = factory.createPoint(new Coordinate(x + cellSize / 2, y - cellSize / 2, z));
+            } else {
+                cell = factory.createPolygon(new Coordinate[]{new Coordinate(x, y, z),
+                        new Coordinate(x, y - cellSize * downScale, z),
+                        new Coordinate(x + cellSize * downScale, y - cellSize * downScale, z),
+                        new Coordinate(x + cellSize * downScale, y, z), new Coordinate(x, y, z)});
+            }
+            cells.add(pk, cell, z);
+        });
+        return cells;
+    }
+
     /**
      * Use to set the z conversion type 1 = integer 2 = double
      *
@@ -0,0 +1,565 @@
+/**
+ * NoiseModelling is a library capable of producing noise maps. It can be freely used either for research and education, as well as by experts in a professional use.
+ * <p>
+ * NoiseModelling is distributed under GPL 3 license. You can read a copy of this License in the file LICENCE provided with this software.
+ * <p>
+ * Official webpage : http://noise-planet.org/noisemodelling.html
+ * Contact: contact@noise-planet.org
+ */
+
+package org.noise_planet.noisemodelling.jdbc.utils;
+
+import org.h2gis.utilities.JDBCUtilities;
+import org.h2gis.utilities.TableLocation;
+import org.h2gis.utilities.dbtypes.DBTypes;
+import org.h2gis.utilities.dbtypes.DBUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Data assimilation: search the traffic factors of each source group (ex. road categories) that minimise the median
+ * absolute difference between the simulated and the measured levels at the sensors, for each time step of the
+ * measurements.
+ * The level of each source group at each sensor is computed once with a traffic factor of 1 (one noise map per
+ * group, and optionally per temperature). As the sound power is proportional to the traffic flow, the simulated
+ * level of a configuration is the energetic sum of the group contributions multiplied by the group factors, so the
+ * configurations are evaluated in memory without computing a noise map for each of them.
+ * The configurations are explored with a branch-and-bound: the factors of the remaining groups bound the level at
+ * each sensor and the median of the lowest possible errors is a lower bound of the error of all the configurations
+ * of the branch. Only the best configurations of each time step are written in the output table.
+ * @author Nicolas Fortin, Université Gustave Eiffel
+ */
+public class ConfigurationSearch {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ConfigurationSearch.class);
+
+    private final double[] factors;
+    private int topCount = 1;
+    private double maximumFactorRatio = Double.POSITIVE_INFINITY;
+    private double temperatureTolerance = Double.POSITIVE_INFINITY;
+    private int threadCount = Runtime.getRuntime().availableProcessors();
+    private List<String> groups = new ArrayList<>();
+    private String receiverField = "IDRECEIVER";
+    private String groupField = "PERIOD";
+    private String levelField = "LAEQ";
+    private String temperatureField = "TEMP";
+    private String epochField = "EPOCH";
+
+    /**
+     * @param factors Candidate traffic factors of each source group
+     */
+    public ConfigurationSearch(double... factors) {
+        this.factors = factors.clone();
+    }
+
+    /**
+     * @return Candidate traffic factors of each source group
+     */
+    public double[] getFactors() {
+        return factors;
+    }
+
+    /**
+     * @return Number of configurations kept for each time step
+     */
+    public int getTopCount() {
+        return topCount;
+    }
+
+    /**
+     * @param topCount Number of configurations kept for each time step
+     */
+    public void setTopCount(int topCount) {
+        this.topCount = Math.max(1, topCount);
+    }
+
+    /**
+     * @return Maximum ratio between the factor of a group and the factor of a preceding group
+     */
+    public double getMaximumFactorRatio() {
+        return maximumFactorRatio;
+    }
+
+    /**
+     * Skip the incoherent configurations, where the traffic of a minor group would be much higher than the traffic
+     * of a major group
+     * @param maximumFactorRatio Maximum ratio between the factor of a group and the factor of a preceding group
+     */
+    public void setMaximumFactorRatio(double maximumFactorRatio) {
+        this.maximumFactorRatio = maximumFactorRatio;
+    }
+
+    /**
+     * @return Maximum difference between the temperature of the contributions and the measured temperature
+     */
+    public double getTemperatureTolerance() {
+        return temperatureTolerance;
+    }
+
+    /**
+     * @param temperatureTolerance Maximum difference between the temperature of the contributions and the measured
+     *                             temperature
+     */
+    public void setTemperatureTolerance(double temperatureTolerance) {
+        this.temperatureTolerance = temperatureTolerance;
+    }
+
+    /**
+     * @return Number of threads used to explore the configurations
+     */
+    public int getThreadCount() {
+        return threadCount;
+    }
+
+    /**
+     * @param threadCount Number of threads used to explore the configurations
+     */
+    public void setThreadCount(int threadCount) {
+        this.threadCount = Math.max(1, threadCount);
+    }
+
+    /**
+     * @return Source groups, from the major to the minor group
+     */
+    public List<String> getGroups() {
+        return groups;
+    }
+
+    /**
+     * @param groups Source groups, from the major to the minor group. If empty the groups of the contributions table
+     *               are used in alphabetical order
+     */
+    public void setGroups(List<String> groups) {
+        this.groups = new ArrayList<>(groups);
+    }
+
+    /**
+     * @param receiverField Sensor identifier field of the contributions and observations tables
+     */
+    public void setReceiverField(String receiverField) {
+        this.receiverField = receiverField;
+    }
+
+    /**
+     * @param groupField Source group field of the contributions table
+     */
+    public void setGroupField(String groupField) {
+        this.groupField = groupField;
+    }
+
+    /**
+     * @param levelField Level field (dB) of the contributions and observations tables
+     */
+    public void setLevelField(String levelField) {
+        this.levelField = levelField;
+    }
+
+    /**
+     * @param temperatureField Optional temperature field of the contributions and observations tables
+     */
+    public void setTemperatureField(String temperatureField) {
+        this.temperatureField = temperatureField;
+    }
+
+    /**
+     * @param epochField Time step field of the observations table
+     */
+    public void setEpochField(String epochField) {
+        this.epochField = epochField;
+    }
+
+    /**
+     * Level of each source group at each sensor, with a traffic factor of 1
+     */
+    public static class Contributions {
+        /** Temperature of the emission, NaN if not defined */
+        public final double temperature;
+        /** Energy [sensor][group] */
+        public final double[][] energy;
+
+        public Contributions(double temperature, double[][] energy) {
+            this.temperature = temperature;
+            this.energy = energy;
+        }
+    }
+
+    /**
+     * Measured levels of a time step
+     */
+    public static class Observation {
+        public final int epoch;
+        /** Measured temperature, NaN if not defined */
+        public final double temperature;
+        /** Index of the sensors in {@link Contributions#energy} */
+        public final int[] sensors;
+        /** Measured levels (dB) */
+        public final double[] levels;
+
+        public Observation(int epoch, double temperature, int[] sensors, double[] levels) {
+            this.epoch = epoch;
+            this.temperature = temperature;
+            this.sensors = sensors;
+            this.levels = levels;
+        }
+    }
+
+    /**
+     * Evaluated configuration
+     */
+    public static class Configuration implements Comparable<Configuration> {
+        /** Index of the contributions */
+        public final int contributionsIndex;
+        /** Index of the factor of each group */
+        public final int[] factorIndex;
+        /** Median absolute difference between the measured and the simulated levels (dB) */
+        public final double error;
+
+        public Configuration(int contributionsIndex, int[] factorIndex, double error) {
+            this.contributionsIndex = contributionsIndex;
+            this.factorIndex = factorIndex;
+            this.error = error;
+        }
+
+        @Override
+        public int compareTo(Configuration o) {
+            return Double.compare(error, o.error);
+        }
+    }
+
+    /**
+     * @param values Values, sorted in place
+     * @param length Number of values
+     * @return Median of the values (mean of the two middle values for an even count)
+     */
+    static double median(double[] values, int length) {
+        Arrays.sort(values, 0, length);
+        int middle = length / 2;
+        return length % 2 == 1 ? values[middle] : (values[middle - 1] + values[middle]) / 2;
+    }
+
+    private static double toLevel(double energy) {
+        return energy > 0 ? 10 * Math.log10(energy) : Double.NEGATIVE_INFINITY;
+    }
+
+    /**
+     * Exploration state of one time step, the arrays are reused by all the branches
+     */
+    private class Search {
+        final Observation observation;
+        final int groupCount;
+        final int sensorCount;
+        final PriorityQueue<Configuration> best = new PriorityQueue<>(Collections.reverseOrder());
+        final int[] factorIndex;
+        // energy of the assigned groups [group depth][sensor]
+        final double[][] partial;
+        // energy of the remaining groups with the lowest or highest factor [group depth][sensor]
+        final double[][] restMinimum;
+        final double[][] restMaximum;
+        final double[] errors;
+        double[][] energy;
+        int contributionsIndex;
+
+        Search(Observation observation, int groupCount) {
+            this.observation = observation;
+            this.groupCount = groupCount;
+            this.sensorCount = observation.sensors.length;
+            factorIndex = new int[groupCount];
+            partial = new double[groupCount + 1][sensorCount];
+            restMinimum = new double[groupCount + 1][sensorCount];
+            restMaximum = new double[groupCount + 1][sensorCount];
+            errors = new double[sensorCount];
+        }
+
+        void explore(int contributionsIndex, Contributions contributions) {
+            this.contributionsIndex = contributionsIndex;
+            this.energy = contributions.energy;
+            double minimumFactor = Double.POSITIVE_INFINITY;
+            double maximumFactor = Double.NEGATIVE_INFINITY;
+            for (double factor : factors) {
+                minimumFactor = Math.min(minimumFactor, factor);
+                maximumFactor = Math.max(maximumFactor, factor);
+            }
+            for (int group = groupCount - 1; group >= 0; group--) {
+                for (int s = 0; s < sensorCount; s++) {
+                    double groupEnergy = energy[observation.sensors[s]][group];
+                    restMinimum[group][s] = restMinimum[group + 1][s] + minimumFactor * groupEnergy;
+                    restMaximum[group][s] = restMaximum[group + 1][s] + maximumFactor * groupEnergy;
+                }
+            }
+            explore(0);
+        }
+
+        /**
+         * @param group Number of groups with an assigned factor
+         * @return Lower bound of the error of the configurations of the branch
+         */
+        double lowerBound(int group) {
+            for (int s = 0; s < sensorCount; s++) {
+                double measured = observation.levels[s];
+                double lowest = toLevel(partial[group][s] + restMinimum[group][s]);
+                double highest = toLevel(partial[group][s] + restMaximum[group][s]);
+                errors[s] = measured < lowest ? lowest - measured : measured > highest ? measured - highest : 0;
+            }
+            return median(errors, sensorCount);
+        }
+
+        boolean isCoherent(int group, int factor) {
+            if (Double.isInfinite(maximumFactorRatio)) {
+                return true;
+            }
+            for (int previous = 0; previous < group; previous++) {
+                if (factors[factor] > maximumFactorRatio * factors[factorIndex[previous]]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        void explore(int group) {
+            if (group < groupCount && best.size() == topCount && lowerBound(group) >= best.peek().error) {
+                return;
+            }
+            if (group == groupCount) {
+                for (int s = 0; s < sensorCount; s++) {
+                    errors[s] = Math.abs(observation.levels[s] - toLevel(partial[group][s]));
+                }
+                Configuration configuration = new Configuration(contributionsIndex, factorIndex.clone(),
+                        median(errors, sensorCount));
+                if (best.size() < topCount) {
+                    best.add(configuration);
+                } else if (configuration.error < best.peek().error) {
+                    best.poll();
+                    best.add(configuration);
+                }
+                return;
+            }
+            double[] current = partial[group];
+            double[] next = partial[group + 1];
+            for (int factor = 0; factor < factors.length; factor++) {
+                if (!isCoherent(group, factor)) {
+                    continue;
+                }
+                factorIndex[group] = factor;
+                for (int s = 0; s < sensorCount; s++) {
+                    next[s] = current[s] + factors[factor] * energy[observation.sensors[s]][group];
+                }
+                explore(group + 1);
+            }
+        }
+    }
+
+    /**
+     * Search the best configurations of a time step
+     * @param contributions Contributions of the groups, for each temperature
+     * @param observation Measured levels
+     * @return Best configurations, sorted by ascending error
+     */
+    public List<Configuration> search(List<Contributions> contributions, Observation observation) {
+        if (observation.sensors.length == 0 || contributions.isEmpty()) {
+            return Collections.emptyList();
+        }
+        Search search = new Search(observation, contributions.get(0).energy[0].length);
+        for (int i = 0; i < contributions.size(); i++) {
+            Contributions variant = contributions.get(i);
+            if (Double.isNaN(variant.temperature) || Double.isNaN(observation.temperature) ||
+                    Math.abs(variant.temperature - observation.temperature) <= temperatureTolerance) {
+                search.explore(i, variant);
+            }
+        }
+        List<Configuration> result = new ArrayList<>(search.best);
+        Collections.sort(result);
+        return result;
+    }
+
+    /**
+     * Load the contributions and the observations, search the best configurations of each time step and write them
+     * in the output table (EPOCH, RANK, MEDIAN_ABS_DIFF, [GROUP]_VAL for each group and TEMP_VAL)
+     * @param connection Database connection
+     * @param contributionsTable Level of each source group (group field) at each sensor, with a traffic factor of 1.
+     *                           The optional temperature field gives the temperature used for the emission
+     * @param observationsTable Measured level at each sensor for each time step (epoch field), with the optional
+     *                          measured temperature
+     * @param outputTable Output table, dropped if it exists
+     * @return Number of evaluated time steps
+     * @throws SQLException If error occurred
+     */
+    public int search(Connection connection, String contributionsTable, String observationsTable,
+                      String outputTable) throws SQLException {
+        DBTypes dbType = DBUtils.getDBType(connection.unwrap(Connection.class));
+        TableLocation contributionsLocation = TableLocation.parse(contributionsTable, dbType);
+        TableLocation observationsLocation = TableLocation.parse(observationsTable, dbType);
+        TableLocation outputLocation = TableLocation.parse(outputTable, dbType);
+        String receiverColumn = TableLocation.quoteIdentifier(receiverField, dbType);
+        String levelColumn = TableLocation.quoteIdentifier(levelField, dbType);
+        String temperatureColumn = TableLocation.quoteIdentifier(temperatureField, dbType);
+        String epochColumn = TableLocation.quoteIdentifier(epochField, dbType);
+        boolean contributionsTemperature = JDBCUtilities.hasField(connection, contributionsLocation.toString(),
+                temperatureField);
+        boolean observationsTemperature = JDBCUtilities.hasField(connection, observationsLocation.toString(),
+                temperatureField);
+        long start = System.currentTimeMillis();
+        // Load the contributions
+        List<String> groupList = new ArrayList<>(groups);
+        Map<Integer, Integer> sensorIndex = new HashMap<>();
+        TreeMap<Double, Map<Integer, double[]>> contributionsByTemperature = new TreeMap<>();
+        try (Statement st = connection.createStatement();
+             ResultSet rs = st.executeQuery("SELECT " + receiverColumn + ", " +
+                     TableLocation.quoteIdentifier(groupField, dbType) + ", " + levelColumn + ", " +
+                     (contributionsTemperature ? temperatureColumn : "NULL") + " FROM " + contributionsLocation +
+                     " ORDER BY 2")) {
+            List<Object[]> rows = new ArrayList<>();
+            while (rs.next()) {
+                String group = rs.getString(2);
+                if (groups.isEmpty() && !groupList.contains(group)) {
+                    groupList.add(group);
+                }
+                double temperature = rs.getDouble(4);
+                rows.add(new Object[]{rs.getInt(1), group, rs.getDouble(3), rs.wasNull() ? Double.NaN : temperature});
+            }
+            for (Object[] row : rows) {
+                int group = groupList.indexOf((String) row[1]);
+                if (group < 0) {
+                    continue;
+                }
+                int sensor = sensorIndex.computeIfAbsent((Integer) row[0], k -> sensorIndex.size());
+                // the energies of the same sensor and group are summed
+                contributionsByTemperature.computeIfAbsent((Double) row[3], k -> new HashMap<>())
+                        .computeIfAbsent(sensor, k -> new double[groupList.size()])[group] +=
+                        Math.pow(10, (Double) row[2] / 10);
+            }
+        }
+        List<Contributions> contributions = new ArrayList<>(contributionsByTemperature.size());
+        for (Map.Entry<Double, Map<Integer, double[]>> entry : contributionsByTemperature.entrySet()) {
+            double[][] energy = new double[sensorIndex.size()][groupList.size()];
+            for (Map.Entry<Integer, double[]> sensorEntry : entry.getValue().entrySet()) {
+                energy[sensorEntry.getKey()] = sensorEntry.getValue();
+            }
+            contributions.add(new Contributions(entry.getKey(), energy));
+        }
+        // Load the observations
+        List<Observation> observations = new ArrayList<>();
+        try (Statement st = connection.createStatement();
+             ResultSet rs = st.executeQuery("SELECT " + epochColumn + ", " + receiverColumn + ", " + levelColumn +
+                     ", " + (observationsTemperature ? temperatureColumn : "NULL") + " FROM " + observationsLocation +
+                     " WHERE " + levelColumn + " IS NOT NULL ORDER BY " + epochColumn)) {
+            Integer epoch = null;
+            List<Integer> sensors = new ArrayList<>();
+            List<Double> levels = new ArrayList<>();
+            List<Double> temperatures = new ArrayList<>();
+            boolean hasNext = rs.next();
+            while (true) {
+                if (hasNext && (epoch == null || epoch == rs.getInt(1))) {
+                    epoch = rs.getInt(1);
+                    Integer sensor = sensorIndex.get(rs.getInt(2));
+                    if (sensor != null) {
+                        sensors.add(sensor);
+                        levels.add(rs.getDouble(3));
+                    }
+                    double temperature = rs.getDouble(4);
+                    if (!rs.wasNull()) {
+                        temperatures.add(temperature);
+                    }
+                    hasNext = rs.next();
+                    continue;
+                }
+                if (epoch != null) {
+                    double[] temperatureValues = temperatures.stream().mapToDouble(Double::doubleValue).toArray();
+                    observations.add(new Observation(epoch, temperatureValues.length == 0 ? Double.NaN :
+                            median(temperatureValues, temperatureValues.length),
+                            sensors.stream().mapToInt(Integer::intValue).toArray(),
+                            levels.stream().mapToDouble(Double::doubleValue).toArray()));
+                    sensors.clear();
+                    levels.clear();
+                    temperatures.clear();
+                    epoch = null;
+                }
+                if (!hasNext) {
+                    break;
+                }
+            }
+        }
+        LOGGER.info(String.format(Locale.ROOT, "Search the best configurations of %d time steps, %d groups, %d " +
+                        "sensors and %d temperatures", observations.size(), groupList.size(), sensorIndex.size(),
+                contributions.size()));
+        // Explore the configurations of each time step in parallel
+        List<List<Configuration>> results = new ArrayList<>(Collections.nCopies(observations.size(), null));
+        if (!groupList.isEmpty()) {
+            ForkJoinPool pool = new ForkJoinPool(threadCount);
+            try {
+                pool.submit(() -> IntStream.range(0, observations.size()).parallel().forEach(i ->
+                        results.set(i, search(contributions, observations.get(i))))).get();
+            } catch (InterruptedException | ExecutionException ex) {
+                throw new SQLException(ex);
+            } finally {
+                pool.shutdownNow();
+            }
+        }
+        // Write the best configurations
+        try (Statement st = connection.createStatement()) {
+            st.execute("DROP TABLE IF EXISTS " + outputLocation);
+            StringBuilder create = new StringBuilder("CREATE TABLE " + outputLocation +
+                    "(EPOCH INTEGER, RANK INTEGER, MEDIAN_ABS_DIFF DOUBLE PRECISION");
+            for (String group : groupList) {
+                create.append(", ").append(TableLocation.quoteIdentifier(group.toUpperCase(Locale.ROOT) + "_VAL",
+                        dbType)).append(" DOUBLE PRECISION");
+            }
+            create.append(", TEMP_VAL DOUBLE PRECISION)");
+            st.execute(create.toString());
+        }
+        StringBuilder insert = new StringBuilder("INSERT INTO " + outputLocation + " VALUES (?, ?, ?");
+        for (int i = 0; i <= groupList.size(); i++) {
+            insert.append(", ?");
+        }
+        insert.append(")");
+        try (PreparedStatement ps = connection.prepareStatement(insert.toString())) {
+            int batchSize = 0;
+            for (int i = 0; i < observations.size(); i++) {
+                List<Configuration> configurations = results.get(i);
+                if (configurations == null) {
+                    continue;
+                }
+                int rank = 1;
+                for (Configuration configuration : configurations) {
+                    int parameterIndex = 1;
+                    ps.setInt(parameterIndex++, observations.get(i).epoch);
+                    ps.setInt(parameterIndex++, rank++);
+                    ps.setDouble(parameterIndex++, configuration.error);
+                    for (int factor : configuration.factorIndex) {
+                        ps.setDouble(parameterIndex++, factors[factor]);
+                    }
+                    double temperature = contributions.get(configuration.contributionsIndex).temperature;
+                    ps.setObject(parameterIndex, Double.isNaN(temperature) ? null : temperature);
+                    ps.addBatch();
+                    batchSize++;
+                    if (batchSize >= 1000) {
+                        ps.executeBatch();
+                        batchSize = 0;
+                    }
+                }
+            }
+            if (batchSize > 0) {
+                ps.executeBatch();
+            }
+        }
+        LOGGER.info(String.format(Locale.ROOT, "Best configurations found in %.1fs",
+                (System.currentTimeMillis() - start) / 1000.0));
+        return observations.size();
+    }
+}
@@ -0,0 +1,410 @@
+/**
+ * NoiseModelling is a library capable of producing noise maps. It can be freely used either for research and education, as well as by experts in a professional use.
+ * <p>
+ * NoiseModelling is distributed under GPL 3 license. You can read a copy of this License in the file LICENCE provided with this software.
+ * <p>
+ * Official webpage : http://noise-planet.org/noisemodelling.html
+ * Contact: contact@noise-planet.org
+ */
+
+package org.noise_planet.noisemodelling.jdbc.utils;
+
+import org.h2gis.utilities.GeometryTableUtilities;
+import org.h2gis.utilities.TableLocation;
+import org.h2gis.utilities.dbtypes.DBTypes;
+import org.h2gis.utilities.dbtypes.DBUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.stream.IntStream;
+
+/**
+ * Compute the dynamic indicators (LEQ, L10, L50, L90 and exceedance counts) of each receiver from a table containing
+ * the time series of the noise levels.
+ * The table is read once ordered by receiver. The levels of a receiver are kept in a buffer for an exact evaluation
+ * of the percentiles, or in a fixed size histogram if the receiver has more than {@link #getExactBufferSize()} levels.
+ * The indicators of a batch of receivers are evaluated in parallel while the next batch is read.
+ * The percentiles follow the definition of the SQL percentile_cont function, L10 is the level exceeded 10% of the time.
+ * @author Nicolas Fortin, Université Gustave Eiffel
+ */
+public class DynamicIndicators {
+    /** Lowest level of the histogram (dB), lower levels are counted in the first bin */
+    public static final double HISTOGRAM_MINIMUM = -50;
+    /** Highest level of the histogram (dB), higher levels are counted in the last bin */
+    public static final double HISTOGRAM_MAXIMUM = 200;
+    /** Width of the histogram bins (dB) */
+    public static final double HISTOGRAM_RESOLUTION = 0.01;
+    private static final int HISTOGRAM_SIZE = (int) Math.ceil((HISTOGRAM_MAXIMUM - HISTOGRAM_MINIMUM) /
+            HISTOGRAM_RESOLUTION);
+    private static final Logger LOGGER = LoggerFactory.getLogger(DynamicIndicators.class);
+
+    private final String receiverField;
+    private final String levelField;
+    private int threadCount = Runtime.getRuntime().availableProcessors();
+    private int batchSize = 1000;
+    private int exactBufferSize = 4096;
+    private double[] exceedanceThresholds = new double[0];
+
+    /**
+     * @param receiverField Field that identify the receiver (ex. IDRECEIVER or THE_GEOM)
+     * @param levelField Field of the noise level (ex. LAEQ)
+     */
+    public DynamicIndicators(String receiverField, String levelField) {
+        this.receiverField = receiverField;
+        this.levelField = levelField;
+    }
+
+    /**
+     * @return Number of threads used to evaluate the indicators
+     */
+    public int getThreadCount() {
+        return threadCount;
+    }
+
+    /**
+     * @param threadCount Number of threads used to evaluate the indicators
+     */
+    public void setThreadCount(int threadCount) {
+        this.threadCount = Math.max(1, threadCount);
+    }
+
+    /**
+     * @return Number of receivers evaluated and inserted together
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * @param batchSize Number of receivers evaluated and inserted together
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    /**
+     * @return Maximum number of levels of a receiver kept for the exact evaluation of the percentiles, the levels of
+     * the receivers with more values are counted in a histogram with a resolution of {@link #HISTOGRAM_RESOLUTION}
+     */
+    public int getExactBufferSize() {
+        return exactBufferSize;
+    }
+
+    /**
+     * @param exactBufferSize Maximum number of levels of a receiver kept for the exact evaluation of the percentiles,
+     *                        the levels of the receivers with more values are counted in a histogram with a resolution
+     *                        of {@link #HISTOGRAM_RESOLUTION}
+     */
+    public void setExactBufferSize(int exactBufferSize) {
+        this.exactBufferSize = Math.max(1, exactBufferSize);
+    }
+
+    /**
+     * @return Levels (dB) for which the number of time steps above the level is counted
+     */
+    public double[] getExceedanceThresholds() {
+        return exceedanceThresholds;
+    }
+
+    /**
+     * @param exceedanceThresholds Levels (dB) for which the number of time steps above the level is counted, in the
+     *                             columns N_ABOVE_[level]
+     */
+    public void setExceedanceThresholds(double... exceedanceThresholds) {
+        this.exceedanceThresholds = exceedanceThresholds.clone();
+    }
+
+    /**
+     * @param threshold Exceedance threshold
+     * @return Name of the column of the exceedance count
+     */
+    public static String getExceedanceColumnName(double threshold) {
+        String level = threshold == Math.rint(threshold) ? String.valueOf((long) threshold) :
+                String.valueOf(threshold).replace('.', '_');
+        return "N_ABOVE_" + level.replace('-', 'M');
+    }
+
+    /**
+     * Time series of the levels of a receiver
+     */
+    public static class LevelDistribution {
+        private final int exactBufferSize;
+        private final double[] exceedanceThresholds;
+        private double[] levels = new double[16];
+        private int[] histogram = null;
+        private int count = 0;
+        private double energy = 0;
+        private final int[] exceedanceCount;
+
+        /**
+         * @param exactBufferSize Maximum number of levels kept for the exact evaluation of the percentiles
+         * @param exceedanceThresholds Levels for which the number of values above the level is counted
+         */
+        public LevelDistribution(int exactBufferSize, double[] exceedanceThresholds) {
+            this.exactBufferSize = exactBufferSize;
+            this.exceedanceThresholds = exceedanceThresholds;
+            this.exceedanceCount = new int[exceedanceThresholds.length];
+        }
+
+        private static int getBin(double level) {
+            int bin = (int) Math.floor((level - HISTOGRAM_MINIMUM) / HISTOGRAM_RESOLUTION);
+            return Math.max(0, Math.min(HISTOGRAM_SIZE - 1, bin));
+        }
+
+        /**
+         * @param level Level of a time step (dB)
+         */
+        public void add(double level) {
+            energy += Math.pow(10, level / 10);
+            for (int i = 0; i < exceedanceThresholds.length; i++) {
+                if (level > exceedanceThresholds[i]) {
+                    exceedanceCount[i]++;
+                }
+            }
+            if (histogram == null) {
+                if (count == exactBufferSize) {
+                    // too many levels, switch to the histogram
+                    histogram = new int[HISTOGRAM_SIZE];
+                    for (int i = 0; i < count; i++) {
+                        histogram[getBin(levels[i])]++;
+                    }
+                    levels = null;
+                    histogram[getBin(level)]++;
+                } else {
+                    if (count == levels.length) {
+                        levels = Arrays.copyOf(levels, Math.min(exactBufferSize, count * 2));
+                    }
+                    levels[count] = level;
+                }
+            } else {
+                histogram[getBin(level)]++;
+            }
+            count++;
+        }
+
+        /**
+         * @return Number of levels
+         */
+        public int getCount() {
+            return count;
+        }
+
+        /**
+         * @return True if the percentiles are evaluated exactly
+         */
+        public boolean isExact() {
+            return histogram == null;
+        }
+
+        /**
+         * @return Equivalent continuous level (dB)
+         */
+        public double getLeq() {
+            return 10 * Math.log10(energy / count);
+        }
+
+        /**
+         * @return Number of levels above each exceedance threshold
+         */
+        public int[] getExceedanceCount() {
+            return exceedanceCount;
+        }
+
+        /**
+         * Sort the buffer, must be called before {@link #getPercentile(double)}
+         */
+        public void sort() {
+            if (histogram == null) {
+                Arrays.sort(levels, 0, count);
+            }
+        }
+
+        private double getValueAtRank(int rank) {
+            if (histogram == null) {
+                return levels[rank];
+            }
+            int cumulative = 0;
+            for (int bin = 0; bin < histogram.length; bin++) {
+                cumulative += histogram[bin];
+                if (cumulative > rank) {
+                    return HISTOGRAM_MINIMUM + (bin + 0.5) * HISTOGRAM_RESOLUTION;
+                }
+            }
+            return HISTOGRAM_MAXIMUM;
+        }
+
+        /**
+         * @param fraction Fraction in [0, 1]
+         * @return Continuous percentile with linear interpolation between the sorted values (as SQL percentile_cont)
+         */
+        public double getPercentile(double fraction) {
+            double rank = fraction * (count - 1);
+            int lowerRank = (int) Math.floor(rank);
+            int upperRank = (int) Math.ceil(rank);
+            double lowerValue = getValueAtRank(lowerRank);
+            if (upperRank == lowerRank) {
+                return lowerValue;
+            }
+            return lowerValue + (rank - lowerRank) * (getValueAtRank(upperRank) - lowerValue);
+        }
+    }
+
+    private static class Receiver {
+        final Object key;
+        final Object geometry;
+        final LevelDistribution distribution;
+        double[] indicators;
+
+        Receiver(Object key, Object geometry, LevelDistribution distribution) {
+            this.key = key;
+            this.geometry = geometry;
+            this.distribution = distribution;
+        }
+
+        void evaluate() {
+            if (distribution.getCount() > 0) {
+                distribution.sort();
+                indicators = new double[]{distribution.getLeq(), distribution.getPercentile(0.9),
+                        distribution.getPercentile(0.5), distribution.getPercentile(0.1)};
+            }
+        }
+    }
+
+    /**
+     * Read the time series and create the indicators table with the receiver field, the geometry field of the input
+     * table if it is not the receiver field, SAMPLES, LEQ, L10, L50, L90 and the exceedance count columns
+     * @param connection Database connection
+     * @param tableName Table of the levels with one row per receiver and time step
+     * @param outputTableName Output table, dropped if it exists
+     * @return Number of receivers
+     * @throws SQLException If error occurred
+     */
+    public long computeIndicators(Connection connection, String tableName, String outputTableName)
+            throws SQLException {
+        DBTypes dbType = DBUtils.getDBType(connection.unwrap(Connection.class));
+        TableLocation table = TableLocation.parse(tableName, dbType);
+        TableLocation outputTable = TableLocation.parse(outputTableName, dbType);
+        String receiverColumn = TableLocation.quoteIdentifier(receiverField, dbType);
+        String levelColumn = TableLocation.quoteIdentifier(levelField, dbType);
+        String geometryColumn = null;
+        List<String> geometryFields = GeometryTableUtilities.getGeometryColumnNames(connection, table);
+        if (!geometryFields.isEmpty() && !geometryFields.get(0).equalsIgnoreCase(receiverField)) {
+            geometryColumn = TableLocation.quoteIdentifier(geometryFields.get(0), dbType);
+        }
+        try (Statement st = connection.createStatement()) {
+            st.execute("DROP TABLE IF EXISTS " + outputTable);
+            st.execute("CREATE TABLE " + outputTable + " AS SELECT " + receiverColumn +
+                    (geometryColumn == null ? "" : ", " + geometryColumn) + " FROM " + table + " WHERE 1=0");
+            st.execute("ALTER TABLE " + outputTable + " ADD COLUMN SAMPLES INTEGER");
+            for (String indicator : new String[]{"LEQ", "L10", "L50", "L90"}) {
+                st.execute("ALTER TABLE " + outputTable + " ADD COLUMN " + indicator + " DOUBLE PRECISION");
+            }
+            for (double threshold : exceedanceThresholds) {
+                st.execute("ALTER TABLE " + outputTable + " ADD COLUMN " + getExceedanceColumnName(threshold) +
+                        " INTEGER");
+            }
+        }
+        int columnCount = (geometryColumn == null ? 1 : 2) + 5 + exceedanceThresholds.length;
+        StringBuilder insert = new StringBuilder("INSERT INTO " + outputTable + " VALUES (?");
+        for (int i = 1; i < columnCount; i++) {
+            insert.append(", ?");
+        }
+        insert.append(")");
+        ForkJoinPool pool = new ForkJoinPool(threadCount);
+        long start = System.currentTimeMillis();
+        long counter = 0;
+        try (Statement st = connection.createStatement();
+             PreparedStatement insertStatement = connection.prepareStatement(insert.toString())) {
+            st.setFetchSize(10000);
+            try (ResultSet rs = st.executeQuery("SELECT " + receiverColumn + ", " + levelColumn +
+                    (geometryColumn == null ? "" : ", " + geometryColumn) + " FROM " + table + " ORDER BY " +
+                    receiverColumn)) {
+                List<Receiver> batch = new ArrayList<>(batchSize);
+                List<Receiver> pendingBatch = null;
+                ForkJoinTask<?> pendingTask = null;
+                Receiver receiver = null;
+                boolean hasNext = rs.next();
+                while (true) {
+                    if (hasNext) {
+                        Object key = rs.getObject(1);
+                        if (receiver == null || !Objects.equals(receiver.key, key)) {
+                            receiver = new Receiver(key, geometryColumn == null ? null : rs.getObject(3),
+                                    new LevelDistribution(exactBufferSize, exceedanceThresholds));
+                            batch.add(receiver);
+                        }
+                        double level = rs.getDouble(2);
+                        if (!rs.wasNull()) {
+                            receiver.distribution.add(level);
+                        }
+                        hasNext = rs.next();
+                        // the last receiver of the batch must be complete before the evaluation
+                        if (hasNext && (batch.size() < batchSize || Objects.equals(receiver.key, rs.getObject(1)))) {
+                            continue;
+                        }
+                    }
+                    List<Receiver> readyBatch = batch;
+                    batch = new ArrayList<>(batchSize);
+                    ForkJoinTask<?> task = readyBatch.isEmpty() ? null : pool.submit(() -> IntStream.range(0,
+                            readyBatch.size()).parallel().forEach(i -> readyBatch.get(i).evaluate()));
+                    if (pendingTask != null) {
+                        try {
+                            pendingTask.get();
+                        } catch (InterruptedException | ExecutionException ex) {
+                            throw new SQLException(ex);
+                        }
+                        writeIndicators(insertStatement, pendingBatch, geometryColumn != null);
+                        counter += pendingBatch.size();
+                    }
+                    if (task == null) {
+                        break;
+                    }
+                    pendingBatch = readyBatch;
+                    pendingTask = task;
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        LOGGER.info(String.format(Locale.ROOT, "Dynamic indicators of %d receivers computed in %.1fs", counter,
+                (System.currentTimeMillis() - start) / 1000.0));
+        return counter;
+    }
+
+    private void writeIndicators(PreparedStatement insertStatement, List<Receiver> receivers, boolean hasGeometry)
+            throws SQLException {
+        for (Receiver receiver : receivers) {
+            int parameterIndex = 1;
+            insertStatement.setObject(parameterIndex++, receiver.key);
+            if (hasGeometry) {
+                insertStatement.setObject(parameterIndex++, receiver.geometry);
+            }
+            insertStatement.setInt(parameterIndex++, receiver.distribution.getCount());
+            for (int i = 0; i < 4; i++) {
+                if (receiver.indicators == null) {
+                    insertStatement.setNull(parameterIndex++, Types.DOUBLE);
+                } else {
+                    insertStatement.setDouble(parameterIndex++, receiver.indicators[i]);
+                }
+            }
+            for (int exceedance : receiver.distribution.getExceedanceCount()) {
+                insertStatement.setInt(parameterIndex++, exceedance);
+            }
+            insertStatement.addBatch();
+        }
+        insertStatement.executeBatch();
+    }
+}
@@ -23,12 +23,18 @@ import org.locationtech.jts.index.quadtree.Quadtree;
 import org.locationtech.jts.operation.union.CascadedPolygonUnion;
 import org.locationtech.jts.simplify.TopologyPreservingSimplifier;
 import org.noise_planet.noisemodelling.jdbc.NoiseMapDatabaseParameters;
+import org.noise_planet.noisemodelling.pathfinder.ThreadPool;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.sql.*;
 import java.text.DecimalFormat;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import static org.h2gis.utilities.dbtypes.DBUtils.getDBType;
 import static org.noise_planet.noisemodelling.emission.utils.Utils.dbaToW;
@@ -59,6 +65,9 @@ public class IsoSurface {
 
     private int exportDimension = 2;
 
+    private int threadCount = 1;
+    private int maximumInFlightCells = 0;
+
     /**
      * @param isoLevels Iso levels in dB. First range start with -Infinity then first level excluded.
      */
@@ -129,6 +138,36 @@ public class IsoSurface {
         return epsilon;
     }
 
+    /**
+     * @return Number of threads used to compute the polygons of the cells
+     */
+    public int getThreadCount() {
+        return threadCount;
+    }
+
+    /**
+     * @param threadCount Number of threads used to compute the polygons of the cells. If greater than 1 the cells
+     *                    are streamed and processed in parallel, the order of the output rows is not preserved.
+     */
+    public void setThreadCount(int threadCount) {
+        this.threadCount = threadCount;
+    }
+
+    /**
+     * @return Maximum number of cells kept in memory while awaiting polygonisation or insertion
+     */
+    public int getMaximumInFlightCells() {
+        return maximumInFlightCells > 0 ? maximumInFlightCells : threadCount * 2;
+    }
+
+    /**
+     * @param maximumInFlightCells Maximum number of cells kept in memory while awaiting polygonisation or
+     *                             insertion. Default value (0) is twice the number of threads.
+     */
+    public void setMaximumInFlightCells(int maximumInFlightCells) {
+        this.maximumInFlightCells = maximumInFlightCells;
+    }
+
     public String getPointTableField() {
         return pointTableField;
     }
@@ -373,6 +412,22 @@ public class IsoSurface {
      * @param aggregateByPeriod Output time period in the fields
      */
     void processCell(Connection connection, int cellId, Map<Short, ArrayList<Geometry>> polys, String period, boolean aggregateByPeriod) throws SQLException {
+        Map<Short, List<Polygon>> cellPolygons = computeCellPolygons(polys);
+        try(PreparedStatement ps = connection.prepareStatement(createInsertQuery(aggregateByPeriod))) {
+            int batchSize = insertCellPolygons(ps, cellId, cellPolygons, period, aggregateByPeriod, 0);
+            if (batchSize > 0) {
+                ps.executeBatch();
+            }
+        }
+    }
+
+    /**
+     * Merge polygons of the same iso levels then apply bezier filtering on outer and inner rings.
+     * This method does not access the database and can be called concurrently.
+     * @param polys Polygons by isolevel
+     * @return Output polygons by isolevel, with the geometry dimension of the output table
+     */
+    Map<Short, List<Polygon>> computeCellPolygons(Map<Short, ArrayList<Geometry>> polys) {
         // First step
         // Smoothing of polygons
         GeometryFactory factory = new GeometryFactory(new PrecisionModel(), srid);
@@ -426,8 +481,64 @@ public class IsoSurface {
                 }
             }
         }
-        // Second step insertion
-        int batchSize = 0;
+        Map<Short, List<Polygon>> cellPolygons = new TreeMap<>();
+        for (Map.Entry<Short, ArrayList<Geometry>> entry : polys.entrySet()) {
+            ArrayList<Polygon> polygons = new ArrayList<>();
+            if(!smooth && mergeTriangles) {
+                // Merge triangles
+                try {
+                    CascadedPolygonUnion union = new CascadedPolygonUnion(entry.getValue());
+                    Geometry mergeTriangles = union.union();
+                    explode(mergeTriangles, polygons);
+                } catch (TopologyException t) {
+                    log.warn(t.getLocalizedMessage(), t);
+                    explode(factory.createGeometryCollection(entry.getValue().toArray(new Geometry[0])), polygons);
+                }
+            } else {
+                explode(factory.createGeometryCollection(entry.getValue().toArray(new Geometry[0])), polygons);
+            }
+            List<Polygon> outputPolygons = new ArrayList<>(polygons.size());
+            for(Polygon polygon : polygons) {
+                int geomDim = 0;
+                boolean mixedDimension = false;
+                for(Coordinate coordinate : polygon.getExteriorRing().getCoordinates()) {
+                    if(Double.isNaN(coordinate.getZ())) {
+                        if(geomDim == 0) {
+                            geomDim = 2;
+                        } else if (geomDim == 3) {
+                            mixedDimension = true;
+                        }
+                    } else {
+                        if(geomDim == 0) {
+                            geomDim = 3;
+                        } else if (geomDim == 2) {
+                            mixedDimension = true;
+                        }
+                    }
+                }
+                if(geomDim != exportDimension || mixedDimension) {
+                    // Have to force geometry dimension one way
+                    if(exportDimension == 3) {
+                        polygon = ST_Force3D.convert(polygon, 0);
+                        polygon.setSRID(srid);
+                    } else {
+                        // remove z
+                        polygon = (Polygon)ST_Force2D.force2D(polygon);
+                        polygon.setSRID(srid);
+                    }
+                }
+                outputPolygons.add(polygon);
+            }
+            cellPolygons.put(entry.getKey(), outputPolygons);
+        }
+        return cellPolygons;
+    }
+
+    /**
+     * @param aggregateByPeriod Output time period in the fields
+     * @return Insert query of the output table
+     */
+    String createInsertQuery(boolean aggregateByPeriod) {
         StringBuilder insertQuery = new StringBuilder().append("INSERT INTO ").append(TableLocation.parse(outputTable))
                 .append("(cell_id");
         if(aggregateByPeriod) {
@@ -438,72 +549,42 @@ public class IsoSurface {
             insertQuery.append(", ?");
         }
         insertQuery.append(", ?, ?, ?);");
-        try(PreparedStatement ps = connection.prepareStatement(insertQuery.toString())) {
-            for (Map.Entry<Short, ArrayList<Geometry>> entry : polys.entrySet()) {
-                ArrayList<Polygon> polygons = new ArrayList<>();
-                if(!smooth && mergeTriangles) {
-                    // Merge triangles
-                    try {
-                        CascadedPolygonUnion union = new CascadedPolygonUnion(entry.getValue());
-                        Geometry mergeTriangles = union.union();
-                        explode(mergeTriangles, polygons);
-                    } catch (TopologyException t) {
-                        log.warn(t.getLocalizedMessage(), t);
-                        explode(factory.createGeometryCollection(entry.getValue().toArray(new Geometry[0])), polygons);
-                    }
-                } else {
-                    explode(factory.createGeometryCollection(entry.getValue().toArray(new Geometry[0])), polygons);
+        return insertQuery.toString();
+    }
+
+    /**
+     * Add the polygons of a cell into the batch of the insert statement. The batch is executed every
+     * {@link #BATCH_MAX_SIZE} rows.
+     * @param ps Prepared statement created with {@link #createInsertQuery(boolean)}
+     * @param cellId area id
+     * @param cellPolygons Polygons by isolevel
+     * @param period Time period to output
+     * @param aggregateByPeriod Output time period in the fields
+     * @param batchSize Number of rows already pending in the batch of ps
+     * @return Number of rows pending in the batch of ps
+     */
+    int insertCellPolygons(PreparedStatement ps, int cellId, Map<Short, List<Polygon>> cellPolygons, String period,
+                           boolean aggregateByPeriod, int batchSize) throws SQLException {
+        for (Map.Entry<Short, List<Polygon>> entry : cellPolygons.entrySet()) {
+            for(Polygon polygon : entry.getValue()) {
+                int parameterIndex = 1;
+                ps.setInt(parameterIndex++, cellId);
+                if(aggregateByPeriod) {
+                    ps.setString(parameterIndex++, period);
                 }
-                for(Polygon polygon : polygons) {
-                    int geomDim = 0;
-                    boolean mixedDimension = false;
-                    for(Coordinate coordinate : polygon.getExteriorRing().getCoordinates()) {
-                        if(Double.isNaN(coordinate.getZ())) {
-                            if(geomDim == 0) {
-                                geomDim = 2;
-                            } else if (geomDim == 3) {
-                                mixedDimension = true;
-                            }
-                        } else {
-                            if(geomDim == 0) {
-                                geomDim = 3;
-                            } else if (geomDim == 2) {
-                                mixedDimension = true;
-                            }
-                        }
-                    }
-                    if(geomDim != exportDimension || mixedDimension) {
-                        // Have to force geometry dimension one way
-                        if(exportDimension == 3) {
-                            polygon = ST_Force3D.convert(polygon, 0);
-                            polygon.setSRID(srid);
-                        } else {
-                            // remove z
-                            polygon = (Polygon)ST_Force2D.force2D(polygon);
-                            polygon.setSRID(srid);
-                        }
-                    }
-                    int parameterIndex = 1;
-                    ps.setInt(parameterIndex++, cellId);
-                    if(aggregateByPeriod) {
-                        ps.setString(parameterIndex++, period);
-                    }
-                    ps.setObject(parameterIndex++, polygon);
-                    ps.setInt(parameterIndex++, entry.getKey());
-                    ps.setString(parameterIndex++, isoLabels.get(entry.getKey()));
-                    ps.addBatch();
-                    batchSize++;
-                    if (batchSize >= BATCH_MAX_SIZE) {
-                        ps.executeBatch();
-                        ps.clearBatch();
-                        batchSize = 0;
-                    }
+                ps.setObject(parameterIndex++, polygon);
+                ps.setInt(parameterIndex++, entry.getKey());
+                ps.setString(parameterIndex++, isoLabels.get(entry.getKey()));
+                ps.addBatch();
+                batchSize++;
+                if (batchSize >= BATCH_MAX_SIZE) {
+                    ps.executeBatch();
+                    ps.clearBatch();
+                    batchSize = 0;
                 }
             }
-            if (batchSize > 0) {
-                ps.executeBatch();
-            }
         }
+        return batchSize;
     }
 
     /**
@@ -593,101 +674,253 @@ public class IsoSurface {
             } else {
                 periods.addAll(getUniquePeriods(connection));
             }
+            if(threadCount > 1) {
+                processCellsParallel(connection, statement, periods, aggregateByPeriod);
+            } else {
+                for (String period : periods) {
+                    if (aggregateByPeriod) {
+                        statement.setString(1, period);
+                    }
+                    // Cache iso for the current processing cell
+                    Map<Short, ArrayList<Geometry>> polyMap = new HashMap<>();
+                    lastCellId = -1;
+                    try (ResultSet rs = statement.executeQuery()) {
+                        TriangleColumns columns = new TriangleColumns(rs.getMetaData());
+                        while (rs.next()) {
+                            int cellId = rs.getInt(columns.cellId);
+                            // Process polygons of last cell
+                            if (cellId != lastCellId && lastCellId != -1) {
+                                processCell(connection, lastCellId, polyMap, period, aggregateByPeriod);
+                                polyMap.clear();
+                            }
+                            lastCellId = cellId;
+                            // Split current triangle
+                            splitTriangle(columns.readTriangle(rs), polyMap, geometryFactory);
+                        }
+                    }
+                    if (!polyMap.isEmpty()) {
+                        processCell(connection, lastCellId, polyMap, period, aggregateByPeriod);
+                    }
+                }
+            }
+        }
+        if(!connection.getAutoCommit()) {
+            connection.commit();
+        }
+    }
+
+    /**
+     * Split the triangle using the iso levels and append the resulting polygons into the cell cache
+     * @param triMarkers Triangle with levels in W
+     * @param polyMap Polygons by isolevel of the current cell
+     * @param geometryFactory Factory of the output polygons
+     */
+    void splitTriangle(TriMarkers triMarkers, Map<Short, ArrayList<Geometry>> polyMap, GeometryFactory geometryFactory) {
+        Map<Short, Deque<TriMarkers>> res = Contouring.processTriangle(triMarkers, isoLevels);
+        for (Map.Entry<Short, Deque<TriMarkers>> entry : res.entrySet()) {
+            ArrayList<Geometry> polygonsArray = polyMap.computeIfAbsent(entry.getKey(), k -> new ArrayList<>());
+            for (TriMarkers tri : entry.getValue()) {
+                Polygon poly = geometryFactory.createPolygon(new Coordinate[]{tri.p0, tri.p1, tri.p2, tri.p0});
+                polygonsArray.add(poly);
+            }
+        }
+    }
+
+    /**
+     * Stream the triangles ordered by cell and dispatch the polygonisation of each cell to a pool of threads.
+     * Polygons are written in the calling thread with a single batched statement, and at most
+     * {@link #getMaximumInFlightCells()} cells are kept in memory awaiting polygonisation or insertion.
+     * @param connection jdbc connection (h2gis or postgis)
+     * @param statement Triangle query, ordered by cell_id
+     * @param periods Time periods to process
+     * @param aggregateByPeriod Output time period in the fields
+     * @throws SQLException Error while reading triangles or writing polygons
+     */
+    void processCellsParallel(Connection connection, PreparedStatement statement, List<String> periods,
+                              boolean aggregateByPeriod) throws SQLException {
+        ThreadPool threadPool = new ThreadPool(threadCount, threadCount + 1, Long.MAX_VALUE, TimeUnit.SECONDS);
+        ExecutorCompletionService<CellPolygons> completionService = new ExecutorCompletionService<>(threadPool);
+        int maximumInFlight = getMaximumInFlightCells();
+        int inFlight = 0;
+        int batchSize = 0;
+        long processedCells = 0;
+        try (PreparedStatement ps = connection.prepareStatement(createInsertQuery(aggregateByPeriod))) {
             for (String period : periods) {
-                if(aggregateByPeriod) {
+                if (aggregateByPeriod) {
                     statement.setString(1, period);
                 }
-                // Cache iso for the current processing cell
-                Map<Short, ArrayList<Geometry>> polyMap = new HashMap<>();
+                int lastCellId = -1;
+                List<TriMarkers> cellTriangles = new ArrayList<>();
                 try (ResultSet rs = statement.executeQuery()) {
-                    // Cache columns index
-                    int xa = 0, xb = 0, xc = 0, ya = 0, yb = 0, yc = 0, za = 0, zb = 1, zc = 1, lvla = 0, lvlb = 0,
-                            lvlc = 0, cell_id = 0;
-                    ResultSetMetaData resultSetMetaData = rs.getMetaData();
-                    for (int columnId = 1; columnId <= resultSetMetaData.getColumnCount(); columnId++) {
-                        switch (resultSetMetaData.getColumnLabel(columnId).toUpperCase()) {
-                            case "XA":
-                                xa = columnId;
-                                break;
-                            case "XB":
-                                xb = columnId;
-                                break;
-                            case "XC":
-                                xc = columnId;
-                                break;
-                            case "YA":
-                                ya = columnId;
-                                break;
-                            case "YB":
-                                yb = columnId;
-                                break;
-                            case "YC":
-                                yc = columnId;
-                                break;
-                            case "ZA":
-                                za = columnId;
-                                break;
-                            case "ZB":
-                                zb = columnId;
-                                break;
-                            case "ZC":
-                                zc = columnId;
-                                break;
-                            case "LVLA":
-                                lvla = columnId;
-                                break;
-                            case "LVLB":
-                                lvlb = columnId;
-                                break;
-                            case "LVLC":
-                                lvlc = columnId;
-                                break;
-                            case "CELL_ID":
-                                cell_id = columnId;
-                                break;
-                        }
-                    }
-                    if (xa == 0 || xb == 0 || xc == 0 || ya == 0 || yb == 0 || yc == 0 || za == 0 || zb == 0 || zc == 0
-                            || lvla == 0 || lvlb == 0 || lvlc == 0 || cell_id == 0) {
-                        throw new SQLException("Missing field in input tables");
-                    }
-                    while (rs.next()) {
-                        int cellId = rs.getInt(cell_id);
-                        // Process polygons of last cell
-                        if (cellId != lastCellId && lastCellId != -1) {
-                            processCell(connection, cellId, polyMap, period, aggregateByPeriod);
-                            polyMap.clear();
-                        }
-                        lastCellId = cellId;
-                        // Split current triangle
-                        Coordinate a = new Coordinate(rs.getDouble(xa), rs.getDouble(ya), rs.getDouble(za));
-                        Coordinate b = new Coordinate(rs.getDouble(xb), rs.getDouble(yb), rs.getDouble(zb));
-                        Coordinate c = new Coordinate(rs.getDouble(xc), rs.getDouble(yc), rs.getDouble(zc));
-                        // Fetch data
-                        TriMarkers triMarkers = new TriMarkers(a, b, c, dbaToW(rs.getDouble(lvla)),
-                                dbaToW(rs.getDouble(lvlb)),
-                                dbaToW(rs.getDouble(lvlc)));
-                        // Split triangle
-                        Map<Short, Deque<TriMarkers>> res = Contouring.processTriangle(triMarkers, isoLevels);
-                        for (Map.Entry<Short, Deque<TriMarkers>> entry : res.entrySet()) {
-                            if (!polyMap.containsKey(entry.getKey())) {
-                                polyMap.put(entry.getKey(), new ArrayList<>());
+                    TriangleColumns columns = new TriangleColumns(rs.getMetaData());
+                    while (true) {
+                        boolean hasNext = rs.next();
+                        int cellId = hasNext ? rs.getInt(columns.cellId) : -1;
+                        if ((!hasNext || cellId != lastCellId) && !cellTriangles.isEmpty()) {
+                            // Wait for a free slot before pushing a new cell
+                            while (inFlight >= maximumInFlight) {
+                                batchSize = writeCellPolygons(completionService.take(), ps, aggregateByPeriod, batchSize);
+                                inFlight--;
                             }
-                            ArrayList<Geometry> polygonsArray = polyMap.get(entry.getKey());
-                            for (TriMarkers tri : entry.getValue()) {
-                                Polygon poly = geometryFactory.createPolygon(new Coordinate[]{tri.p0, tri.p1, tri.p2, tri.p0});
-                                polygonsArray.add(poly);
+                            completionService.submit(new CellPolygonsTask(lastCellId, period, cellTriangles));
+                            inFlight++;
+                            processedCells++;
+                            cellTriangles = new ArrayList<>();
+                            // Write the cells that are already done
+                            Future<CellPolygons> done;
+                            while ((done = completionService.poll()) != null) {
+                                batchSize = writeCellPolygons(done, ps, aggregateByPeriod, batchSize);
+                                inFlight--;
                             }
                         }
+                        if (!hasNext) {
+                            break;
+                        }
+                        lastCellId = cellId;
+                        cellTriangles.add(columns.readTriangle(rs));
                     }
                 }
-                if (!polyMap.isEmpty()) {
-                    processCell(connection, lastCellId, polyMap, period, aggregateByPeriod);
+            }
+            while (inFlight > 0) {
+                batchSize = writeCellPolygons(completionService.take(), ps, aggregateByPeriod, batchSize);
+                inFlight--;
+            }
+            if (batchSize > 0) {
+                ps.executeBatch();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Isosurface computation interrupted", ex);
+        } finally {
+            threadPool.shutdownNow();
+        }
+        log.info("Isosurfaces of {} cells computed using {} threads", processedCells, threadCount);
+    }
+
+    /**
+     * Insert the polygons of a processed cell
+     * @return Number of rows pending in the batch of ps
+     */
+    private int writeCellPolygons(Future<CellPolygons> future, PreparedStatement ps, boolean aggregateByPeriod,
+                                  int batchSize) throws SQLException, InterruptedException {
+        try {
+            CellPolygons cellPolygons = future.get();
+            return insertCellPolygons(ps, cellPolygons.cellId, cellPolygons.polygons, cellPolygons.period,
+                    aggregateByPeriod, batchSize);
+        } catch (ExecutionException ex) {
+            throw new SQLException("Error while computing isosurfaces", ex.getCause());
+        }
+    }
+
+    /**
+     * Polygons by isolevel of a cell/period ready to be inserted
+     */
+    static class CellPolygons {
+        final int cellId;
+        final String period;
+        final Map<Short, List<Polygon>> polygons;
+
+        CellPolygons(int cellId, String period, Map<Short, List<Polygon>> polygons) {
+            this.cellId = cellId;
+            this.period = period;
+            this.polygons = polygons;
+        }
+    }
+
+    /**
+     * Split, merge and smooth the triangles of a cell in a worker thread
+     */
+    class CellPolygonsTask implements Callable<CellPolygons> {
+        final int cellId;
+        final String period;
+        final List<TriMarkers> triangles;
+
+        CellPolygonsTask(int cellId, String period, List<TriMarkers> triangles) {
+            this.cellId = cellId;
+            this.period = period;
+            this.triangles = triangles;
+        }
+
+        @Override
+        public CellPolygons call() {
+            GeometryFactory geometryFactory = new GeometryFactory(new PrecisionModel(), srid);
+            Map<Short, ArrayList<Geometry>> polyMap = new HashMap<>();
+            for (TriMarkers triMarkers : triangles) {
+                splitTriangle(triMarkers, polyMap, geometryFactory);
+            }
+            triangles.clear();
+            return new CellPolygons(cellId, period, computeCellPolygons(polyMap));
+        }
+    }
+
+    /**
+     * Column index of the triangle query
+     */
+    static class TriangleColumns {
+        int xa = 0, xb = 0, xc = 0, ya = 0, yb = 0, yc = 0, za = 0, zb = 0, zc = 0, lvla = 0, lvlb = 0,
+                lvlc = 0, cellId = 0;
+
+        TriangleColumns(ResultSetMetaData resultSetMetaData) throws SQLException {
+            for (int columnId = 1; columnId <= resultSetMetaData.getColumnCount(); columnId++) {
+                switch (resultSetMetaData.getColumnLabel(columnId).toUpperCase()) {
+                    case "XA":
+                        xa = columnId;
+                        break;
+                    case "XB":
+                        xb = columnId;
+                        break;
+                    case "XC":
+                        xc = columnId;
+                        break;
+                    case "YA":
+                        ya = columnId;
+                        break;
+                    case "YB":
+                        yb = columnId;
+                        break;
+                    case "YC":
+                        yc = columnId;
+                        break;
+                    case "ZA":
+                        za = columnId;
+                        break;
+                    case "ZB":
+                        zb = columnId;
+                        break;
+                    case "ZC":
+                        zc = columnId;
+                        break;
+                    case "LVLA":
+                        lvla = columnId;
+                        break;
+                    case "LVLB":
+                        lvlb = columnId;
+                        break;
+                    case "LVLC":
+                        lvlc = columnId;
+                        break;
+                    case "CELL_ID":
+                        cellId = columnId;
+                        break;
                 }
             }
+            if (xa == 0 || xb == 0 || xc == 0 || ya == 0 || yb == 0 || yc == 0 || za == 0 || zb == 0 || zc == 0
+                    || lvla == 0 || lvlb == 0 || lvlc == 0 || cellId == 0) {
+                throw new SQLException("Missing field in input tables");
+            }
         }
-        if(!connection.getAutoCommit()) {
-            connection.commit();
+
+        /**
+         * @param rs Result set on the current row
+         * @return Triangle with levels converted in W
+         */
+        TriMarkers readTriangle(ResultSet rs) throws SQLException {
+            Coordinate a = new Coordinate(rs.getDouble(xa), rs.getDouble(ya), rs.getDouble(za));
+            Coordinate b = new Coordinate(rs.getDouble(xb), rs.getDouble(yb), rs.getDouble(zb));
+            Coordinate c = new Coordinate(rs.getDouble(xc), rs.getDouble(yc), rs.getDouble(zc));
+            return new TriMarkers(a, b, c, dbaToW(rs.getDouble(lvla)),
+                    dbaToW(rs.getDouble(lvlb)),
+                    dbaToW(rs.getDouble(lvlc)));
         }
     }
 
@@ -163,6 +163,12 @@ public class StringPreparedStatements implements PreparedStatement {
             Object data = parameters.get(paramIndex++);
             if(data instanceof Number) {
                 outputQuery.append(data);
+            } else if(data instanceof byte[]) {
+                outputQuery.append("X'");
+                for(byte b : (byte[]) data) {
+                    outputQuery.append(String.format("%02x", b));
+                }
+                outputQuery.append("'");
             } else if(data instanceof Geometry) {
                 outputQuery.append("'");
                 outputQuery.append(wktWriter.write((Geometry) data));
@@ -92,6 +92,68 @@ public class IsoSurfaceJDBCTest {
 
     }
 
+    @Test
+    public void testIsoSurfaceParallel() throws SQLException, IOException {
+        GeoJsonRead.importTable(connection, IsoSurfaceJDBCTest.class.getResource("lden_geom.geojson").getFile());
+        GeoJsonRead.importTable(connection, IsoSurfaceJDBCTest.class.getResource("triangles.geojson").getFile());
+        try(Statement st = connection.createStatement()) {
+            st.execute("ALTER TABLE LDEN_GEOM ALTER COLUMN IDRECEIVER INTEGER NOT NULL");
+            st.execute("ALTER TABLE LDEN_GEOM ADD PRIMARY KEY (IDRECEIVER)");
+            st.execute("ALTER TABLE TRIANGLES ALTER COLUMN PK INTEGER NOT NULL");
+            st.execute("ALTER TABLE TRIANGLES ADD PRIMARY KEY (PK)");
+            st.execute("CREATE INDEX ON TRIANGLES(CELL_ID)");
+        }
+
+        IsoSurface isoSurface = new IsoSurface(IsoSurface.NF31_133_ISO, 2154);
+        isoSurface.setPointTable("LDEN_GEOM");
+        isoSurface.setPointTableField("LAEQ");
+        isoSurface.setSmooth(true);
+        isoSurface.setOutputTable("CONTOURING_SEQUENTIAL");
+        isoSurface.createTable(connection);
+
+        long start = System.currentTimeMillis();
+        isoSurface.setOutputTable("CONTOURING_PARALLEL");
+        isoSurface.setThreadCount(4);
+        isoSurface.setMaximumInFlightCells(2);
+        isoSurface.createTable(connection);
+        LOGGER.debug("Parallel contouring done in " + (System.currentTimeMillis() - start) + " ms");
+
+        // Same polygons must be produced by the two methods
+        try(Statement st = connection.createStatement()) {
+            try(ResultSet rs = st.executeQuery("SELECT S.ISOLVL, S.CPT, S.AREA, P.CPT PCPT, P.AREA PAREA FROM" +
+                    " (SELECT ISOLVL, COUNT(*) CPT, SUM(ST_AREA(THE_GEOM)) AREA FROM CONTOURING_SEQUENTIAL GROUP BY ISOLVL) S" +
+                    " LEFT JOIN (SELECT ISOLVL, COUNT(*) CPT, SUM(ST_AREA(THE_GEOM)) AREA FROM CONTOURING_PARALLEL" +
+                    " GROUP BY ISOLVL) P ON S.ISOLVL = P.ISOLVL")) {
+                int levels = 0;
+                while (rs.next()) {
+                    levels++;
+                    assertEquals(rs.getInt("CPT"), rs.getInt("PCPT"));
+                    assertEquals(rs.getDouble("AREA"), rs.getDouble("PAREA"), 1e-3);
+                }
+                assertEquals(10, levels);
+            }
+            // Polygons must be labelled with the same cell in the two methods
+            try(ResultSet rs = st.executeQuery("SELECT S.CELL_ID, S.ISOLVL, S.CPT, S.AREA, P.CPT PCPT, P.AREA PAREA" +
+                    " FROM (SELECT CELL_ID, ISOLVL, COUNT(*) CPT, SUM(ST_AREA(THE_GEOM)) AREA FROM CONTOURING_SEQUENTIAL" +
+                    " GROUP BY CELL_ID, ISOLVL) S LEFT JOIN (SELECT CELL_ID, ISOLVL, COUNT(*) CPT," +
+                    " SUM(ST_AREA(THE_GEOM)) AREA FROM CONTOURING_PARALLEL GROUP BY CELL_ID, ISOLVL) P" +
+                    " ON S.CELL_ID = P.CELL_ID AND S.ISOLVL = P.ISOLVL")) {
+                int cells = 0;
+                while (rs.next()) {
+                    cells++;
+                    assertEquals(rs.getInt("CPT"), rs.getInt("PCPT"));
+                    assertEquals(rs.getDouble("AREA"), rs.getDouble("PAREA"), 1e-3);
+                }
+                assertTrue(cells > 0);
+            }
+            try(ResultSet rs = st.executeQuery("SELECT (SELECT COUNT(DISTINCT CELL_ID) FROM CONTOURING_SEQUENTIAL)," +
+                    " (SELECT COUNT(DISTINCT CELL_ID) FROM CONTOURING_PARALLEL)")) {
+                assertTrue(rs.next());
+                assertEquals(rs.getInt(1), rs.getInt(2));
+            }
+        }
+    }
+
     @Test
     public void testContouring3D() throws SQLException, IOException, LayerDelaunayError {
         // Will create elevation iso from DEM table
@@ -296,4 +358,92 @@ public class IsoSurfaceJDBCTest {
         assertEquals(16, rowCount);
 
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testDelaunayReceiversRefinement() throws SQLException {
+        try(Statement st = connection.createStatement()) {
+            // 3x3 receivers grid of 100 m
+            st.execute("CREATE TABLE RECEIVERS(PK SERIAL NOT NULL, THE_GEOM GEOMETRY(POINTZ, 2154) NOT NULL, PRIMARY KEY (PK))");
+            for(int j = 0; j < 3; j++) {
+                for(int i = 0; i < 3; i++) {
+                    st.execute("INSERT INTO RECEIVERS(PK, THE_GEOM) VALUES (" + (j * 3 + i + 1) +
+                            ", ST_SETSRID('POINTZ(" + (i * 50) + " " + (j * 50) + " 4)'::geometry, 2154))");
+                }
+            }
+            st.execute("CREATE TABLE TRIANGLES(PK SERIAL NOT NULL, PK_1 INTEGER NOT NULL, PK_2 INTEGER NOT NULL, PK_3 INTEGER NOT NULL, CELL_ID INTEGER NOT NULL, PRIMARY KEY (PK))");
+            for(int j = 0; j < 2; j++) {
+                for(int i = 0; i < 2; i++) {
+                    int a = j * 3 + i + 1;
+                    st.execute("INSERT INTO TRIANGLES(PK_1, PK_2, PK_3, CELL_ID) VALUES (" + a + ", " + (a + 1) + ", " + (a + 4) + ", 0)");
+                    st.execute("INSERT INTO TRIANGLES(PK_1, PK_2, PK_3, CELL_ID) VALUES (" + a + ", " + (a + 4) + ", " + (a + 3) + ", 0)");
+                }
+            }
+        }
+        // level step at x=40 m on the day period, flat night levels and evening levels of the initial receivers only
+        AtomicInteger computedReceivers = new AtomicInteger(0);
+        DelaunayReceiversRefinement refinement = new DelaunayReceiversRefinement("RECEIVERS", "TRIANGLES", "LEVELS");
+        refinement.setMinimumArea(20);
+        refinement.setMaximumIterations(10);
+        refinement.setVerbose(false);
+        int addedReceivers = refinement.run(connection, (c, receiversTable, levelsTable) -> {
+            computedReceivers.addAndGet(JDBCUtilities.getRowCount(c, receiversTable));
+            try(Statement st = c.createStatement()) {
+                st.execute("CREATE TABLE " + levelsTable + " AS SELECT PK IDRECEIVER, 'D' PERIOD," +
+                        " CASEWHEN(ST_X(THE_GEOM) < 40, 40.0, 70.0) LAEQ FROM " + receiversTable);
+                st.execute("INSERT INTO " + levelsTable + " SELECT PK, 'N', 60.0 FROM " + receiversTable);
+                st.execute("INSERT INTO " + levelsTable + " SELECT PK, 'E', 30.0 FROM " + receiversTable +
+                        " WHERE PK <= 9");
+            }
+        }, true);
+
+        assertTrue(addedReceivers > 0);
+        int receiversCount = JDBCUtilities.getRowCount(connection, "RECEIVERS");
+        assertEquals(9 + addedReceivers, receiversCount);
+        // every receiver has been computed once
+        assertEquals(receiversCount, computedReceivers.get());
+        assertEquals(receiversCount * 2 + 9, JDBCUtilities.getRowCount(connection, "LEVELS"));
+        try(Statement st = connection.createStatement()) {
+            // the refined mesh still covers the same area
+            try(ResultSet rs = st.executeQuery("SELECT SUM(ST_AREA(ST_MAKEPOLYGON(ST_MAKELINE(R1.THE_GEOM, R2.THE_GEOM," +
+                    " R3.THE_GEOM, R1.THE_GEOM)))), MIN(ST_AREA(ST_MAKEPOLYGON(ST_MAKELINE(R1.THE_GEOM, R2.THE_GEOM," +
+                    " R3.THE_GEOM, R1.THE_GEOM)))) FROM TRIANGLES T, RECEIVERS R1, RECEIVERS R2, RECEIVERS R3" +
+                    " WHERE T.PK_1 = R1.PK AND T.PK_2 = R2.PK AND T.PK_3 = R3.PK")) {
+                assertTrue(rs.next());
+                assertEquals(100 * 100, rs.getDouble(1), 1e-6);
+                assertTrue(rs.getDouble(2) >= 20);
+            }
+            // only the triangles near the level step have been refined, the missing evening levels are ignored
+            try(ResultSet rs = st.executeQuery("SELECT COUNT(*) FROM RECEIVERS WHERE ST_X(THE_GEOM) > 75")) {
+                assertTrue(rs.next());
+                assertEquals(3, rs.getInt(1));
+            }
+            st.execute("CREATE TABLE LEVELS_GEOM AS SELECT L.IDRECEIVER, L.PERIOD, L.LAEQ, R.THE_GEOM" +
+                    " FROM LEVELS L, RECEIVERS R WHERE L.IDRECEIVER = R.PK");
+        }
+
+        // Create contouring noise map on the refined mesh
+        IsoSurface isoSurface = new IsoSurface(IsoSurface.NF31_133_ISO, 2154);
+        isoSurface.setPointTable("LEVELS_GEOM");
+        isoSurface.setPointTableField("LAEQ");
+        isoSurface.setTriangleTable("TRIANGLES");
+        isoSurface.setSmooth(false);
+        isoSurface.createTable(connection, "IDRECEIVER");
+
+        try(Statement st = connection.createStatement()) {
+            try(ResultSet rs = st.executeQuery("SELECT PERIOD, SUM(ST_AREA(THE_GEOM)) AREA, MIN(ISOLVL) MINLVL," +
+                    " MAX(ISOLVL) MAXLVL FROM " + isoSurface.getOutputTable() + " WHERE PERIOD IN ('D', 'N')" +
+                    " GROUP BY PERIOD ORDER BY PERIOD")) {
+                // the iso surfaces of the complete periods cover the refined mesh
+                assertTrue(rs.next());
+                assertEquals("D", rs.getString("PERIOD"));
+                assertEquals(100 * 100, rs.getDouble("AREA"), 1e-3);
+                assertTrue(rs.getInt("MINLVL") < rs.getInt("MAXLVL"));
+                assertTrue(rs.next());
+                assertEquals("N", rs.getString("PERIOD"));
+                assertEquals(100 * 100, rs.getDouble("AREA"), 1e-3);
+                assertEquals(rs.getInt("MINLVL"), rs.getInt("MAXLVL"));
+                assertFalse(rs.next());
+            }
+        }
+    }
+}
@@ -9,7 +9,9 @@
 
 package org.noise_planet.noisemodelling.jdbc;
 
+import org.h2.jdbcx.JdbcDataSource;
 import org.h2gis.api.EmptyProgressVisitor;
+import org.h2gis.api.ProgressVisitor;
 import org.h2gis.functions.factory.H2GISDBFactory;
 import org.h2gis.utilities.JDBCUtilities;
 import org.junit.jupiter.api.AfterEach;
@@ -21,17 +23,28 @@ import org.locationtech.jts.geom.GeometryFactory;
 import org.locationtech.jts.geom.PrecisionModel;
 import org.locationtech.jts.io.WKTWriter;
 import org.noise_planet.noisemodelling.jdbc.input.DefaultTableLoader;
+import org.noise_planet.noisemodelling.jdbc.input.SceneChanges;
 import org.noise_planet.noisemodelling.jdbc.input.SceneDatabaseInputSettings;
 import org.noise_planet.noisemodelling.jdbc.input.SceneWithEmission;
+import org.noise_planet.noisemodelling.jdbc.input.SourceElevationTableMaker;
+import org.noise_planet.noisemodelling.jdbc.output.DefaultCutPlaneProcessing;
+import org.noise_planet.noisemodelling.jdbc.output.NoiseMapCheckpoint;
 import org.noise_planet.noisemodelling.jdbc.output.NoiseMapWriter;
+import org.noise_planet.noisemodelling.jdbc.output.ReceiverLevelsSpill;
 import org.noise_planet.noisemodelling.jdbc.utils.CellIndex;
 import org.noise_planet.noisemodelling.jdbc.utils.IsoSurface;
+import org.noise_planet.noisemodelling.pathfinder.CutPlaneVisitorFactory;
+import org.noise_planet.noisemodelling.pathfinder.PathFinder;
 import org.noise_planet.noisemodelling.pathfinder.utils.profiler.RootProgressVisitor;
 import org.noise_planet.noisemodelling.propagation.AttenuationParameters;
+import org.noise_planet.noisemodelling.propagation.ReceiverNoiseLevel;
 import org.noise_planet.noisemodelling.propagation.cnossos.CnossosPath;
 import org.noise_planet.noisemodelling.pathfinder.profilebuilder.GroundAbsorption;
 import org.noise_planet.noisemodelling.pathfinder.utils.geometry.Orientation;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
 import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
@@ -89,6 +102,70 @@ public class NoiseMapByReceiverMakerTest {
         }
     }
 
+    /**
+     * The cell data fetched concurrently with a data source must be the same as the sequential fetch
+     * @throws Exception
+     */
+    @Test
+    public void testConcurrentFetch() throws Exception {
+        try(Statement st = connection.createStatement()) {
+            st.execute(String.format("CALL SHPREAD('%s', 'LANDCOVER2000')", NoiseMapByReceiverMakerTest.class.getResource("landcover2000.shp").getFile()));
+            st.execute(getRunScriptRes("scene_with_landcover.sql"));
+        }
+        NoiseMapByReceiverMaker noiseMapByReceiverMaker = new NoiseMapByReceiverMaker("BUILDINGS", "ROADS_GEOM", "RECEIVERS");
+        noiseMapByReceiverMaker.setHeightField("HEIGHT");
+        noiseMapByReceiverMaker.setSoilTableName("LAND_G");
+        noiseMapByReceiverMaker.setFrequencyFieldPrepend("DB_M");
+        noiseMapByReceiverMaker.initialize(connection);
+        DefaultTableLoader tableLoader = (DefaultTableLoader) noiseMapByReceiverMaker.getTableLoader();
+        JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setURL(connection.getMetaData().getURL());
+        dataSource.setUser(H2GISDBFactory.DEFAULT_USER);
+        dataSource.setPassword(H2GISDBFactory.DEFAULT_PASSWORD);
+
+        Set<Long> sequentialReceivers = new HashSet<>();
+        Set<Long> concurrentReceivers = new HashSet<>();
+        Map<CellIndex, Integer> populatedCells = noiseMapByReceiverMaker.searchPopulatedCells(connection);
+        assertFalse(populatedCells.isEmpty());
+        for (CellIndex cellIndex : populatedCells.keySet()) {
+            tableLoader.setDataSource(null);
+            SceneWithEmission expected = noiseMapByReceiverMaker.prepareCell(connection, cellIndex, sequentialReceivers);
+            tableLoader.setDataSource(dataSource);
+            SceneWithEmission scene = noiseMapByReceiverMaker.prepareCell(connection, cellIndex, concurrentReceivers);
+            assertEquals(expected.profileBuilder.getBuildings().size(), scene.profileBuilder.getBuildings().size());
+            assertEquals(expected.profileBuilder.getProcessedWalls().size(), scene.profileBuilder.getProcessedWalls().size());
+            assertEquals(expected.profileBuilder.getGroundEffects().size(), scene.profileBuilder.getGroundEffects().size());
+            assertEquals(expected.profileBuilder.getTriangles().size(), scene.profileBuilder.getTriangles().size());
+            for (int i = 0; i < expected.profileBuilder.getBuildings().size(); i++) {
+                assertTrue(expected.profileBuilder.getBuilding(i).getGeometry().equalsExact(
+                        scene.profileBuilder.getBuilding(i).getGeometry()));
+            }
+            assertEquals(expected.sourcesPk, scene.sourcesPk);
+            assertEquals(expected.sourceGeometries.size(), scene.sourceGeometries.size());
+            for (int i = 0; i < expected.sourceGeometries.size(); i++) {
+                assertTrue(expected.sourceGeometries.get(i).equalsExact(scene.sourceGeometries.get(i)));
+                assertArrayEquals(Arrays.stream(expected.sourceGeometries.get(i).getCoordinates())
+                        .mapToDouble(Coordinate::getZ).toArray(), Arrays.stream(scene.sourceGeometries.get(i)
+                        .getCoordinates()).mapToDouble(Coordinate::getZ).toArray(), 1e-12);
+            }
+            assertEquals(expected.receiversPk, scene.receiversPk);
+            assertEquals(expected.receivers.size(), scene.receivers.size());
+            for (int i = 0; i < expected.receivers.size(); i++) {
+                assertTrue(expected.receivers.get(i).equals3D(scene.receivers.get(i)));
+            }
+            assertEquals(expected.wjSources.keySet(), scene.wjSources.keySet());
+            for (Map.Entry<Long, ArrayList<SceneWithEmission.PeriodEmission>> entry : expected.wjSources.entrySet()) {
+                List<SceneWithEmission.PeriodEmission> emissions = scene.wjSources.get(entry.getKey());
+                assertEquals(entry.getValue().size(), emissions.size());
+                for (int i = 0; i < emissions.size(); i++) {
+                    assertEquals(entry.getValue().get(i).period, emissions.get(i).period);
+                    assertArrayEquals(entry.getValue().get(i).emission, emissions.get(i).emission, 1e-12);
+                }
+            }
+        }
+        assertEquals(sequentialReceivers, concurrentReceivers);
+    }
+
     private static String createSource(Geometry source, double lvl, Orientation sourceOrientation, int directivityId) {
         StringBuilder sb = new StringBuilder("CREATE TABLE ROADS_GEOM(PK SERIAL PRIMARY KEY, THE_GEOM GEOMETRY, YAW REAL, PITCH REAL, ROLL REAL, DIR_ID INT");
         StringBuilder values = new StringBuilder("(row_number() over())::int, ST_SETSRID('");
@@ -523,4 +600,475 @@ public class NoiseMapByReceiverMakerTest {
             assertEquals(0 , pathsParameters.size());
         }
     }
-}
\ No newline at end of file
+
+    private static Map<String, Double> fetchLaeq(Statement st, String tableName) throws SQLException {
+        Map<String, Double> levels = new HashMap<>();
+        try(ResultSet rs = st.executeQuery("SELECT IDRECEIVER, PERIOD, LAEQ FROM " + tableName)) {
+            while (rs.next()) {
+                levels.put(rs.getLong("IDRECEIVER") + rs.getString("PERIOD"), rs.getDouble("LAEQ"));
+            }
+        }
+        return levels;
+    }
+
+    private static NoiseMapByReceiverMaker createIncrementalMaker(String buildingsTableName, String levelTableName) {
+        NoiseMapByReceiverMaker noiseMapByReceiverMaker = new NoiseMapByReceiverMaker(buildingsTableName,
+                "ROADS_GEOM", "RECEIVERS");
+        configureIncrementalMaker(noiseMapByReceiverMaker, levelTableName);
+        return noiseMapByReceiverMaker;
+    }
+
+    private static void configureIncrementalMaker(NoiseMapByReceiverMaker noiseMapByReceiverMaker,
+                                                  String levelTableName) {
+        noiseMapByReceiverMaker.setHeightField("HEIGHT");
+        noiseMapByReceiverMaker.setFrequencyFieldPrepend("DB_M");
+        noiseMapByReceiverMaker.setMaximumPropagationDistance(200);
+        noiseMapByReceiverMaker.setMaximumReflectionDistance(20);
+        noiseMapByReceiverMaker.setSoundReflectionOrder(1);
+        noiseMapByReceiverMaker.setComputeHorizontalDiffraction(false);
+        noiseMapByReceiverMaker.setComputeVerticalDiffraction(true);
+        noiseMapByReceiverMaker.getNoiseMapDatabaseParameters().receiversLevelTable = levelTableName;
+    }
+
+    /**
+     * Road source with a building on the east side, three receivers behind the building and two on the west side
+     */
+    private static void createSingleBuildingScene(Statement st) throws SQLException {
+        st.execute("create table receivers(id serial PRIMARY KEY, the_geom GEOMETRY(POINTZ))");
+        st.execute("insert into receivers(the_geom) values ('POINTZ (60 0 4)'), ('POINTZ (70 10 4)'), " +
+                "('POINTZ (80 -10 4)'), ('POINTZ (-60 0 4)'), ('POINTZ (-70 10 4)')");
+        st.execute("create table roads_geom ( id serial PRIMARY KEY, the_geom GEOMETRY(LINESTRINGZ), db_md63 double," +
+                "db_md125 double,db_md250 double,db_md500 double, db_md1000 double,db_md2000 double, " +
+                "db_md4000 double,db_md8000 double)");
+        st.execute("INSERT INTO roads_geom VALUES (DEFAULT, 'LINESTRINGZ (0 -5 0, 0 5 0)', 25.65, 38.15, 54.35," +
+                " 60.35, 74.65, 66.75, 59.25, 53.95)");
+        st.execute("create table buildings(id serial PRIMARY KEY, the_geom GEOMETRY(POLYGON), height double)");
+        st.execute("INSERT INTO buildings values (DEFAULT, 'POLYGON ((40 -5, 45 -5, 45 5, 40 5, 40 -5))', 6)");
+    }
+
+    /**
+     * Only the receivers near the edited building are computed again, the result must be the same as a full computation
+     * @throws Exception
+     */
+    @Test
+    public void testIncrementalUpdate() throws Exception {
+        try(Statement st = connection.createStatement()) {
+            createSingleBuildingScene(st);
+            st.execute("INSERT INTO buildings values (DEFAULT, 'POLYGON ((-30 30, -25 30, -25 35, -30 35, -30 30))', 10)");
+            st.execute("create table buildings_v2 as select * from buildings");
+            st.execute("update buildings_v2 set height = 12 where id = 1");
+
+            createIncrementalMaker("BUILDINGS", "RECEIVERS_LEVEL").run(connection, new EmptyProgressVisitor());
+            Map<String, Double> levelsBefore = fetchLaeq(st, "RECEIVERS_LEVEL");
+
+            SceneChanges sceneChanges = new SceneChanges();
+            assertEquals(1, sceneChanges.addTableChanges(connection, "BUILDINGS", "BUILDINGS_V2", "ID"));
+            // previous and new version of the building
+            assertEquals(2, sceneChanges.getChangedGeometries().size());
+
+            // only the receivers on the east side are impacted
+            NoiseMapByReceiverMaker incrementalMaker = createIncrementalMaker("BUILDINGS_V2", "RECEIVERS_LEVEL");
+            incrementalMaker.initialize(connection);
+            Set<Long> impactedReceivers = new HashSet<>();
+            Set<Long> processedReceivers = new HashSet<>();
+            for (CellIndex cellIndex : incrementalMaker.searchPopulatedCells(connection).keySet()) {
+                SceneWithEmission scene = incrementalMaker.prepareCell(connection, cellIndex, processedReceivers);
+                impactedReceivers.addAll(sceneChanges.keepImpactedReceivers(scene));
+            }
+            assertEquals(new HashSet<>(Arrays.asList(1L, 2L, 3L)), impactedReceivers);
+
+            incrementalMaker = createIncrementalMaker("BUILDINGS_V2", "RECEIVERS_LEVEL");
+            incrementalMaker.setSceneChanges(sceneChanges);
+            incrementalMaker.run(connection, new EmptyProgressVisitor());
+            Map<String, Double> incrementalLevels = fetchLaeq(st, "RECEIVERS_LEVEL");
+
+            createIncrementalMaker("BUILDINGS_V2", "RECEIVERS_LEVEL_FULL").run(connection, new EmptyProgressVisitor());
+            Map<String, Double> fullLevels = fetchLaeq(st, "RECEIVERS_LEVEL_FULL");
+
+            assertEquals(fullLevels.keySet(), incrementalLevels.keySet());
+            for (Map.Entry<String, Double> entry : fullLevels.entrySet()) {
+                assertEquals(entry.getValue(), incrementalLevels.get(entry.getKey()), 1e-6, entry.getKey());
+            }
+            // the higher building reduce the level behind it
+            assertNotEquals(levelsBefore.get("1D"), incrementalLevels.get("1D"), 0.1);
+            assertEquals(levelsBefore.get("4D"), incrementalLevels.get("4D"), 1e-6);
+        }
+    }
+
+    /**
+     * An interrupted computation is resumed from its journal, the results must be the same as a full computation
+     * @throws Exception
+     */
+    @Test
+    public void testResumeFromCheckpoint() throws Exception {
+        try(Statement st = connection.createStatement()) {
+            createSingleBuildingScene(st);
+
+            createIncrementalMaker("BUILDINGS", "RECEIVERS_LEVEL_FULL").run(connection, new EmptyProgressVisitor());
+            Map<String, Double> fullLevels = fetchLaeq(st, "RECEIVERS_LEVEL_FULL");
+
+            // interrupted computation, the receivers 1 and 2 are in the journal, the receiver 3 has been written
+            // after the last checkpoint and the keys have not been created
+            st.execute("CREATE TABLE RECEIVERS_LEVEL AS SELECT * FROM RECEIVERS_LEVEL_FULL WHERE IDRECEIVER <= 3");
+            st.execute("UPDATE RECEIVERS_LEVEL SET LAEQ = 0 WHERE IDRECEIVER = 3");
+            NoiseMapCheckpoint checkpoint = new NoiseMapCheckpoint(connection, "JOURNAL");
+            checkpoint.create();
+            checkpoint.write(Arrays.asList(1L, 2L), Collections.emptyList());
+            Set<Long> finishedReceivers = new HashSet<>();
+            assertTrue(checkpoint.load(finishedReceivers, new HashSet<>()));
+            assertEquals(new HashSet<>(Arrays.asList(1L, 2L)), finishedReceivers);
+
+            NoiseMapByReceiverMaker resumedMaker = createIncrementalMaker("BUILDINGS", "RECEIVERS_LEVEL");
+            resumedMaker.getNoiseMapDatabaseParameters().setCheckpointTable("JOURNAL");
+            resumedMaker.run(connection, new EmptyProgressVisitor());
+            assertTrue(resumedMaker.isResumedFromCheckpoint());
+            Map<String, Double> resumedLevels = fetchLaeq(st, "RECEIVERS_LEVEL");
+
+            try(ResultSet rs = st.executeQuery("SELECT COUNT(*) FROM RECEIVERS_LEVEL")) {
+                assertTrue(rs.next());
+                assertEquals(fullLevels.size(), rs.getInt(1));
+            }
+            assertEquals(fullLevels.keySet(), resumedLevels.keySet());
+            for (Map.Entry<String, Double> entry : fullLevels.entrySet()) {
+                assertEquals(entry.getValue(), resumedLevels.get(entry.getKey()), 1e-6, entry.getKey());
+            }
+            // the journal is removed once the computation is complete
+            assertFalse(JDBCUtilities.tableExists(connection, "JOURNAL"));
+        }
+    }
+
+    /**
+     * The journal written by the results writer of an interrupted computation must be enough to resume it
+     * @throws Exception
+     */
+    @Test
+    public void testResumeFromWriterCheckpoint() throws Exception {
+        try(Statement st = connection.createStatement()) {
+            createSingleBuildingScene(st);
+
+            createIncrementalMaker("BUILDINGS", "RECEIVERS_LEVEL_FULL").run(connection, new EmptyProgressVisitor());
+            Map<String, Double> fullLevels = fetchLaeq(st, "RECEIVERS_LEVEL_FULL");
+
+            // the west and east receivers are in two computation areas, stop the computation on the second one
+            NoiseMapByReceiverMaker interruptedMaker = new NoiseMapByReceiverMaker("BUILDINGS", "ROADS_GEOM",
+                    "RECEIVERS") {
+                private int evaluatedCells = 0;
+
+                @Override
+                public CutPlaneVisitorFactory evaluateCell(Connection connection, CellIndex cellIndex,
+                                                           ProgressVisitor progression, Set<Long> skipReceivers)
+                        throws SQLException, IOException {
+                    if(++evaluatedCells > 1) {
+                        throw new IOException("Interrupted computation");
+                    }
+                    return super.evaluateCell(connection, cellIndex, progression, skipReceivers);
+                }
+            };
+            configureIncrementalMaker(interruptedMaker, "RECEIVERS_LEVEL");
+            interruptedMaker.setGridDim(2);
+            interruptedMaker.getNoiseMapDatabaseParameters().setCheckpointTable("JOURNAL");
+            assertThrows(SQLException.class, () -> interruptedMaker.run(connection, new EmptyProgressVisitor()));
+
+            Set<Long> finishedReceivers = new HashSet<>();
+            Set<CellIndex> finishedCells = new HashSet<>();
+            assertTrue(new NoiseMapCheckpoint(connection, "JOURNAL").load(finishedReceivers, finishedCells));
+            assertEquals(1, finishedCells.size());
+            assertFalse(finishedReceivers.isEmpty());
+            assertTrue(finishedReceivers.size() < fullLevels.size());
+
+            NoiseMapByReceiverMaker resumedMaker = createIncrementalMaker("BUILDINGS", "RECEIVERS_LEVEL");
+            resumedMaker.setGridDim(2);
+            resumedMaker.getNoiseMapDatabaseParameters().setCheckpointTable("JOURNAL");
+            resumedMaker.run(connection, new EmptyProgressVisitor());
+            assertTrue(resumedMaker.isResumedFromCheckpoint());
+            Map<String, Double> resumedLevels = fetchLaeq(st, "RECEIVERS_LEVEL");
+
+            try(ResultSet rs = st.executeQuery("SELECT COUNT(*) FROM RECEIVERS_LEVEL")) {
+                assertTrue(rs.next());
+                assertEquals(fullLevels.size(), rs.getInt(1));
+            }
+            assertEquals(fullLevels.keySet(), resumedLevels.keySet());
+            for (Map.Entry<String, Double> entry : fullLevels.entrySet()) {
+                assertEquals(entry.getValue(), resumedLevels.get(entry.getKey()), 1e-6, entry.getKey());
+            }
+            assertFalse(JDBCUtilities.tableExists(connection, "JOURNAL"));
+        }
+    }
+
+    /**
+     * The receiver levels written in temporary files when the stack is full must be inserted in the results table
+     * @throws Exception
+     */
+    @Test
+    public void testSpillResultsToDisk() throws Exception {
+        File spillDirectory = Files.createTempDirectory("spill_test").toFile();
+        try(ReceiverLevelsSpill spill = new ReceiverLevelsSpill(spillDirectory, 2)) {
+            for (int i = 0; i < 5; i++) {
+                assertTrue(spill.offer(new ReceiverNoiseLevel(null, new PathFinder.ReceiverPointInfo(i, i + 1,
+                        new Coordinate(i, 2 * i, 4)), "D", new double[]{i, 60.5})));
+            }
+            assertEquals(5, spill.size());
+            List<ReceiverNoiseLevel> rows = new ArrayList<>();
+            List<ReceiverNoiseLevel> batch;
+            while (!(batch = spill.poll()).isEmpty()) {
+                rows.addAll(batch);
+            }
+            assertTrue(spill.isEmpty());
+            assertEquals(5, rows.size());
+            for (int i = 0; i < rows.size(); i++) {
+                assertEquals(i + 1, rows.get(i).receiver.receiverPk);
+                assertEquals(2 * i, rows.get(i).receiver.position.y, 1e-12);
+                assertNull(rows.get(i).source);
+                assertEquals("D", rows.get(i).period);
+                assertArrayEquals(new double[]{i, 60.5}, rows.get(i).levels, 1e-12);
+            }
+        }
+        try(Statement st = connection.createStatement()) {
+            createSingleBuildingScene(st);
+
+            createIncrementalMaker("BUILDINGS", "RECEIVERS_LEVEL_FULL").run(connection, new EmptyProgressVisitor());
+            Map<String, Double> fullLevels = fetchLaeq(st, "RECEIVERS_LEVEL_FULL");
+
+            NoiseMapByReceiverMaker spillMaker = createIncrementalMaker("BUILDINGS", "RECEIVERS_LEVEL");
+            spillMaker.getNoiseMapDatabaseParameters().setOutputMaximumQueue(2);
+            spillMaker.getNoiseMapDatabaseParameters().setSpillResultsToDisk(true);
+            spillMaker.getNoiseMapDatabaseParameters().setSpillDirectory(spillDirectory);
+            spillMaker.run(connection, new EmptyProgressVisitor());
+            Map<String, Double> spillLevels = fetchLaeq(st, "RECEIVERS_LEVEL");
+
+            assertEquals(fullLevels.keySet(), spillLevels.keySet());
+            for (Map.Entry<String, Double> entry : fullLevels.entrySet()) {
+                assertEquals(entry.getValue(), spillLevels.get(entry.getKey()), 1e-6, entry.getKey());
+            }
+            // temporary files are removed
+            File[] remaining = spillDirectory.listFiles();
+            assertNotNull(remaining);
+            assertEquals(0, remaining.length);
+        } finally {
+            spillDirectory.delete();
+        }
+    }
+
+    /**
+     * The levels of the merged sources, summed in place for each receiver, must be the energetic sum of the levels of
+     * each source
+     * @throws Exception
+     */
+    @Test
+    public void testMergeSourcesAccumulation() throws Exception {
+        try(Statement st = connection.createStatement()) {
+            createSingleBuildingScene(st);
+            st.execute("INSERT INTO roads_geom VALUES (DEFAULT, 'LINESTRINGZ (20 -30 0, 20 30 0)', 20.5, 32.1, 50.3," +
+                    " 55.2, 70.1, 62.7, 55.2, 50.1)");
+
+            NoiseMapByReceiverMaker sourcesMaker = createIncrementalMaker("BUILDINGS", "RECEIVERS_LEVEL_SOURCES");
+            sourcesMaker.getNoiseMapDatabaseParameters().mergeSources = false;
+            sourcesMaker.run(connection, new EmptyProgressVisitor());
+            st.execute("CREATE TABLE RECEIVERS_LEVEL_SUM AS SELECT IDRECEIVER, PERIOD," +
+                    " 10 * LOG10(SUM(POWER(10, LAEQ / 10))) LAEQ FROM RECEIVERS_LEVEL_SOURCES GROUP BY IDRECEIVER, PERIOD");
+            Map<String, Double> sumLevels = fetchLaeq(st, "RECEIVERS_LEVEL_SUM");
+
+            NoiseMapByReceiverMaker mergedMaker = createIncrementalMaker("BUILDINGS", "RECEIVERS_LEVEL");
+            mergedMaker.getNoiseMapDatabaseParameters().mergeSources = true;
+            mergedMaker.run(connection, new EmptyProgressVisitor());
+            Map<String, Double> mergedLevels = fetchLaeq(st, "RECEIVERS_LEVEL");
+
+            assertFalse(mergedLevels.isEmpty());
+            assertEquals(sumLevels.keySet(), mergedLevels.keySet());
+            for (Map.Entry<String, Double> entry : sumLevels.entrySet()) {
+                assertEquals(entry.getValue(), mergedLevels.get(entry.getKey()), 1e-6, entry.getKey());
+            }
+        }
+    }
+
+    /**
+     * Compute the levels without and with the maximum error, the levels must not differ by more than the maximum error
+     * @param st Statement
+     * @param maximumError Maximum error in dB
+     * @return Number of paths skipped by the computation with the maximum error
+     */
+    private static long assertPrunedLevels(Statement st, double maximumError) throws SQLException {
+        long prunedPathCount = 0;
+        for (double error : new double[] {0, maximumError}) {
+            NoiseMapByReceiverMaker noiseMapByReceiverMaker = new NoiseMapByReceiverMaker("BUILDINGS",
+                    "ROADS_GEOM", "RECEIVERS");
+            noiseMapByReceiverMaker.setHeightField("HEIGHT");
+            noiseMapByReceiverMaker.setFrequencyFieldPrepend("DB_M");
+            noiseMapByReceiverMaker.setMaximumPropagationDistance(300);
+            noiseMapByReceiverMaker.setMaximumReflectionDistance(100);
+            noiseMapByReceiverMaker.setSoundReflectionOrder(3);
+            noiseMapByReceiverMaker.setComputeHorizontalDiffraction(true);
+            noiseMapByReceiverMaker.setComputeVerticalDiffraction(true);
+            noiseMapByReceiverMaker.getNoiseMapDatabaseParameters().setMaximumError(error);
+            noiseMapByReceiverMaker.getNoiseMapDatabaseParameters().receiversLevelTable =
+                    error > 0 ? "RECEIVERS_LEVEL_PRUNED" : "RECEIVERS_LEVEL";
+            noiseMapByReceiverMaker.run(st.getConnection(), new EmptyProgressVisitor());
+            prunedPathCount = ((DefaultCutPlaneProcessing) noiseMapByReceiverMaker.getComputeRaysOutFactory())
+                    .getResultsCache().prunedPathCount.get();
+            if (error <= 0) {
+                assertEquals(0, prunedPathCount);
+            }
+        }
+        Map<String, Double> levels = fetchLaeq(st, "RECEIVERS_LEVEL");
+        Map<String, Double> prunedLevels = fetchLaeq(st, "RECEIVERS_LEVEL_PRUNED");
+        assertFalse(levels.isEmpty());
+        assertEquals(levels.keySet(), prunedLevels.keySet());
+        for (Map.Entry<String, Double> entry : levels.entrySet()) {
+            assertEquals(entry.getValue(), prunedLevels.get(entry.getKey()), maximumError, entry.getKey());
+        }
+        return prunedPathCount;
+    }
+
+    /**
+     * The reflection and lateral diffraction paths skipped with the maximum error must not change the levels more
+     * than the maximum error
+     * @throws Exception
+     */
+    @Test
+    public void testMaximumErrorPathPruning() throws Exception {
+        final double maximumError = 1.0;
+        try(Statement st = connection.createStatement()) {
+            st.execute("create table receivers(id serial PRIMARY KEY, the_geom GEOMETRY(POINTZ))");
+            st.execute("insert into receivers(the_geom) values ('POINTZ (10 4 4)'), ('POINTZ (40 -4 4)'), " +
+                    "('POINTZ (80 0 10)'), ('POINTZ (25 30 4)')");
+            st.execute("create table roads_geom ( id serial PRIMARY KEY, the_geom GEOMETRY(LINESTRINGZ), db_md63 double," +
+                    "db_md125 double,db_md250 double,db_md500 double, db_md1000 double,db_md2000 double, " +
+                    "db_md4000 double,db_md8000 double)");
+            st.execute("INSERT INTO roads_geom VALUES (DEFAULT, 'LINESTRINGZ (-20 0 0.05, 120 0 0.05)', 25.65, 38.15," +
+                    " 54.35, 60.35, 74.65, 66.75, 59.25, 53.95), (DEFAULT, 'LINESTRINGZ (150 -50 0.05, 150 50 0.05)'," +
+                    " 20.5, 32.1, 50.3, 55.2, 70.1, 62.7, 55.2, 50.1)");
+            // street canyon
+            st.execute("create table buildings(id serial PRIMARY KEY, the_geom GEOMETRY(POLYGON), height double)");
+            st.execute("INSERT INTO buildings values (DEFAULT, 'POLYGON ((0 8, 30 8, 30 20, 0 20, 0 8))', 15)," +
+                    " (DEFAULT, 'POLYGON ((35 8, 100 8, 100 20, 35 20, 35 8))', 12)," +
+                    " (DEFAULT, 'POLYGON ((0 -8, 60 -8, 60 -20, 0 -20, 0 -8))', 15)," +
+                    " (DEFAULT, 'POLYGON ((65 -8, 100 -8, 100 -20, 65 -20, 65 -8))', 9)");
+            assertTrue(assertPrunedLevels(st, maximumError) > 0);
+
+            // narrow obstacle centered on the line between the far source and the receivers, the paths around the
+            // left and right sides are both close to the shortest detour and are skipped independently
+            st.execute("DROP TABLE RECEIVERS, ROADS_GEOM, BUILDINGS");
+            st.execute("create table receivers(id serial PRIMARY KEY, the_geom GEOMETRY(POINTZ))");
+            st.execute("insert into receivers(the_geom) values ('POINTZ (60 0 4)'), ('POINTZ (45 0 2)')");
+            st.execute("create table roads_geom ( id serial PRIMARY KEY, the_geom GEOMETRY(LINESTRINGZ), db_md63 double," +
+                    "db_md125 double,db_md250 double,db_md500 double, db_md1000 double,db_md2000 double, " +
+                    "db_md4000 double,db_md8000 double)");
+            st.execute("INSERT INTO roads_geom VALUES (DEFAULT, 'LINESTRINGZ (0 -1 0.05, 0 1 0.05)', 25.65, 38.15," +
+                    " 54.35, 60.35, 74.65, 66.75, 59.25, 53.95), (DEFAULT, 'LINESTRINGZ (70 -10 0.05, 70 10 0.05)'," +
+                    " 25.65, 38.15, 54.35, 60.35, 74.65, 66.75, 59.25, 53.95)");
+            st.execute("create table buildings(id serial PRIMARY KEY, the_geom GEOMETRY(POLYGON), height double)");
+            st.execute("INSERT INTO buildings values (DEFAULT, 'POLYGON ((29 -1, 31 -1, 31 1, 29 1, 29 -1))', 20)");
+            assertTrue(assertPrunedLevels(st, maximumError) > 0);
+        }
+    }
+
+    private static NoiseMapByReceiverMaker createDemMaker(String sourcesTableName, String levelTableName) {
+        return createDemMaker(sourcesTableName, "RECEIVERS", levelTableName);
+    }
+
+    private static NoiseMapByReceiverMaker createDemMaker(String sourcesTableName, String receiversTableName,
+                                                          String levelTableName) {
+        NoiseMapByReceiverMaker noiseMapByReceiverMaker = new NoiseMapByReceiverMaker("BUILDINGS",
+                sourcesTableName, receiversTableName);
+        noiseMapByReceiverMaker.setHeightField("HEIGHT");
+        noiseMapByReceiverMaker.setFrequencyFieldPrepend("DB_M");
+        noiseMapByReceiverMaker.setDemTable("DEM");
+        noiseMapByReceiverMaker.setMaximumPropagationDistance(300);
+        noiseMapByReceiverMaker.setSoundReflectionOrder(0);
+        noiseMapByReceiverMaker.setComputeHorizontalDiffraction(false);
+        noiseMapByReceiverMaker.setComputeVerticalDiffraction(true);
+        noiseMapByReceiverMaker.getNoiseMapDatabaseParameters().receiversLevelTable = levelTableName;
+        return noiseMapByReceiverMaker;
+    }
+
+    private static void createInclinedPlaneScene(Statement st) throws SQLException {
+        // inclined plane, the draping does not depend on the triangulation
+        st.execute("create table dem(the_geom GEOMETRY(POINTZ))");
+        st.execute("insert into dem select ST_MakePoint(A.X * 10, B.X * 10, A.X * 0.5) from " +
+                "SYSTEM_RANGE(-15, 35) A, SYSTEM_RANGE(-15, 15) B");
+        st.execute("create table receivers(id serial PRIMARY KEY, the_geom GEOMETRY(POINTZ))");
+        st.execute("insert into receivers(the_geom) values ('POINTZ (100 0 4)'), ('POINTZ (200 20 4)'), " +
+                "('POINTZ (-50 0 4)')");
+        st.execute("create table roads_geom ( id serial PRIMARY KEY, the_geom GEOMETRY(LINESTRINGZ), db_md63 double," +
+                "db_md125 double,db_md250 double,db_md500 double, db_md1000 double,db_md2000 double, " +
+                "db_md4000 double,db_md8000 double)");
+        st.execute("INSERT INTO roads_geom VALUES (DEFAULT, 'LINESTRINGZ (0 -50 0.5, 0 50 0.5)', 25.65, 38.15, 54.35," +
+                " 60.35, 74.65, 66.75, 59.25, 53.95), (DEFAULT, 'LINESTRINGZ (50 -40 0.5, 150 40 0.5)', 25.65, 38.15," +
+                " 54.35, 60.35, 74.65, 66.75, 59.25, 53.95)");
+        st.execute("create table buildings(id serial PRIMARY KEY, the_geom GEOMETRY(POLYGON), height double)");
+        st.execute("INSERT INTO buildings values (DEFAULT, 'POLYGON ((120 -10, 130 -10, 130 10, 120 10, 120 -10))', 8)");
+    }
+
+    /**
+     * Sources draped once for the whole domain must give the same levels as the sources draped in each cell
+     * @throws Exception
+     */
+    @Test
+    public void testSourceElevationTable() throws Exception {
+        try(Statement st = connection.createStatement()) {
+            createInclinedPlaneScene(st);
+
+            createDemMaker("ROADS_GEOM", "RECEIVERS_LEVEL").run(connection, new EmptyProgressVisitor());
+            Map<String, Double> cellLevels = fetchLaeq(st, "RECEIVERS_LEVEL");
+
+            SourceElevationTableMaker sourceElevationTableMaker = new SourceElevationTableMaker(
+                    createDemMaker("ROADS_GEOM", "RECEIVERS_LEVEL"));
+            sourceElevationTableMaker.setTileSize(60);
+            sourceElevationTableMaker.setThreadCount(2);
+            assertEquals(2, sourceElevationTableMaker.run(connection, "ROADS_ABSOLUTE"));
+            assertEquals(2, JDBCUtilities.getRowCount(connection, "ROADS_ABSOLUTE"));
+            try(ResultSet rs = st.executeQuery("SELECT ST_ZMAX(THE_GEOM) FROM ROADS_ABSOLUTE WHERE ID = 2")) {
+                assertTrue(rs.next());
+                assertEquals(150 * 0.05 + 0.5, rs.getDouble(1), 1e-6);
+            }
+
+            NoiseMapByReceiverMaker absoluteMaker = createDemMaker("ROADS_ABSOLUTE", "RECEIVERS_LEVEL_ABSOLUTE");
+            absoluteMaker.setSourceHasAbsoluteZCoordinates(true);
+            absoluteMaker.run(connection, new EmptyProgressVisitor());
+            Map<String, Double> domainLevels = fetchLaeq(st, "RECEIVERS_LEVEL_ABSOLUTE");
+
+            assertFalse(cellLevels.isEmpty());
+            assertEquals(cellLevels.keySet(), domainLevels.keySet());
+            for (Map.Entry<String, Double> entry : cellLevels.entrySet()) {
+                assertEquals(entry.getValue(), domainLevels.get(entry.getKey()), 1e-3, entry.getKey());
+            }
+        }
+    }
+
+    /**
+     * The receivers altitude computed in each cell is stored in a copy of the receivers table
+     * @throws Exception
+     */
+    @Test
+    public void testReceiverAbsoluteZTable() throws Exception {
+        try(Statement st = connection.createStatement()) {
+            createInclinedPlaneScene(st);
+
+            NoiseMapByReceiverMaker relativeMaker = createDemMaker("ROADS_GEOM", "RECEIVERS_LEVEL");
+            relativeMaker.setReceiverAbsoluteZTableName("RECEIVERS_ABSOLUTE");
+            relativeMaker.run(connection, new EmptyProgressVisitor());
+            Map<String, Double> relativeLevels = fetchLaeq(st, "RECEIVERS_LEVEL");
+
+            try(ResultSet rs = st.executeQuery("SELECT ST_X(THE_GEOM), ST_Z(THE_GEOM) FROM RECEIVERS_ABSOLUTE")) {
+                int receiverCount = 0;
+                while (rs.next()) {
+                    assertEquals(rs.getDouble(1) * 0.05 + 4, rs.getDouble(2), 1e-6);
+                    receiverCount++;
+                }
+                assertEquals(3, receiverCount);
+            }
+
+            NoiseMapByReceiverMaker absoluteMaker = createDemMaker("ROADS_GEOM", "RECEIVERS_ABSOLUTE",
+                    "RECEIVERS_LEVEL_ABSOLUTE");
+            absoluteMaker.setReceiverHasAbsoluteZCoordinates(true);
+            absoluteMaker.run(connection, new EmptyProgressVisitor());
+            Map<String, Double> absoluteLevels = fetchLaeq(st, "RECEIVERS_LEVEL_ABSOLUTE");
+
+            assertFalse(relativeLevels.isEmpty());
+            assertEquals(relativeLevels.keySet(), absoluteLevels.keySet());
+            for (Map.Entry<String, Double> entry : relativeLevels.entrySet()) {
+                assertEquals(entry.getValue(), absoluteLevels.get(entry.getKey()), 1e-3, entry.getKey());
+            }
+        }
+    }
+}
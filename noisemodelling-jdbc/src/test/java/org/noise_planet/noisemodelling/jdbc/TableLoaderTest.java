@@ -13,6 +13,7 @@ import org.h2gis.functions.factory.H2GISDBFactory;
 import org.h2gis.functions.io.dbf.DBFRead;
 import org.h2gis.functions.io.shp.SHPRead;
 import org.h2gis.utilities.JDBCUtilities;
+import org.h2gis.utilities.SpatialResultSet;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -429,4 +430,72 @@ public class TableLoaderTest {
         assertEquals(nbReceivers, populatedCells.values().stream().reduce(Integer::sum).orElse(0));
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testTrainEmissionPipeline() throws SQLException {
+        SHPRead.importTable(connection, TableLoaderTest.class.getResource("PropaRail/Rail_Section2.shp").getFile());
+        DBFRead.importTable(connection, TableLoaderTest.class.getResource("PropaRail/Rail_Traffic.dbf").getFile());
+
+        EmissionTableGenerator.makeTrainLWTable(connection, "Rail_Section2", "Rail_Traffic",
+                "LW_RAILWAY", "HZ");
+
+        EmissionTablePipeline emissionTablePipeline = new EmissionTablePipeline();
+        // small batches in order to split sections across batches
+        emissionTablePipeline.setBatchSize(3);
+        emissionTablePipeline.setParallelism(4);
+        long insertedRows = emissionTablePipeline.makeTrainLWTable(connection, "Rail_Section2", "Rail_Traffic",
+                "LW_RAILWAY_PIPELINE", "HZ");
+
+        try(ResultSet rs = connection.createStatement().executeQuery("SELECT COUNT(*) FROM LW_RAILWAY")) {
+            assertTrue(rs.next());
+            assertEquals(rs.getLong(1), insertedRows);
+        }
+        assertTrue(emissionTablePipeline.getRowsPerSecond() > 0);
+        try(ResultSet rs = connection.createStatement().executeQuery("SELECT COUNT(*) FROM LW_RAILWAY A," +
+                " LW_RAILWAY_PIPELINE B WHERE A.PK = B.PK AND A.PK_SECTION = B.PK_SECTION AND A.DIR_ID = B.DIR_ID" +
+                " AND ST_EQUALS(A.THE_GEOM, B.THE_GEOM) AND ABS(A.HZD500 - B.HZD500) < 1e-6" +
+                " AND ABS(A.HZE1000 - B.HZE1000) < 1e-6 AND ABS(A.HZN2000 - B.HZN2000) < 1e-6")) {
+            assertTrue(rs.next());
+            assertEquals(insertedRows, rs.getLong(1));
+        }
+    }
+
+    @Test
+    public void testRoadEmissionPipeline() throws SQLException {
+        connection.createStatement().execute(String.format("CALL SHPREAD('%s', 'ROADS_TRAFF')",
+                TableLoaderTest.class.getResource("roads_traff.shp").getFile()));
+
+        EmissionTablePipeline emissionTablePipeline = new EmissionTablePipeline();
+        emissionTablePipeline.setBatchSize(10);
+        emissionTablePipeline.setParallelism(4);
+        long insertedRows = emissionTablePipeline.makeRoadLWTable(connection, "ROADS_TRAFF", "LW_ROADS");
+
+        Map<Integer, double[][]> expected = new HashMap<>();
+        Map<String, Integer> sourceFieldsCache = new HashMap<>();
+        try(SpatialResultSet rs = connection.createStatement().executeQuery("SELECT * FROM ROADS_TRAFF")
+                .unwrap(SpatialResultSet.class)) {
+            while (rs.next()) {
+                double[][] lw = EmissionTableGenerator.computeLw(rs, 2, sourceFieldsCache);
+                expected.put(rs.getInt("PK"), new double[][] {AcousticIndicatorsFunctions.wToDb(lw[0]),
+                        AcousticIndicatorsFunctions.wToDb(lw[1]), AcousticIndicatorsFunctions.wToDb(lw[2])});
+            }
+        }
+        assertEquals(expected.size(), insertedRows);
+        try(ResultSet rs = connection.createStatement().executeQuery("SELECT * FROM LW_ROADS")) {
+            int rowCount = 0;
+            while (rs.next()) {
+                double[][] lw = expected.get(rs.getInt("PK"));
+                assertNotNull(lw);
+                for(int idPeriod = 0; idPeriod < EmissionTableGenerator.STANDARD_PERIOD_VALUE.length; idPeriod++) {
+                    for(int idFreq = 0; idFreq < EmissionTableGenerator.roadOctaveFrequencyBands.size(); idFreq++) {
+                        assertEquals(lw[idPeriod][idFreq], rs.getDouble("HZ" +
+                                EmissionTableGenerator.STANDARD_PERIOD_VALUE[idPeriod] +
+                                EmissionTableGenerator.roadOctaveFrequencyBands.get(idFreq)), 1e-6);
+                    }
+                }
+                rowCount++;
+            }
+            assertEquals(expected.size(), rowCount);
+        }
+    }
+
+}
@@ -0,0 +1,78 @@
+/**
+ * NoiseModelling is a library capable of producing noise maps. It can be freely used either for research and education, as well as by experts in a professional use.
+ * <p>
+ * NoiseModelling is distributed under GPL 3 license. You can read a copy of this License in the file LICENCE provided with this software.
+ * <p>
+ * Official webpage : http://noise-planet.org/noisemodelling.html
+ * Contact: contact@noise-planet.org
+ */
+
+package org.noise_planet.noisemodelling.jdbc.output;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class NoiseMapCheckpointTest {
+
+    private static Set<Long> decode(byte[] data) {
+        Set<Long> receivers = new HashSet<>();
+        NoiseMapCheckpoint.decode(data, receivers);
+        return receivers;
+    }
+
+    /**
+     * A dense set of receivers is stored as a bitmap
+     */
+    @Test
+    public void testDenseReceiversEncoding() {
+        List<Long> receivers = new ArrayList<>();
+        for (long pk = 1000; pk < 6000; pk++) {
+            if (pk % 7 != 0) {
+                receivers.add(pk);
+            }
+        }
+        // unordered with duplicates
+        receivers.add(1001L);
+        receivers.add(5999L);
+        byte[] data = NoiseMapCheckpoint.encode(receivers);
+        assertEquals(NoiseMapCheckpoint.BITMAP_ENCODING, data[0]);
+        // one bit per receiver of the range
+        assertTrue(data.length <= 1 + Long.BYTES + 5000 / 8 + 1);
+        assertEquals(new HashSet<>(receivers), decode(data));
+    }
+
+    /**
+     * A sparse set of receivers is stored as sorted deltas
+     */
+    @Test
+    public void testSparseReceiversEncoding() {
+        Random random = new Random(42);
+        Set<Long> receivers = new HashSet<>();
+        long pk = 3;
+        for (int i = 0; i < 500; i++) {
+            // deltas encoded on one to four bytes
+            pk += 1 + random.nextInt(1 << (7 * (1 + i % 4)));
+            receivers.add(pk);
+        }
+        // far beyond the integer range
+        receivers.add(Long.MAX_VALUE - 1);
+        byte[] data = NoiseMapCheckpoint.encode(receivers);
+        assertEquals(NoiseMapCheckpoint.DELTA_ENCODING, data[0]);
+        assertEquals(receivers, decode(data));
+
+        // single receiver
+        data = NoiseMapCheckpoint.encode(Arrays.asList(12L));
+        assertEquals(NoiseMapCheckpoint.DELTA_ENCODING, data[0]);
+        assertEquals(1 + Long.BYTES, data.length);
+        assertEquals(new HashSet<>(Arrays.asList(12L)), decode(data));
+    }
+}
@@ -0,0 +1,180 @@
+/**
+ * NoiseModelling is a library capable of producing noise maps. It can be freely used either for research and education, as well as by experts in a professional use.
+ * <p>
+ * NoiseModelling is distributed under GPL 3 license. You can read a copy of this License in the file LICENCE provided with this software.
+ * <p>
+ * Official webpage : http://noise-planet.org/noisemodelling.html
+ * Contact: contact@noise-planet.org
+ */
+package org.noise_planet.noisemodelling.jdbc.utils;
+
+import org.h2gis.functions.factory.H2GISDBFactory;
+import org.h2gis.utilities.JDBCUtilities;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AgentExposureTest {
+
+    private Connection connection;
+
+    @BeforeEach
+    public void tearUp() throws Exception {
+        connection = JDBCUtilities.wrapConnection(H2GISDBFactory.createSpatialDataBase(AgentExposureTest.class.getSimpleName(), true, ""));
+        try (Statement st = connection.createStatement()) {
+            st.execute("CREATE TABLE RECEIVERS(PK INTEGER PRIMARY KEY, FACILITY VARCHAR)");
+            st.execute("INSERT INTO RECEIVERS VALUES (1, 'home1'), (2, 'work1')");
+            st.execute("CREATE TABLE LEVELS(PK SERIAL PRIMARY KEY, IDRECEIVER INTEGER, PERIOD VARCHAR, LAEQ DOUBLE)");
+        }
+        try (PreparedStatement ps = connection.prepareStatement("INSERT INTO LEVELS(IDRECEIVER, PERIOD, LAEQ) VALUES (?, ?, ?)")) {
+            for (int timeBin = 0; timeBin < 86400; timeBin += 3600) {
+                ps.setInt(1, 1);
+                ps.setString(2, Integer.toString(timeBin));
+                ps.setDouble(3, 60);
+                ps.addBatch();
+                if (timeBin >= 8 * 3600 && timeBin < 17 * 3600) {
+                    ps.setInt(1, 2);
+                    ps.setString(2, Integer.toString(timeBin));
+                    ps.setDouble(3, 70);
+                    ps.addBatch();
+                }
+            }
+            // not a time slice
+            ps.setInt(1, 1);
+            ps.setString(2, "DEN");
+            ps.setDouble(3, 90);
+            ps.addBatch();
+            ps.executeBatch();
+        }
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        if(connection != null) {
+            connection.close();
+        }
+    }
+
+    @Test
+    public void testLoadIndex() throws SQLException {
+        AgentExposure.FacilityNoiseIndex index = AgentExposure.FacilityNoiseIndex.load(connection, "LEVELS",
+                "RECEIVERS", 3600);
+        assertEquals(2, index.getFacilityCount());
+        assertEquals(24, index.getTimeBinCount());
+        int home = index.getFacilityIndex("home1");
+        int work = index.getFacilityIndex("work1");
+        assertEquals(-1, index.getFacilityIndex("unknown"));
+        assertEquals(60, index.getLevel(home, 23), 1e-12);
+        assertEquals(70, index.getLevel(work, 8), 1e-12);
+        assertTrue(Double.isNaN(index.getLevel(work, 7)));
+        assertTrue(Double.isNaN(index.getLevel(-1, 7)));
+    }
+
+    @Test
+    public void testComputeExposure() throws SQLException {
+        AgentExposure agentExposure = new AgentExposure(AgentExposure.FacilityNoiseIndex.load(connection, "LEVELS",
+                "RECEIVERS", 3600));
+        // stays at home all day
+        AgentExposure.Agent homeAgent = new AgentExposure.Agent("p1", 30, "f", 1000.0, true,
+                Collections.singletonList(new AgentExposure.Activity("home1", "home", 0,
+                        AgentExposure.DEFAULT_ACTIVITY_END, "POINT(1 2)")));
+        AgentExposure.Exposure exposure = agentExposure.computeExposure(homeAgent);
+        // the last time slice before 4h ends exactly with the default activity end, so it has no weight
+        assertEquals(10 * Math.log10(Math.pow(10, -9.9) + 23.0 / 24.0 * Math.pow(10, 6)), exposure.getLaeq(), 1e-9);
+        assertEquals("home1", exposure.getHomeId());
+        assertEquals("", exposure.getWorkId());
+        assertEquals(24, exposure.getSequence().length);
+
+        List<AgentExposure.Activity> activities = Arrays.asList(
+                new AgentExposure.Activity("home1", "home", 0, 8 * 3600, null),
+                new AgentExposure.Activity("work1", "work", 8 * 3600, 17 * 3600, "POINT(5 5)"),
+                new AgentExposure.Activity("home1", "home", 17 * 3600, AgentExposure.DEFAULT_ACTIVITY_END, "POINT(1 2)"));
+        exposure = agentExposure.computeExposure(new AgentExposure.Agent("p2", 40, "m", null, null, activities));
+        assertEquals("work1", exposure.getWorkId());
+        AgentExposure.SequenceElement sequence = exposure.getSequence()[10];
+        assertEquals("work1", sequence.getStartActivityId());
+        assertEquals("work1", sequence.getMainActivityId());
+        assertEquals("work1", sequence.getEndActivityId());
+        assertEquals(70, sequence.getLevel(), 1e-12);
+
+        exposure = agentExposure.computeExposure(new AgentExposure.Agent("p3", null, null, null, null,
+                Collections.singletonList(new AgentExposure.Activity("out1", AgentExposure.OUTSIDE, 0,
+                        AgentExposure.DEFAULT_ACTIVITY_END, null))));
+        assertEquals(AgentExposure.NO_LEVEL, exposure.getLaeq(), 1e-9);
+        for (AgentExposure.SequenceElement element : exposure.getSequence()) {
+            assertEquals(AgentExposure.OUTSIDE, element.getMainActivityId());
+            assertEquals(AgentExposure.NO_LEVEL, element.getLevel(), 1e-12);
+        }
+    }
+
+    /**
+     * The main activity of a time bin is the longest activity, not the last one
+     */
+    @Test
+    public void testMainActivity() throws SQLException {
+        AgentExposure agentExposure = new AgentExposure(AgentExposure.FacilityNoiseIndex.load(connection, "LEVELS",
+                "RECEIVERS", 3600));
+        List<AgentExposure.Activity> activities = Arrays.asList(
+                new AgentExposure.Activity("home1", "home", 0, 8 * 3600, "POINT(1 2)"),
+                new AgentExposure.Activity("work1", "work", 8 * 3600, 8 * 3600 + 40 * 60, "POINT(5 5)"),
+                new AgentExposure.Activity("home1", "home", 8 * 3600 + 40 * 60, 8 * 3600 + 50 * 60, "POINT(1 2)"),
+                new AgentExposure.Activity("home1", "home", 8 * 3600 + 50 * 60, AgentExposure.DEFAULT_ACTIVITY_END,
+                        "POINT(1 2)"));
+        AgentExposure.Exposure exposure = agentExposure.computeExposure(new AgentExposure.Agent("p1", 30, "f", null,
+                true, activities));
+        AgentExposure.SequenceElement sequence = exposure.getSequence()[8];
+        assertEquals("work1", sequence.getStartActivityId());
+        assertEquals("work1", sequence.getMainActivityId());
+        assertEquals("POINT(5 5)", sequence.mainActivityGeometry);
+        assertEquals("home1", sequence.getEndActivityId());
+    }
+
+    @Test
+    public void testComputeExposures() throws SQLException {
+        AgentExposure agentExposure = new AgentExposure(AgentExposure.FacilityNoiseIndex.load(connection, "LEVELS",
+                "RECEIVERS", 3600));
+        agentExposure.setBatchSize(3);
+        agentExposure.setThreadCount(2);
+        AgentExposure.Agent[] agents = new AgentExposure.Agent[10];
+        for (int i = 0; i < agents.length; i++) {
+            agents[i] = new AgentExposure.Agent("p" + i, 20 + i, "f", null, i % 2 == 0,
+                    Arrays.asList(new AgentExposure.Activity("home1", "home", 0, 8 * 3600, "POINT(1 2)"),
+                            new AgentExposure.Activity("work1", "work", 8 * 3600, AgentExposure.DEFAULT_ACTIVITY_END,
+                                    "POINT(5 5)")));
+        }
+        assertEquals(agents.length, agentExposure.computeExposures(connection, Arrays.asList(agents).iterator(),
+                "EXPOSURE", 2154));
+        double expected = agentExposure.computeExposure(agents[0]).getLaeq();
+        try (Statement st = connection.createStatement()) {
+            try (ResultSet rs = st.executeQuery("SELECT COUNT(*), MIN(LAEQ), MAX(LAEQ), COUNT(DISTINCT PERSON_ID) FROM EXPOSURE")) {
+                assertTrue(rs.next());
+                assertEquals(agents.length, rs.getInt(1));
+                assertEquals(expected, rs.getDouble(2), 1e-3);
+                assertEquals(expected, rs.getDouble(3), 1e-3);
+                assertEquals(agents.length, rs.getInt(4));
+            }
+            try (ResultSet rs = st.executeQuery("SELECT COUNT(*) FROM EXPOSURE_SEQUENCE")) {
+                assertTrue(rs.next());
+                assertEquals(agents.length * 24, rs.getInt(1));
+            }
+            try (ResultSet rs = st.executeQuery("SELECT LEVEL, MAIN_ACTIVITY_ID, ST_SRID(MAIN_ACTIVITY_GEOM)" +
+                    " FROM EXPOSURE_SEQUENCE WHERE PERSON_ID = 'p4' AND TIME = 36000")) {
+                assertTrue(rs.next());
+                assertEquals(70, rs.getDouble(1), 1e-12);
+                assertEquals("work1", rs.getString(2));
+                assertEquals(2154, rs.getInt(3));
+            }
+        }
+    }
+}
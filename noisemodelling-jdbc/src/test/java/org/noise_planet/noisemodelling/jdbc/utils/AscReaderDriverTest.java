@@ -32,6 +32,8 @@ import org.locationtech.jts.geom.Envelope;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
@@ -299,4 +301,48 @@ public class AscReaderDriverTest {
         }
     }
 
+    /**
+     * The memory mapped reader must import the same rows than the sequential reader
+     */
+    @Test
+    public void testMemoryMappedReader() throws IOException, SQLException {
+        File ascFile = new File(AscReaderDriverTest.class.getResource("precip30min.asc").getPath());
+        for(int downScale : new int[]{1, 2}) {
+            for(boolean as3DPoint : new boolean[]{true, false}) {
+                AscReaderDriver reader = new AscReaderDriver();
+                reader.setDeleteTable(true);
+                reader.setImportNodata(true);
+                reader.setDownScale(downScale);
+                reader.setAs3DPoint(as3DPoint);
+                reader.setExtractEnvelope(new Envelope(-178.242, -174.775, -89.707, -85.205));
+                reader.setMemoryMapped(false);
+                reader.read(connection, ascFile, new EmptyProgressVisitor(), "PRECIP_SEQUENTIAL", 4326);
+                reader.setMemoryMapped(true);
+                // many small chunks in order to split the rows and the values
+                reader.setChunkSize(7);
+                reader.setThreadCount(3);
+                reader.read(connection, ascFile, new EmptyProgressVisitor(), "PRECIP_MAPPED", 4326);
+                int rowCount = JDBCUtilities.getRowCount(connection, "PRECIP_SEQUENTIAL");
+                assertTrue(rowCount > 0);
+                assertEquals(rowCount, JDBCUtilities.getRowCount(connection, "PRECIP_MAPPED"));
+                try(Statement st = connection.createStatement();
+                    ResultSet rs = st.executeQuery("SELECT COUNT(*) FROM PRECIP_SEQUENTIAL S, PRECIP_MAPPED M" +
+                            " WHERE S.PK = M.PK AND S.Z = M.Z AND ST_EQUALS(S.THE_GEOM, M.THE_GEOM)")) {
+                    assertTrue(rs.next());
+                    assertEquals(rowCount, rs.getInt(1));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testParseDouble() {
+        for(String value : new String[]{"0", "-0", "234", "-9999", "12.5", "-0.125", "1e3", "1.5E-2", "+4.25",
+                "0.000000000001", "3.14159265358979", "1234567890123456789012"}) {
+            ByteBuffer buffer = ByteBuffer.wrap((" " + value + " ").getBytes(StandardCharsets.US_ASCII));
+            assertEquals(Double.parseDouble(value), AscReaderDriver.parseDouble(buffer, 1, value.length() + 1), 0, value);
+        }
+        assertThrows(NumberFormatException.class, () -> AscReaderDriver.parseDouble(
+                ByteBuffer.wrap("1.2.3".getBytes(StandardCharsets.US_ASCII)), 0, 5));
+    }
 }
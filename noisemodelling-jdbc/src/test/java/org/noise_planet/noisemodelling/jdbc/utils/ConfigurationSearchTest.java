@@ -0,0 +1,167 @@
+/**
+ * NoiseModelling is a library capable of producing noise maps. It can be freely used either for research and education, as well as by experts in a professional use.
+ * <p>
+ * NoiseModelling is distributed under GPL 3 license. You can read a copy of this License in the file LICENCE provided with this software.
+ * <p>
+ * Official webpage : http://noise-planet.org/noisemodelling.html
+ * Contact: contact@noise-planet.org
+ */
+
+package org.noise_planet.noisemodelling.jdbc.utils;
+
+import org.h2gis.functions.factory.H2GISDBFactory;
+import org.h2gis.utilities.JDBCUtilities;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ConfigurationSearchTest {
+
+    private Connection connection;
+
+    @BeforeEach
+    public void tearUp() throws Exception {
+        connection = JDBCUtilities.wrapConnection(H2GISDBFactory.createSpatialDataBase(
+                ConfigurationSearchTest.class.getSimpleName(), true, ""));
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        if (connection != null) {
+            connection.close();
+        }
+    }
+
+    /**
+     * The branch-and-bound must return the same errors than the evaluation of all the configurations
+     */
+    @Test
+    public void testSameAsExhaustiveSearch() {
+        Random random = new Random(42);
+        double[] factors = {0.01, 0.5, 1, 2, 3};
+        int groupCount = 4;
+        int sensorCount = 7;
+        ConfigurationSearch configurationSearch = new ConfigurationSearch(factors);
+        configurationSearch.setTopCount(5);
+        configurationSearch.setMaximumFactorRatio(20);
+        double[][] energy = new double[sensorCount][groupCount];
+        int[] sensors = new int[sensorCount];
+        double[] levels = new double[sensorCount];
+        for (int s = 0; s < sensorCount; s++) {
+            for (int g = 0; g < groupCount; g++) {
+                energy[s][g] = Math.pow(10, (40 + random.nextDouble() * 30) / 10);
+            }
+            sensors[s] = s;
+            levels[s] = 50 + random.nextDouble() * 25;
+        }
+        List<ConfigurationSearch.Configuration> best = configurationSearch.search(
+                Collections.singletonList(new ConfigurationSearch.Contributions(Double.NaN, energy)),
+                new ConfigurationSearch.Observation(0, Double.NaN, sensors, levels));
+        List<Double> expected = new ArrayList<>();
+        int[] factorIndex = new int[groupCount];
+        for (int configuration = 0; configuration < Math.pow(factors.length, groupCount); configuration++) {
+            int remaining = configuration;
+            boolean coherent = true;
+            for (int g = 0; g < groupCount; g++) {
+                factorIndex[g] = remaining % factors.length;
+                remaining /= factors.length;
+                for (int previous = 0; previous < g; previous++) {
+                    coherent &= factors[factorIndex[g]] <= 20 * factors[factorIndex[previous]];
+                }
+            }
+            if (!coherent) {
+                continue;
+            }
+            double[] errors = new double[sensorCount];
+            for (int s = 0; s < sensorCount; s++) {
+                double sum = 0;
+                for (int g = 0; g < groupCount; g++) {
+                    sum += factors[factorIndex[g]] * energy[s][g];
+                }
+                errors[s] = Math.abs(levels[s] - 10 * Math.log10(sum));
+            }
+            expected.add(ConfigurationSearch.median(errors, sensorCount));
+        }
+        Collections.sort(expected);
+        assertEquals(5, best.size());
+        for (int i = 0; i < best.size(); i++) {
+            assertEquals(expected.get(i), best.get(i).error, 1e-9);
+        }
+    }
+
+    @Test
+    public void testSearchTable() throws SQLException {
+        Random random = new Random(42);
+        double[] factors = {0.5, 1, 2};
+        String[] groups = {"PRIMARY", "SECONDARY", "OTHERS"};
+        int sensorCount = 6;
+        double[][] contributions = new double[sensorCount][groups.length];
+        try (Statement st = connection.createStatement()) {
+            st.execute("CREATE TABLE CONTRIBUTIONS(IDRECEIVER INTEGER, PERIOD VARCHAR, LAEQ DOUBLE PRECISION)");
+            st.execute("CREATE TABLE OBSERVATIONS(IDRECEIVER INTEGER, EPOCH INTEGER, LAEQ DOUBLE PRECISION)");
+        }
+        try (PreparedStatement ps = connection.prepareStatement("INSERT INTO CONTRIBUTIONS VALUES (?, ?, ?)")) {
+            for (int s = 0; s < sensorCount; s++) {
+                for (int g = 0; g < groups.length; g++) {
+                    contributions[s][g] = 45 + random.nextDouble() * 20;
+                    ps.setInt(1, s + 1);
+                    ps.setString(2, groups[g]);
+                    ps.setDouble(3, contributions[s][g]);
+                    ps.addBatch();
+                }
+            }
+            ps.executeBatch();
+        }
+        // the measured levels of each epoch are simulated from a known configuration
+        int[][] configurations = {{0, 1, 2}, {2, 2, 0}, {1, 0, 1}};
+        try (PreparedStatement ps = connection.prepareStatement("INSERT INTO OBSERVATIONS VALUES (?, ?, ?)")) {
+            for (int epoch = 0; epoch < configurations.length; epoch++) {
+                for (int s = 0; s < sensorCount; s++) {
+                    double sum = 0;
+                    for (int g = 0; g < groups.length; g++) {
+                        sum += factors[configurations[epoch][g]] * Math.pow(10, contributions[s][g] / 10);
+                    }
+                    ps.setInt(1, s + 1);
+                    ps.setInt(2, epoch);
+                    ps.setDouble(3, 10 * Math.log10(sum));
+                    ps.addBatch();
+                }
+            }
+            ps.executeBatch();
+        }
+        ConfigurationSearch configurationSearch = new ConfigurationSearch(factors);
+        configurationSearch.setGroups(Arrays.asList(groups));
+        configurationSearch.setTopCount(2);
+        assertEquals(3, configurationSearch.search(connection, "CONTRIBUTIONS", "OBSERVATIONS",
+                "BEST_CONFIGURATIONS"));
+        try (Statement st = connection.createStatement();
+             ResultSet rs = st.executeQuery("SELECT * FROM BEST_CONFIGURATIONS WHERE RANK = 1 ORDER BY EPOCH")) {
+            for (int[] configuration : configurations) {
+                assertTrue(rs.next());
+                assertEquals(0, rs.getDouble("MEDIAN_ABS_DIFF"), 1e-6);
+                assertEquals(factors[configuration[0]], rs.getDouble("PRIMARY_VAL"));
+                assertEquals(factors[configuration[1]], rs.getDouble("SECONDARY_VAL"));
+                assertEquals(factors[configuration[2]], rs.getDouble("OTHERS_VAL"));
+            }
+            assertFalse(rs.next());
+        }
+        try (Statement st = connection.createStatement();
+             ResultSet rs = st.executeQuery("SELECT COUNT(*) FROM BEST_CONFIGURATIONS")) {
+            assertTrue(rs.next());
+            assertEquals(6, rs.getInt(1));
+        }
+    }
+}
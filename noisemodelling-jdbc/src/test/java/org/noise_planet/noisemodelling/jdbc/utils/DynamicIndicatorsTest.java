@@ -0,0 +1,126 @@
+/**
+ * NoiseModelling is a library capable of producing noise maps. It can be freely used either for research and education, as well as by experts in a professional use.
+ * <p>
+ * NoiseModelling is distributed under GPL 3 license. You can read a copy of this License in the file LICENCE provided with this software.
+ * <p>
+ * Official webpage : http://noise-planet.org/noisemodelling.html
+ * Contact: contact@noise-planet.org
+ */
+
+package org.noise_planet.noisemodelling.jdbc.utils;
+
+import org.h2gis.functions.factory.H2GISDBFactory;
+import org.h2gis.utilities.JDBCUtilities;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DynamicIndicatorsTest {
+
+    private Connection connection;
+
+    @BeforeEach
+    public void tearUp() throws Exception {
+        connection = JDBCUtilities.wrapConnection(H2GISDBFactory.createSpatialDataBase(
+                DynamicIndicatorsTest.class.getSimpleName(), true, ""));
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        if (connection != null) {
+            connection.close();
+        }
+    }
+
+    @Test
+    public void testPercentile() {
+        DynamicIndicators.LevelDistribution distribution = new DynamicIndicators.LevelDistribution(16,
+                new double[]{55});
+        for (double level : new double[]{60, 50, 40, 70}) {
+            distribution.add(level);
+        }
+        distribution.sort();
+        assertTrue(distribution.isExact());
+        assertEquals(55, distribution.getPercentile(0.5), 1e-9);
+        assertEquals(67, distribution.getPercentile(0.9), 1e-9);
+        assertEquals(43, distribution.getPercentile(0.1), 1e-9);
+        assertEquals(10 * Math.log10((1e6 + 1e5 + 1e4 + 1e7) / 4), distribution.getLeq(), 1e-9);
+        assertArrayEquals(new int[]{2}, distribution.getExceedanceCount());
+    }
+
+    @Test
+    public void testHistogram() {
+        Random random = new Random(42);
+        DynamicIndicators.LevelDistribution exact = new DynamicIndicators.LevelDistribution(10000, new double[0]);
+        DynamicIndicators.LevelDistribution histogram = new DynamicIndicators.LevelDistribution(100, new double[0]);
+        for (int i = 0; i < 5000; i++) {
+            double level = 30 + random.nextDouble() * 50;
+            exact.add(level);
+            histogram.add(level);
+        }
+        exact.sort();
+        histogram.sort();
+        assertFalse(histogram.isExact());
+        for (double fraction : new double[]{0.1, 0.5, 0.9}) {
+            assertEquals(exact.getPercentile(fraction), histogram.getPercentile(fraction),
+                    DynamicIndicators.HISTOGRAM_RESOLUTION);
+        }
+        assertEquals(exact.getLeq(), histogram.getLeq(), 1e-9);
+    }
+
+    @Test
+    public void testComputeIndicators() throws SQLException {
+        Random random = new Random(42);
+        try (Statement st = connection.createStatement()) {
+            st.execute("CREATE TABLE LEVELS(PK SERIAL PRIMARY KEY, IDRECEIVER INTEGER, THE_GEOM GEOMETRY(POINTZ)," +
+                    " T INTEGER, LAEQ DOUBLE PRECISION)");
+        }
+        try (PreparedStatement ps = connection.prepareStatement("INSERT INTO LEVELS(IDRECEIVER, THE_GEOM, T, LAEQ)" +
+                " VALUES (?, ST_MAKEPOINT(?, 0, 4), ?, ?)")) {
+            for (int t = 0; t < 60; t++) {
+                for (int idReceiver = 1; idReceiver <= 50; idReceiver++) {
+                    ps.setInt(1, idReceiver);
+                    ps.setInt(2, idReceiver);
+                    ps.setInt(3, t);
+                    ps.setDouble(4, 40 + idReceiver * 0.2 + random.nextGaussian() * 5);
+                    ps.addBatch();
+                }
+            }
+            ps.executeBatch();
+        }
+        DynamicIndicators dynamicIndicators = new DynamicIndicators("IDRECEIVER", "LAEQ");
+        dynamicIndicators.setBatchSize(7);
+        dynamicIndicators.setThreadCount(3);
+        dynamicIndicators.setExceedanceThresholds(50);
+        assertEquals(50, dynamicIndicators.computeIndicators(connection, "LEVELS", "LEVELS_DYN_IND"));
+        int receiverCount = 0;
+        try (Statement st = connection.createStatement();
+             ResultSet rs = st.executeQuery("SELECT D.*, R.* FROM LEVELS_DYN_IND D, (SELECT IDRECEIVER ID," +
+                     " COUNT(*) CPT, COUNT(CASE WHEN LAEQ > 50 THEN 1 END) N50," +
+                     " 10 * LOG10(AVG(POWER(10, LAEQ / 10))) REF_LEQ, MEDIAN(LAEQ) REF_L50," +
+                     " PERCENTILE_CONT(0.9) WITHIN GROUP (ORDER BY LAEQ) REF_L10," +
+                     " PERCENTILE_CONT(0.1) WITHIN GROUP (ORDER BY LAEQ) REF_L90" +
+                     " FROM LEVELS GROUP BY IDRECEIVER) R WHERE D.IDRECEIVER = R.ID")) {
+            while (rs.next()) {
+                receiverCount++;
+                assertNotNull(rs.getObject("THE_GEOM"));
+                assertEquals(rs.getInt("CPT"), rs.getInt("SAMPLES"));
+                assertEquals(rs.getInt("N50"), rs.getInt(DynamicIndicators.getExceedanceColumnName(50)));
+                assertEquals(rs.getDouble("REF_LEQ"), rs.getDouble("LEQ"), 1e-6);
+                assertEquals(rs.getDouble("REF_L10"), rs.getDouble("L10"), 1e-6);
+                assertEquals(rs.getDouble("REF_L50"), rs.getDouble("L50"), 1e-6);
+                assertEquals(rs.getDouble("REF_L90"), rs.getDouble("L90"), 1e-6);
+            }
+        }
+        assertEquals(50, receiverCount);
+    }
+}
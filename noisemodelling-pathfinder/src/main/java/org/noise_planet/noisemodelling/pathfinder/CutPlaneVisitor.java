@@ -38,6 +38,24 @@ public interface CutPlaneVisitor {
      */
     void startReceiver(PathFinder.ReceiverPointInfo receiver, Collection<PathFinder.SourcePointInfo> sourceList, AtomicInteger cutProfileCount);
 
+    /**
+     * Called before looking for the vertical cut planes of a reflection or lateral diffraction path. The arguments
+     * give an upper bound of the energy of the path, so the visitor can skip the computation of paths that cannot
+     * change significantly the noise level at the receiver.
+     *
+     * @param source       Source information
+     * @param receiver     Receiver information
+     * @param pathLength   Lower bound of the length of the path in meters
+     * @param energyRatio  Upper bound of the energy ratio (0-1) kept by the path for each frequency band, on top of
+     *                     the geometric spreading and the atmospheric absorption (reflection on absorbing walls,
+     *                     minimal diffraction). The array is reused by the caller and must not be kept.
+     * @return False to skip this path
+     */
+    default boolean acceptPath(PathFinder.SourcePointInfo source, PathFinder.ReceiverPointInfo receiver,
+                               double pathLength, double[] energyRatio) {
+        return true;
+    }
+
     enum PathSearchStrategy {
         /**
          * Continue looking for vertical cut planes
@@ -15,7 +15,6 @@ import org.h2gis.api.EmptyProgressVisitor;
 import org.h2gis.api.ProgressVisitor;
 import org.locationtech.jts.algorithm.*;
 import org.locationtech.jts.geom.*;
-import org.locationtech.jts.geom.impl.CoordinateArraySequenceFactory;
 import org.locationtech.jts.io.WKTWriter;
 import org.locationtech.jts.math.Vector3D;
 import org.locationtech.jts.triangulate.quadedge.Vertex;
@@ -25,6 +24,7 @@ import org.noise_planet.noisemodelling.pathfinder.path.MirrorReceiversCompute;
 import org.noise_planet.noisemodelling.pathfinder.path.MirrorReceiver;
 import org.noise_planet.noisemodelling.pathfinder.profilebuilder.*;
 import org.noise_planet.noisemodelling.pathfinder.utils.geometry.CurvedProfileGenerator;
+import org.noise_planet.noisemodelling.pathfinder.utils.geometry.IncrementalSideHull;
 import org.noise_planet.noisemodelling.pathfinder.utils.geometry.Orientation;
 import org.noise_planet.noisemodelling.pathfinder.utils.geometry.JTSUtility;
 import org.noise_planet.noisemodelling.pathfinder.utils.geometry.QueryRTree;
@@ -38,6 +38,7 @@ import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
 
 import static java.lang.Double.isNaN;
 import static java.lang.Math.*;
@@ -54,6 +55,10 @@ public class PathFinder {
     private static final double NAVIGATION_POINT_DISTANCE_FROM_WALLS = ProfileBuilder.MILLIMETER;
     private static final double epsilon = 1e-7;
     private static final double MAX_RATIO_HULL_DIRECT_PATH = 4;
+    /** Receivers count under which the altitude of the receivers is computed by a single thread */
+    private static final int MINIMUM_DRAPING_BATCH_SIZE = 5000;
+    /** Number of cells on each axis of the grid used to sort the receivers along a Z-order curve */
+    private static final double Z_ORDER_RESOLUTION = 65535;
     public static final Logger LOGGER = LoggerFactory.getLogger(PathFinder.class);
     /** Progression information */
     public ProgressVisitor progressVisitor;
@@ -68,6 +73,10 @@ public class PathFinder {
 
     /** Number of thread used for ray computation. */
     private int threadCount ;
+    /** Receivers at the same x,y location share the computation that does not depend on the altitude */
+    private boolean groupStackedReceivers = false;
+    /** Radius of the receivers horizon map, 0 to disable */
+    private double horizonRadius = 0;
     private ProfilerThread profilerThread;
 
     /**
@@ -116,6 +125,56 @@ public class PathFinder {
         this.threadCount = threadCount;
     }
 
+    /**
+     * @return True if the receivers at the same x,y location (building facade floors) are processed together in
+     * order to share the computation that does not depend on the receiver altitude
+     */
+    public boolean isGroupStackedReceivers() {
+        return groupStackedReceivers;
+    }
+
+    /**
+     * @param groupStackedReceivers True to process together the receivers at the same x,y location (building facade
+     *                              floors) in order to share the computation that does not depend on the receiver
+     *                              altitude. The receivers are not processed in the order of the receivers list.
+     */
+    public void setGroupStackedReceivers(boolean groupStackedReceivers) {
+        this.groupStackedReceivers = groupStackedReceivers;
+    }
+
+    /**
+     * @return Radius of the receivers horizon map used to skip the obstructed direct paths, 0 if disabled
+     */
+    public double getHorizonRadius() {
+        return horizonRadius;
+    }
+
+    /**
+     * When the vertical diffraction is disabled the obstructed direct paths are not used. With this option an angular
+     * horizon of the walls and topography is built for each receiver, the sources that are certainly hidden by
+     * the horizon are not processed with a full cut profile.
+     * @param horizonRadius Obstacles are fetched up to this distance from the receiver, 0 to disable
+     */
+    public void setHorizonRadius(double horizonRadius) {
+        this.horizonRadius = horizonRadius;
+    }
+
+    /**
+     * @param receivers Receivers locations
+     * @return Receivers indexes sorted by x then y so that the receivers at the same x,y location are consecutive
+     */
+    static int[] sortReceiversByPlanimetricPosition(List<Coordinate> receivers) {
+        return IntStream.range(0, receivers.size()).boxed().sorted((a, b) -> {
+            Coordinate ca = receivers.get(a);
+            Coordinate cb = receivers.get(b);
+            int cmp = Double.compare(ca.x, cb.x);
+            if (cmp == 0) {
+                cmp = Double.compare(ca.y, cb.y);
+            }
+            return cmp != 0 ? cmp : Integer.compare(a, b);
+        }).mapToInt(Integer::intValue).toArray();
+    }
+
     /**
      * Run computation and store the results in the given output.
      * @param computeRaysOut Result output.
@@ -127,14 +186,23 @@ public class PathFinder {
         //Launch execution of computation by batch
         List<Future<Boolean>> tasks = new ArrayList<>();
         ProgressVisitor cellProgress = progressVisitor == null ? new EmptyProgressVisitor() : progressVisitor.subProcess(data.receivers.size());
+        int[] receiverOrder = groupStackedReceivers ? sortReceiversByPlanimetricPosition(data.receivers) : null;
         while (endReceiverRange < data.receivers.size()) {
             //Break if the progress visitor is cancelled
             if (cellProgress.isCanceled()) {
                 break;
             }
             int newEndReceiver = min(endReceiverRange + maximumReceiverBatch, data.receivers.size());
+            if(receiverOrder != null) {
+                // do not split the receivers of the same x,y location in two batches
+                while (newEndReceiver < data.receivers.size() &&
+                        data.receivers.get(receiverOrder[newEndReceiver]).equals2D(
+                                data.receivers.get(receiverOrder[newEndReceiver - 1]))) {
+                    newEndReceiver++;
+                }
+            }
             ThreadPathFinder batchThread = new ThreadPathFinder(endReceiverRange, newEndReceiver,
-                    this, cellProgress, computeRaysOut.subProcess(cellProgress), data);
+                    this, cellProgress, computeRaysOut.subProcess(cellProgress), data, receiverOrder);
             if (threadCount != 1) {
                 tasks.add(threadManager.submitBlocking(batchThread));
             } else {
@@ -173,6 +241,18 @@ public class PathFinder {
      * @param visitor Progress visitor used for cancellation and progression managing.
      */
     public void computeRaysAtPosition(ReceiverPointInfo receiverPointInfo, CutPlaneVisitor dataOut, ProgressVisitor visitor) {
+        computeRaysAtPosition(receiverPointInfo, dataOut, visitor, null);
+    }
+
+    /**
+     * Compute the rays to the given receiver.
+     * @param receiverPointInfo     Receiver point.
+     * @param dataOut Computation output.
+     * @param visitor Progress visitor used for cancellation and progression managing.
+     * @param stackCache Computation shared with the previous receivers at the same x,y location, null to disable
+     */
+    public void computeRaysAtPosition(ReceiverPointInfo receiverPointInfo, CutPlaneVisitor dataOut,
+                                      ProgressVisitor visitor, ReceiverStackCache stackCache) {
 
         long start = 0;
         if(profilerThread != null) {
@@ -180,14 +260,25 @@ public class PathFinder {
         }
 
         MirrorReceiversCompute receiverMirrorIndex = null;
+        if(stackCache != null) {
+            stackCache.moveTo(receiverPointInfo.position);
+        }
 
         long reflectionPreprocessTime = 0;
         if(data.reflexionOrder > 0) {
-            Envelope receiverPropagationEnvelope = new Envelope(receiverPointInfo.getCoordinates());
-            receiverPropagationEnvelope.expandBy(data.maxSrcDist);
-            List<Wall> buildWalls = data.profileBuilder.getWallsIn(receiverPropagationEnvelope);
-            receiverMirrorIndex = new MirrorReceiversCompute(buildWalls, receiverPointInfo.position, data.reflexionOrder,
-                    data.maxSrcDist, data.maxRefDist);
+            if(stackCache != null && stackCache.mirrorReceivers != null) {
+                // receiver images are the same for all the floors, only the altitude change
+                receiverMirrorIndex = new MirrorReceiversCompute(stackCache.mirrorReceivers, receiverPointInfo.position);
+            } else {
+                Envelope receiverPropagationEnvelope = new Envelope(receiverPointInfo.getCoordinates());
+                receiverPropagationEnvelope.expandBy(data.maxSrcDist);
+                List<Wall> buildWalls = data.profileBuilder.getWallsIn(receiverPropagationEnvelope);
+                receiverMirrorIndex = new MirrorReceiversCompute(buildWalls, receiverPointInfo.position,
+                        data.reflexionOrder, data.maxSrcDist, data.maxRefDist);
+                if(stackCache != null) {
+                    stackCache.mirrorReceivers = receiverMirrorIndex;
+                }
+            }
             if(profilerThread != null) {
                 reflectionPreprocessTime = TimeUnit.MILLISECONDS.convert(System.nanoTime() - start,
                         TimeUnit.NANOSECONDS);
@@ -199,49 +290,58 @@ public class PathFinder {
         if(profilerThread != null) {
             startSourceCollect = System.nanoTime();
         }
-        //Compute the source search area
-        double searchSourceDistance = data.maxSrcDist;
-        Envelope receiverSourceRegion = new Envelope(receiverPointInfo.getCoordinates());
-        receiverSourceRegion.expandBy(searchSourceDistance);
-
-        Iterator<Integer> regionSourcesLst = data.sourcesIndex.query(receiverSourceRegion);
+        List<Integer> sourceCandidates = stackCache != null ? stackCache.sourceCandidates : null;
+        if(sourceCandidates == null) {
+            //Compute the source search area
+            double searchSourceDistance = data.maxSrcDist;
+            Envelope receiverSourceRegion = new Envelope(receiverPointInfo.getCoordinates());
+            receiverSourceRegion.expandBy(searchSourceDistance);
+
+            Iterator<Integer> regionSourcesLst = data.sourcesIndex.query(receiverSourceRegion);
+            sourceCandidates = new ArrayList<>();
+            //Already processed Raw source (line and/or points)
+            HashSet<Integer> processedLineSources = new HashSet<>();
+            while (regionSourcesLst.hasNext()) {
+                Integer srcIndex = regionSourcesLst.next();
+                if (processedLineSources.add(srcIndex)) {
+                    sourceCandidates.add(srcIndex);
+                }
+            }
+            if(stackCache != null) {
+                stackCache.sourceCandidates = sourceCandidates;
+            }
+        }
         List<SourcePointInfo> sourceList = new ArrayList<>();
-        //Already processed Raw source (line and/or points)
-        HashSet<Integer> processedLineSources = new HashSet<>();
-        while (regionSourcesLst.hasNext()) {
-            Integer srcIndex = regionSourcesLst.next();
-            if (!processedLineSources.contains(srcIndex)) {
-                processedLineSources.add(srcIndex);
-                Geometry source = data.sourceGeometries.get(srcIndex);
-                if (source instanceof Point) {
-                    Coordinate ptpos = source.getCoordinate();
-                    if (ptpos.distance(receiverPointInfo.getCoordinates()) < data.maxSrcDist) {
-                        Orientation orientation = null;
-                        if(data.sourcesPk.size() > srcIndex) {
-                            orientation = data.sourceOrientation.get(data.sourcesPk.get(srcIndex));
-                        }
-                        if(orientation == null) {
-                            orientation = new Orientation(0,0, 0);
-                        }
-                        long sourcePk = srcIndex;
-                        if(srcIndex < data.sourcesPk.size()) {
-                            sourcePk = data.sourcesPk.get(srcIndex);
-                        }
-                        sourceList.add(new SourcePointInfo(srcIndex, sourcePk, ptpos, 1., orientation));
+        for (Integer srcIndex : sourceCandidates) {
+            Geometry source = data.sourceGeometries.get(srcIndex);
+            if (source instanceof Point) {
+                Coordinate ptpos = source.getCoordinate();
+                if (ptpos.distance(receiverPointInfo.getCoordinates()) < data.maxSrcDist) {
+                    Orientation orientation = null;
+                    if(data.sourcesPk.size() > srcIndex) {
+                        orientation = data.sourceOrientation.get(data.sourcesPk.get(srcIndex));
                     }
-                } else if (source instanceof LineString) {
-                    addLineSource((LineString) source, receiverPointInfo.getCoordinates(), srcIndex, sourceList);
-                } else if (source instanceof MultiLineString) {
-                    for (int id = 0; id < source.getNumGeometries(); id++) {
-                        Geometry subGeom = source.getGeometryN(id);
-                        if (subGeom instanceof LineString) {
-                            addLineSource((LineString) subGeom, receiverPointInfo.getCoordinates(), srcIndex, sourceList);
-                        }
+                    if(orientation == null) {
+                        orientation = new Orientation(0,0, 0);
+                    }
+                    long sourcePk = srcIndex;
+                    if(srcIndex < data.sourcesPk.size()) {
+                        sourcePk = data.sourcesPk.get(srcIndex);
+                    }
+                    sourceList.add(new SourcePointInfo(srcIndex, sourcePk, ptpos, 1., orientation));
+                }
+            } else if (source instanceof LineString) {
+                addLineSource((LineString) source, receiverPointInfo.getCoordinates(), srcIndex, sourceList);
+            } else if (source instanceof MultiLineString) {
+                for (int id = 0; id < source.getNumGeometries(); id++) {
+                    Geometry subGeom = source.getGeometryN(id);
+                    if (subGeom instanceof LineString) {
+                        addLineSource((LineString) subGeom, receiverPointInfo.getCoordinates(), srcIndex, sourceList);
                     }
-                } else {
-                    throw new IllegalArgumentException(
-                            String.format("Sound source %s geometry are not supported", source.getGeometryType()));
                 }
+            } else {
+                throw new IllegalArgumentException(
+                        String.format("Sound source %s geometry are not supported", source.getGeometryType()));
             }
         }
         // Sort sources by power contribution descending
@@ -257,10 +357,16 @@ public class PathFinder {
             sourceCollectTime = TimeUnit.MILLISECONDS.convert(System.nanoTime() - startSourceCollect, TimeUnit.NANOSECONDS);
         }
 
+        ReceiverHorizon horizon = null;
+        if(horizonRadius > 0 && !data.computeVerticalDiffraction && !sourceList.isEmpty()) {
+            horizon = new ReceiverHorizon(data.profileBuilder, receiverPointInfo.position, horizonRadius);
+        }
+
         AtomicInteger processedSources = new AtomicInteger(0);
         // For each Pt Source - Pt Receiver
         for (SourcePointInfo sourcePointInfo : sourceList) {
-            CutPlaneVisitor.PathSearchStrategy strategy = rcvSrcPropagation(sourcePointInfo, receiverPointInfo, dataOut, receiverMirrorIndex);
+            CutPlaneVisitor.PathSearchStrategy strategy = rcvSrcPropagation(sourcePointInfo, receiverPointInfo, dataOut,
+                    receiverMirrorIndex, stackCache, horizon);
             processedSources.addAndGet(1);
             // If the delta between already received power and maximal potential power received is inferior to data.maximumError
             if ((visitor != null && visitor.isCanceled()) ||
@@ -296,13 +402,15 @@ public class PathFinder {
     private CutPlaneVisitor.PathSearchStrategy rcvSrcPropagation(SourcePointInfo src,
                                                                  ReceiverPointInfo rcv,
                                                                  CutPlaneVisitor dataOut,
-                                                                 MirrorReceiversCompute receiverMirrorIndex) {
+                                                                 MirrorReceiversCompute receiverMirrorIndex,
+                                                                 ReceiverStackCache stackCache,
+                                                                 ReceiverHorizon horizon) {
         CutPlaneVisitor.PathSearchStrategy strategy = CutPlaneVisitor.PathSearchStrategy.CONTINUE;
         double propaDistance = src.getCoord().distance(rcv.getCoordinates());
         if (propaDistance < data.maxSrcDist) {
             // Process direct : horizontal and vertical diff
             strategy = directPath(src, rcv, data.computeVerticalDiffraction,
-                    data.computeHorizontalDiffraction, dataOut);
+                    data.computeHorizontalDiffraction, dataOut, stackCache, horizon);
             if(strategy.equals(CutPlaneVisitor.PathSearchStrategy.SKIP_SOURCE) ||
                     strategy.equals(CutPlaneVisitor.PathSearchStrategy.SKIP_RECEIVER)) {
                 return strategy;
@@ -326,42 +434,103 @@ public class PathFinder {
     public CutPlaneVisitor.PathSearchStrategy directPath(SourcePointInfo src, ReceiverPointInfo rcv,
                                                          boolean verticalDiffraction, boolean horizontalDiffraction,
                                                          CutPlaneVisitor dataOut) {
+        return directPath(src, rcv, verticalDiffraction, horizontalDiffraction, dataOut, null);
+    }
+
+    /**
+     * Direct Path computation.
+     * @param src Source point coordinate.
+     * @param rcv Receiver point coordinate.
+     * @param verticalDiffraction Enable vertical diffraction
+     * @param horizontalDiffraction Enable horizontal diffraction
+     * @param stackCache Computation shared with the receivers at the same x,y location, null to disable
+     * @return Calculated propagation paths.
+     */
+    public CutPlaneVisitor.PathSearchStrategy directPath(SourcePointInfo src, ReceiverPointInfo rcv,
+                                                         boolean verticalDiffraction, boolean horizontalDiffraction,
+                                                         CutPlaneVisitor dataOut, ReceiverStackCache stackCache) {
+        return directPath(src, rcv, verticalDiffraction, horizontalDiffraction, dataOut, stackCache, null);
+    }
+
+    /**
+     * Direct Path computation.
+     * @param src Source point coordinate.
+     * @param rcv Receiver point coordinate.
+     * @param verticalDiffraction Enable vertical diffraction
+     * @param horizontalDiffraction Enable horizontal diffraction
+     * @param stackCache Computation shared with the receivers at the same x,y location, null to disable
+     * @param horizon Horizon of the receiver, used only if the vertical diffraction is disabled. Can be null.
+     * @return Calculated propagation paths.
+     */
+    public CutPlaneVisitor.PathSearchStrategy directPath(SourcePointInfo src, ReceiverPointInfo rcv,
+                                                         boolean verticalDiffraction, boolean horizontalDiffraction,
+                                                         CutPlaneVisitor dataOut, ReceiverStackCache stackCache,
+                                                         ReceiverHorizon horizon) {
 
         CutPlaneVisitor.PathSearchStrategy strategy = CutPlaneVisitor.PathSearchStrategy.CONTINUE;
 
-        CutProfile cutProfile = data.profileBuilder.getProfile(src.position, rcv.position, data.defaultGroundAttenuation, !verticalDiffraction);
-        if(cutProfile.getSource() != null) {
-            cutProfile.getSource().id = src.getSourceIndex();
-            cutProfile.getSource().li = src.li;
-            cutProfile.getSource().orientation = src.getOrientation();
-            if(src.sourceIndex >= 0 && src.sourceIndex < data.sourcesPk.size()) {
-                cutProfile.getSource().sourcePk = data.sourcesPk.get(src.getSourceIndex());
+        // The obstructed direct path is not used without vertical diffraction, skip the cut profile
+        boolean freeField = false;
+        if(verticalDiffraction || horizon == null || !horizon.isObstructed(src.position)) {
+            CutProfile cutProfile;
+            if(stackCache != null) {
+                // Obstructed profiles are ignored when the vertical diffraction is disabled, so the full profile can be used
+                cutProfile = stackCache.getProfile(data.profileBuilder, src.position, rcv.position,
+                        data.defaultGroundAttenuation);
+            } else {
+                cutProfile = data.profileBuilder.getProfile(src.position, rcv.position, data.defaultGroundAttenuation,
+                        !verticalDiffraction);
+            }
+            if(cutProfile.getSource() != null) {
+                cutProfile.getSource().id = src.getSourceIndex();
+                cutProfile.getSource().li = src.li;
+                cutProfile.getSource().orientation = src.getOrientation();
+                if(src.sourceIndex >= 0 && src.sourceIndex < data.sourcesPk.size()) {
+                    cutProfile.getSource().sourcePk = data.sourcesPk.get(src.getSourceIndex());
+                }
             }
-        }
 
-        if(cutProfile.getReceiver() != null) {
-            cutProfile.getReceiver().id = rcv.getId();
-            cutProfile.getReceiver().receiverPk = rcv.receiverPk;
-        }
+            if(cutProfile.getReceiver() != null) {
+                cutProfile.getReceiver().id = rcv.getId();
+                cutProfile.getReceiver().receiverPk = rcv.receiverPk;
+            }
 
 
-        if(verticalDiffraction || cutProfile.isFreeField()) {
-            strategy = dataOut.onNewCutPlane(cutProfile);
-            if(strategy.equals(CutPlaneVisitor.PathSearchStrategy.SKIP_SOURCE) ||
-                    strategy.equals(CutPlaneVisitor.PathSearchStrategy.SKIP_RECEIVER)) {
-                return strategy;
+            if(verticalDiffraction || cutProfile.isFreeField()) {
+                strategy = dataOut.onNewCutPlane(cutProfile);
+                if(strategy.equals(CutPlaneVisitor.PathSearchStrategy.SKIP_SOURCE) ||
+                        strategy.equals(CutPlaneVisitor.PathSearchStrategy.SKIP_RECEIVER)) {
+                    return strategy;
+                }
             }
+
+            // do not do horizontal plane diffraction if there is no obstacles between source and receiver
+            // ISO/TR 17534-4:2020
+            // "As a general principle, lateral diffraction is considered only if the direct line of sight
+            // between source and receiver is blocked and does not penetrate the terrain profile.
+            // In addition, the source must not be a mirror source due to reflection"
+            freeField = cutProfile.isFreeField();
         }
 
-        // do not do horizontal plane diffraction if there is no obstacles between source and receiver
-        // ISO/TR 17534-4:2020
-        // "As a general principle, lateral diffraction is considered only if the direct line of sight
-        // between source and receiver is blocked and does not penetrate the terrain profile.
-        // In addition, the source must not be a mirror source due to reflection"
-        if (horizontalDiffraction && !cutProfile.isFreeField()) {
+        if (horizontalDiffraction && !freeField) {
+            // Each side is an independent path, the visitor accounts for each skipped side
+            PathFinder.ComputationSide[] sides = PathFinder.ComputationSide.values();
+            boolean[] acceptedSides = new boolean[sides.length];
+            double[] energyRatio = lateralDiffractionEnergyRatio();
+            for(PathFinder.ComputationSide side : sides) {
+                acceptedSides[side.ordinal()] = dataOut.acceptPath(src, rcv, src.position.distance(rcv.position),
+                        energyRatio);
+            }
             for(boolean curved : new boolean[]{false, true}) {
-                for(PathFinder.ComputationSide side : PathFinder.ComputationSide.values()) {
-                    CutProfile cutProfileSide = computeVEdgeDiffraction(rcv, src, data, side, curved);
+                // The cut of the buildings by the source-receiver plane is the same on both sides
+                BuildingIntersectionPathVisitor.CutRoofPointsCache cutRoofPointsCache =
+                        new BuildingIntersectionPathVisitor.CutRoofPointsCache();
+                for(PathFinder.ComputationSide side : sides) {
+                    if(!acceptedSides[side.ordinal()]) {
+                        continue;
+                    }
+                    CutProfile cutProfileSide = computeVEdgeDiffraction(rcv, src, data, side, curved,
+                            cutRoofPointsCache);
                     if (cutProfileSide != null) {
                         strategy = dataOut.onNewCutPlane(cutProfileSide);
                         if(strategy.equals(CutPlaneVisitor.PathSearchStrategy.SKIP_SOURCE) ||
@@ -386,9 +555,25 @@ public class PathFinder {
      */
     public CutProfile computeVEdgeDiffraction(ReceiverPointInfo rcv, SourcePointInfo src,
                                                Scene data, ComputationSide side, boolean curved) {
+        return computeVEdgeDiffraction(rcv, src, data, side, curved, null);
+    }
+
+    /**
+     * Compute horizontal diffraction (diffraction of vertical edge.)
+     * @param rcv Receiver coordinates.
+     * @param src Source coordinates.
+     * @param data     Propagation data.
+     * @param side     Side to compute. From Source to receiver coordinates
+     * @param curved Used the curved coordinate system between source and receiver
+     * @param cutRoofPointsCache Cut of the buildings shared between the left and right side computation. Can be null.
+     * @return The propagation path of the horizontal diffraction.
+     */
+    public CutProfile computeVEdgeDiffraction(ReceiverPointInfo rcv, SourcePointInfo src,
+                                               Scene data, ComputationSide side, boolean curved,
+                                               BuildingIntersectionPathVisitor.CutRoofPointsCache cutRoofPointsCache) {
 
         List<Coordinate> coordinates = computeSideHull(side == LEFT, new Coordinate(src.position),
-                new Coordinate(rcv.position), curved);
+                new Coordinate(rcv.position), curved, cutRoofPointsCache);
 
         List<CutPoint> cutPoints = new ArrayList<>();
 
@@ -476,24 +661,31 @@ public class PathFinder {
      * @return Intersection points between the plane formed by p1 and p2 and the buildings walls
      */
     public List<Coordinate> computeSideHull(boolean left, Coordinate p1, Coordinate p2, boolean curved) {
+        return computeSideHull(left, p1, p2, curved, null);
+    }
+
+    /**
+     * Compute Side Hull
+     * Create a line between p1 and p2. Find the first intersection of this line with a building then create a ConvexHull
+     * with the points of buildings in intersection. While there is an intersection add more points to the convex hull.
+     * The side diffraction path is found when there is no more intersection.
+     *
+     * @param left If true return the path on the left side between p1 and p2; else on the right side
+     * @param p1   First point
+     * @param p2   Second point
+     * @param curved Used the curved coordinate system between p1 and p2 (favourable conditions in CNOSSOS)
+     * @param cutRoofPointsCache Cut of the buildings by the p1 p2 plane, shared with the computation of the other side.
+     *                           Can be null.
+     * @return Intersection points between the plane formed by p1 and p2 and the buildings walls
+     */
+    public List<Coordinate> computeSideHull(boolean left, Coordinate p1, Coordinate p2, boolean curved,
+                                            BuildingIntersectionPathVisitor.CutRoofPointsCache cutRoofPointsCache) {
         if (p1.equals(p2)) {
             return new ArrayList<>();
         }
 
-        // Intersection test cache
-        Set<LineSegment> freeFieldSegments = new HashSet<>();
-
         List<Coordinate> input = new ArrayList<>();
 
-        Coordinate[] coordinates = new Coordinate[0];
-        int indexp1 = 0;
-        int indexp2 = 0;
-
-        boolean convexHullIntersects = true;
-
-        input.add(p1);
-        input.add(p2);
-
         Plane cutPlane = computeZeroRadPlane(p1, p2);
 
         BuildingIntersectionPathVisitor buildingIntersectionPathVisitor = new BuildingIntersectionPathVisitor(p1, p2, left,
@@ -502,94 +694,55 @@ public class PathFinder {
         // The roof vertices of buildings will be moved downward if the curved coordinate system is used
         // This will return the altered cut plane intersection coordinates, so the coordinate must be restored before returning it
         buildingIntersectionPathVisitor.setCurved(curved);
+        buildingIntersectionPathVisitor.setCutRoofPointsCache(cutRoofPointsCache);
 
         data.profileBuilder.getWallsOnPath(p1, p2, buildingIntersectionPathVisitor);
 
-        int k;
-        while (convexHullIntersects) {
-            ConvexHull convexHull = new ConvexHull(input.toArray(new Coordinate[0]), GEOMETRY_FACTORY);
-            Geometry convexhull = convexHull.getConvexHull();
-
-            coordinates = convexhull.getCoordinates();
-            // for the length we do not count the return ray from receiver to source (closed polygon here)
-            double convexHullLength = Length.ofLine(
-                    CoordinateArraySequenceFactory.instance()
-                            .create(Arrays.copyOfRange(coordinates, 0, coordinates.length - 1)));
-            if (convexHullLength / p1.distance(p2) > MAX_RATIO_HULL_DIRECT_PATH ||
-                    convexHullLength >= data.maxSrcDist) {
-                return new ArrayList<>();
+        // Convex chain from p1 to p2, only the new edges are tested against the buildings
+        IncrementalSideHull hull = new IncrementalSideHull(p1, p2, left);
+        double directDistance = p1.distance(p2);
+        while (!input.isEmpty()) {
+            for (Coordinate coordinate : input) {
+                hull.add(coordinate);
             }
-
-            convexHullIntersects = false;
-
             input.clear();
-            input.addAll(Arrays.asList(coordinates));
-
-            indexp1 = -1;
-            for (int i = 0; i < coordinates.length - 1; i++) {
-                if (coordinates[i].equals(p1)) {
-                    indexp1 = i;
-                    break;
-                }
-            }
-            if (indexp1 == -1) {
-                // P1 does not belong to convex vertices, cannot compute diffraction
-                // TODO handle concave path
-                return new ArrayList<>();
-            }
-            // Transform array to set p1 at index=0
-            Coordinate[] coordinatesShifted = new Coordinate[coordinates.length];
-            // Copy from P1 to end in beginning of new array
-            int len = (coordinates.length - 1) - indexp1;
-            System.arraycopy(coordinates, indexp1, coordinatesShifted, 0, len);
-            // Copy from 0 to P1 in the end of array
-            System.arraycopy(coordinates, 0, coordinatesShifted, len, coordinates.length - len - 1);
-            coordinatesShifted[coordinatesShifted.length - 1] = coordinatesShifted[0];
-            coordinates = coordinatesShifted;
-            indexp1 = 0;
-            indexp2 = -1;
-            for (int i = 1; i < coordinates.length - 1; i++) {
-                if (coordinates[i].equals(p2)) {
-                    indexp2 = i;
-                    break;
-                }
+            if (hull.getVertexCount() == 2) {
+                // no obstacles on this side
+                break;
             }
-            if (indexp2 == -1) {
-                // P2 does not belong to convex vertices, cannot compute diffraction
-                // TODO handle concave path
+            // for the length we do not count the return ray from receiver to source (closed polygon here)
+            double convexHullLength = hull.getHullLength();
+            if (convexHullLength / directDistance > MAX_RATIO_HULL_DIRECT_PATH ||
+                    convexHullLength >= data.maxSrcDist) {
                 return new ArrayList<>();
             }
-            for (k = 0; k < coordinates.length - 1; k++) {
-                LineSegment freeFieldTestSegment = new LineSegment(coordinates[k], coordinates[k + 1]);
-
-                // Ignore intersection if iterating over other side (not parts of what is returned)
-                if (left && k < indexp2 || !left && k >= indexp2) {
-                    if (!freeFieldSegments.contains(freeFieldTestSegment)) {
-
-                        int inputPointsBefore = input.size();
-
-                        // Visit buildings that are between the provided hull points
-                        data.profileBuilder.getWallsOnPath(coordinates[k], coordinates[k + 1], buildingIntersectionPathVisitor);
-
-                        if (inputPointsBefore == input.size()) {
-                            freeFieldSegments.add(freeFieldTestSegment);
-                        } else {
-                            convexHullIntersects = true;
-                            break;
-                        }
+            // Edges are visited from p1 to p2 on the left side and from p2 to p1 on the right side
+            int edgeCount = hull.getVertexCount() - 1;
+            for (int i = 0; i < edgeCount; i++) {
+                int edge = left ? i : edgeCount - 1 - i;
+                if (!hull.isEdgeFree(edge)) {
+                    // Visit buildings that are between the provided hull points
+                    if (left) {
+                        data.profileBuilder.getWallsOnPath(hull.getVertex(edge), hull.getVertex(edge + 1),
+                                buildingIntersectionPathVisitor);
+                    } else {
+                        data.profileBuilder.getWallsOnPath(hull.getVertex(edge + 1), hull.getVertex(edge),
+                                buildingIntersectionPathVisitor);
+                    }
+                    if (input.isEmpty()) {
+                        hull.setEdgeFree(edge);
+                    } else {
+                        break;
                     }
                 }
             }
         }
-
-        // restore coordinates order from source to receiver
-        if (left) {
-            return Arrays.asList(Arrays.copyOfRange(coordinates, indexp1, indexp2 + 1));
-        } else {
-            List<Coordinate> inversePath = Arrays.asList(Arrays.copyOfRange(coordinates, indexp2, coordinates.length));
-            Collections.reverse(inversePath);
-            return inversePath;
+        if (hull.getVertexCount() == 2) {
+            // P2 does not belong to convex vertices, cannot compute diffraction
+            return new ArrayList<>();
         }
+        // coordinates order is from source to receiver
+        return hull.getPath();
     }
 
     /**
@@ -682,6 +835,34 @@ public class PathFinder {
     }
 
 
+    /**
+     * @return Upper bound of the energy ratio kept by the lateral diffraction path of one side. The path is longer
+     * than the direct line so the CNOSSOS-EU diffraction attenuation is at least 10.log10(3) dB
+     */
+    private double[] lateralDiffractionEnergyRatio() {
+        double[] energyRatio = new double[data.profileBuilder.frequencyArray.size()];
+        Arrays.fill(energyRatio, 1 / 3.0);
+        return energyRatio;
+    }
+
+    /**
+     * @param mirrorReceiver Image of the receiver
+     * @param energyRatio Energy ratio kept after the reflections on the walls of the image and its parent images
+     * @return energyRatio
+     */
+    private static double[] reflectionEnergyRatio(MirrorReceiver mirrorReceiver, double[] energyRatio) {
+        Arrays.fill(energyRatio, 1.0);
+        for(MirrorReceiver cursor = mirrorReceiver; cursor != null; cursor = cursor.getParentMirror()) {
+            List<Double> alphas = cursor.getWall().getAlphas();
+            if(alphas.size() == energyRatio.length) {
+                for (int idFreq = 0; idFreq < energyRatio.length; idFreq++) {
+                    energyRatio[idFreq] *= 1 - alphas.get(idFreq);
+                }
+            }
+        }
+        return energyRatio;
+    }
+
     /**
      *
      * @param rcv Receiver data
@@ -699,8 +880,14 @@ public class PathFinder {
         LineIntersector linters = new RobustLineIntersector();
         //Keep only building walls which are not too far.
         List<MirrorReceiver> mirrorResults = receiverMirrorIndex.findCloseMirrorReceivers(src.position);
+        double[] energyRatio = new double[data.profileBuilder.frequencyArray.size()];
 
         for (MirrorReceiver receiverReflection : mirrorResults) {
+            // The path is longer than the distance between the source and the image of the receiver
+            if(!dataOut.acceptPath(src, rcv, src.position.distance(receiverReflection.getReceiverPos()),
+                    reflectionEnergyRatio(receiverReflection, energyRatio))) {
+                continue;
+            }
             Wall seg = receiverReflection.getWall();
             List<MirrorReceiver> rayPath = new ArrayList<>();
             MirrorReceiver receiverReflectionCursor = receiverReflection;
@@ -897,6 +1084,103 @@ public class PathFinder {
     }
 
 
+    /**
+     * Maximum length of a part of a line source that can be replaced by a single point source at its middle.
+     * The worst case is a segment aligned with the receiver, where the ratio between the exact energy
+     * (integral of 1/r² over the segment) and the energy of the middle point is 1 + s²/(4 d (d + s)),
+     * with d the distance between the receiver and the nearest point of the segment.
+     * @param minimumDistance Distance between the receiver and the nearest point of the segment
+     * @param maximumError Maximum error in dB on the geometric divergence
+     * @return Maximum segment length
+     */
+    public static double getMaximumFarFieldSegmentLength(double minimumDistance, double maximumError) {
+        if (minimumDistance <= 0 || maximumError <= 0) {
+            return 0;
+        }
+        double k = pow(10, maximumError / 10.0) - 1;
+        return 2 * minimumDistance * (k + sqrt(k * k + k));
+    }
+
+    /**
+     * Split the line source as {@link #splitLineStringIntoPoints(LineString, double, List)} then merge the consecutive
+     * points far from the receiver. The points are the leaves of a binary tree over the regular split, a node of the
+     * tree is kept as a single point source if its length respect
+     * {@link #getMaximumFarFieldSegmentLength(double, double)}.
+     * @param geom Line source geometry
+     * @param receiver Receiver position
+     * @param segmentSizeConstraint Maximal distance between points of the regular split
+     * @param maximumError Maximum error in dB on the geometric divergence
+     * @param pts (Out) computed points, ordered along the line
+     * @param pointsLength (Out) Length of the line source represented by each point (li)
+     */
+    public static void splitLineStringIntoClusteredPoints(LineString geom, Coordinate receiver,
+                                                          double segmentSizeConstraint, double maximumError,
+                                                          List<Coordinate> pts, List<Double> pointsLength) {
+        Coordinate[] points = geom.getCoordinates();
+        double[] cumulativeLength = new double[points.length];
+        for (int i = 1; i < points.length; i++) {
+            double length = points[i - 1].distance3D(points[i]);
+            if (isNaN(length)) {
+                length = points[i - 1].distance(points[i]);
+            }
+            cumulativeLength[i] = cumulativeLength[i - 1] + length;
+        }
+        double geomLength = cumulativeLength[points.length - 1];
+        if (geomLength < segmentSizeConstraint || maximumError <= 0) {
+            int firstPoint = pts.size();
+            double li = splitLineStringIntoPoints(geom, segmentSizeConstraint, pts);
+            for (int i = firstPoint; i < pts.size(); i++) {
+                pointsLength.add(li);
+            }
+            return;
+        }
+        int leafCount = (int) ceil(geomLength / segmentSizeConstraint);
+        double leafLength = geomLength / leafCount;
+        // depth first visit of the tree, right child pushed first so that points are ordered along the line
+        Deque<int[]> stack = new ArrayDeque<>();
+        stack.push(new int[]{0, leafCount});
+        while (!stack.isEmpty()) {
+            int[] node = stack.pop();
+            double nodeLength = (node[1] - node[0]) * leafLength;
+            Coordinate middle = interpolateAlongLine(points, cumulativeLength,
+                    (node[0] + node[1]) / 2.0 * leafLength);
+            double middleDistance = middle.distance3D(receiver);
+            if (isNaN(middleDistance)) {
+                middleDistance = middle.distance(receiver);
+            }
+            if (node[1] - node[0] == 1 ||
+                    nodeLength <= getMaximumFarFieldSegmentLength(middleDistance - nodeLength / 2, maximumError)) {
+                pts.add(middle);
+                pointsLength.add(nodeLength);
+            } else {
+                int split = (node[0] + node[1]) / 2;
+                stack.push(new int[]{split, node[1]});
+                stack.push(new int[]{node[0], split});
+            }
+        }
+    }
+
+    /**
+     * @param points Line coordinates
+     * @param cumulativeLength Length of the line from the first coordinate to each coordinate
+     * @param position Distance from the first coordinate
+     * @return Interpolated coordinate
+     */
+    private static Coordinate interpolateAlongLine(Coordinate[] points, double[] cumulativeLength, double position) {
+        int index = Arrays.binarySearch(cumulativeLength, position);
+        if (index >= 0) {
+            return new Coordinate(points[index]);
+        }
+        int next = min(points.length - 1, -index - 1);
+        int previous = next - 1;
+        Coordinate a = points[previous];
+        Coordinate b = points[next];
+        double segmentLength = cumulativeLength[next] - cumulativeLength[previous];
+        double fraction = segmentLength > 0 ? (position - cumulativeLength[previous]) / segmentLength : 0;
+        return new Coordinate(a.x + fraction * (b.x - a.x), a.y + fraction * (b.y - a.y),
+                a.z + fraction * (b.z - a.z));
+    }
+
     /**
      * Apply a linestring over the digital elevation model by offsetting the z value with the ground elevation.
      * @param lineString
@@ -948,38 +1232,50 @@ public class PathFinder {
         return GEOMETRY_FACTORY.createLineString(newGeomCoordinates.toArray(new Coordinate[0]));
     }
 
+    /**
+     * Offset the Z coordinates of a source geometry, relative to the ground, with the ground elevation. Line sources are
+     * split on the topography edges.
+     * @param source Source geometry with Z relative to the ground
+     * @param profileBuilder Topography and buildings
+     * @return Source geometry with Z absolute to sea level, null if the point source is inside a building
+     */
+    public static Geometry makeSourceGeometryAbsoluteZ(Geometry source, ProfileBuilder profileBuilder) {
+        if (source instanceof LineString) {
+            return splitLineSource((LineString) source, profileBuilder, ProfileBuilder.MILLIMETER);
+        } else if (source instanceof MultiLineString) {
+            LineString[] newGeom = new LineString[source.getNumGeometries()];
+            for (int idGeom = 0; idGeom < source.getNumGeometries(); idGeom++) {
+                newGeom[idGeom] = splitLineSource((LineString) source.getGeometryN(idGeom),
+                        profileBuilder, ProfileBuilder.MILLIMETER);
+            }
+            return GEOMETRY_FACTORY.createMultiLineString(newGeom);
+        } else if (source instanceof Point) {
+            Coordinate sourceCoord = source.getCoordinate();
+            // Check if the source is into a building
+            Building building = profileBuilder.getBuildingAtCoordinate(sourceCoord);
+            if(building != null && building.getHeight() >= sourceCoord.z) {
+                LOGGER.warn("Point source has been ignored as it is inside a building (building height {} m), it should be moved higher SOURCE: {}",
+                        building.getHeight(),new WKTWriter(3).write(source));
+                return null;
+            }
+            return GEOMETRY_FACTORY.createPoint(new Coordinate(sourceCoord.x, sourceCoord.y,
+                    sourceCoord.z + profileBuilder.getZGround(sourceCoord)));
+        } else {
+            throw new IllegalArgumentException("Unsupported source geometry " + source.getGeometryType());
+        }
+    }
+
     /**
      * Update ground Z coordinates of sound sources absolute to sea levels
      */
     public void makeSourceRelativeZToAbsolute() {
         List<Geometry> sourceCopy = new ArrayList<>(data.sourceGeometries.size());
         for (Geometry source : data.sourceGeometries) {
-            Geometry offsetGeometry;
-            if (source instanceof LineString) {
-                offsetGeometry = splitLineSource((LineString) source, data.profileBuilder, ProfileBuilder.MILLIMETER);
-            } else if (source instanceof MultiLineString) {
-                LineString[] newGeom = new LineString[source.getNumGeometries()];
-                for (int idGeom = 0; idGeom < source.getNumGeometries(); idGeom++) {
-                    newGeom[idGeom] = splitLineSource((LineString) source.getGeometryN(idGeom),
-                            data.profileBuilder, ProfileBuilder.MILLIMETER);
-                }
-                offsetGeometry = GEOMETRY_FACTORY.createMultiLineString(newGeom);
-            } else if (source instanceof Point) {
-                Coordinate sourceCoord = source.getCoordinate();
-                offsetGeometry = GEOMETRY_FACTORY.createPoint(new Coordinate(sourceCoord.x, sourceCoord.y,
-                        sourceCoord.z + data.profileBuilder.getZGround(sourceCoord)));
-                // Check if the source is into a building
-                Building building = data.profileBuilder.getBuildingAtCoordinate(sourceCoord);
-                if(building != null && building.getHeight() >= sourceCoord.z) {
-                    LOGGER.warn("Point source has been ignored as it is inside a building (building height {} m), it should be moved higher SOURCE: {}",
-                            building.getHeight(),new WKTWriter(3).write(source));
-                    continue;
-                }
-            } else {
-                throw new IllegalArgumentException("Unsupported source geometry " + source.getGeometryType());
-            }
             // Offset the geometry with value of elevation for each coordinate
-            sourceCopy.add(offsetGeometry);
+            Geometry offsetGeometry = makeSourceGeometryAbsoluteZ(source, data.profileBuilder);
+            if(offsetGeometry != null) {
+                sourceCopy.add(offsetGeometry);
+            }
         }
         data.setSources(sourceCopy);
     }
@@ -993,14 +1289,85 @@ public class PathFinder {
     }
 
     /**
-     * Update ground Z coordinates of receivers absolute to sea levels
+     * Update ground Z coordinates of receivers absolute to sea levels.
+     * Receivers are sorted along a Z-order curve then split into contiguous batches processed by the threads, so that
+     * the triangle of the previous receiver is a good starting point to find the triangle of the next one.
      */
     public void makeReceiverRelativeZToAbsolute() {
-        for(Coordinate receiver : data.receivers) {
-            receiver.setZ(receiver.getZ() + data.profileBuilder.getZGround(receiver));
+        int receiverCount = data.receivers.size();
+        if(receiverCount == 0) {
+            return;
+        }
+        int[] receiverOrder = sortReceiversBySpatialLocality(data.receivers);
+        int batchCount = max(1, min(threadCount, receiverCount / MINIMUM_DRAPING_BATCH_SIZE));
+        if(batchCount == 1) {
+            makeReceiverRelativeZToAbsolute(receiverOrder, 0, receiverCount);
+            return;
+        }
+        int batchSize = (int) ceil(receiverCount / (double) batchCount);
+        ThreadPool threadManager = new ThreadPool(batchCount, batchCount + 1, Long.MAX_VALUE, TimeUnit.SECONDS);
+        List<Future<Boolean>> tasks = new ArrayList<>(batchCount);
+        for(int start = 0; start < receiverCount; start += batchSize) {
+            final int batchStart = start;
+            final int batchEnd = min(receiverCount, start + batchSize);
+            tasks.add(threadManager.submitBlocking(() -> {
+                makeReceiverRelativeZToAbsolute(receiverOrder, batchStart, batchEnd);
+                return true;
+            }));
+        }
+        threadManager.shutdown();
+        for (Future<Boolean> task : tasks) {
+            try {
+                task.get();
+            } catch (InterruptedException | ExecutionException e) {
+                throw new RuntimeException(e);
+            }
         }
     }
 
+    private void makeReceiverRelativeZToAbsolute(int[] receiverOrder, int start, int end) {
+        AtomicInteger triangleHint = new AtomicInteger(-1);
+        for(int i = start; i < end; i++) {
+            Coordinate receiver = data.receivers.get(receiverOrder[i]);
+            receiver.setZ(receiver.getZ() + data.profileBuilder.getZGround(receiver, triangleHint));
+        }
+    }
+
+    /**
+     * @param receivers Receivers locations
+     * @return Receivers indexes sorted along a Z-order curve, consecutive receivers are near each other
+     */
+    static int[] sortReceiversBySpatialLocality(List<Coordinate> receivers) {
+        Envelope envelope = new Envelope();
+        for(Coordinate receiver : receivers) {
+            envelope.expandToInclude(receiver);
+        }
+        double scale = envelope.maxExtent() > 0 ? Z_ORDER_RESOLUTION / envelope.maxExtent() : 0;
+        long[] keys = new long[receivers.size()];
+        for(int i = 0; i < keys.length; i++) {
+            Coordinate receiver = receivers.get(i);
+            keys[i] = interleaveBits((int) ((receiver.x - envelope.getMinX()) * scale)) |
+                    (interleaveBits((int) ((receiver.y - envelope.getMinY()) * scale)) << 1);
+        }
+        return IntStream.range(0, keys.length).boxed().sorted((a, b) -> {
+            int cmp = Long.compare(keys[a], keys[b]);
+            return cmp != 0 ? cmp : Integer.compare(a, b);
+        }).mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * @param value 16 bits value
+     * @return The bits of the value spread on the even bits
+     */
+    private static long interleaveBits(int value) {
+        long x = value & 0xFFFFL;
+        x = (x | (x << 8)) & 0x00FF00FFL;
+        x = (x | (x << 4)) & 0x0F0F0F0FL;
+        x = (x | (x << 2)) & 0x33333333L;
+        x = (x | (x << 1)) & 0x55555555L;
+        return x;
+    }
+
     /**
      * Compute li to equation 4.1 NMPB 2008 (June 2009)
      * @param source
@@ -1016,7 +1383,15 @@ public class PathFinder {
         if (isNaN(segmentSizeConstraint)) {
             segmentSizeConstraint = max(1, receiverCoord.distance(nearestPoint) / 2.0);
         }
-        double li = splitLineStringIntoPoints(source, segmentSizeConstraint, pts);
+        List<Double> pointsLength = null;
+        double li = 0;
+        if (data.maximumFarFieldError > 0) {
+            pointsLength = new ArrayList<>();
+            splitLineStringIntoClusteredPoints(source, receiverCoord, segmentSizeConstraint,
+                    data.maximumFarFieldError, pts, pointsLength);
+        } else {
+            li = splitLineStringIntoPoints(source, segmentSizeConstraint, pts);
+        }
         for (int ptIndex = 0; ptIndex < pts.size(); ptIndex++) {
             Coordinate pt = pts.get(ptIndex);
             if (pt.distance(receiverCoord) < data.maxSrcDist) {
@@ -1041,7 +1416,8 @@ public class PathFinder {
                 if(srcIndex < data.sourcesPk.size()) {
                     sourcePk = data.sourcesPk.get(srcIndex);
                 }
-                sourceList.add(new SourcePointInfo(srcIndex, sourcePk, pt, li, orientation));
+                sourceList.add(new SourcePointInfo(srcIndex, sourcePk, pt,
+                        pointsLength == null ? li : pointsLength.get(ptIndex), orientation));
             }
         }
     }
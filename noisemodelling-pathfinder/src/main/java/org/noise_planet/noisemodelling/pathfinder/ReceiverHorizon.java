@@ -0,0 +1,197 @@
+/**
+ * NoiseModelling is a library capable of producing noise maps. It can be freely used either for research and education, as well as by experts in a professional use.
+ * <p>
+ * NoiseModelling is distributed under GPL 3 license. You can read a copy of this License in the file LICENCE provided with this software.
+ * <p>
+ * Official webpage : http://noise-planet.org/noisemodelling.html
+ * Contact: contact@noise-planet.org
+ */
+
+package org.noise_planet.noisemodelling.pathfinder;
+
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
+import org.noise_planet.noisemodelling.pathfinder.delaunay.Triangle;
+import org.noise_planet.noisemodelling.pathfinder.profilebuilder.ProfileBuilder;
+import org.noise_planet.noisemodelling.pathfinder.profilebuilder.Wall;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Angular horizon of a receiver built from the walls and the topography located near the receiver.
+ * The plane around the receiver is divided into angular sectors. For each sector the obstacles that cross every
+ * line of sight of the sector are kept as a skyline: the distance after which the obstacle is crossed and the
+ * minimal slope of the line of sight that pass over it.
+ * A source is classified as obstructed only if the direct profile is certain to intersect a wall or the topography,
+ * the other sources are unknown and need a full {@link org.noise_planet.noisemodelling.pathfinder.profilebuilder.CutProfile}.
+ * @author Nicolas Fortin, Université Gustave Eiffel
+ */
+public class ReceiverHorizon {
+    public static final int DEFAULT_SECTOR_COUNT = 720;
+    /** Margin in meters on the obstacles altitude in order to avoid the classification of borderline cases */
+    public static final double ALTITUDE_EPSILON = 1e-3;
+    /** Margin in meters on the distances */
+    public static final double DISTANCE_EPSILON = 1e-6;
+    private final Coordinate receiver;
+    private final int sectorCount;
+    private final double sectorAngle;
+    // for each sector, obstacles distances in ascending order and the slope over the obstacles in ascending order
+    private final double[][] distances;
+    private final double[][] slopes;
+    private int obstacleCount = 0;
+
+    /**
+     * @param profileBuilder Scene geometries
+     * @param receiver Receiver position with the absolute altitude
+     * @param radius Obstacles are fetched up to this distance from the receiver
+     */
+    public ReceiverHorizon(ProfileBuilder profileBuilder, Coordinate receiver, double radius) {
+        this(profileBuilder, receiver, radius, DEFAULT_SECTOR_COUNT);
+    }
+
+    /**
+     * @param profileBuilder Scene geometries
+     * @param receiver Receiver position with the absolute altitude
+     * @param radius Obstacles are fetched up to this distance from the receiver
+     * @param sectorCount Number of angular sectors
+     */
+    public ReceiverHorizon(ProfileBuilder profileBuilder, Coordinate receiver, double radius, int sectorCount) {
+        this.receiver = receiver;
+        this.sectorCount = sectorCount;
+        this.sectorAngle = 2 * Math.PI / sectorCount;
+        List<List<double[]>> sectorObstacles = new ArrayList<>(sectorCount);
+        for (int i = 0; i < sectorCount; i++) {
+            sectorObstacles.add(new ArrayList<>());
+        }
+        Envelope envelope = new Envelope(receiver);
+        envelope.expandBy(radius);
+        for (Wall wall : profileBuilder.getWallsIn(envelope)) {
+            addObstacle(wall.p0, wall.p1, sectorObstacles);
+        }
+        List<Triangle> triangles = profileBuilder.getTriangles();
+        List<Coordinate> vertices = profileBuilder.getVertices();
+        for (int triangleIndex : profileBuilder.getTrianglesIn(envelope)) {
+            Triangle triangle = triangles.get(triangleIndex);
+            Coordinate a = vertices.get(triangle.getA());
+            Coordinate b = vertices.get(triangle.getB());
+            Coordinate c = vertices.get(triangle.getC());
+            addObstacle(a, b, sectorObstacles);
+            addObstacle(b, c, sectorObstacles);
+            addObstacle(c, a, sectorObstacles);
+        }
+        distances = new double[sectorCount][];
+        slopes = new double[sectorCount][];
+        for (int sector = 0; sector < sectorCount; sector++) {
+            List<double[]> obstacles = sectorObstacles.get(sector);
+            obstacles.sort((o1, o2) -> Double.compare(o1[0], o2[0]));
+            // keep only the obstacles higher than all the nearest obstacles
+            double[] sectorDistances = new double[obstacles.size()];
+            double[] sectorSlopes = new double[obstacles.size()];
+            int size = 0;
+            for (double[] obstacle : obstacles) {
+                if (size == 0 || obstacle[1] > sectorSlopes[size - 1]) {
+                    sectorDistances[size] = obstacle[0];
+                    sectorSlopes[size] = obstacle[1];
+                    size++;
+                }
+            }
+            distances[sector] = Arrays.copyOf(sectorDistances, size);
+            slopes[sector] = Arrays.copyOf(sectorSlopes, size);
+            obstacleCount += size;
+        }
+    }
+
+    private static double normalizeAngle(double angle) {
+        double normalized = angle % (2 * Math.PI);
+        return normalized < 0 ? normalized + 2 * Math.PI : normalized;
+    }
+
+    /**
+     * @param a First point of the obstacle segment
+     * @param b Second point of the obstacle segment
+     * @param angle Direction of the line of sight
+     * @return Distance from the receiver to the obstacle line along the line of sight
+     */
+    private double distanceAlong(Coordinate a, Coordinate b, double angle) {
+        double dx = Math.cos(angle);
+        double dy = Math.sin(angle);
+        double ex = b.x - a.x;
+        double ey = b.y - a.y;
+        return ((a.x - receiver.x) * ey - (a.y - receiver.y) * ex) / (dx * ey - dy * ex);
+    }
+
+    private void addObstacle(Coordinate a, Coordinate b, List<List<double[]>> sectorObstacles) {
+        double top = Math.min(a.z, b.z) - ALTITUDE_EPSILON;
+        if (Double.isNaN(top)) {
+            return;
+        }
+        double ex = b.x - a.x;
+        double ey = b.y - a.y;
+        double length = Math.sqrt(ex * ex + ey * ey);
+        if (length < DISTANCE_EPSILON) {
+            return;
+        }
+        // perpendicular distance is a lower bound of the distance to the obstacle in any direction
+        double perpendicularDistance = Math.abs((a.x - receiver.x) * ey - (a.y - receiver.y) * ex) / length;
+        if (perpendicularDistance < DISTANCE_EPSILON) {
+            return;
+        }
+        double angleA = Math.atan2(a.y - receiver.y, a.x - receiver.x);
+        double angleB = Math.atan2(b.y - receiver.y, b.x - receiver.x);
+        double span = normalizeAngle(angleB - angleA);
+        double start = angleA;
+        if (span > Math.PI) {
+            span = 2 * Math.PI - span;
+            start = angleB;
+        }
+        start = normalizeAngle(start);
+        // only the sectors entirely covered by the obstacle
+        int firstSector = (int) Math.ceil(start / sectorAngle);
+        int lastSector = (int) Math.floor((start + span) / sectorAngle) - 1;
+        for (int sector = firstSector; sector <= lastSector; sector++) {
+            double d1 = distanceAlong(a, b, sector * sectorAngle);
+            double d2 = distanceAlong(a, b, (sector + 1) * sectorAngle);
+            if (!(d1 > 0 && d2 > 0)) {
+                continue;
+            }
+            double maximumDistance = Math.max(d1, d2);
+            double height = top - receiver.z;
+            // the line of sight must be under the obstacle at both bounds of the crossing
+            double slope = Math.min(height / perpendicularDistance, height / maximumDistance);
+            sectorObstacles.get(sector % sectorCount).add(new double[]{maximumDistance, slope});
+        }
+    }
+
+    /**
+     * @return Number of obstacles kept in all the sectors
+     */
+    public int getObstacleCount() {
+        return obstacleCount;
+    }
+
+    /**
+     * @param source Source position with the absolute altitude
+     * @return True if the line of sight between the receiver and the source is certainly blocked by a wall or by the
+     * topography
+     */
+    public boolean isObstructed(Coordinate source) {
+        double dx = source.x - receiver.x;
+        double dy = source.y - receiver.y;
+        double distance = Math.sqrt(dx * dx + dy * dy);
+        if (distance < DISTANCE_EPSILON || Double.isNaN(source.z)) {
+            return false;
+        }
+        int sector = (int) (normalizeAngle(Math.atan2(dy, dx)) / sectorAngle) % sectorCount;
+        double[] sectorDistances = distances[sector];
+        // number of obstacles crossed before reaching the source
+        int index = Arrays.binarySearch(sectorDistances, distance - DISTANCE_EPSILON);
+        int count = index >= 0 ? index : -index - 1;
+        if (count == 0) {
+            return false;
+        }
+        double sourceSlope = (source.z - receiver.z) / distance;
+        return sourceSlope < slopes[sector][count - 1];
+    }
+}
@@ -0,0 +1,86 @@
+/**
+ * NoiseModelling is a library capable of producing noise maps. It can be freely used either for research and education, as well as by experts in a professional use.
+ * <p>
+ * NoiseModelling is distributed under GPL 3 license. You can read a copy of this License in the file LICENCE provided with this software.
+ * <p>
+ * Official webpage : http://noise-planet.org/noisemodelling.html
+ * Contact: contact@noise-planet.org
+ */
+
+package org.noise_planet.noisemodelling.pathfinder;
+
+import org.locationtech.jts.geom.Coordinate;
+import org.noise_planet.noisemodelling.pathfinder.path.MirrorReceiversCompute;
+import org.noise_planet.noisemodelling.pathfinder.profilebuilder.CutProfile;
+import org.noise_planet.noisemodelling.pathfinder.profilebuilder.PlanimetricCutProfile;
+import org.noise_planet.noisemodelling.pathfinder.profilebuilder.ProfileBuilder;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Computation shared between receivers located at the same x,y position (receivers on the floors of a building
+ * facade). Only the work that does not depend on the altitude of the receiver is kept: the sound sources near
+ * the receiver, the receiver images used for reflections and the planimetric part of the direct cut profiles.
+ * An instance must be used by only one thread.
+ * @author Nicolas Fortin, Université Gustave Eiffel
+ */
+public class ReceiverStackCache {
+    public static final int DEFAULT_MAXIMUM_PROFILE_COUNT = 10000;
+    private double x = Double.NaN;
+    private double y = Double.NaN;
+    private int maximumProfileCount = DEFAULT_MAXIMUM_PROFILE_COUNT;
+    List<Integer> sourceCandidates = null;
+    MirrorReceiversCompute mirrorReceivers = null;
+    private final Map<Coordinate, PlanimetricCutProfile> profiles = new HashMap<>();
+
+    /**
+     * @param maximumProfileCount Maximum number of direct profiles kept for a receiver location
+     */
+    public void setMaximumProfileCount(int maximumProfileCount) {
+        this.maximumProfileCount = maximumProfileCount;
+    }
+
+    /**
+     * @return Maximum number of direct profiles kept for a receiver location
+     */
+    public int getMaximumProfileCount() {
+        return maximumProfileCount;
+    }
+
+    /**
+     * Clear the cache if the receiver is not at the x,y location of the cached data
+     * @param receiver Receiver location
+     */
+    public void moveTo(Coordinate receiver) {
+        if (Double.compare(x, receiver.x) != 0 || Double.compare(y, receiver.y) != 0) {
+            x = receiver.x;
+            y = receiver.y;
+            sourceCandidates = null;
+            mirrorReceivers = null;
+            profiles.clear();
+        }
+    }
+
+    /**
+     * Compute the cut profile between the source and the receiver, the planimetric part of the profile is computed
+     * only once for all the receivers of the stack.
+     * @param profileBuilder Profile builder
+     * @param source Source position
+     * @param receiver Receiver position
+     * @param defaultGroundAttenuation Default absorption ground effect value if no ground absorption value is found
+     * @return Cut profile
+     */
+    public CutProfile getProfile(ProfileBuilder profileBuilder, Coordinate source, Coordinate receiver,
+                                 double defaultGroundAttenuation) {
+        PlanimetricCutProfile planimetricProfile = profiles.get(source);
+        if (planimetricProfile == null || !planimetricProfile.isSamePlanimetricPosition(source, receiver)) {
+            planimetricProfile = profileBuilder.getPlanimetricProfile(source, receiver, defaultGroundAttenuation);
+            if (profiles.size() < maximumProfileCount) {
+                profiles.put(new Coordinate(source.x, source.y), planimetricProfile);
+            }
+        }
+        return profileBuilder.getProfile(planimetricProfile, source, receiver);
+    }
+}
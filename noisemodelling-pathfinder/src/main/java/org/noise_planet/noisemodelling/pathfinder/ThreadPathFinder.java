@@ -10,6 +10,7 @@
 package org.noise_planet.noisemodelling.pathfinder;
 
 import org.h2gis.api.ProgressVisitor;
+import org.locationtech.jts.geom.Coordinate;
 import org.noise_planet.noisemodelling.pathfinder.path.Scene;
 
 import java.util.concurrent.Callable;
@@ -27,6 +28,8 @@ public final class ThreadPathFinder implements Callable<Boolean> {
     ProgressVisitor visitor;
     CutPlaneVisitor dataOut;
     Scene data;
+    /** If not null, the receivers indexes to process are receiverOrder[startReceiver] to receiverOrder[endReceiver-1] */
+    int[] receiverOrder;
 
 
     /**
@@ -49,13 +52,44 @@ public final class ThreadPathFinder implements Callable<Boolean> {
         this.data = data;
     }
 
+    /**
+     * Create the ThreadPathFinder constructor
+     * @param startReceiver First position in receiverOrder (included)
+     * @param endReceiver Last position in receiverOrder (excluded)
+     * @param propagationProcess
+     * @param visitor
+     * @param dataOut
+     * @param data
+     * @param receiverOrder Receivers indexes sorted by x,y location. The receivers at the same location share the
+     *                      computation that does not depend on the altitude. Null to process receivers in the
+     *                      order of the receivers list.
+     */
+    public ThreadPathFinder(int startReceiver, int endReceiver, PathFinder propagationProcess,
+                            ProgressVisitor visitor, CutPlaneVisitor dataOut,
+                            Scene data, int[] receiverOrder) {
+        this(startReceiver, endReceiver, propagationProcess, visitor, dataOut, data);
+        this.receiverOrder = receiverOrder;
+    }
+
+    /**
+     * @param position Position in the receiver order
+     * @return True if the receiver at the position is at the same x,y location as the previous or the next one
+     */
+    private boolean isStacked(int position) {
+        Coordinate receiver = data.receivers.get(receiverOrder[position]);
+        return (position > startReceiver && data.receivers.get(receiverOrder[position - 1]).equals2D(receiver)) ||
+                (position + 1 < endReceiver && data.receivers.get(receiverOrder[position + 1]).equals2D(receiver));
+    }
+
     /**
      * Executes the computation of ray paths for each receiver in the specified range.
      */
     @Override
     public Boolean call() throws Exception {
         try {
-            for (int idReceiver = startReceiver; idReceiver < endReceiver; idReceiver++) {
+            ReceiverStackCache stackCache = receiverOrder != null ? new ReceiverStackCache() : null;
+            for (int position = startReceiver; position < endReceiver; position++) {
+                int idReceiver = receiverOrder != null ? receiverOrder[position] : position;
                 if (visitor != null) {
                     if (visitor.isCanceled()) {
                         break;
@@ -68,7 +102,11 @@ public final class ThreadPathFinder implements Callable<Boolean> {
                 PathFinder.ReceiverPointInfo rcv = new PathFinder.ReceiverPointInfo(idReceiver, receiverPk, data.receivers.get(idReceiver));
 
 
-                propagationProcess.computeRaysAtPosition(rcv, dataOut, visitor);
+                if(stackCache != null && isStacked(position)) {
+                    propagationProcess.computeRaysAtPosition(rcv, dataOut, visitor, stackCache);
+                } else {
+                    propagationProcess.computeRaysAtPosition(rcv, dataOut, visitor);
+                }
 
                 if (visitor != null) {
                     visitor.endStep();
@@ -61,6 +61,15 @@ public class MirrorReceiver {
         return new MirrorReceiver(receiverPos, parentMirror == null ? null : parentMirror.copyWithoutCone(),
                 wall);
     }
+    /**
+     * @param z Altitude of the receiver
+     * @return A copy of this receiver image and its parents for a receiver at the same x,y location but another altitude
+     */
+    public MirrorReceiver copyWithReceiverZ(double z) {
+        return new MirrorReceiver(new Coordinate(receiverPos.x, receiverPos.y, z),
+                parentMirror == null ? null : parentMirror.copyWithReceiverZ(z), wall);
+    }
+
     /**
      * @return Other MirrorReceiver index, -1 for the first reflexion
      */
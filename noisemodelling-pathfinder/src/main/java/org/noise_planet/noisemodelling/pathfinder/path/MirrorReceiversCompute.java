@@ -159,6 +159,26 @@ public class MirrorReceiversCompute {
         }
         mirrorReceiverTree.build();
     }
+    /**
+     * Share the receiver images of another receiver located at the same x,y location. The receiver images only depend
+     * on the planimetric position of the receiver, the altitude of the images is replaced when they are fetched.
+     * @param other Receiver images of a receiver at the same x,y location
+     * @param receiverCoordinates Receiver location
+     */
+    public MirrorReceiversCompute(MirrorReceiversCompute other, Coordinate receiverCoordinates) {
+        if(Double.compare(other.receiverCoordinate.x, receiverCoordinates.x) != 0 ||
+                Double.compare(other.receiverCoordinate.y, receiverCoordinates.y) != 0) {
+            throw new IllegalArgumentException("Receiver images can only be shared between receivers at the same x,y location");
+        }
+        this.receiverCoordinate = receiverCoordinates;
+        this.buildWalls = other.buildWalls;
+        this.maximumDistanceFromWall = other.maximumDistanceFromWall;
+        this.maximumPropagationDistance = other.maximumPropagationDistance;
+        this.mirrorReceiverTree = other.mirrorReceiverTree;
+        this.mirrorReceiverCapacity = other.mirrorReceiverCapacity;
+        this.numberOfImageReceivers = other.numberOfImageReceivers;
+    }
+
     /**
      * Occlusion test between one wall and a viewer.
      * Simple Feature Access (ISO 19125-1) say that:
@@ -279,6 +299,10 @@ public class MirrorReceiversCompute {
             // try to excluded walls without taking into account the topography and other factors
 
             MirrorReceiver receiverImage = (MirrorReceiver) item;
+            if(Double.compare(receiverImage.getReceiverPos().z, receiver.z) != 0) {
+                // receiver images shared with a receiver at another altitude
+                receiverImage = receiverImage.copyWithReceiverZ(receiver.z);
+            }
             // Check propagation distance
             if(receiverImage.getReceiverPos().distance3D(source) < maximumPropagationDistance) {
                 // Check distance of walls
@@ -89,6 +89,9 @@ public class Scene {
     public double maxSrcDist = DEFAULT_MAX_PROPAGATION_DISTANCE;
     /** Maximum reflection wall distance from receiver to source line */
     public double maxRefDist = DEFAULT_MAXIMUM_REF_DIST;
+    /** Maximum error in dB on the geometric divergence when the far parts of a line source are merged into a
+     * single point source. 0 disable the aggregation */
+    public double maximumFarFieldError = 0;
 
 
     /**
@@ -167,6 +170,24 @@ public class Scene {
         this.computeVerticalDiffraction = computeVerticalDiffraction;
     }
 
+    /**
+     * @return Maximum error in dB on the geometric divergence when the far parts of a line source are merged into a
+     * single point source. 0 if the aggregation is disabled
+     */
+    public double getMaximumFarFieldError() {
+        return maximumFarFieldError;
+    }
+
+    /**
+     * The line sources are split into point sources separated by half the distance between the receiver and the
+     * nearest point of the line. With this option the consecutive points far from the receiver are merged as long as
+     * the error on the geometric divergence stay below the given value.
+     * @param maximumFarFieldError Maximum error in dB, 0 to disable the aggregation
+     */
+    public void setMaximumFarFieldError(double maximumFarFieldError) {
+        this.maximumFarFieldError = maximumFarFieldError;
+    }
+
     public void setDefaultGroundAttenuation(double gS) {
         this.defaultGroundAttenuation = gS;
     }
@@ -39,6 +39,16 @@ public final class BuildingIntersectionPathVisitor implements ItemVisitor {
     LineSegment intersectionLine = new LineSegment();
     private static final GeometryFactory GEOMETRY_FACTORY = new GeometryFactory();
     boolean curved = false;
+    CutRoofPointsCache cutRoofPointsCache = null;
+
+    /**
+     * Cut of buildings and walls by the plane between p1 and p2, it does not depend on the side so it can be shared
+     * between the left and right paths of the same p1, p2 and curved parameters.
+     */
+    public static final class CutRoofPointsCache {
+        final Map<Integer, List<Coordinate>> buildings = new HashMap<>();
+        final Map<Integer, List<Coordinate>> walls = new HashMap<>();
+    }
 
     public BuildingIntersectionPathVisitor(Coordinate p1, Coordinate p2, boolean left, ProfileBuilder profileBuilder,
                                            List<Coordinate> input, Plane cutPlane) {
@@ -62,6 +72,14 @@ public final class BuildingIntersectionPathVisitor implements ItemVisitor {
         this.curved = curved;
     }
 
+    /**
+     * @param cutRoofPointsCache Cache of the cut roof points, must be used only with visitors having the same p1, p2
+     *                           and curved parameters. Null to disable the cache.
+     */
+    public void setCutRoofPointsCache(CutRoofPointsCache cutRoofPointsCache) {
+        this.cutRoofPointsCache = cutRoofPointsCache;
+    }
+
     /**
      *
      * @return true if the path between p1 and p2 is curved (a segment of circle). In this case, the intersectionLine
@@ -112,25 +130,14 @@ public final class BuildingIntersectionPathVisitor implements ItemVisitor {
                 // This building has already been pushed to input hull
                 return;
             }
-            List<Coordinate> roofPoints = profileBuilder.getPrecomputedWideAnglePoints(processedWall.originId + 1);
-            if(roofPoints == null || roofPoints.size() < 2) {
-                // weird building, no diffraction point
-                return;
-            }
-            if(curved) {
-                // Adjust the altitude of the building roof points to be in the curved coordinate system
-                List<Coordinate> curvedRoofPoints = Arrays.asList(CurvedProfileGenerator.applyTransformation(p1, p2,
-                        roofPoints.toArray(new Coordinate[0]), false));
-                // Create a cut of the building volume with the roof points z moved to the bottom following
-                // the curve coordinate system formulae
-                if(cutRoofPointsWithPlane(cutPlane, curvedRoofPoints).isEmpty()) {
-                    // The building roof is below the curved ray
-                    return;
+            List<Coordinate> roofPoints = cutRoofPointsCache == null ? null :
+                    cutRoofPointsCache.buildings.get(processedWall.originId);
+            if(roofPoints == null) {
+                roofPoints = cutBuildingRoofPoints(processedWall);
+                if(cutRoofPointsCache != null) {
+                    cutRoofPointsCache.buildings.put(processedWall.originId, roofPoints);
                 }
             }
-            // Create a cut of the building volume
-            roofPoints = cutRoofPointsWithPlane(cutPlane, roofPoints);
-
             // remove points that are not on the correct side of the line p1Top2 (use only x,y coordinates)
             roofPoints = filterPointsBySide(p1Top2, left, roofPoints);
             if (!roofPoints.isEmpty()) {
@@ -145,28 +152,14 @@ public final class BuildingIntersectionPathVisitor implements ItemVisitor {
                 // This wall has already been pushed to input hull
                 return;
             }
-            // Create the diffraction point outside the wall segment
-            // Diffraction point must not intersect with wall
-            Vector2D translationVector = new Vector2D(processedWall.p0, processedWall.p1).normalize()
-                    .multiply(ProfileBuilder.wideAngleTranslationEpsilon);
-            Coordinate extendedP0 = new Coordinate(processedWall.p0.x - translationVector.getX(),
-                    processedWall.p0.y - translationVector.getY(), processedWall.p0.z);
-            Coordinate extendedP1 = new Coordinate(processedWall.p1.x + translationVector.getX(),
-                    processedWall.p1.y + translationVector.getY(), processedWall.p1.z);
-            List<Coordinate> roofPoints = Arrays.asList(extendedP0, extendedP1);
-            if(curved) {
-                // Adjust the altitude of the building roof points to be in the curved coordinate system
-                List<Coordinate> curvedRoofPoints = Arrays.asList(CurvedProfileGenerator.applyTransformation(p1, p2,
-                        roofPoints.toArray(new Coordinate[0]), false));
-                // Create a cut of the building volume with the roof points z moved to the bottom following
-                // the curve coordinate system formulae
-                if(cutRoofPointsWithPlane(cutPlane, curvedRoofPoints).isEmpty()) {
-                    // The building roof is below the curved ray
-                    return;
+            List<Coordinate> roofPoints = cutRoofPointsCache == null ? null :
+                    cutRoofPointsCache.walls.get(processedWall.originId);
+            if(roofPoints == null) {
+                roofPoints = cutWallPoints(processedWall);
+                if(cutRoofPointsCache != null) {
+                    cutRoofPointsCache.walls.put(processedWall.originId, roofPoints);
                 }
             }
-            // Create a cut of the building volume
-            roofPoints = cutRoofPointsWithPlane(cutPlane, roofPoints);
             // remove points that are not on the correct side of the line p1Top2 (use only x,y coordinates)
             roofPoints = filterPointsBySide(p1Top2, left, roofPoints);
             if (!roofPoints.isEmpty()) {
@@ -177,4 +170,60 @@ public final class BuildingIntersectionPathVisitor implements ItemVisitor {
             }
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Cut the roof of a building with the plane p1 p2
+     * @param processedWall A wall of the building
+     * @return The cut points, empty if the building does not cross the plane
+     */
+    private List<Coordinate> cutBuildingRoofPoints(Wall processedWall) {
+        List<Coordinate> roofPoints = profileBuilder.getPrecomputedWideAnglePoints(processedWall.originId + 1);
+        if(roofPoints == null || roofPoints.size() < 2) {
+            // weird building, no diffraction point
+            return Collections.emptyList();
+        }
+        if(curved) {
+            // Adjust the altitude of the building roof points to be in the curved coordinate system
+            List<Coordinate> curvedRoofPoints = Arrays.asList(CurvedProfileGenerator.applyTransformation(p1, p2,
+                    roofPoints.toArray(new Coordinate[0]), false));
+            // Create a cut of the building volume with the roof points z moved to the bottom following
+            // the curve coordinate system formulae
+            if(cutRoofPointsWithPlane(cutPlane, curvedRoofPoints).isEmpty()) {
+                // The building roof is below the curved ray
+                return Collections.emptyList();
+            }
+        }
+        // Create a cut of the building volume
+        return cutRoofPointsWithPlane(cutPlane, roofPoints);
+    }
+
+    /**
+     * Cut the diffraction points of a wall with the plane p1 p2
+     * @param processedWall The wall
+     * @return The cut points, empty if the wall does not cross the plane
+     */
+    private List<Coordinate> cutWallPoints(Wall processedWall) {
+        // Create the diffraction point outside the wall segment
+        // Diffraction point must not intersect with wall
+        Vector2D translationVector = new Vector2D(processedWall.p0, processedWall.p1).normalize()
+                .multiply(ProfileBuilder.wideAngleTranslationEpsilon);
+        Coordinate extendedP0 = new Coordinate(processedWall.p0.x - translationVector.getX(),
+                processedWall.p0.y - translationVector.getY(), processedWall.p0.z);
+        Coordinate extendedP1 = new Coordinate(processedWall.p1.x + translationVector.getX(),
+                processedWall.p1.y + translationVector.getY(), processedWall.p1.z);
+        List<Coordinate> roofPoints = Arrays.asList(extendedP0, extendedP1);
+        if(curved) {
+            // Adjust the altitude of the building roof points to be in the curved coordinate system
+            List<Coordinate> curvedRoofPoints = Arrays.asList(CurvedProfileGenerator.applyTransformation(p1, p2,
+                    roofPoints.toArray(new Coordinate[0]), false));
+            // Create a cut of the building volume with the roof points z moved to the bottom following
+            // the curve coordinate system formulae
+            if(cutRoofPointsWithPlane(cutPlane, curvedRoofPoints).isEmpty()) {
+                // The building roof is below the curved ray
+                return Collections.emptyList();
+            }
+        }
+        // Create a cut of the building volume
+        return cutRoofPointsWithPlane(cutPlane, roofPoints);
+    }
+}
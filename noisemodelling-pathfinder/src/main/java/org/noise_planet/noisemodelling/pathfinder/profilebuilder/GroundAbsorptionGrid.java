@@ -0,0 +1,349 @@
+/**
+ * NoiseModelling is a library capable of producing noise maps. It can be freely used either for research and education, as well as by experts in a professional use.
+ * <p>
+ * NoiseModelling is distributed under GPL 3 license. You can read a copy of this License in the file LICENCE provided with this software.
+ * <p>
+ * Official webpage : http://noise-planet.org/noisemodelling.html
+ * Contact: contact@noise-planet.org
+ */
+
+package org.noise_planet.noisemodelling.pathfinder.profilebuilder;
+
+import org.locationtech.jts.algorithm.locate.IndexedPointInAreaLocator;
+import org.locationtech.jts.algorithm.locate.PointOnGeometryLocator;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.Location;
+import org.locationtech.jts.geom.Polygonal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+/**
+ * Planar subdivision of the ground absorption areas, built once by {@link ProfileBuilder#finishFeeding()} then shared
+ * read-only by the computation threads.
+ * The envelope of the ground absorption areas is split into a regular grid, each cell references the borders of the
+ * ground absorption areas that cross it. A cell without border is covered by a single ground absorption area (or
+ * none), its value is stored so the ground of a point located in this cell is known without geometric test.
+ * The borders crossed by a profile are collected with a single traversal of the cells along the profile.
+ * @author Nicolas Fortin, Université Gustave Eiffel
+ */
+public class GroundAbsorptionGrid {
+    /** Value of the cells crossed by at least one border */
+    static final int MIXED_CELL = -2;
+    /** Maximum number of cells of the grid */
+    static final int MAXIMUM_CELLS = 1 << 22;
+    /** Tolerance (in fraction of the traversed segment) used to detect the crossing of a cell corner */
+    private static final double EPSILON = 1e-9;
+    private static final GeometryFactory FACTORY = new GeometryFactory();
+
+    private final List<GroundAbsorption> groundAbsorptions;
+    private final PointOnGeometryLocator[] locators;
+    private final double minX;
+    private final double minY;
+    private final double cellSize;
+    private final int columns;
+    private final int rows;
+    /** Borders of the cell i are the processed walls bordersIndex[bordersOffset[i]] to bordersIndex[bordersOffset[i+1]] */
+    private final int[] bordersOffset;
+    private final int[] bordersIndex;
+    /** Ground absorptions of the cell i are candidates[candidatesOffset[i]] to candidates[candidatesOffset[i+1]] */
+    private final int[] candidatesOffset;
+    private final int[] candidates;
+    /** Ground absorption index of the cells without border, -1 for the default ground, {@link #MIXED_CELL} otherwise */
+    private final int[] cellGroundAbsorption;
+    /** Result of the touches predicate between two ground absorption areas, evaluated when first needed */
+    private final Map<Long, Boolean> touchingGroundAbsorptions = new ConcurrentHashMap<>();
+
+    /**
+     * @param groundAbsorptions Ground absorption areas
+     * @param processedWalls Processed walls, the borders of the ground absorption areas are stored at the end
+     * @param firstBorderIndex Index of the first border of the ground absorption areas in processedWalls
+     */
+    public GroundAbsorptionGrid(List<GroundAbsorption> groundAbsorptions, List<Wall> processedWalls,
+                                int firstBorderIndex) {
+        this.groundAbsorptions = groundAbsorptions;
+        // Point location in O(log n) for each ground absorption area
+        locators = new PointOnGeometryLocator[groundAbsorptions.size()];
+        IntStream.range(0, groundAbsorptions.size()).parallel().forEach(j -> {
+            Geometry geom = groundAbsorptions.get(j).geom;
+            if (geom instanceof Polygonal && !geom.isEmpty()) {
+                PointOnGeometryLocator locator = new IndexedPointInAreaLocator(geom);
+                // the index is built on the first query, build it now before sharing the locator between threads
+                locator.locate(geom.getEnvelopeInternal().centre());
+                locators[j] = locator;
+            }
+        });
+        Envelope envelope = new Envelope();
+        for (GroundAbsorption groundAbsorption : groundAbsorptions) {
+            envelope.expandToInclude(groundAbsorption.geom.getEnvelopeInternal());
+        }
+        if (envelope.isNull()) {
+            envelope.expandToInclude(0, 0);
+        }
+        // Approximately one border per cell
+        int bordersCount = processedWalls.size() - firstBorderIndex;
+        int targetCells = Math.max(1, Math.min(bordersCount, MAXIMUM_CELLS));
+        double size = Math.sqrt(envelope.getArea() / targetCells);
+        if (!(size > 0)) {
+            size = Math.max(Math.max(envelope.getWidth(), envelope.getHeight()) / targetCells, 1.0);
+        }
+        while ((long) (Math.floor(envelope.getWidth() / size) + 1) * (long) (Math.floor(envelope.getHeight() / size)
+                + 1) > MAXIMUM_CELLS) {
+            size *= 2;
+        }
+        minX = envelope.getMinX();
+        minY = envelope.getMinY();
+        cellSize = size;
+        columns = (int) Math.floor(envelope.getWidth() / cellSize) + 1;
+        rows = (int) Math.floor(envelope.getHeight() / cellSize) + 1;
+        int cellCount = columns * rows;
+        // Reference the borders in the cells they cross
+        bordersOffset = new int[cellCount + 1];
+        for (int i = firstBorderIndex; i < processedWalls.size(); i++) {
+            Wall border = processedWalls.get(i);
+            visitCells(border.p0, border.p1, cell -> bordersOffset[cell + 1]++);
+        }
+        for (int cell = 0; cell < cellCount; cell++) {
+            bordersOffset[cell + 1] += bordersOffset[cell];
+        }
+        bordersIndex = new int[bordersOffset[cellCount]];
+        final int[] bordersCursor = Arrays.copyOf(bordersOffset, cellCount);
+        for (int i = firstBorderIndex; i < processedWalls.size(); i++) {
+            Wall border = processedWalls.get(i);
+            final int borderIndex = i;
+            visitCells(border.p0, border.p1, cell -> bordersIndex[bordersCursor[cell]++] = borderIndex);
+        }
+        // Reference the ground absorptions in the cells covered by their envelope
+        candidatesOffset = new int[cellCount + 1];
+        for (GroundAbsorption groundAbsorption : groundAbsorptions) {
+            visitCells(groundAbsorption.geom.getEnvelopeInternal(), cell -> candidatesOffset[cell + 1]++);
+        }
+        for (int cell = 0; cell < cellCount; cell++) {
+            candidatesOffset[cell + 1] += candidatesOffset[cell];
+        }
+        candidates = new int[candidatesOffset[cellCount]];
+        final int[] candidatesCursor = Arrays.copyOf(candidatesOffset, cellCount);
+        for (int j = 0; j < groundAbsorptions.size(); j++) {
+            final int groundAbsorptionIndex = j;
+            visitCells(groundAbsorptions.get(j).geom.getEnvelopeInternal(),
+                    cell -> candidates[candidatesCursor[cell]++] = groundAbsorptionIndex);
+        }
+        // Cells without border are covered by a single ground absorption, evaluated at the center of the cell
+        cellGroundAbsorption = new int[cellCount];
+        IntStream.range(0, cellCount).parallel().forEach(cell -> {
+            if (bordersOffset[cell + 1] > bordersOffset[cell]) {
+                cellGroundAbsorption[cell] = MIXED_CELL;
+                return;
+            }
+            for (int k = candidatesOffset[cell]; k < candidatesOffset[cell + 1]; k++) {
+                if (locators[candidates[k]] == null) {
+                    // not an area, always use the geometry
+                    cellGroundAbsorption[cell] = MIXED_CELL;
+                    return;
+                }
+            }
+            Coordinate center = new Coordinate(minX + (cell % columns + 0.5) * cellSize,
+                    minY + (cell / columns + 0.5) * cellSize);
+            cellGroundAbsorption[cell] = locateInCandidates(cell, center);
+        });
+    }
+
+    /**
+     * @return Number of columns of the grid
+     */
+    public int getColumns() {
+        return columns;
+    }
+
+    /**
+     * @return Number of rows of the grid
+     */
+    public int getRows() {
+        return rows;
+    }
+
+    /**
+     * @return Width and height of a cell
+     */
+    public double getCellSize() {
+        return cellSize;
+    }
+
+    /**
+     * @param p Location
+     * @return Index of the first ground absorption area that contains the location, -1 if there is none
+     */
+    public int getGroundAbsorptionIndex(Coordinate p) {
+        int cell = getCell(p.x, p.y);
+        if (cell < 0) {
+            return -1;
+        }
+        int groundAbsorptionIndex = cellGroundAbsorption[cell];
+        if (groundAbsorptionIndex != MIXED_CELL) {
+            return groundAbsorptionIndex;
+        }
+        return locateInCandidates(cell, p);
+    }
+
+    /**
+     * @param groundAbsorptionIndex Ground absorption area index
+     * @param p Location
+     * @return True if the ground absorption area contains the location or the location is on its border
+     */
+    public boolean intersects(int groundAbsorptionIndex, Coordinate p) {
+        PointOnGeometryLocator locator = locators[groundAbsorptionIndex];
+        if (locator != null) {
+            return locator.locate(p) != Location.EXTERIOR;
+        }
+        return groundAbsorptions.get(groundAbsorptionIndex).geom.intersects(FACTORY.createPoint(p));
+    }
+
+    /**
+     * @param groundAbsorptionIndex First ground absorption area index
+     * @param otherGroundAbsorptionIndex Second ground absorption area index
+     * @return True if the two ground absorption areas touch each other without overlapping
+     */
+    public boolean touches(int groundAbsorptionIndex, int otherGroundAbsorptionIndex) {
+        long key = ((long) Math.min(groundAbsorptionIndex, otherGroundAbsorptionIndex) << 32) |
+                Math.max(groundAbsorptionIndex, otherGroundAbsorptionIndex);
+        return touchingGroundAbsorptions.computeIfAbsent(key, k -> groundAbsorptions.get(groundAbsorptionIndex).geom
+                .touches(groundAbsorptions.get(otherGroundAbsorptionIndex).geom));
+    }
+
+    /**
+     * Collect the borders of the ground absorption areas in the cells crossed by a segment
+     * @param p0 First point of the segment
+     * @param p1 Last point of the segment
+     * @return Indexes of the borders in the processed walls, without duplicates. The borders are not necessarily
+     * intersecting the segment.
+     */
+    public List<Integer> getBorders(Coordinate p0, Coordinate p1) {
+        List<Integer> borders = new ArrayList<>();
+        Set<Integer> visited = new HashSet<>();
+        visitCells(p0, p1, cell -> {
+            for (int k = bordersOffset[cell]; k < bordersOffset[cell + 1]; k++) {
+                if (visited.add(bordersIndex[k])) {
+                    borders.add(bordersIndex[k]);
+                }
+            }
+        });
+        return borders;
+    }
+
+    private int locateInCandidates(int cell, Coordinate p) {
+        for (int k = candidatesOffset[cell]; k < candidatesOffset[cell + 1]; k++) {
+            if (intersects(candidates[k], p)) {
+                return candidates[k];
+            }
+        }
+        return -1;
+    }
+
+    private int getCell(double x, double y) {
+        double gx = (x - minX) / cellSize;
+        double gy = (y - minY) / cellSize;
+        if (!(gx >= 0 && gy >= 0 && gx <= columns && gy <= rows)) {
+            return -1;
+        }
+        return Math.min((int) gx, columns - 1) + Math.min((int) gy, rows - 1) * columns;
+    }
+
+    private void visitCells(Envelope envelope, IntConsumer visitor) {
+        if (envelope.isNull()) {
+            return;
+        }
+        int firstColumn = Math.max(0, (int) Math.floor((envelope.getMinX() - minX) / cellSize));
+        int lastColumn = Math.min(columns - 1, (int) Math.floor((envelope.getMaxX() - minX) / cellSize));
+        int firstRow = Math.max(0, (int) Math.floor((envelope.getMinY() - minY) / cellSize));
+        int lastRow = Math.min(rows - 1, (int) Math.floor((envelope.getMaxY() - minY) / cellSize));
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                visitor.accept(column + row * columns);
+            }
+        }
+    }
+
+    /**
+     * Visit the cells crossed by a segment, in the order of the segment. When the segment passes through a corner the
+     * two cells sharing this corner are visited too, so a segment and a border that intersect always share a cell.
+     * @param p0 First point of the segment
+     * @param p1 Last point of the segment
+     * @param visitor Receive the index of the cells
+     */
+    private void visitCells(Coordinate p0, Coordinate p1, IntConsumer visitor) {
+        // Clip the segment with the grid bounds
+        double dx = p1.x - p0.x;
+        double dy = p1.y - p0.y;
+        double[] p = new double[] {-dx, dx, -dy, dy};
+        double[] q = new double[] {p0.x - minX, minX + columns * cellSize - p0.x, p0.y - minY,
+                minY + rows * cellSize - p0.y};
+        double tStart = 0;
+        double tEnd = 1;
+        for (int i = 0; i < 4; i++) {
+            if (p[i] == 0) {
+                if (q[i] < 0) {
+                    return;
+                }
+            } else {
+                double t = q[i] / p[i];
+                if (p[i] < 0) {
+                    tStart = Math.max(tStart, t);
+                } else {
+                    tEnd = Math.min(tEnd, t);
+                }
+            }
+        }
+        if (tStart > tEnd) {
+            return;
+        }
+        // Traverse the cells, in cell units
+        double gx0 = (p0.x + tStart * dx - minX) / cellSize;
+        double gy0 = (p0.y + tStart * dy - minY) / cellSize;
+        double gdx = (tEnd - tStart) * dx / cellSize;
+        double gdy = (tEnd - tStart) * dy / cellSize;
+        int column = Math.max(0, Math.min(columns - 1, (int) Math.floor(gx0)));
+        int row = Math.max(0, Math.min(rows - 1, (int) Math.floor(gy0)));
+        int stepX = gdx > 0 ? 1 : -1;
+        int stepY = gdy > 0 ? 1 : -1;
+        double tDeltaX = gdx == 0 ? Double.POSITIVE_INFINITY : Math.abs(1 / gdx);
+        double tDeltaY = gdy == 0 ? Double.POSITIVE_INFINITY : Math.abs(1 / gdy);
+        double tMaxX = gdx == 0 ? Double.POSITIVE_INFINITY : (gdx > 0 ? column + 1 - gx0 : gx0 - column) * tDeltaX;
+        double tMaxY = gdy == 0 ? Double.POSITIVE_INFINITY : (gdy > 0 ? row + 1 - gy0 : gy0 - row) * tDeltaY;
+        visitor.accept(column + row * columns);
+        while (Math.min(tMaxX, tMaxY) <= 1 + EPSILON) {
+            if (Math.abs(tMaxX - tMaxY) <= EPSILON) {
+                // cross a corner of the cell
+                if (column + stepX >= 0 && column + stepX < columns) {
+                    visitor.accept(column + stepX + row * columns);
+                }
+                if (row + stepY >= 0 && row + stepY < rows) {
+                    visitor.accept(column + (row + stepY) * columns);
+                }
+                column += stepX;
+                row += stepY;
+                tMaxX += tDeltaX;
+                tMaxY += tDeltaY;
+            } else if (tMaxX < tMaxY) {
+                column += stepX;
+                tMaxX += tDeltaX;
+            } else {
+                row += stepY;
+                tMaxY += tDeltaY;
+            }
+            if (column < 0 || row < 0 || column >= columns || row >= rows) {
+                break;
+            }
+            visitor.accept(column + row * columns);
+        }
+    }
+}
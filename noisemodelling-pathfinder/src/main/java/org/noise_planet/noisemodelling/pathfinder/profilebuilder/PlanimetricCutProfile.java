@@ -0,0 +1,57 @@
+/**
+ * NoiseModelling is a library capable of producing noise maps. It can be freely used either for research and education, as well as by experts in a professional use.
+ * <p>
+ * NoiseModelling is distributed under GPL 3 license. You can read a copy of this License in the file LICENCE provided with this software.
+ * <p>
+ * Official webpage : http://noise-planet.org/noisemodelling.html
+ * Contact: contact@noise-planet.org
+ */
+
+package org.noise_planet.noisemodelling.pathfinder.profilebuilder;
+
+import org.locationtech.jts.geom.Coordinate;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Part of a cut profile that does not depend on the altitude of the receiver: the intersections of the horizontal
+ * line between the source and the receiver with the walls, the ground effect areas and the topography.
+ * It is built by {@link ProfileBuilder#getPlanimetricProfile(Coordinate, Coordinate, double)} and can be converted
+ * into a {@link CutProfile} for any receiver located at the same x,y position with
+ * {@link ProfileBuilder#getProfile(PlanimetricCutProfile, Coordinate, Coordinate)}.
+ * @author Nicolas Fortin, Université Gustave Eiffel
+ */
+public class PlanimetricCutProfile {
+    final double sourceX;
+    final double sourceY;
+    final double receiverX;
+    final double receiverY;
+    double sourceGroundCoefficient;
+    /** Topography along the line including the source and receiver ground, null if there is no topography */
+    List<Coordinate> topography = null;
+    /** Index of the first topography point that is an intersection with the triangles edges */
+    int firstTopographyIntersection = 1;
+    /** Topography points kept in the profile */
+    List<CutPointTopography> topographyCutPoints = Collections.emptyList();
+    /** Walls and ground effect cut points in the order of the r-tree visit */
+    List<CutPoint> groundBuildingCutPoints = Collections.emptyList();
+
+    PlanimetricCutProfile(Coordinate sourceCoordinate, Coordinate receiverCoordinate) {
+        this.sourceX = sourceCoordinate.x;
+        this.sourceY = sourceCoordinate.y;
+        this.receiverX = receiverCoordinate.x;
+        this.receiverY = receiverCoordinate.y;
+    }
+
+    /**
+     * @param sourceCoordinate Source position
+     * @param receiverCoordinate Receiver position
+     * @return True if this profile has been computed for the same planimetric positions
+     */
+    public boolean isSamePlanimetricPosition(Coordinate sourceCoordinate, Coordinate receiverCoordinate) {
+        return Double.compare(sourceX, sourceCoordinate.x) == 0 && Double.compare(sourceY, sourceCoordinate.y) == 0 &&
+                Double.compare(receiverX, receiverCoordinate.x) == 0 &&
+                Double.compare(receiverY, receiverCoordinate.y) == 0;
+    }
+}
@@ -11,6 +11,7 @@ package org.noise_planet.noisemodelling.pathfinder.profilebuilder;
 
 import org.locationtech.jts.algorithm.Angle;
 import org.locationtech.jts.algorithm.CGAlgorithms3D;
+import org.locationtech.jts.algorithm.Orientation;
 import org.locationtech.jts.geom.*;
 import org.locationtech.jts.index.strtree.STRtree;
 import org.locationtech.jts.math.Vector2D;
@@ -23,14 +24,16 @@ import org.noise_planet.noisemodelling.pathfinder.delaunay.LayerTinfour;
 import org.noise_planet.noisemodelling.pathfinder.delaunay.Triangle;
 import org.noise_planet.noisemodelling.pathfinder.path.Scene;
 import org.noise_planet.noisemodelling.pathfinder.utils.AcousticIndicatorsFunctions;
-import org.noise_planet.noisemodelling.pathfinder.utils.IntegerTuple;
 import org.noise_planet.noisemodelling.pathfinder.utils.geometry.JTSUtility;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
 
 import static java.lang.Double.NaN;
 import static java.lang.Double.isNaN;
@@ -43,6 +46,8 @@ import static org.noise_planet.noisemodelling.pathfinder.profilebuilder.ProfileB
 public class ProfileBuilder {
     public static final double epsilon = 1e-7;
     public static final double MILLIMETER = 0.001;
+    /** Maximum number of triangles visited when walking from the triangle hint to a location */
+    public static final int MAXIMUM_TRIANGLE_WALK = 64;
     public static final double LEFT_SIDE = Math.PI / 2;
     /** Class {@link java.util.logging.Logger}. */
     private static final Logger LOGGER = LoggerFactory.getLogger(ProfileBuilder.class);
@@ -62,6 +67,8 @@ public class ProfileBuilder {
     private int topoNodeCapacity = TREE_NODE_CAPACITY;
     /** Ground RTree node capacity. */
     private int groundNodeCapacity = TREE_NODE_CAPACITY;
+    /** Number of threads used by {@link #finishFeeding()} */
+    private int threadCount = Runtime.getRuntime().availableProcessors();
     /**
      * Max length of line part used for profile retrieving.
      * @see ProfileBuilder#getProfile(Coordinate, Coordinate)
@@ -75,10 +82,12 @@ public class ProfileBuilder {
     private final STRtree buildingTree;
     /** Building RTree. */
     private STRtree wallTree = new STRtree(TREE_NODE_CAPACITY);
-    /** RTree with Buildings's walls linestrings, walls linestring, GroundEffect linestrings
+    /** RTree with Buildings's walls linestrings, walls linestring
      * The object is an integer. It's an index of the array {@link #processedWalls} */
     public STRtree rtree;
     private STRtree groundEffectsRtree = new STRtree(TREE_NODE_CAPACITY);
+    /** Borders and areas of the ground effects, the GroundEffect linestrings are not in {@link #rtree} */
+    private GroundAbsorptionGrid groundAbsorptionGrid = null;
 
 
     /** List of topographic points. */
@@ -130,6 +139,23 @@ public class ProfileBuilder {
     }
 
 
+    /**
+     * @return Number of threads used by {@link #finishFeeding()}
+     */
+    public int getThreadCount() {
+        return threadCount;
+    }
+
+    /**
+     * @param threadCount Number of threads used by {@link #finishFeeding()} to process the topography, buildings
+     *                    and ground effects, 1 to process them in the calling thread
+     * @return this
+     */
+    public ProfileBuilder setThreadCount(int threadCount) {
+        this.threadCount = Math.max(1, threadCount);
+        return this;
+    }
+
     /**
      * Main empty constructor.
      */
@@ -701,6 +727,34 @@ public class ProfileBuilder {
      * @return True if the finishing has been successfully done, false otherwise.
      */
     public ProfileBuilder finishFeeding() {
+        // The parallel loops run in a dedicated pool, not in the common pool shared with the other computations
+        ForkJoinPool pool = threadCount > 1 ? new ForkJoinPool(threadCount) : null;
+        try {
+            return finishFeeding(pool);
+        } finally {
+            if(pool != null) {
+                pool.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Run the action for each index, in parallel in the pool if provided
+     * @param pool Pool of the parallel tasks, null to run the action in the calling thread
+     * @param count Number of indexes
+     * @param action Action to run for each index
+     */
+    private static void forEachIndex(ForkJoinPool pool, int count, IntConsumer action) {
+        if(pool == null) {
+            for (int i = 0; i < count; i++) {
+                action.accept(i);
+            }
+        } else {
+            pool.submit(() -> IntStream.range(0, count).parallel().forEach(action)).join();
+        }
+    }
+
+    private ProfileBuilder finishFeeding(ForkJoinPool pool) {
         isFeedingFinished = true;
 
         //Process topographic points and lines
@@ -747,30 +801,32 @@ public class ProfileBuilder {
                 LOGGER.error("Error while getting vertices", e);
                 return null;
             }
-            // wallIndex set will merge shared triangle segments
-            Set<IntegerTuple> wallIndex = new HashSet<>();
-            for (int i = 0; i < topoTriangles.size(); i++) {
-                final Triangle tri = topoTriangles.get(i);
-                wallIndex.add(new IntegerTuple(tri.getA(), tri.getB(), i));
-                wallIndex.add(new IntegerTuple(tri.getB(), tri.getC(), i));
-                wallIndex.add(new IntegerTuple(tri.getC(), tri.getA(), i));
-                // Insert triangle in rtree
-                Coordinate vA = vertices.get(tri.getA());
-                Coordinate vB = vertices.get(tri.getB());
-                Coordinate vC = vertices.get(tri.getC());
-                Envelope env = FACTORY.createLineString(new Coordinate[]{vA, vB, vC}).getEnvelopeInternal();
-                topoTree.insert(env, i);
+            // Compute triangles envelopes in parallel, then insert them in the triangle order
+            final List<Triangle> triangles = topoTriangles;
+            final List<Coordinate> triangleVertices = vertices;
+            Envelope[] triangleEnvelopes = new Envelope[triangles.size()];
+            forEachIndex(pool, triangleEnvelopes.length, i -> {
+                final Triangle tri = triangles.get(i);
+                Envelope env = new Envelope(triangleVertices.get(tri.getA()), triangleVertices.get(tri.getB()));
+                env.expandToInclude(triangleVertices.get(tri.getC()));
+                triangleEnvelopes[i] = env;
+            });
+            for (int i = 0; i < triangleEnvelopes.length; i++) {
+                topoTree.insert(triangleEnvelopes[i], i);
             }
             topoTree.build();
         }
         //Update building z
         if(topoTree != null) {
-            for (Building b : buildings) {
+            // poly2D_3D creates a new polygon for each building, so the buildings can be updated concurrently
+            forEachIndex(pool, buildings.size(), j -> {
+                Building b = buildings.get(j);
                 if(isNaN(b.poly.getCoordinate().z) || b.poly.getCoordinate().z == 0.0 || !zBuildings) {
                     b.poly2D_3D();
                     b.poly.apply(new ElevationFilter.UpdateZ(b.height + b.updateZTopo(this)));
                 }
-            }
+            });
+            // consecutive walls share their coordinates instances, keep this loop sequential
             for (Wall w : walls) {
                 if(isNaN(w.p0.z) || w.p0.z == 0.0) {
                     w.p0.z = w.height + getZGround(w.p0);
@@ -801,41 +857,59 @@ public class ProfileBuilder {
         //Process buildings
         rtree = new STRtree(buildingNodeCapacity);
         buildingsWideAnglePoints.clear();
+        // The walls of each building are created in parallel at their final position in processedWalls
+        final int buildingsWallsStart = processedWalls.size();
+        final int[] buildingWallOffset = new int[buildings.size() + 1];
         for (int j = 0; j < buildings.size(); j++) {
+            buildingWallOffset[j + 1] = buildingWallOffset[j] + buildings.get(j).poly.getNumPoints() - 1;
+        }
+        final Wall[] buildingsWalls = new Wall[buildingWallOffset[buildings.size()]];
+        final List<ArrayList<Coordinate>> wideAnglePoints = new ArrayList<>(Collections.nCopies(buildings.size(),
+                null));
+        forEachIndex(pool, buildings.size(), j -> {
             Building building = buildings.get(j);
-            buildingsWideAnglePoints.put(j + 1,
-                    getWideAnglePointsOnPolygon(building.poly.getExteriorRing(), 0, 2 * Math.PI));
-            List<Wall> walls = new ArrayList<>();
+            wideAnglePoints.set(j, getWideAnglePointsOnPolygon(building.poly.getExteriorRing(), 0, 2 * Math.PI));
             Coordinate[] coords = building.poly.getCoordinates();
+            List<Wall> buildingWalls = new ArrayList<>(coords.length - 1);
             for (int i = 0; i < coords.length - 1; i++) {
                 LineSegment lineSegment = new LineSegment(coords[i], coords[i + 1]);
-                Wall w = new Wall(lineSegment, j, IntersectionType.BUILDING).setProcessedWallIndex(processedWalls.size());
-                walls.add(w);
+                int wallIndex = buildingWallOffset[j] + i;
+                Wall w = new Wall(lineSegment, j, IntersectionType.BUILDING)
+                        .setProcessedWallIndex(buildingsWallsStart + wallIndex);
+                buildingWalls.add(w);
                 w.setPrimaryKey(building.getPrimaryKey());
                 w.copyAlphas(building);
-                processedWalls.add(w);
-                rtree.insert(lineSegment.toGeometry(FACTORY).getEnvelopeInternal(), processedWalls.size()-1);
+                buildingsWalls[wallIndex] = w;
             }
-            building.setWalls(walls);
+            building.setWalls(buildingWalls);
+        });
+        for (int j = 0; j < wideAnglePoints.size(); j++) {
+            buildingsWideAnglePoints.put(j + 1, wideAnglePoints.get(j));
+        }
+        for (Wall w : buildingsWalls) {
+            processedWalls.add(w);
+            rtree.insert(new Envelope(w.p0, w.p1), processedWalls.size() - 1);
         }
         for (int j = 0; j < walls.size(); j++) {
             Wall wall = walls.get(j);
-            Coordinate[] coords = new Coordinate[]{wall.p0, wall.p1};
-            for (int i = 0; i < coords.length - 1; i++) {
-                LineSegment lineSegment = new LineSegment(coords[i], coords[i + 1]);
-                Wall w = new Wall(lineSegment, j, IntersectionType.WALL).setProcessedWallIndex(processedWalls.size());
-                w.copyAlphas(wall);
-                w.setPrimaryKey(wall.primaryKey);
-                processedWalls.add(w);
-                rtree.insert(lineSegment.toGeometry(FACTORY).getEnvelopeInternal(), processedWalls.size()-1);
-            }
+            LineSegment lineSegment = new LineSegment(wall.p0, wall.p1);
+            Wall w = new Wall(lineSegment, j, IntersectionType.WALL).setProcessedWallIndex(processedWalls.size());
+            w.copyAlphas(wall);
+            w.setPrimaryKey(wall.primaryKey);
+            processedWalls.add(w);
+            rtree.insert(new Envelope(lineSegment.p0, lineSegment.p1), processedWalls.size()-1);
         }
         // Set buildings and walls unmodifiable
         this.buildings = Collections.unmodifiableList(this.buildings);
         this.walls = Collections.unmodifiableList(this.walls);
         //Process the ground effects
         groundEffectsRtree = new STRtree(TREE_NODE_CAPACITY);
-        for (int j = 0; j < groundAbsorptions.size(); j++) {
+        // Split the ground effect polygons in parallel, then insert them in the ground effects order
+        final List<List<Polygon>> groundPolygons = new ArrayList<>(Collections.nCopies(groundAbsorptions.size(),
+                null));
+        final List<List<LineSegment>> groundSegments = new ArrayList<>(Collections.nCopies(groundAbsorptions.size(),
+                null));
+        forEachIndex(pool, groundAbsorptions.size(), j -> {
             GroundAbsorption effect = groundAbsorptions.get(j);
             List<Polygon> polygons = new ArrayList<>();
             if (effect.geom instanceof Polygon) {
@@ -847,18 +921,30 @@ public class ProfileBuilder {
                     polygons.add((Polygon) multi.getGeometryN(i));
                 }
             }
+            List<LineSegment> segments = new ArrayList<>();
             for (Polygon poly : polygons) {
-                groundEffectsRtree.insert(poly.getEnvelopeInternal(), j);
                 Coordinate[] coords = poly.getCoordinates();
                 for (int k = 0; k < coords.length - 1; k++) {
-                    LineSegment line = new LineSegment(coords[k], coords[k + 1]);
-                    processedWalls.add(new Wall(line, j, GROUND_EFFECT).setProcessedWallIndex(processedWalls.size()));
-                    rtree.insert(new Envelope(line.p0, line.p1), processedWalls.size() - 1);
+                    segments.add(new LineSegment(coords[k], coords[k + 1]));
                 }
             }
+            groundPolygons.set(j, polygons);
+            groundSegments.set(j, segments);
+        });
+        final int groundBordersStart = processedWalls.size();
+        for (int j = 0; j < groundAbsorptions.size(); j++) {
+            for (Polygon poly : groundPolygons.get(j)) {
+                groundEffectsRtree.insert(poly.getEnvelopeInternal(), j);
+            }
+            for (LineSegment line : groundSegments.get(j)) {
+                processedWalls.add(new Wall(line, j, GROUND_EFFECT).setProcessedWallIndex(processedWalls.size()));
+            }
         }
         rtree.build();
         groundEffectsRtree.build();
+        // The ground effect transitions along the profiles are fetched with a single traversal of this grid
+        groundAbsorptionGrid = groundAbsorptions.isEmpty() ? null :
+                new GroundAbsorptionGrid(groundAbsorptions, processedWalls, groundBordersStart);
         // initialize with default frequencies
         setFrequencyArray(frequencyArray);
         return this;
@@ -899,6 +985,21 @@ public class ProfileBuilder {
         return list;
     }
 
+    /**
+     * @param env Envelope to query
+     * @return Index of the topographic triangles (see {@link #getTriangles()}) intersecting the envelope, empty if
+     * there is no topography
+     */
+    public List<Integer> getTrianglesIn(Envelope env) {
+        List<Integer> list = new ArrayList<>();
+        if(topoTree != null) {
+            for(Object triangleIndex : topoTree.query(env)) {
+                list.add((Integer) triangleIndex);
+            }
+        }
+        return list;
+    }
+
 
 
     /**
@@ -982,8 +1083,153 @@ public class ProfileBuilder {
             }
         }
 
+        interpolateGroundAttributes(profile);
+        return profile;
+    }
+
+    /**
+     * Compute the part of the cut profile that does not depend on the altitude of the source and the receiver.
+     * @param sourceCoordinate Starting point.
+     * @param receiverCoordinate Ending point.
+     * @param defaultGroundAttenuation Default absorption ground effect value if no ground absorption value is found
+     * @return Planimetric profile to use with {@link #getProfile(PlanimetricCutProfile, Coordinate, Coordinate)}
+     */
+    public PlanimetricCutProfile getPlanimetricProfile(Coordinate sourceCoordinate, Coordinate receiverCoordinate,
+                                                       double defaultGroundAttenuation) {
+        PlanimetricCutProfile planimetricProfile = new PlanimetricCutProfile(sourceCoordinate, receiverCoordinate);
+        int groundAbsorptionIndex = getIntersectingGroundAbsorption(FACTORY.createPoint(sourceCoordinate));
+        if(groundAbsorptionIndex >= 0) {
+            planimetricProfile.sourceGroundCoefficient = groundAbsorptions.get(groundAbsorptionIndex).getCoefficient();
+        } else {
+            planimetricProfile.sourceGroundCoefficient = defaultGroundAttenuation;
+        }
+        if(topoTree != null) {
+            List<Coordinate> coordinates = new ArrayList<>();
+            fetchTopographicProfile(coordinates, sourceCoordinate, receiverCoordinate, false);
+            planimetricProfile.topography = coordinates;
+            // the source ground is added twice when the source is out of the DEM
+            planimetricProfile.firstTopographyIntersection = getTriangleIdByCoordinate(sourceCoordinate) == -1 ? 2 : 1;
+            List<CutPointTopography> topographyList = new ArrayList<>(coordinates.size());
+            for(int idPoint = 1; idPoint < coordinates.size() - 1; idPoint++) {
+                final Coordinate previous = coordinates.get(idPoint - 1);
+                final Coordinate current = coordinates.get(idPoint);
+                final Coordinate next = coordinates.get(idPoint+1);
+                if(CGAlgorithms3D.distancePointSegment(current, previous, next) >= DELTA) {
+                    topographyList.add(new CutPointTopography(current));
+                }
+            }
+            planimetricProfile.topographyCutPoints = topographyList;
+        }
+        if(rtree != null) {
+            // Intersection flags of this profile are not used, they depend on the altitude of the receiver
+            CutProfile profile = new CutProfile(new CutPointSource(sourceCoordinate),
+                    new CutPointReceiver(receiverCoordinate));
+            LineSegment fullLine = new LineSegment(sourceCoordinate, receiverCoordinate);
+            List<CutPoint> newCutPoints = new ArrayList<>();
+            Set<Integer> processed = new HashSet<>();
+            for (LineSegment line : splitSegment(fullLine.p0, fullLine.p1, maxLineLength)) {
+                for (Object result : rtree.query(new Envelope(line.p0, line.p1))) {
+                    if (!(result instanceof Integer) || !processed.add((Integer) result)) {
+                        continue;
+                    }
+                    int i = (Integer) result;
+                    Wall facetLine = processedWalls.get(i);
+                    Coordinate intersection = getWallIntersection(fullLine, facetLine);
+                    if (intersection != null) {
+                        switch (facetLine.type) {
+                            case BUILDING:
+                                processBuilding(i, intersection, facetLine, fullLine, newCutPoints, false, profile);
+                                break;
+                            case WALL:
+                                processWall(i, intersection, facetLine, fullLine, newCutPoints, false, profile);
+                                break;
+                        }
+                    }
+                }
+            }
+            addGroundEffectCutPts(fullLine, newCutPoints, profile);
+            planimetricProfile.groundBuildingCutPoints = newCutPoints;
+        }
+        return planimetricProfile;
+    }
+
+    /**
+     * Build the cutting profile from the planimetric part and the 3D position of the source and the receiver.
+     * The result is the same as {@link #getProfile(Coordinate, Coordinate, double, boolean)} without stopping at the
+     * first obstacle.
+     * @param planimetricProfile Profile computed with the same x,y positions
+     * @param sourceCoordinate Starting point.
+     * @param receiverCoordinate Ending point.
+     * @return Cutting profile.
+     */
+    public CutProfile getProfile(PlanimetricCutProfile planimetricProfile, Coordinate sourceCoordinate,
+                                 Coordinate receiverCoordinate) {
+        if(!planimetricProfile.isSamePlanimetricPosition(sourceCoordinate, receiverCoordinate)) {
+            throw new IllegalArgumentException("The planimetric profile has been computed for another location");
+        }
+        CutPointSource sourcePoint  = new CutPointSource(sourceCoordinate);
+        CutPointReceiver receiverPoint = new CutPointReceiver(receiverCoordinate);
+        CutProfile profile = new CutProfile(sourcePoint, receiverPoint);
+        sourcePoint.setGroundCoefficient(planimetricProfile.sourceGroundCoefficient);
+
+        if(planimetricProfile.topography != null) {
+            List<Coordinate> coordinates = planimetricProfile.topography;
+            if(coordinates.size() >= 2) {
+                sourcePoint.zGround = coordinates.get(0).z;
+                receiverPoint.zGround = coordinates.get(coordinates.size() - 1).z;
+                LineSegment propaLine = new LineSegment(sourceCoordinate, receiverCoordinate);
+                for(int idPoint = planimetricProfile.firstTopographyIntersection; idPoint < coordinates.size() - 1;
+                    idPoint++) {
+                    Coordinate intersectionPt = coordinates.get(idPoint);
+                    Coordinate closestPointOnPropagationLine = propaLine.closestPoint(intersectionPt);
+                    if(Vertex.interpolateZ(closestPointOnPropagationLine, propaLine.p0, propaLine.p1) <
+                            intersectionPt.z) {
+                        profile.hasTopographyIntersection = true;
+                        break;
+                    }
+                }
+                CutPoint[] topographyCutPoints = new CutPoint[planimetricProfile.topographyCutPoints.size()];
+                for(int i = 0; i < topographyCutPoints.length; i++) {
+                    topographyCutPoints[i] = planimetricProfile.topographyCutPoints.get(i).clone();
+                }
+                profile.insertCutPoint(true, topographyCutPoints);
+            } else {
+                LOGGER.warn(String.format(Locale.ROOT, "Propagation out of the DEM area from %s to %s",
+                        sourceCoordinate.toString(), receiverCoordinate.toString()));
+            }
+        } else {
+            sourcePoint.zGround = 0.0;
+            receiverPoint.zGround = 0.0;
+        }
+
+        if(rtree != null) {
+            List<CutPoint> groundBuildingCutPoints = planimetricProfile.groundBuildingCutPoints;
+            CutPoint[] newCutPoints = new CutPoint[groundBuildingCutPoints.size()];
+            for(int i = 0; i < newCutPoints.length; i++) {
+                CutPoint cutPoint = groundBuildingCutPoints.get(i);
+                if(cutPoint instanceof CutPointWall && !profile.hasBuildingIntersection) {
+                    // Same test as the one done when visiting the building and walls
+                    double zRayReceiverSource = Vertex.interpolateZ(cutPoint.coordinate, sourceCoordinate,
+                            receiverCoordinate);
+                    if (zRayReceiverSource <= cutPoint.coordinate.z) {
+                        profile.hasBuildingIntersection = true;
+                    }
+                }
+                newCutPoints[i] = cutPoint.clone();
+            }
+            profile.insertCutPoint(true, newCutPoints);
+        }
+        interpolateGroundAttributes(profile);
+        return profile;
+    }
+
+    /**
+     * Set the ground coefficient and the ground altitude of the intermediate cut points that does not have it
+     * @param profile Cut profile
+     */
+    private static void interpolateGroundAttributes(CutProfile profile) {
         // Propagate ground coefficient for unknown coefficients
-        double currentCoefficient = sourcePoint.groundCoefficient;
+        double currentCoefficient = profile.getSource().groundCoefficient;
         for (CutPoint cutPoint : profile.cutPoints) {
             if(Double.isNaN(cutPoint.groundCoefficient)) {
                 cutPoint.setGroundCoefficient(currentCoefficient);
@@ -993,7 +1239,7 @@ public class ProfileBuilder {
         }
 
         // Compute the interpolation of Z ground for intermediate points
-        CutPoint previousZGround = sourcePoint;
+        CutPoint previousZGround = profile.getSource();
         int nextPointIndex = 0;
         for (int pointIndex = 1; pointIndex < profile.cutPoints.size() - 1; pointIndex++) {
             CutPoint cutPoint = profile.cutPoints.get(pointIndex);
@@ -1024,7 +1270,6 @@ public class ProfileBuilder {
                 previousZGround = cutPoint;
             }
         }
-        return profile;
     }
 
     /**
@@ -1033,6 +1278,9 @@ public class ProfileBuilder {
      * @return The ground absorption object or null if nothing is found here
      */
     public int getIntersectingGroundAbsorption(Geometry query) {
+        if(groundAbsorptionGrid != null && query instanceof Point) {
+            return groundAbsorptionGrid.getGroundAbsorptionIndex(query.getCoordinate());
+        }
         if(groundEffectsRtree != null) {
             var res = groundEffectsRtree.query(query.getEnvelopeInternal());
             for (Object groundEffectAreaIndex : res) {
@@ -1117,16 +1365,16 @@ public class ProfileBuilder {
         // retrieve the ground coefficient after the intersection in the direction of the profile
         // this method will solve the question if we enter a new ground absorption or we will leave one
         Vector2D directionAfter = Vector2D.create(fullLine.p0, fullLine.p1).normalize().multiply(MILLIMETER);
-        Point afterIntersectionPoint = FACTORY.createPoint(Vector2D.create(intersection).add(directionAfter).toCoordinate());
+        Coordinate afterIntersectionPoint = Vector2D.create(intersection).add(directionAfter).toCoordinate();
         GroundAbsorption groundAbsorption = groundAbsorptions.get(facetLine.getOriginId());
-        if (groundAbsorption.geom.intersects(afterIntersectionPoint)) {
+        if (groundAbsorptionGrid.intersects(facetLine.getOriginId(), afterIntersectionPoint)) {
             // we enter a new ground effect
             newCutPoints.add(new CutPointGroundEffect(processedWallIndex, intersection, groundAbsorption.getCoefficient()));
         } else {
             // we exit a ground surface, we have to check if there is
             // another ground surface at this point, could be none or could be
             // an overlapping/touching ground surface
-            int groundSurfaceIndex = getIntersectingGroundAbsorption(afterIntersectionPoint);
+            int groundSurfaceIndex = groundAbsorptionGrid.getGroundAbsorptionIndex(afterIntersectionPoint);
             if (groundSurfaceIndex == -1) {
                 // no new ground effect, we fall back to default G
                 newCutPoints.add(new CutPointGroundEffect(-1, intersection, Scene.DEFAULT_G));
@@ -1136,15 +1384,56 @@ public class ProfileBuilder {
                 GroundAbsorption nextGroundAbsorption = groundAbsorptions.get(groundSurfaceIndex);
                 // if the interior of the two ground surfaces overlaps we add the ground point
                 // (as we will not encounter the side of this other ground surface)
-                if (!nextGroundAbsorption.geom.touches(groundAbsorption.geom)) {
+                if (!groundAbsorptionGrid.touches(groundSurfaceIndex, facetLine.getOriginId())) {
                     newCutPoints.add(new CutPointGroundEffect(groundSurfaceIndex,
-                            afterIntersectionPoint.getCoordinate(),
+                            afterIntersectionPoint,
                             nextGroundAbsorption.getCoefficient()));
                 }
             }
         }
         return true;
     }
+
+    /**
+     * Fetch the intersections of a line segment with the borders of the ground effects
+     * @param fullLine P0 to P1 query for the profile of ground effects
+     * @param newCutPoints Cut points list to feed (out)
+     * @param profile Profile being computed
+     */
+    private void addGroundEffectCutPts(LineSegment fullLine, List<CutPoint> newCutPoints, CutProfile profile) {
+        if(groundAbsorptionGrid == null) {
+            return;
+        }
+        for (int i : groundAbsorptionGrid.getBorders(fullLine.p0, fullLine.p1)) {
+            Wall facetLine = processedWalls.get(i);
+            Coordinate intersection = getWallIntersection(fullLine, facetLine);
+            if (intersection != null) {
+                processGroundEffect(i, intersection, facetLine, fullLine, newCutPoints, false, profile);
+            }
+        }
+    }
+
+    /**
+     * @param fullLine P0 to P1 line of the profile
+     * @param facetLine Wall or ground effect border
+     * @return Intersection with the z of the facet line, null if there is no intersection
+     */
+    private static Coordinate getWallIntersection(LineSegment fullLine, Wall facetLine) {
+        Coordinate intersection = fullLine.intersection(facetLine.ls);
+        if (intersection != null) {
+            intersection = new Coordinate(intersection);
+            if (!isNaN(facetLine.p0.z) && !isNaN(facetLine.p1.z)) {
+                // same z in the line, so useless to compute interpolation between points
+                if (Double.compare(facetLine.p0.z, facetLine.p1.z) == 0) {
+                    intersection.z = facetLine.p0.z;
+                } else {
+                    intersection.z = Vertex.interpolateZ(intersection, facetLine.p0, facetLine.p1);
+                }
+            }
+        }
+        return intersection;
+    }
+
     /**
      * Fetch intersection of a line segment with Buildings lines/Walls lines/Ground Effect lines
      * @param fullLine P0 to P1 query for the profile of buildings
@@ -1172,17 +1461,8 @@ public class ProfileBuilder {
                     processed.add((Integer) result);
                     int i = (Integer) result;
                     Wall facetLine = processedWalls.get(i);
-                    Coordinate intersection = fullLine.intersection(facetLine.ls);
+                    Coordinate intersection = getWallIntersection(fullLine, facetLine);
                     if (intersection != null) {
-                        intersection = new Coordinate(intersection);
-                        if (!isNaN(facetLine.p0.z) && !isNaN(facetLine.p1.z)) {
-                            // same z in the line, so useless to compute interpolation between points
-                            if (Double.compare(facetLine.p0.z, facetLine.p1.z) == 0) {
-                                intersection.z = facetLine.p0.z;
-                            } else {
-                                intersection.z = Vertex.interpolateZ(intersection, facetLine.p0, facetLine.p1);
-                            }
-                        }
                         switch (facetLine.type) {
                             case BUILDING:
                                 if (!processBuilding(i, intersection, facetLine, fullLine, newCutPoints,
@@ -1196,16 +1476,13 @@ public class ProfileBuilder {
                                     return;
                                 }
                                 break;
-                            case GROUND_EFFECT:
-                                if (!processGroundEffect(i, intersection, facetLine, fullLine, newCutPoints,
-                                        stopAtObstacleOverSourceReceiver, profile)) {
-                                    return;
-                                }
-                                break;
                         }
                     }
                 }
             }
+            if (!(profile.hasBuildingIntersection && stopAtObstacleOverSourceReceiver)) {
+                addGroundEffectCutPts(fullLine, newCutPoints, profile);
+            }
         } finally {
             profile.insertCutPoint(true, newCutPoints.toArray(CutPoint[]::new));
         }
@@ -1549,7 +1826,8 @@ public class ProfileBuilder {
             final Coordinate p2 = vertices.get(tri.getB());
             final Coordinate p3 = vertices.get(tri.getC());
             if(!JTSUtility.dotInTri(coordinate, p1, p2, p3)) {
-                i = -1;
+                // the location is usually near the hint, walk through the neighbor triangles
+                i = walkToTriangle(i, coordinate);
             }
         }
         if(i < 0) {
@@ -1570,6 +1848,43 @@ public class ProfileBuilder {
         }
     }
 
+    /**
+     * Walk in the topographic triangulation from a triangle to the triangle that contains the location. At each step
+     * the walk crosses an edge that separates the current triangle and the location.
+     * @param startTriangle Triangle index to start from
+     * @param coordinate X,Y location to reach
+     * @return Index of the triangle that contains the location, -1 if the location has not been reached
+     */
+    private int walkToTriangle(int startTriangle, Coordinate coordinate) {
+        int current = startTriangle;
+        int previous = -1;
+        for(int step = 0; step < MAXIMUM_TRIANGLE_WALK && current >= 0 && current < topoTriangles.size(); step++) {
+            final Triangle tri = topoTriangles.get(current);
+            final Triangle triNeighbors = topoNeighbors.get(current);
+            int next = -1;
+            // neighbor k is on the opposite side of the vertex k
+            for(int vertex = 0; vertex < 3; vertex++) {
+                Coordinate opposite = vertices.get(tri.get(vertex));
+                Coordinate edgeStart = vertices.get(tri.get((vertex + 1) % 3));
+                Coordinate edgeEnd = vertices.get(tri.get((vertex + 2) % 3));
+                int oppositeSide = Orientation.index(edgeStart, edgeEnd, opposite);
+                int locationSide = Orientation.index(edgeStart, edgeEnd, coordinate);
+                if(locationSide != 0 && locationSide != oppositeSide && triNeighbors.get(vertex) != previous) {
+                    next = triNeighbors.get(vertex);
+                    break;
+                }
+            }
+            if(next == -1) {
+                // no edge separates the triangle and the location, or the location is outside the triangulation
+                return JTSUtility.dotInTri(coordinate, vertices.get(tri.getA()), vertices.get(tri.getB()),
+                        vertices.get(tri.getC())) ? current : -1;
+            }
+            previous = current;
+            current = next;
+        }
+        return -1;
+    }
+
     /**
      * Different type of intersection.
      */
@@ -0,0 +1,196 @@
+/**
+ * NoiseModelling is a library capable of producing noise maps. It can be freely used either for research and education, as well as by experts in a professional use.
+ * <p>
+ * NoiseModelling is distributed under GPL 3 license. You can read a copy of this License in the file LICENCE provided with this software.
+ * <p>
+ * Official webpage : http://noise-planet.org/noisemodelling.html
+ * Contact: contact@noise-planet.org
+ */
+
+package org.noise_planet.noisemodelling.pathfinder.utils.geometry;
+
+import org.locationtech.jts.algorithm.CGAlgorithmsDD;
+import org.locationtech.jts.geom.Coordinate;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Convex hull of the segment p1 p2 and of points located strictly on one side of this segment.
+ * The hull is kept as a convex chain from p1 to p2, so p1 and p2 are always hull vertices. Points are inserted one by
+ * one, only the edges of the chain that see the new point are replaced. Each edge carry a free flag so that the
+ * caller only has to look for obstacles on the edges created since the last test.
+ * Coordinates are stored in primitive buffers to avoid the construction of a new JTS geometry on each insertion.
+ * @author Nicolas Fortin, Université Gustave Eiffel
+ */
+public class IncrementalSideHull {
+    private static final int DEFAULT_CAPACITY = 8;
+    private final int sideOrientation;
+    private double[] xs = new double[DEFAULT_CAPACITY];
+    private double[] ys = new double[DEFAULT_CAPACITY];
+    private Coordinate[] vertices = new Coordinate[DEFAULT_CAPACITY];
+    // freeEdges[i] is the state of the edge vertices[i] vertices[i+1]
+    private boolean[] freeEdges = new boolean[DEFAULT_CAPACITY];
+    private int size = 0;
+
+    /**
+     * @param p1 First point of the chain
+     * @param p2 Last point of the chain
+     * @param left If true the hull is built with points on the left side of p1 p2; else on the right side
+     */
+    public IncrementalSideHull(Coordinate p1, Coordinate p2, boolean left) {
+        this.sideOrientation = left ? 1 : -1;
+        set(0, p1);
+        set(1, p2);
+        size = 2;
+    }
+
+    private void set(int index, Coordinate coordinate) {
+        xs[index] = coordinate.x;
+        ys[index] = coordinate.y;
+        vertices[index] = coordinate;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > xs.length) {
+            int newCapacity = Math.max(capacity, xs.length * 2);
+            xs = Arrays.copyOf(xs, newCapacity);
+            ys = Arrays.copyOf(ys, newCapacity);
+            vertices = Arrays.copyOf(vertices, newCapacity);
+            freeEdges = Arrays.copyOf(freeEdges, newCapacity);
+        }
+    }
+
+    private int orientation(int a, int b, double qx, double qy) {
+        return CGAlgorithmsDD.orientationIndex(xs[a], ys[a], xs[b], ys[b], qx, qy);
+    }
+
+    /**
+     * Insert a point into the hull. Points inside the hull or on its boundary are ignored.
+     * @param q Point to insert, must be strictly on the side of the segment p1 p2 given to the constructor
+     * @return True if the hull has been modified
+     */
+    public boolean add(Coordinate q) {
+        // The chain is convex so the edges visible from q are contiguous
+        int firstVisible = -1;
+        int lastVisible = -1;
+        for (int i = 0; i < size - 1; i++) {
+            if (orientation(i, i + 1, q.x, q.y) == sideOrientation) {
+                if (firstVisible == -1) {
+                    firstVisible = i;
+                }
+                lastVisible = i;
+            } else if (firstVisible != -1) {
+                break;
+            }
+        }
+        if (firstVisible == -1) {
+            return false;
+        }
+        // vertices firstVisible+1 to lastVisible are not part of the hull anymore, replace them by q
+        int removed = lastVisible - firstVisible;
+        int shift = 1 - removed;
+        ensureCapacity(size + shift);
+        int tailStart = lastVisible + 1;
+        int tailLength = size - tailStart;
+        System.arraycopy(xs, tailStart, xs, tailStart + shift, tailLength);
+        System.arraycopy(ys, tailStart, ys, tailStart + shift, tailLength);
+        System.arraycopy(vertices, tailStart, vertices, tailStart + shift, tailLength);
+        System.arraycopy(freeEdges, tailStart, freeEdges, tailStart + shift, tailLength);
+        size += shift;
+        int qIndex = firstVisible + 1;
+        set(qIndex, q);
+        freeEdges[firstVisible] = false;
+        freeEdges[qIndex] = false;
+        // remove vertices that became collinear with q
+        while (qIndex > 1 && orientation(qIndex - 2, qIndex - 1, q.x, q.y) == 0) {
+            removeVertex(qIndex - 1);
+            qIndex--;
+        }
+        while (qIndex < size - 2 && orientation(qIndex, qIndex + 1, xs[qIndex + 2], ys[qIndex + 2]) == 0) {
+            removeVertex(qIndex + 1);
+        }
+        return true;
+    }
+
+    /**
+     * Remove a vertex that is not p1 or p2, the two edges around the vertex are merged into a non-free edge
+     * @param index vertex index
+     */
+    private void removeVertex(int index) {
+        int length = size - index - 1;
+        System.arraycopy(xs, index + 1, xs, index, length);
+        System.arraycopy(ys, index + 1, ys, index, length);
+        System.arraycopy(vertices, index + 1, vertices, index, length);
+        System.arraycopy(freeEdges, index + 1, freeEdges, index, length);
+        size--;
+        vertices[size] = null;
+        freeEdges[index - 1] = false;
+    }
+
+    /**
+     * @return Number of vertices of the chain, including p1 and p2
+     */
+    public int getVertexCount() {
+        return size;
+    }
+
+    /**
+     * @param index Vertex index, 0 is p1 and getVertexCount() - 1 is p2
+     * @return Chain vertex
+     */
+    public Coordinate getVertex(int index) {
+        return vertices[index];
+    }
+
+    /**
+     * @param edgeIndex Edge between vertex edgeIndex and edgeIndex + 1
+     * @return True if this edge has been flagged as free by {@link #setEdgeFree(int)}
+     */
+    public boolean isEdgeFree(int edgeIndex) {
+        return freeEdges[edgeIndex];
+    }
+
+    /**
+     * Flag an edge as free of obstacle. The flag is kept until the edge is replaced by a point insertion.
+     * @param edgeIndex Edge between vertex edgeIndex and edgeIndex + 1
+     */
+    public void setEdgeFree(int edgeIndex) {
+        freeEdges[edgeIndex] = true;
+    }
+
+    /**
+     * Length of the closed hull ring without the closing segment. The ring is read clockwise and start from the vertex
+     * with the lowest y (then lowest x). This is the same value as the length of the convex hull ring computed by JTS
+     * without its last segment.
+     * @return Hull length
+     */
+    public double getHullLength() {
+        // clockwise ring is p1 to p2 by the chain on the left side, p2 to p1 by the chain on the right side
+        int pivot = 0;
+        for (int i = 1; i < size; i++) {
+            if (ys[i] < ys[pivot] || (ys[i] == ys[pivot] && xs[i] < xs[pivot])) {
+                pivot = i;
+            }
+        }
+        int step = sideOrientation == 1 ? 1 : -1;
+        double length = 0;
+        int current = pivot;
+        for (int i = 0; i < size - 1; i++) {
+            int next = Math.floorMod(current + step, size);
+            double dx = xs[next] - xs[current];
+            double dy = ys[next] - ys[current];
+            length += Math.sqrt(dx * dx + dy * dy);
+            current = next;
+        }
+        return length;
+    }
+
+    /**
+     * @return Vertices of the chain from p1 to p2
+     */
+    public List<Coordinate> getPath() {
+        return new ArrayList<>(Arrays.asList(vertices).subList(0, size));
+    }
+}
@@ -42,6 +42,7 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertInstanceOf;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class PathFinderTest {
 
@@ -1653,4 +1654,189 @@ public class PathFinderTest {
         // Disable overwrite state when pushing your code (you are not testing with the commited json)
         assertFalse(overwriteTestCase);
     }
+
+    /**
+     * @param factory Geometry factory
+     * @return Two buildings between two topographic lines
+     */
+    private static ProfileBuilder createTwoBuildingsScene(GeometryFactory factory) {
+        ProfileBuilder profileBuilder = new ProfileBuilder();
+        profileBuilder.addBuilding(factory.createPolygon(new Coordinate[]{new Coordinate(20, 0), new Coordinate(30, 0),
+                new Coordinate(30, 20), new Coordinate(20, 20), new Coordinate(20, 0)}), 8, -1);
+        profileBuilder.addBuilding(factory.createPolygon(new Coordinate[]{new Coordinate(40, 25), new Coordinate(55, 25),
+                new Coordinate(55, 35), new Coordinate(40, 35), new Coordinate(40, 25)}), 15, -1);
+        profileBuilder.addTopographicLine(factory.createLineString(new Coordinate[]{new Coordinate(-50, -50, 0),
+                new Coordinate(-50, 100, 0)}));
+        profileBuilder.addTopographicLine(factory.createLineString(new Coordinate[]{new Coordinate(120, -50, 4),
+                new Coordinate(120, 100, 4)}));
+        profileBuilder.finishFeeding();
+        return profileBuilder;
+    }
+
+    /**
+     * @param cutProfiles Computed profiles
+     * @return Sorted text representation of the profiles, used to compare two computations
+     */
+    private static List<String> profilesToString(Collection<CutProfile> cutProfiles) {
+        List<String> profiles = new ArrayList<>();
+        for (CutProfile cutProfile : cutProfiles) {
+            StringBuilder sb = new StringBuilder();
+            sb.append(cutProfile.getReceiver().id).append(" ").append(cutProfile.getProfileType())
+                    .append(" ").append(cutProfile.isCurvedPath()).append(" ")
+                    .append(cutProfile.isFreeField());
+            for (CutPoint cutPoint : cutProfile.cutPoints) {
+                sb.append(String.format(Locale.ROOT, " %s(%.6f %.6f %.6f %.6f %.2f)",
+                        cutPoint.getClass().getSimpleName(), cutPoint.coordinate.x, cutPoint.coordinate.y,
+                        cutPoint.coordinate.z, cutPoint.zGround, cutPoint.groundCoefficient));
+            }
+            profiles.add(sb.toString());
+        }
+        Collections.sort(profiles);
+        return profiles;
+    }
+
+    /**
+     * Receivers at the same x,y location share the computation that does not depend on the altitude, the result
+     * must be the same as the computation done for each receiver
+     */
+    @Test
+    public void testGroupStackedReceivers() throws Exception {
+        GeometryFactory factory = new GeometryFactory();
+        ProfileBuilder profileBuilder = createTwoBuildingsScene(factory);
+
+        List<List<String>> results = new ArrayList<>();
+        for (boolean groupStackedReceivers : new boolean[]{false, true}) {
+            Scene scene = new Scene(profileBuilder);
+            scene.addSource(factory.createPoint(new Coordinate(5, 10, 1)));
+            scene.addSource(factory.createLineString(new Coordinate[]{new Coordinate(0, -10, 0.5),
+                    new Coordinate(0, 40, 0.5)}));
+            for (double z : new double[]{4, 1.5, 10, 7}) {
+                scene.addReceiver(new Coordinate(70, 10, z));
+                scene.addReceiver(new Coordinate(60, 40, z + 2));
+            }
+            scene.addReceiver(new Coordinate(80, 0, 4));
+            scene.setReflexionOrder(1);
+            scene.setComputeVerticalDiffraction(true);
+            DefaultCutPlaneVisitor propDataOut = new DefaultCutPlaneVisitor(true);
+            PathFinder computeRays = new PathFinder(scene);
+            computeRays.setThreadCount(2);
+            computeRays.setGroupStackedReceivers(groupStackedReceivers);
+            computeRays.makeReceiverRelativeZToAbsolute();
+            computeRays.run(propDataOut);
+            results.add(profilesToString(propDataOut.cutProfiles));
+        }
+        assertFalse(results.get(0).isEmpty());
+        assertEquals(results.get(0), results.get(1));
+    }
+
+    /**
+     * The left and right lateral diffraction paths are accepted independently, a skipped side must not remove the
+     * profiles of the other side
+     */
+    @Test
+    public void testAcceptLateralDiffractionSides() throws Exception {
+        GeometryFactory factory = new GeometryFactory();
+        ProfileBuilder profileBuilder = new ProfileBuilder();
+        profileBuilder.addBuilding(factory.createPolygon(new Coordinate[]{new Coordinate(29, -1),
+                new Coordinate(31, -1), new Coordinate(31, 1), new Coordinate(29, 1), new Coordinate(29, -1)}), 20, -1);
+        profileBuilder.finishFeeding();
+        Scene scene = new Scene(profileBuilder);
+        scene.addSource(factory.createPoint(new Coordinate(0, 0, 1)));
+        scene.addReceiver(new Coordinate(60, 0, 4));
+        scene.setReflexionOrder(0);
+        scene.setComputeVerticalDiffraction(true);
+        scene.setComputeHorizontalDiffraction(true);
+        List<double[]> energyRatios = new ArrayList<>();
+        DefaultCutPlaneVisitor propDataOut = new DefaultCutPlaneVisitor(true) {
+            @Override
+            public boolean acceptPath(PathFinder.SourcePointInfo source, PathFinder.ReceiverPointInfo receiver,
+                                      double pathLength, double[] energyRatio) {
+                energyRatios.add(energyRatio.clone());
+                // skip the first side only
+                return energyRatios.size() > 1;
+            }
+        };
+        PathFinder computeRays = new PathFinder(scene);
+        computeRays.setThreadCount(1);
+        computeRays.makeReceiverRelativeZToAbsolute();
+        computeRays.run(propDataOut);
+
+        // one call for each side, each side is bounded by a third of the energy of the direct line
+        assertEquals(2, energyRatios.size());
+        for (double[] energyRatio : energyRatios) {
+            for (double ratio : energyRatio) {
+                assertEquals(1 / 3.0, ratio, 1e-12);
+            }
+        }
+        Map<CutProfile.PROFILE_TYPE, Integer> profileTypes = new EnumMap<>(CutProfile.PROFILE_TYPE.class);
+        for (CutProfile cutProfile : propDataOut.cutProfiles) {
+            profileTypes.merge(cutProfile.getProfileType(), 1, Integer::sum);
+        }
+        assertFalse(profileTypes.containsKey(CutProfile.PROFILE_TYPE.LEFT));
+        assertTrue(profileTypes.getOrDefault(CutProfile.PROFILE_TYPE.RIGHT, 0) > 0);
+    }
+
+    /**
+     * The receiver horizon must not change the computed profiles when the vertical diffraction is disabled
+     */
+    @Test
+    public void testHorizonRadius() throws Exception {
+        GeometryFactory factory = new GeometryFactory();
+        ProfileBuilder profileBuilder = createTwoBuildingsScene(factory);
+
+        for (boolean horizontalDiffraction : new boolean[]{false, true}) {
+            List<List<String>> results = new ArrayList<>();
+            for (double horizonRadius : new double[]{0, 500}) {
+                Scene scene = new Scene(profileBuilder);
+                scene.addSource(factory.createPoint(new Coordinate(5, 10, 1)));
+                scene.addSource(factory.createLineString(new Coordinate[]{new Coordinate(0, -10, 0.5),
+                        new Coordinate(0, 40, 0.5)}));
+                scene.addReceiver(new Coordinate(35, 10, 1.5));
+                scene.addReceiver(new Coordinate(70, 10, 4));
+                scene.addReceiver(new Coordinate(60, 40, 1.5));
+                scene.setReflexionOrder(1);
+                scene.setComputeVerticalDiffraction(false);
+                scene.setComputeHorizontalDiffraction(horizontalDiffraction);
+                DefaultCutPlaneVisitor propDataOut = new DefaultCutPlaneVisitor(true);
+                PathFinder computeRays = new PathFinder(scene);
+                computeRays.setThreadCount(1);
+                computeRays.setHorizonRadius(horizonRadius);
+                computeRays.makeReceiverRelativeZToAbsolute();
+                computeRays.run(propDataOut);
+                results.add(profilesToString(propDataOut.cutProfiles));
+            }
+            assertFalse(results.get(0).isEmpty());
+            assertEquals(results.get(0), results.get(1));
+        }
+    }
+
+    /**
+     * Receivers altitude computed by several threads must be the same as the altitude computed for each receiver
+     */
+    @Test
+    public void testParallelReceiverDraping() {
+        ProfileBuilder profileBuilder = new ProfileBuilder();
+        Random random = new Random(42);
+        for (int i = 0; i < 300; i++) {
+            profileBuilder.addTopographicPoint(new Coordinate(random.nextDouble() * 1000, random.nextDouble() * 1000,
+                    random.nextDouble() * 50));
+        }
+        profileBuilder.finishFeeding();
+        Scene scene = new Scene(profileBuilder);
+        List<Coordinate> expected = new ArrayList<>();
+        for (int i = 0; i < 20000; i++) {
+            Coordinate receiver = new Coordinate(random.nextDouble() * 1000, random.nextDouble() * 1000, 4);
+            scene.addReceiver(receiver);
+            expected.add(new Coordinate(receiver.x, receiver.y, 4 + profileBuilder.getZGround(receiver)));
+        }
+        PathFinder computeRays = new PathFinder(scene);
+        computeRays.setThreadCount(4);
+        computeRays.makeReceiverRelativeZToAbsolute();
+        assertEquals(expected.size(), scene.receivers.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).z, scene.receivers.get(i).z, 1e-6);
+        }
+        int[] order = PathFinder.sortReceiversBySpatialLocality(scene.receivers);
+        assertEquals(scene.receivers.size(), Arrays.stream(order).distinct().count());
+    }
 }
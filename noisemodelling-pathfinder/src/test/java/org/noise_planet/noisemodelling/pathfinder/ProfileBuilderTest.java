@@ -17,17 +17,26 @@ import org.noise_planet.noisemodelling.pathfinder.profilebuilder.Building;
 import org.noise_planet.noisemodelling.pathfinder.path.Scene;
 import org.noise_planet.noisemodelling.pathfinder.profilebuilder.CutPoint;
 import org.noise_planet.noisemodelling.pathfinder.profilebuilder.CutProfile;
+import org.noise_planet.noisemodelling.pathfinder.profilebuilder.GroundAbsorption;
+import org.noise_planet.noisemodelling.pathfinder.profilebuilder.GroundAbsorptionGrid;
+import org.noise_planet.noisemodelling.pathfinder.profilebuilder.PlanimetricCutProfile;
 import org.noise_planet.noisemodelling.pathfinder.profilebuilder.ProfileBuilder;
+import org.noise_planet.noisemodelling.pathfinder.profilebuilder.Wall;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.noise_planet.noisemodelling.pathfinder.PathFinderTest.assertZProfil;
 
 /**
@@ -361,4 +370,183 @@ public class ProfileBuilderTest {
 
 
     }
+
+    /**
+     * The profile built from the planimetric profile must be the same as the profile computed directly for all the
+     * receivers at the same x,y location
+     */
+    @Test
+    public void testPlanimetricProfile() throws ParseException {
+        ProfileBuilder profileBuilder = new ProfileBuilder();
+        profileBuilder.addBuilding(READER.read("POLYGON((20 -5, 30 -5, 30 15, 20 15, 20 -5))"), 12, -1);
+        profileBuilder.addWall(new Coordinate[]{new Coordinate(45, -10, 3), new Coordinate(45, 20, 3)}, 3, -1);
+        profileBuilder.addGroundEffect(READER.read("POLYGON((0 -20, 60 -20, 60 40, 0 40, 0 -20))"), 0.7);
+        profileBuilder.addGroundEffect(READER.read("POLYGON((35 -20, 80 -20, 80 40, 35 40, 35 -20))"), 0.2);
+        profileBuilder.addTopographicLine((LineString) READER.read("LINESTRING (-10 -30 0, -10 50 0)"));
+        profileBuilder.addTopographicLine((LineString) READER.read("LINESTRING (40 -30 6, 40 50 6)"));
+        profileBuilder.addTopographicLine((LineString) READER.read("LINESTRING (100 -30 1, 100 50 1)"));
+        profileBuilder.finishFeeding();
+
+        Coordinate source = new Coordinate(5, 5, 0.5);
+        PlanimetricCutProfile planimetricProfile = profileBuilder.getPlanimetricProfile(source,
+                new Coordinate(90, 10, 0), 0.5);
+        for (double z : new double[]{1.5, 4, 9, 15, 30}) {
+            Coordinate receiver = new Coordinate(90, 10, z);
+            CutProfile expected = profileBuilder.getProfile(source, receiver, 0.5, false);
+            CutProfile profile = profileBuilder.getProfile(planimetricProfile, source, receiver);
+            assertEquals(expected.hasBuildingIntersection, profile.hasBuildingIntersection);
+            assertEquals(expected.hasTopographyIntersection, profile.hasTopographyIntersection);
+            assertEquals(expected.cutPoints.size(), profile.cutPoints.size());
+            for (int i = 0; i < expected.cutPoints.size(); i++) {
+                CutPoint expectedPoint = expected.cutPoints.get(i);
+                CutPoint point = profile.cutPoints.get(i);
+                assertEquals(expectedPoint.getClass(), point.getClass());
+                assertEquals(0, expectedPoint.getCoordinate().distance3D(point.getCoordinate()), 1e-9);
+                assertEquals(expectedPoint.zGround, point.zGround, 1e-9);
+                assertEquals(expectedPoint.groundCoefficient, point.groundCoefficient, 1e-9);
+            }
+        }
+        assertThrows(IllegalArgumentException.class, () -> profileBuilder.getProfile(planimetricProfile, source,
+                new Coordinate(91, 10, 4)));
+    }
+
+    /**
+     * The ground absorption grid must locate the same ground areas and must not miss any border crossed by a segment
+     */
+    @Test
+    public void groundAbsorptionGridTest() throws ParseException {
+        ProfileBuilder profileBuilder = new ProfileBuilder();
+        Random random = new Random(42);
+        for (int x = 0; x < 100; x += 10) {
+            for (int y = 0; y < 100; y += 10) {
+                profileBuilder.addGroundEffect(x, x + 10, y, y + 10, random.nextDouble());
+            }
+        }
+        profileBuilder.addGroundEffect(READER.read("POLYGON((-20 -20, 60 20, 20 60, -20 -20))"), 0.1);
+        profileBuilder.addGroundEffect(READER.read("POLYGON((130 30, 160 40, 140 80, 130 30))"), 0.9);
+        profileBuilder.finishFeeding();
+        int firstBorder = 0;
+        while (profileBuilder.processedWalls.get(firstBorder).getType() != ProfileBuilder.IntersectionType.GROUND_EFFECT) {
+            firstBorder++;
+        }
+        GroundAbsorptionGrid grid = new GroundAbsorptionGrid(profileBuilder.getGroundEffects(),
+                profileBuilder.processedWalls, firstBorder);
+        GeometryFactory factory = new GeometryFactory();
+        List<GroundAbsorption> groundAbsorptions = profileBuilder.getGroundEffects();
+        for (int i = 0; i < 2000; i++) {
+            Coordinate p = new Coordinate(random.nextDouble() * 200 - 30, random.nextDouble() * 120 - 30);
+            int groundAbsorptionIndex = grid.getGroundAbsorptionIndex(p);
+            if (groundAbsorptionIndex >= 0) {
+                assertTrue(groundAbsorptions.get(groundAbsorptionIndex).getGeometry().intersects(factory.createPoint(p)));
+            } else {
+                for (GroundAbsorption groundAbsorption : groundAbsorptions) {
+                    assertFalse(groundAbsorption.getGeometry().intersects(factory.createPoint(p)));
+                }
+            }
+        }
+        List<LineSegment> segments = new ArrayList<>();
+        segments.add(new LineSegment(new Coordinate(0, 0), new Coordinate(100, 100)));
+        segments.add(new LineSegment(new Coordinate(100, 0), new Coordinate(0, 100)));
+        segments.add(new LineSegment(new Coordinate(-50, 50), new Coordinate(250, 50)));
+        segments.add(new LineSegment(new Coordinate(40, 40), new Coordinate(40, 40)));
+        for (int i = 0; i < 500; i++) {
+            segments.add(new LineSegment(new Coordinate(random.nextDouble() * 250 - 50, random.nextDouble() * 150 - 50),
+                    new Coordinate(random.nextDouble() * 250 - 50, random.nextDouble() * 150 - 50)));
+        }
+        for (LineSegment segment : segments) {
+            List<Integer> borders = grid.getBorders(segment.p0, segment.p1);
+            for (int i = firstBorder; i < profileBuilder.processedWalls.size(); i++) {
+                if (segment.intersection(profileBuilder.processedWalls.get(i).getLineSegment()) != null) {
+                    assertTrue(borders.contains(i), "Missing border " + i + " for " + segment);
+                }
+            }
+        }
+    }
+
+    /**
+     * The altitude found by walking from the triangle hint must be the same as the one found with the index
+     */
+    @Test
+    public void zGroundTriangleWalkTest() {
+        ProfileBuilder profileBuilder = new ProfileBuilder();
+        Random random = new Random(42);
+        for (int i = 0; i < 500; i++) {
+            profileBuilder.addTopographicPoint(new Coordinate(random.nextDouble() * 1000, random.nextDouble() * 1000,
+                    random.nextDouble() * 50));
+        }
+        profileBuilder.finishFeeding();
+        AtomicInteger triangleHint = new AtomicInteger(-1);
+        Coordinate location = new Coordinate(500, 500);
+        for (int i = 0; i < 2000; i++) {
+            // random walk, the next location is near the previous one
+            location = new Coordinate(Math.min(1000, Math.max(0, location.x + random.nextGaussian() * 30)),
+                    Math.min(1000, Math.max(0, location.y + random.nextGaussian() * 30)));
+            assertEquals(profileBuilder.getZGround(location), profileBuilder.getZGround(location, triangleHint), 1e-6);
+        }
+    }
+
+    private static ProfileBuilder buildRandomScene(int threadCount) {
+        Random random = new Random(42);
+        ProfileBuilder profileBuilder = new ProfileBuilder().setThreadCount(threadCount);
+        for (int x = 0; x <= 500; x += 20) {
+            for (int y = 0; y <= 500; y += 20) {
+                profileBuilder.addTopographicPoint(new Coordinate(x, y, random.nextDouble() * 10));
+            }
+        }
+        for (int x = 10; x < 490; x += 30) {
+            for (int y = 10; y < 490; y += 30) {
+                double size = 5 + random.nextDouble() * 15;
+                profileBuilder.addBuilding(new Coordinate[]{new Coordinate(x, y), new Coordinate(x + size, y),
+                        new Coordinate(x + size, y + size), new Coordinate(x, y + size)},
+                        5 + random.nextDouble() * 20);
+            }
+        }
+        for (int i = 0; i < 20; i++) {
+            double x = 25 + i * 22;
+            profileBuilder.addWall(new Coordinate[]{new Coordinate(x, 2), new Coordinate(x + 10, 5),
+                    new Coordinate(x + 15, 3)}, 3, i);
+        }
+        for (int x = 0; x < 500; x += 100) {
+            for (int y = 0; y < 500; y += 100) {
+                profileBuilder.addGroundEffect(x, x + 100, y, y + 100, random.nextDouble());
+            }
+        }
+        return profileBuilder.finishFeeding();
+    }
+
+    /**
+     * The topography, buildings, walls and ground effects processed in parallel by finishFeeding are identical to the
+     * sequential processing
+     */
+    @Test
+    public void testParallelFinishFeeding() {
+        ProfileBuilder sequential = buildRandomScene(1);
+        ProfileBuilder parallel = buildRandomScene(4);
+        List<Wall> sequentialWalls = sequential.getProcessedWalls();
+        List<Wall> parallelWalls = parallel.getProcessedWalls();
+        assertEquals(sequentialWalls.size(), parallelWalls.size());
+        for (int i = 0; i < sequentialWalls.size(); i++) {
+            Wall expected = sequentialWalls.get(i);
+            Wall actual = parallelWalls.get(i);
+            assertEquals(expected.getType(), actual.getType());
+            assertEquals(expected.getOriginId(), actual.getOriginId());
+            assertEquals(expected.primaryKey, actual.primaryKey);
+            assertEquals(i, actual.getProcessedWallIndex());
+            assertEquals(0, expected.p0.compareTo(actual.p0));
+            assertEquals(expected.p0.z, actual.p0.z, DELTA);
+            assertEquals(0, expected.p1.compareTo(actual.p1));
+            assertEquals(expected.p1.z, actual.p1.z, DELTA);
+        }
+        for (int i = 0; i < sequential.getBuildingCount(); i++) {
+            assertTrue(sequential.getBuilding(i).getGeometry().equalsExact(parallel.getBuilding(i).getGeometry()));
+            assertArrayEquals(Arrays.stream(sequential.getBuilding(i).getGeometry().getCoordinates())
+                            .mapToDouble(c -> c.z).toArray(),
+                    Arrays.stream(parallel.getBuilding(i).getGeometry().getCoordinates())
+                            .mapToDouble(c -> c.z).toArray(), DELTA);
+        }
+        Envelope envelope = new Envelope(-10, 510, -10, 510);
+        assertEquals(sequential.rtree.query(envelope), parallel.rtree.query(envelope));
+        assertEquals(sequential.getTrianglesIn(envelope), parallel.getTrianglesIn(envelope));
+        assertEquals(sequential.getWallsIn(envelope).size(), parallel.getWallsIn(envelope).size());
+    }
 }
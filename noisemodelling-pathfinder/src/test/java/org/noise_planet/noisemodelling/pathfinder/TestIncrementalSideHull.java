@@ -0,0 +1,104 @@
+/**
+ * NoiseModelling is a library capable of producing noise maps. It can be freely used either for research and education, as well as by experts in a professional use.
+ * <p>
+ * NoiseModelling is distributed under GPL 3 license. You can read a copy of this License in the file LICENCE provided with this software.
+ * <p>
+ * Official webpage : http://noise-planet.org/noisemodelling.html
+ * Contact: contact@noise-planet.org
+ */
+
+package org.noise_planet.noisemodelling.pathfinder;
+
+import org.junit.jupiter.api.Test;
+import org.locationtech.jts.algorithm.ConvexHull;
+import org.locationtech.jts.algorithm.Length;
+import org.locationtech.jts.algorithm.Orientation;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.impl.CoordinateArraySequenceFactory;
+import org.noise_planet.noisemodelling.pathfinder.utils.geometry.IncrementalSideHull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestIncrementalSideHull {
+
+    @Test
+    public void testInsertion() {
+        Coordinate p1 = new Coordinate(0, 0);
+        Coordinate p2 = new Coordinate(10, 0);
+        IncrementalSideHull hull = new IncrementalSideHull(p1, p2, true);
+        assertEquals(2, hull.getVertexCount());
+        assertTrue(hull.add(new Coordinate(5, 2)));
+        hull.setEdgeFree(0);
+        hull.setEdgeFree(1);
+        // inside the hull
+        assertFalse(hull.add(new Coordinate(5, 1)));
+        // on the boundary
+        assertFalse(hull.add(new Coordinate(2.5, 1)));
+        // replace the second edge only
+        assertTrue(hull.add(new Coordinate(8, 3)));
+        assertEquals(Arrays.asList(p1, new Coordinate(5, 2), new Coordinate(8, 3), p2), hull.getPath());
+        assertTrue(hull.isEdgeFree(0));
+        assertFalse(hull.isEdgeFree(1));
+        assertFalse(hull.isEdgeFree(2));
+        // (5, 2) become collinear with p1 and (10, 4) so it is removed
+        assertTrue(hull.add(new Coordinate(10, 4)));
+        assertEquals(Arrays.asList(p1, new Coordinate(10, 4), p2), hull.getPath());
+        assertFalse(hull.isEdgeFree(0));
+    }
+
+    @Test
+    public void testRightSide() {
+        Coordinate p1 = new Coordinate(0, 0);
+        Coordinate p2 = new Coordinate(10, 0);
+        IncrementalSideHull hull = new IncrementalSideHull(p1, p2, false);
+        assertTrue(hull.add(new Coordinate(3, -4)));
+        assertTrue(hull.add(new Coordinate(7, -4)));
+        assertFalse(hull.add(new Coordinate(5, -2)));
+        assertEquals(Arrays.asList(p1, new Coordinate(3, -4), new Coordinate(7, -4), p2), hull.getPath());
+    }
+
+    /**
+     * The hull must be the same as the JTS convex hull of the points, with the same length
+     */
+    @Test
+    public void testCompareWithConvexHull() {
+        GeometryFactory factory = new GeometryFactory();
+        Random random = new Random(42);
+        for (int iteration = 0; iteration < 1000; iteration++) {
+            boolean left = random.nextBoolean();
+            Coordinate p1 = new Coordinate(random.nextInt(50), random.nextInt(50));
+            Coordinate p2 = new Coordinate(random.nextInt(50), random.nextInt(50));
+            if (p1.equals2D(p2)) {
+                continue;
+            }
+            IncrementalSideHull hull = new IncrementalSideHull(p1, p2, left);
+            List<Coordinate> points = new ArrayList<>(Arrays.asList(p1, p2));
+            while (points.size() < 12) {
+                Coordinate q = new Coordinate(random.nextInt(50), random.nextInt(50));
+                if (Orientation.index(p1, p2, q) == (left ? 1 : -1)) {
+                    points.add(q);
+                    hull.add(q);
+                }
+            }
+            Coordinate[] expected = new ConvexHull(points.toArray(new Coordinate[0]), factory).getConvexHull()
+                    .getCoordinates();
+            Set<Coordinate> expectedVertices = new HashSet<>(Arrays.asList(expected));
+            List<Coordinate> path = hull.getPath();
+            assertEquals(expectedVertices, new HashSet<>(path));
+            assertEquals(expected.length - 1, path.size());
+            assertSame(p1, path.get(0));
+            assertSame(p2, path.get(path.size() - 1));
+            double expectedLength = Length.ofLine(CoordinateArraySequenceFactory.instance()
+                    .create(Arrays.copyOfRange(expected, 0, expected.length - 1)));
+            assertEquals(expectedLength, hull.getHullLength(), 1e-9);
+        }
+    }
+}
@@ -10,8 +10,12 @@
 package org.noise_planet.noisemodelling.pathfinder;
 
 
+import org.apache.commons.math3.geometry.euclidean.threed.Plane;
 import org.junit.jupiter.api.Test;
+import org.locationtech.jts.algorithm.ConvexHull;
+import org.locationtech.jts.algorithm.Length;
 import org.locationtech.jts.geom.*;
+import org.locationtech.jts.geom.impl.CoordinateArraySequenceFactory;
 import org.locationtech.jts.io.ParseException;
 import org.locationtech.jts.io.WKTReader;
 import org.noise_planet.noisemodelling.pathfinder.path.Scene;
@@ -22,7 +26,10 @@ import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.noise_planet.noisemodelling.pathfinder.PathFinder.splitLineStringIntoPoints;
@@ -71,6 +78,84 @@ public class TestPathFinder {
         assertEquals(-2.33, intercept, 0.01);
     }
 
+    /**
+     * The far parts of a long road are merged, the geometric divergence must stay within the error bound
+     * compared to a fine split of the line
+     */
+    @Test
+    public void testSplitLineStringIntoClusteredPoints() {
+        GeometryFactory factory = new GeometryFactory();
+        LineString geom = factory.createLineString(new Coordinate[]{new Coordinate(0, 0, 0),
+                new Coordinate(400, 0, 0), new Coordinate(1000, 0, 0)});
+        Coordinate receiver = new Coordinate(0, 20, 0);
+        double segmentSizeConstraint = 10;
+        List<Coordinate> referencePoints = new ArrayList<>();
+        double referenceLi = splitLineStringIntoPoints(geom, 0.1, referencePoints);
+        double referenceEnergy = 0;
+        for (Coordinate pt : referencePoints) {
+            referenceEnergy += referenceLi / pt.distance3D(receiver) / pt.distance3D(receiver);
+        }
+        List<Coordinate> regularPoints = new ArrayList<>();
+        splitLineStringIntoPoints(geom, segmentSizeConstraint, regularPoints);
+        for (double maximumError : new double[]{0.1, 0.5, 1.0}) {
+            List<Coordinate> pts = new ArrayList<>();
+            List<Double> pointsLength = new ArrayList<>();
+            PathFinder.splitLineStringIntoClusteredPoints(geom, receiver, segmentSizeConstraint, maximumError, pts,
+                    pointsLength);
+            assertEquals(pts.size(), pointsLength.size());
+            assertTrue(pts.size() < regularPoints.size());
+            // the nearest points are not merged
+            assertEquals(regularPoints.get(0), pts.get(0));
+            double totalLength = 0;
+            double energy = 0;
+            for (int i = 0; i < pts.size(); i++) {
+                totalLength += pointsLength.get(i);
+                energy += pointsLength.get(i) / pts.get(i).distance3D(receiver) / pts.get(i).distance3D(receiver);
+                if (i > 0) {
+                    // points are ordered along the line
+                    assertTrue(pts.get(i).x > pts.get(i - 1).x);
+                }
+            }
+            assertEquals(geom.getLength(), totalLength, 1e-6);
+            assertEquals(0, 10 * Math.log10(energy / referenceEnergy), maximumError);
+        }
+        // disabled aggregation give the regular split
+        List<Coordinate> pts = new ArrayList<>();
+        List<Double> pointsLength = new ArrayList<>();
+        PathFinder.splitLineStringIntoClusteredPoints(geom, receiver, segmentSizeConstraint, 0, pts, pointsLength);
+        assertEquals(regularPoints, pts);
+        assertEquals(segmentSizeConstraint, pointsLength.get(0), 1e-6);
+    }
+
+    @Test
+    public void testMaximumFarFieldError() {
+        GeometryFactory factory = new GeometryFactory();
+        ProfileBuilder profileBuilder = new ProfileBuilder();
+        profileBuilder.finishFeeding();
+        double maximumError = 0.5;
+        double[] energy = new double[2];
+        int[] sourceCount = new int[2];
+        for (int i = 0; i < 2; i++) {
+            Scene scene = new Scene(profileBuilder);
+            scene.addSource(factory.createLineString(new Coordinate[]{new Coordinate(-500, 0, 0.05),
+                    new Coordinate(500, 0, 0.05)}));
+            scene.addReceiver(new Coordinate(30, 25, 4));
+            scene.setReflexionOrder(0);
+            scene.setMaximumFarFieldError(i == 0 ? 0 : maximumError);
+            DefaultCutPlaneVisitor propDataOut = new DefaultCutPlaneVisitor(true);
+            PathFinder computeRays = new PathFinder(scene);
+            computeRays.setThreadCount(1);
+            computeRays.run(propDataOut);
+            for (CutProfile cutProfile : propDataOut.cutProfiles) {
+                double distance = cutProfile.getSource().coordinate.distance3D(cutProfile.getReceiver().coordinate);
+                energy[i] += cutProfile.getSource().li / (distance * distance);
+            }
+            sourceCount[i] = propDataOut.cutProfiles.size();
+        }
+        assertTrue(sourceCount[1] < sourceCount[0]);
+        assertEquals(0, 10 * Math.log10(energy[1] / energy[0]), maximumError);
+    }
+
     /**
      * Test vertical edge diffraction ray computation
      *
@@ -306,4 +391,133 @@ public class TestPathFinder {
             assertFalse(Double.isNaN(pt.y));
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Lateral diffraction on a dense grid of buildings, the shared cut roof points cache must not change the paths
+     */
+    @Test
+    public void testSideHullBuildingGrid() {
+        GeometryFactory factory = new GeometryFactory();
+        ProfileBuilder profileBuilder = new ProfileBuilder();
+        for (int i = 0; i < 15; i++) {
+            for (int j = 0; j < 15; j++) {
+                double x = i * 20;
+                double y = j * 20;
+                profileBuilder.addBuilding(factory.createPolygon(new Coordinate[]{new Coordinate(x, y),
+                        new Coordinate(x + 12, y), new Coordinate(x + 12, y + 12), new Coordinate(x, y + 12),
+                        new Coordinate(x, y)}), 10 + (i * 7 + j * 3) % 20, -1);
+            }
+        }
+        profileBuilder.finishFeeding();
+        Scene scene = new Scene(profileBuilder);
+        PathFinder computeRays = new PathFinder(scene);
+        int pathCount = 0;
+        long start = System.currentTimeMillis();
+        for (int k = 0; k < 15; k++) {
+            Coordinate source = new Coordinate(-10, 5 + k * 20, 1);
+            Coordinate receiver = new Coordinate(300, 15 + k * 20, 4);
+            for (boolean curved : new boolean[]{false, true}) {
+                BuildingIntersectionPathVisitor.CutRoofPointsCache cache =
+                        new BuildingIntersectionPathVisitor.CutRoofPointsCache();
+                for (boolean left : new boolean[]{true, false}) {
+                    List<Coordinate> expected = computeRays.computeSideHull(left, source, receiver, curved);
+                    // same path as the previous implementation using the JTS convex hull
+                    assertEquals(computeConvexHullSidePath(scene, left, source, receiver, curved), expected);
+                    List<Coordinate> ray = computeRays.computeSideHull(left, source, receiver, curved, cache);
+                    assertEquals(expected, ray);
+                    if (!ray.isEmpty()) {
+                        pathCount++;
+                        assertEquals(source, ray.get(0));
+                        assertEquals(receiver, ray.get(ray.size() - 1));
+                    }
+                }
+            }
+        }
+        LOGGER.info(String.format("%d lateral paths computed in %d ms", pathCount,
+                System.currentTimeMillis() - start));
+        assertTrue(pathCount > 0);
+    }
+
+    /**
+     * Side path computed by rebuilding a JTS convex hull after each obstacle found, as done by
+     * {@link PathFinder#computeSideHull(boolean, Coordinate, Coordinate, boolean)} before the incremental hull
+     */
+    private static List<Coordinate> computeConvexHullSidePath(Scene data, boolean left, Coordinate p1, Coordinate p2,
+                                                              boolean curved) {
+        GeometryFactory factory = new GeometryFactory();
+        Set<LineSegment> freeFieldSegments = new HashSet<>();
+        List<Coordinate> input = new ArrayList<>();
+        Coordinate[] coordinates = new Coordinate[0];
+        int indexp1 = 0;
+        int indexp2 = 0;
+        boolean convexHullIntersects = true;
+        input.add(p1);
+        input.add(p2);
+        Plane cutPlane = PathFinder.computeZeroRadPlane(p1, p2);
+        BuildingIntersectionPathVisitor buildingIntersectionPathVisitor = new BuildingIntersectionPathVisitor(p1, p2,
+                left, data.profileBuilder, input, cutPlane);
+        buildingIntersectionPathVisitor.setCurved(curved);
+        data.profileBuilder.getWallsOnPath(p1, p2, buildingIntersectionPathVisitor);
+        while (convexHullIntersects) {
+            coordinates = new ConvexHull(input.toArray(new Coordinate[0]), factory).getConvexHull().getCoordinates();
+            double convexHullLength = Length.ofLine(CoordinateArraySequenceFactory.instance()
+                    .create(Arrays.copyOfRange(coordinates, 0, coordinates.length - 1)));
+            if (convexHullLength / p1.distance(p2) > 4 || convexHullLength >= data.maxSrcDist) {
+                return new ArrayList<>();
+            }
+            convexHullIntersects = false;
+            input.clear();
+            input.addAll(Arrays.asList(coordinates));
+            indexp1 = -1;
+            for (int i = 0; i < coordinates.length - 1; i++) {
+                if (coordinates[i].equals(p1)) {
+                    indexp1 = i;
+                    break;
+                }
+            }
+            if (indexp1 == -1) {
+                return new ArrayList<>();
+            }
+            // set p1 at index 0
+            Coordinate[] coordinatesShifted = new Coordinate[coordinates.length];
+            int len = (coordinates.length - 1) - indexp1;
+            System.arraycopy(coordinates, indexp1, coordinatesShifted, 0, len);
+            System.arraycopy(coordinates, 0, coordinatesShifted, len, coordinates.length - len - 1);
+            coordinatesShifted[coordinatesShifted.length - 1] = coordinatesShifted[0];
+            coordinates = coordinatesShifted;
+            indexp1 = 0;
+            indexp2 = -1;
+            for (int i = 1; i < coordinates.length - 1; i++) {
+                if (coordinates[i].equals(p2)) {
+                    indexp2 = i;
+                    break;
+                }
+            }
+            if (indexp2 == -1) {
+                return new ArrayList<>();
+            }
+            for (int k = 0; k < coordinates.length - 1; k++) {
+                LineSegment freeFieldTestSegment = new LineSegment(coordinates[k], coordinates[k + 1]);
+                if ((left && k < indexp2 || !left && k >= indexp2) && !freeFieldSegments.contains(freeFieldTestSegment)) {
+                    int inputPointsBefore = input.size();
+                    data.profileBuilder.getWallsOnPath(coordinates[k], coordinates[k + 1],
+                            buildingIntersectionPathVisitor);
+                    if (inputPointsBefore == input.size()) {
+                        freeFieldSegments.add(freeFieldTestSegment);
+                    } else {
+                        convexHullIntersects = true;
+                        break;
+                    }
+                }
+            }
+        }
+        // restore coordinates order from p1 to p2
+        if (left) {
+            return Arrays.asList(Arrays.copyOfRange(coordinates, indexp1, indexp2 + 1));
+        } else {
+            List<Coordinate> inversePath = Arrays.asList(Arrays.copyOfRange(coordinates, indexp2, coordinates.length));
+            Collections.reverse(inversePath);
+            return inversePath;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+/**
+ * NoiseModelling is a library capable of producing noise maps. It can be freely used either for research and education, as well as by experts in a professional use.
+ * <p>
+ * NoiseModelling is distributed under GPL 3 license. You can read a copy of this License in the file LICENCE provided with this software.
+ * <p>
+ * Official webpage : http://noise-planet.org/noisemodelling.html
+ * Contact: contact@noise-planet.org
+ */
+
+package org.noise_planet.noisemodelling.pathfinder;
+
+import org.junit.jupiter.api.Test;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.noise_planet.noisemodelling.pathfinder.profilebuilder.ProfileBuilder;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestReceiverHorizon {
+
+    private static ProfileBuilder createScene() {
+        GeometryFactory factory = new GeometryFactory();
+        ProfileBuilder profileBuilder = new ProfileBuilder();
+        profileBuilder.addBuilding(factory.createPolygon(new Coordinate[]{new Coordinate(20, 0), new Coordinate(30, 0),
+                new Coordinate(30, 20), new Coordinate(20, 20), new Coordinate(20, 0)}), 8, -1);
+        profileBuilder.addBuilding(factory.createPolygon(new Coordinate[]{new Coordinate(40, 25), new Coordinate(55, 25),
+                new Coordinate(55, 35), new Coordinate(40, 35), new Coordinate(40, 25)}), 15, -1);
+        profileBuilder.addBuilding(factory.createPolygon(new Coordinate[]{new Coordinate(60, -30), new Coordinate(75, -30),
+                new Coordinate(75, -20), new Coordinate(60, -20), new Coordinate(60, -30)}), 6, -1);
+        profileBuilder.addTopographicLine(factory.createLineString(new Coordinate[]{new Coordinate(-50, -50, 0),
+                new Coordinate(-50, 100, 0)}));
+        profileBuilder.addTopographicLine(factory.createLineString(new Coordinate[]{new Coordinate(120, -50, 4),
+                new Coordinate(120, 100, 4)}));
+        profileBuilder.finishFeeding();
+        return profileBuilder;
+    }
+
+    @Test
+    public void testObstructedByBuilding() {
+        ProfileBuilder profileBuilder = createScene();
+        Coordinate receiver = new Coordinate(35, 10, 1.5);
+        ReceiverHorizon horizon = new ReceiverHorizon(profileBuilder, receiver, 200);
+        assertTrue(horizon.getObstacleCount() > 0);
+        // low source behind the first building
+        assertTrue(horizon.isObstructed(new Coordinate(10, 10, 1)));
+        // source high above the building
+        assertFalse(horizon.isObstructed(new Coordinate(10, 10, 50)));
+        // source before the building
+        assertFalse(horizon.isObstructed(new Coordinate(32, 10, 1)));
+    }
+
+    /**
+     * A source classified as obstructed must never have a free field direct profile
+     */
+    @Test
+    public void testClassificationIsConservative() {
+        ProfileBuilder profileBuilder = createScene();
+        Random random = new Random(42);
+        int obstructed = 0;
+        for (int idReceiver = 0; idReceiver < 5; idReceiver++) {
+            Coordinate receiver = new Coordinate(random.nextDouble() * 150 - 40, random.nextDouble() * 130 - 40);
+            receiver.setZ(profileBuilder.getZGround(receiver) + 1 + random.nextDouble() * 10);
+            ReceiverHorizon horizon = new ReceiverHorizon(profileBuilder, receiver, 200);
+            for (int idSource = 0; idSource < 200; idSource++) {
+                Coordinate source = new Coordinate(random.nextDouble() * 150 - 40, random.nextDouble() * 130 - 40);
+                source.setZ(profileBuilder.getZGround(source) + random.nextDouble() * 5);
+                if (horizon.isObstructed(source)) {
+                    obstructed++;
+                    assertFalse(profileBuilder.getProfile(source, receiver, 0, true).isFreeField(),
+                            "Source " + source + " receiver " + receiver);
+                }
+            }
+        }
+        assertTrue(obstructed > 0);
+    }
+}
@@ -4,6 +4,7 @@ import org.h2gis.utilities.JDBCUtilities;
 import org.h2gis.utilities.SpatialResultSet;
 import org.locationtech.jts.geom.Geometry;
 import org.noise_planet.noisemodelling.emission.directivity.DirectivitySphere;
+import org.noise_planet.noisemodelling.emission.directivity.DiscreteDirectivitySphere;
 import org.noise_planet.noisemodelling.emission.directivity.OmnidirectionalDirection;
 import org.noise_planet.noisemodelling.pathfinder.path.Scene;
 import org.noise_planet.noisemodelling.pathfinder.profilebuilder.ProfileBuilder;
@@ -11,6 +12,7 @@ import org.noise_planet.noisemodelling.pathfinder.utils.geometry.Orientation;
 
 import java.sql.SQLException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Scene is used by ProfileBuilder to construct profiles with only taking account of geometry information.
@@ -24,6 +26,11 @@ public class SceneWithAttenuation extends Scene {
      */
     public Map<Integer, DirectivitySphere> directionAttributes = new HashMap<>();
 
+    /**
+     * Discrete directivity spheres, index of the sphere frequencies for the last requested frequency array
+     */
+    private final Map<Integer, FrequencyIndexes> directivityFrequencyIndexes = new ConcurrentHashMap<>();
+
     /**
      * Link between sources PK and DirectivitySphere specified in linked with directionAttributes
      */
@@ -174,8 +181,22 @@ public class SceneWithAttenuation extends Scene {
      */
     public double[] getSourceAttenuation(int srcIndex, double[] frequencies, double phi, double theta) {
         int directivityIdentifier = sourceEmissionAttenuation.get(sourcesPk.get(srcIndex));
-        if (directionAttributes.containsKey(directivityIdentifier)) {
-            return directionAttributes.get(directivityIdentifier).getAttenuationArray(frequencies, phi, theta);
+        DirectivitySphere directivitySphere = directionAttributes.get(directivityIdentifier);
+        if (directivitySphere instanceof DiscreteDirectivitySphere) {
+            // do not look for the frequencies of the sphere for each path
+            FrequencyIndexes frequencyIndexes = directivityFrequencyIndexes.get(directivityIdentifier);
+            if (frequencyIndexes == null || frequencyIndexes.sphere != directivitySphere ||
+                    frequencyIndexes.frequencies != frequencies) {
+                DiscreteDirectivitySphere discreteSphere = (DiscreteDirectivitySphere) directivitySphere;
+                frequencyIndexes = new FrequencyIndexes(discreteSphere, frequencies,
+                        discreteSphere.getFrequencyIndexes(frequencies));
+                directivityFrequencyIndexes.put(directivityIdentifier, frequencyIndexes);
+            }
+            double[] attenuation = new double[frequencies.length];
+            frequencyIndexes.sphere.getAttenuationArray(frequencyIndexes.indexes, phi, theta, attenuation);
+            return attenuation;
+        } else if (directivitySphere != null) {
+            return directivitySphere.getAttenuationArray(frequencies, phi, theta);
         } else {
             // This direction identifier has not been found
             return new double[frequencies.length];
@@ -189,5 +210,18 @@ public class SceneWithAttenuation extends Scene {
         sourceFieldNames.clear();
         sourceGs.clear();
         directionAttributes.clear();
+        directivityFrequencyIndexes.clear();
+    }
+
+    private static final class FrequencyIndexes {
+        final DiscreteDirectivitySphere sphere;
+        final double[] frequencies;
+        final int[] indexes;
+
+        FrequencyIndexes(DiscreteDirectivitySphere sphere, double[] frequencies, int[] indexes) {
+            this.sphere = sphere;
+            this.frequencies = frequencies;
+            this.indexes = indexes;
+        }
     }
 }
@@ -0,0 +1,436 @@
+/**
+ * NoiseModelling is a library capable of producing noise maps. It can be freely used either for research and education, as well as by experts in a professional use.
+ * <p>
+ * NoiseModelling is distributed under GPL 3 license. You can read a copy of this License in the file LICENCE provided with this software.
+ * <p>
+ * Official webpage : http://noise-planet.org/noisemodelling.html
+ * Contact: contact@noise-planet.org
+ */
+
+package org.noise_planet.noisemodelling.propagation.cnossos;
+
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.LineSegment;
+import org.noise_planet.noisemodelling.pathfinder.profilebuilder.CutPoint;
+import org.noise_planet.noisemodelling.pathfinder.profilebuilder.CutPointGroundEffect;
+import org.noise_planet.noisemodelling.pathfinder.profilebuilder.CutPointReceiver;
+import org.noise_planet.noisemodelling.pathfinder.profilebuilder.CutPointReflection;
+import org.noise_planet.noisemodelling.pathfinder.profilebuilder.CutPointSource;
+import org.noise_planet.noisemodelling.pathfinder.profilebuilder.CutPointTopography;
+import org.noise_planet.noisemodelling.pathfinder.profilebuilder.CutPointVEdgeDiffraction;
+import org.noise_planet.noisemodelling.pathfinder.profilebuilder.CutPointWall;
+import org.noise_planet.noisemodelling.pathfinder.profilebuilder.CutProfile;
+import org.noise_planet.noisemodelling.pathfinder.utils.geometry.Orientation;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Compact binary encoding of {@link CnossosPath}, an alternative to the json export of the rays.
+ * The first byte is the format version, followed by the deflate compressed content:
+ * the path attributes, the attenuation arrays stored in single precision and the cut profile.
+ * The coordinates of the cut points are encoded as the xor of their bits with the bits of the previous point, the
+ * leading bytes of consecutive points are mostly zero and are efficiently compressed. The cut points coordinates and
+ * attributes (including the source and receiver indexes and the processed wall indexes) are restored without loss.
+ * The attenuation arrays lose the double precision. The point and segment lists of the path are not stored, the
+ * decoded path has no point and segment lists; they can be computed again from the decoded cut profile with
+ * {@link CnossosPathBuilder}.
+ * An instance must not be shared between threads.
+ * @author Nicolas Fortin, Université Gustave Eiffel
+ */
+public class CnossosPathCodec {
+    public static final byte VERSION = 2;
+    private static final int NULL_ARRAY = -1;
+    private static final byte TYPE_CUT_POINT = 0;
+    private static final byte TYPE_SOURCE = 1;
+    private static final byte TYPE_RECEIVER = 2;
+    private static final byte TYPE_WALL = 3;
+    private static final byte TYPE_REFLECTION = 4;
+    private static final byte TYPE_GROUND_EFFECT = 5;
+    private static final byte TYPE_TOPOGRAPHY = 6;
+    private static final byte TYPE_V_EDGE_DIFFRACTION = 7;
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+
+    /**
+     * @param path Path to encode
+     * @return Encoded path
+     * @throws IOException If the path cannot be encoded
+     */
+    public byte[] encode(CnossosPath path) throws IOException {
+        buffer.reset();
+        deflater.reset();
+        buffer.write(VERSION);
+        DeflaterOutputStream deflaterOutputStream = new DeflaterOutputStream(buffer, deflater);
+        DataOutputStream out = new DataOutputStream(deflaterOutputStream);
+        writePath(out, path);
+        out.flush();
+        deflaterOutputStream.finish();
+        return buffer.toByteArray();
+    }
+
+    /**
+     * @param data Encoded path
+     * @return Decoded path
+     * @throws IOException If the data is not a supported encoded path
+     */
+    public static CnossosPath decode(byte[] data) throws IOException {
+        if(data.length == 0 || data[0] != VERSION) {
+            throw new IOException("Unsupported path encoding version " + (data.length == 0 ? "" : data[0]));
+        }
+        Inflater inflater = new Inflater(true);
+        try(DataInputStream in = new DataInputStream(new InflaterInputStream(
+                new ByteArrayInputStream(data, 1, data.length - 1), inflater))) {
+            return readPath(in);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Release the compression resources
+     */
+    public void close() {
+        deflater.end();
+    }
+
+    private static void writePath(DataOutputStream out, CnossosPath path) throws IOException {
+        out.writeBoolean(path.isFavourable());
+        out.writeBoolean(path.keepAbsorption);
+        out.writeUTF(path.getTimePeriod() == null ? "" : path.getTimePeriod());
+        out.writeDouble(path.getGs());
+        writeOrientation(out, path.getSourceOrientation());
+        writeOrientation(out, path.raySourceReceiverDirectivity);
+        out.writeDouble(path.delta);
+        out.writeDouble(path.deltaPrime);
+        out.writeDouble(path.deltaSPrimeR);
+        out.writeDouble(path.deltaSRPrime);
+        out.writeDouble(path.e);
+        out.writeDouble(path.deltaRetro);
+        writeBands(out, path.aAtm);
+        writeBands(out, path.aDiv);
+        writeBands(out, path.aRef);
+        writeBands(out, path.double_aBoundary);
+        writeBands(out, path.aRetroDiff);
+        writeBands(out, path.aGlobal);
+        writeBands(out, path.aGlobalRaw);
+        writeBands(out, path.aDif);
+        writeBands(out, path.aSource);
+        CnossosPath.ABoundary aBoundary = path.aBoundary == null ? new CnossosPath.ABoundary() : path.aBoundary;
+        writeBands(out, aBoundary.deltaDiffSR);
+        writeBands(out, aBoundary.aGroundSO);
+        writeBands(out, aBoundary.aGroundOR);
+        writeBands(out, aBoundary.deltaDiffSPrimeR);
+        writeBands(out, aBoundary.deltaDiffSRPrime);
+        writeBands(out, aBoundary.deltaGroundSO);
+        writeBands(out, aBoundary.deltaGroundOR);
+        writeBands(out, aBoundary.aDiff);
+        CnossosPath.GroundAttenuation groundAttenuation = path.groundAttenuation == null ?
+                new CnossosPath.GroundAttenuation() : path.groundAttenuation;
+        writeBands(out, groundAttenuation.w);
+        writeBands(out, groundAttenuation.cf);
+        writeBands(out, groundAttenuation.aGround);
+        CutProfile cutProfile = path.getCutProfile();
+        out.writeBoolean(cutProfile != null);
+        if(cutProfile != null) {
+            writeCutProfile(out, cutProfile);
+        }
+    }
+
+    private static CnossosPath readPath(DataInputStream in) throws IOException {
+        CnossosPath path = new CnossosPath();
+        path.setFavourable(in.readBoolean());
+        path.keepAbsorption = in.readBoolean();
+        path.setTimePeriod(in.readUTF());
+        path.setGs(in.readDouble());
+        path.setSourceOrientation(readOrientation(in));
+        path.raySourceReceiverDirectivity = readOrientation(in);
+        path.delta = in.readDouble();
+        path.deltaPrime = in.readDouble();
+        path.deltaSPrimeR = in.readDouble();
+        path.deltaSRPrime = in.readDouble();
+        path.e = in.readDouble();
+        path.deltaRetro = in.readDouble();
+        path.aAtm = readBands(in);
+        path.aDiv = readBands(in);
+        path.aRef = readBands(in);
+        path.double_aBoundary = readBands(in);
+        path.aRetroDiff = readBands(in);
+        path.aGlobal = readBands(in);
+        path.aGlobalRaw = readBands(in);
+        path.aDif = readBands(in);
+        path.aSource = readBands(in);
+        path.aBoundary.deltaDiffSR = readBands(in);
+        path.aBoundary.aGroundSO = readBands(in);
+        path.aBoundary.aGroundOR = readBands(in);
+        path.aBoundary.deltaDiffSPrimeR = readBands(in);
+        path.aBoundary.deltaDiffSRPrime = readBands(in);
+        path.aBoundary.deltaGroundSO = readBands(in);
+        path.aBoundary.deltaGroundOR = readBands(in);
+        path.aBoundary.aDiff = readBands(in);
+        path.groundAttenuation.w = readBands(in);
+        path.groundAttenuation.cf = readBands(in);
+        path.groundAttenuation.aGround = readBands(in);
+        if(in.readBoolean()) {
+            path.setCutProfile(readCutProfile(in));
+        }
+        return path;
+    }
+
+    /**
+     * Write the cut profile without compression
+     * @param out Output stream
+     * @param cutProfile Profile to write
+     * @throws IOException If an I/O-error occurs
+     */
+    public static void writeCutProfile(DataOutputStream out, CutProfile cutProfile) throws IOException {
+        out.writeByte(cutProfile.profileType.ordinal());
+        out.writeBoolean(cutProfile.curvedPath);
+        out.writeBoolean(cutProfile.hasBuildingIntersection);
+        out.writeBoolean(cutProfile.hasTopographyIntersection);
+        out.writeInt(cutProfile.cutPoints.size());
+        Coordinate previous = new Coordinate(0, 0, 0);
+        for(CutPoint cutPoint : cutProfile.cutPoints) {
+            writeCutPoint(out, cutPoint, previous);
+            previous = cutPoint.coordinate;
+        }
+    }
+
+    /**
+     * Read a cut profile written by {@link #writeCutProfile(DataOutputStream, CutProfile)}
+     * @param in Input stream
+     * @return Read profile
+     * @throws IOException If an I/O-error occurs
+     */
+    public static CutProfile readCutProfile(DataInputStream in) throws IOException {
+        CutProfile cutProfile = new CutProfile();
+        cutProfile.profileType = CutProfile.PROFILE_TYPE.values()[in.readByte()];
+        cutProfile.curvedPath = in.readBoolean();
+        cutProfile.hasBuildingIntersection = in.readBoolean();
+        cutProfile.hasTopographyIntersection = in.readBoolean();
+        int cutPointsCount = in.readInt();
+        cutProfile.cutPoints = new ArrayList<>(cutPointsCount);
+        Coordinate previous = new Coordinate(0, 0, 0);
+        for(int i = 0; i < cutPointsCount; i++) {
+            CutPoint cutPoint = readCutPoint(in, previous);
+            cutProfile.cutPoints.add(cutPoint);
+            previous = cutPoint.coordinate;
+        }
+        return cutProfile;
+    }
+
+    private static void writeCutPoint(DataOutputStream out, CutPoint cutPoint, Coordinate previous)
+            throws IOException {
+        if(cutPoint instanceof CutPointSource) {
+            out.writeByte(TYPE_SOURCE);
+        } else if(cutPoint instanceof CutPointReceiver) {
+            out.writeByte(TYPE_RECEIVER);
+        } else if(cutPoint instanceof CutPointWall) {
+            out.writeByte(TYPE_WALL);
+        } else if(cutPoint instanceof CutPointReflection) {
+            out.writeByte(TYPE_REFLECTION);
+        } else if(cutPoint instanceof CutPointGroundEffect) {
+            out.writeByte(TYPE_GROUND_EFFECT);
+        } else if(cutPoint instanceof CutPointTopography) {
+            out.writeByte(TYPE_TOPOGRAPHY);
+        } else if(cutPoint instanceof CutPointVEdgeDiffraction) {
+            out.writeByte(TYPE_V_EDGE_DIFFRACTION);
+        } else {
+            out.writeByte(TYPE_CUT_POINT);
+        }
+        writeCoordinateDelta(out, previous, cutPoint.coordinate);
+        out.writeDouble(cutPoint.zGround);
+        out.writeDouble(cutPoint.groundCoefficient);
+        if(cutPoint instanceof CutPointSource) {
+            CutPointSource source = (CutPointSource) cutPoint;
+            out.writeLong(source.sourcePk);
+            out.writeInt(source.id);
+            out.writeDouble(source.li);
+            writeOrientation(out, source.orientation);
+        } else if(cutPoint instanceof CutPointReceiver) {
+            CutPointReceiver receiver = (CutPointReceiver) cutPoint;
+            out.writeLong(receiver.receiverPk);
+            out.writeInt(receiver.id);
+        } else if(cutPoint instanceof CutPointWall) {
+            CutPointWall wall = (CutPointWall) cutPoint;
+            writeWall(out, wall.wall, wall.wallAlpha, wall.wallPk);
+            out.writeByte(wall.intersectionType.ordinal());
+            out.writeInt(wall.processedWallIndex);
+        } else if(cutPoint instanceof CutPointReflection) {
+            CutPointReflection reflection = (CutPointReflection) cutPoint;
+            writeWall(out, reflection.wall, reflection.wallAlpha, reflection.wallPk);
+        } else if(cutPoint instanceof CutPointGroundEffect) {
+            out.writeInt(((CutPointGroundEffect) cutPoint).processedWallIndex);
+        }
+    }
+
+    private static CutPoint readCutPoint(DataInputStream in, Coordinate previous) throws IOException {
+        byte type = in.readByte();
+        CutPoint cutPoint;
+        switch (type) {
+            case TYPE_SOURCE:
+                cutPoint = new CutPointSource();
+                break;
+            case TYPE_RECEIVER:
+                cutPoint = new CutPointReceiver();
+                break;
+            case TYPE_WALL:
+                cutPoint = new CutPointWall();
+                break;
+            case TYPE_REFLECTION:
+                cutPoint = new CutPointReflection();
+                break;
+            case TYPE_GROUND_EFFECT:
+                cutPoint = new CutPointGroundEffect();
+                break;
+            case TYPE_TOPOGRAPHY:
+                cutPoint = new CutPointTopography();
+                break;
+            case TYPE_V_EDGE_DIFFRACTION:
+                cutPoint = new CutPointVEdgeDiffraction();
+                break;
+            case TYPE_CUT_POINT:
+                cutPoint = new CutPoint();
+                break;
+            default:
+                throw new IOException("Unknown cut point type " + type);
+        }
+        cutPoint.coordinate = readCoordinateDelta(in, previous);
+        cutPoint.zGround = in.readDouble();
+        cutPoint.groundCoefficient = in.readDouble();
+        if(cutPoint instanceof CutPointSource) {
+            CutPointSource source = (CutPointSource) cutPoint;
+            source.sourcePk = in.readLong();
+            source.id = in.readInt();
+            source.li = in.readDouble();
+            source.orientation = readOrientation(in);
+        } else if(cutPoint instanceof CutPointReceiver) {
+            CutPointReceiver receiver = (CutPointReceiver) cutPoint;
+            receiver.receiverPk = in.readLong();
+            receiver.id = in.readInt();
+        } else if(cutPoint instanceof CutPointWall) {
+            CutPointWall wall = (CutPointWall) cutPoint;
+            wall.wall = readWallSegment(in);
+            wall.wallAlpha = readAlpha(in);
+            wall.wallPk = readWallPk(in);
+            wall.intersectionType = CutPointWall.INTERSECTION_TYPE.values()[in.readByte()];
+            wall.processedWallIndex = in.readInt();
+        } else if(cutPoint instanceof CutPointReflection) {
+            CutPointReflection reflection = (CutPointReflection) cutPoint;
+            reflection.wall = readWallSegment(in);
+            reflection.wallAlpha = readAlpha(in);
+            reflection.wallPk = readWallPk(in);
+        } else if(cutPoint instanceof CutPointGroundEffect) {
+            ((CutPointGroundEffect) cutPoint).processedWallIndex = in.readInt();
+        }
+        return cutPoint;
+    }
+
+    private static void writeCoordinateDelta(DataOutputStream out, Coordinate previous, Coordinate coordinate)
+            throws IOException {
+        out.writeLong(Double.doubleToRawLongBits(coordinate.x) ^ Double.doubleToRawLongBits(previous.x));
+        out.writeLong(Double.doubleToRawLongBits(coordinate.y) ^ Double.doubleToRawLongBits(previous.y));
+        out.writeLong(Double.doubleToRawLongBits(coordinate.getZ()) ^ Double.doubleToRawLongBits(previous.getZ()));
+    }
+
+    private static Coordinate readCoordinateDelta(DataInputStream in, Coordinate previous) throws IOException {
+        double x = Double.longBitsToDouble(in.readLong() ^ Double.doubleToRawLongBits(previous.x));
+        double y = Double.longBitsToDouble(in.readLong() ^ Double.doubleToRawLongBits(previous.y));
+        double z = Double.longBitsToDouble(in.readLong() ^ Double.doubleToRawLongBits(previous.getZ()));
+        return new Coordinate(x, y, z);
+    }
+
+    private static void writeWall(DataOutputStream out, LineSegment wall, List<Double> wallAlpha, Long wallPk)
+            throws IOException {
+        out.writeBoolean(wall != null);
+        if(wall != null) {
+            Path.writeCoordinate(out, wall.p0);
+            Path.writeCoordinate(out, wall.p1);
+        }
+        out.writeShort(wallAlpha.size());
+        for(double alpha : wallAlpha) {
+            out.writeDouble(alpha);
+        }
+        out.writeBoolean(wallPk != null);
+        if(wallPk != null) {
+            out.writeLong(wallPk);
+        }
+    }
+
+    private static LineSegment readWallSegment(DataInputStream in) throws IOException {
+        if(in.readBoolean()) {
+            return new LineSegment(Path.readCoordinate(in), Path.readCoordinate(in));
+        }
+        return null;
+    }
+
+    private static List<Double> readAlpha(DataInputStream in) throws IOException {
+        int alphaCount = in.readShort();
+        if(alphaCount == 0) {
+            return Collections.emptyList();
+        }
+        List<Double> wallAlpha = new ArrayList<>(alphaCount);
+        for(int i = 0; i < alphaCount; i++) {
+            wallAlpha.add(in.readDouble());
+        }
+        return wallAlpha;
+    }
+
+    private static Long readWallPk(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readLong() : null;
+    }
+
+    private static void writeOrientation(DataOutputStream out, Orientation orientation) throws IOException {
+        out.writeBoolean(orientation != null);
+        if(orientation != null) {
+            out.writeDouble(orientation.yaw);
+            out.writeDouble(orientation.pitch);
+            out.writeDouble(orientation.roll);
+        }
+    }
+
+    private static Orientation readOrientation(DataInputStream in) throws IOException {
+        if(in.readBoolean()) {
+            // fields are set directly as the constructor normalize the angles
+            Orientation orientation = new Orientation();
+            orientation.yaw = in.readDouble();
+            orientation.pitch = in.readDouble();
+            orientation.roll = in.readDouble();
+            return orientation;
+        }
+        return null;
+    }
+
+    private static void writeBands(DataOutputStream out, double[] values) throws IOException {
+        if(values == null) {
+            out.writeShort(NULL_ARRAY);
+            return;
+        }
+        out.writeShort(values.length);
+        for(double value : values) {
+            out.writeFloat((float) value);
+        }
+    }
+
+    private static double[] readBands(DataInputStream in) throws IOException {
+        int length = in.readShort();
+        if(length == NULL_ARRAY) {
+            return null;
+        }
+        double[] values = new double[length];
+        for(int i = 0; i < length; i++) {
+            values[i] = in.readFloat();
+        }
+        return values;
+    }
+}
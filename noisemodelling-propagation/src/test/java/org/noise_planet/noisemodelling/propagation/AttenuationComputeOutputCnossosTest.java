@@ -15,8 +15,14 @@ import org.junit.jupiter.api.Test;
 import org.locationtech.jts.algorithm.CGAlgorithms3D;
 import org.locationtech.jts.geom.*;
 import org.locationtech.jts.math.Vector3D;
+import org.noise_planet.noisemodelling.emission.LineSource;
+import org.noise_planet.noisemodelling.emission.directivity.DiscreteDirectivitySphere;
+import org.noise_planet.noisemodelling.emission.directivity.cnossos.RailwayCnossosDirectivitySphere;
 import org.noise_planet.noisemodelling.pathfinder.CutPlaneVisitor;
 import org.noise_planet.noisemodelling.pathfinder.PathFinder;
+import org.noise_planet.noisemodelling.pathfinder.profilebuilder.CutPoint;
+import org.noise_planet.noisemodelling.pathfinder.profilebuilder.CutPointGroundEffect;
+import org.noise_planet.noisemodelling.pathfinder.profilebuilder.CutPointWall;
 import org.noise_planet.noisemodelling.pathfinder.profilebuilder.CutProfile;
 import org.noise_planet.noisemodelling.pathfinder.profilebuilder.ProfileBuilder;
 import org.noise_planet.noisemodelling.pathfinder.utils.AcousticIndicatorsFunctions;
@@ -6482,5 +6488,87 @@ public class AttenuationComputeOutputCnossosTest {
         result[0] = Math.round(result[0] * 100.0) / 100.0;
         return result;
     }
-}
 
+    /**
+     * Encode and decode the paths using the binary format
+     */
+    @Test
+    public void testCnossosPathBinaryEncoding() throws IOException {
+        AttenuationComputeOutput propDataOut = computeCnossosPath("TC16_Direct", "TC16_Reflection");
+        assertFalse(propDataOut.getPropagationPaths().isEmpty());
+        CnossosPathCodec codec = new CnossosPathCodec();
+        ObjectMapper mapper = new ObjectMapper();
+        for(CnossosPath expected : propDataOut.getPropagationPaths()) {
+            byte[] data = codec.encode(expected);
+            assertTrue(data.length < mapper.writeValueAsBytes(expected).length);
+            CnossosPath actual = CnossosPathCodec.decode(data);
+            assertEquals(expected.isFavourable(), actual.isFavourable());
+            assertEquals(expected.getTimePeriod(), actual.getTimePeriod());
+            assertEquals(expected.getGs(), actual.getGs());
+            assertDoubleArrayEquals("aGlobal", expected.aGlobal, actual.aGlobal, 1e-4);
+            assertDoubleArrayEquals("aDiv", expected.aDiv, actual.aDiv, 1e-4);
+            assertDoubleArrayEquals("aGround", expected.groundAttenuation.aGround, actual.groundAttenuation.aGround, 1e-4);
+            CutProfile expectedProfile = expected.getCutProfile();
+            CutProfile actualProfile = actual.getCutProfile();
+            assertEquals(expectedProfile.getProfileType(), actualProfile.getProfileType());
+            assertEquals(expectedProfile.cutPoints.size(), actualProfile.cutPoints.size());
+            for(int i = 0; i < expectedProfile.cutPoints.size(); i++) {
+                CutPoint expectedPoint = expectedProfile.cutPoints.get(i);
+                CutPoint actualPoint = actualProfile.cutPoints.get(i);
+                assertEquals(expectedPoint.getClass(), actualPoint.getClass());
+                // coordinates are restored without loss
+                assertTrue(expectedPoint.coordinate.equals3D(actualPoint.coordinate));
+                assertEquals(expectedPoint.zGround, actualPoint.zGround);
+                assertEquals(expectedPoint.groundCoefficient, actualPoint.groundCoefficient);
+                if(expectedPoint instanceof CutPointWall) {
+                    assertEquals(((CutPointWall) expectedPoint).processedWallIndex,
+                            ((CutPointWall) actualPoint).processedWallIndex);
+                    assertEquals(((CutPointWall) expectedPoint).intersectionType,
+                            ((CutPointWall) actualPoint).intersectionType);
+                } else if(expectedPoint instanceof CutPointGroundEffect) {
+                    assertEquals(((CutPointGroundEffect) expectedPoint).processedWallIndex,
+                            ((CutPointGroundEffect) actualPoint).processedWallIndex);
+                }
+            }
+            assertEquals(expectedProfile.getSource().sourcePk, actualProfile.getSource().sourcePk);
+            assertEquals(expectedProfile.getSource().id, actualProfile.getSource().id);
+            assertEquals(expectedProfile.getReceiver().receiverPk, actualProfile.getReceiver().receiverPk);
+            assertEquals(expectedProfile.getReceiver().id, actualProfile.getReceiver().id);
+            // Lost by the encoding: the attenuation arrays are stored in single precision
+            assertEquals((float) expected.aGlobal[0], actual.aGlobal[0]);
+            // Lost by the encoding: the point and segment lists are not stored
+            assertFalse(expected.getPointList() == null || expected.getPointList().isEmpty());
+            assertTrue(actual.getPointList() == null || actual.getPointList().isEmpty());
+            assertTrue(actual.getSegmentList() == null || actual.getSegmentList().isEmpty());
+        }
+        codec.close();
+        // unknown version
+        assertThrows(IOException.class, () -> CnossosPathCodec.decode(new byte[]{(byte) (CnossosPathCodec.VERSION + 1)}));
+    }
+
+    /**
+     * The attenuation of a discrete directivity sphere read with the cached frequency indexes is the same as the
+     * attenuation of the sphere
+     */
+    @Test
+    public void testDiscreteSourceAttenuation() {
+        double[] frequencies = new double[]{63, 125, 250, 500, 1000, 2000, 4000, 8000};
+        DiscreteDirectivitySphere sphere = DiscreteDirectivitySphere.sampleDirectivitySphere(1,
+                new RailwayCnossosDirectivitySphere(new LineSource("TRACTIONB")), frequencies, Math.toRadians(5));
+        SceneWithAttenuation scene = new SceneWithAttenuation(new ProfileBuilder().finishFeeding());
+        scene.addSource(1L, new GeometryFactory().createPoint(new Coordinate(0, 0, 2)));
+        scene.directionAttributes.put(1, sphere);
+        scene.sourceEmissionAttenuation.put(1L, 1);
+        // the second array contains frequencies that are not in the sphere
+        for (double[] requestFrequencies : new double[][]{frequencies, {100, 1000, 10000}}) {
+            for (int i = 0; i < 2; i++) {
+                for (double phi = 0; phi < 2 * Math.PI; phi += 0.7) {
+                    for (double theta = -Math.PI / 2; theta <= Math.PI / 2; theta += 0.4) {
+                        assertArrayEquals(sphere.getAttenuationArray(requestFrequencies, phi, theta),
+                                scene.getSourceAttenuation(0, requestFrequencies, phi, theta), 1e-12);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -78,6 +78,15 @@ inputs = [
                              '&#128736; Default value: <b>0.5 </b>',
                 min        : 0, max: 1,
                 type       : Double.class
+        ],
+        threadCount: [
+                name       : 'Thread count',
+                title      : 'Thread count',
+                description: 'Number of threads used to compute the isosurfaces. If greater than 1, the cells of the ' +
+                        'triangle table are processed in parallel. (INTEGER)</br> </br>' +
+                        '&#128736; Default value: <b>1 </b>',
+                min        : 0, max: 1,
+                type       : Integer.class
         ]
 ]
 
@@ -154,6 +163,10 @@ def exec(Connection connection, Map input) {
         isoSurface.setSmoothCoefficient(0.5)
     }
 
+    if (input.containsKey("threadCount")) {
+        isoSurface.setThreadCount(input['threadCount'] as Integer)
+    }
+
     isoSurface.createTable(connection, "IDRECEIVER")
 
     resultString = "Table " + isoSurface.getOutputTable() + " created"
@@ -20,13 +20,15 @@ import geoserver.GeoServer
 import geoserver.catalog.Store
 import groovy.sql.Sql
 import org.geotools.jdbc.JDBCDataStore
+import org.h2gis.utilities.JDBCUtilities
+import org.noise_planet.noisemodelling.jdbc.utils.DynamicIndicators
 import org.slf4j.Logger
 import org.slf4j.LoggerFactory
 
 import java.sql.Connection
 
 title = 'Compute dynamic indicators'
-description = 'Compute dynamic indicators as L10, L90 </br> The columns of the table should be named HZ63, HZ125,..., HZ8000 with an HZ prefix that can be changed.'
+description = 'Compute dynamic indicators as LEQ, L10, L50, L90 of each receiver </br> The columns of the table should be named HZ63, HZ125,..., HZ8000 with an HZ prefix that can be changed.'
 
 inputs = [
         columnName   : [
@@ -102,13 +104,17 @@ def exec(Connection connection, Map input) {
         outputTableName = input["outputTableName"] as String
     }
 
-    sql.execute("DROP TABLE " + outputTableName + " IF EXISTS;")
-    sql.execute("CREATE TABLE " + outputTableName + " AS SELECT THE_GEOM, " +
-            "ROUND(MEDIAN(" + columnName + "), 1) L50, " +
-            "ROUND(percentile_cont(0.9) WITHIN GROUP (ORDER BY " + columnName + "), 1) L10," +
-            "ROUND(percentile_cont(0.1) WITHIN GROUP (ORDER BY " + columnName + "), 1) L90 FROM " + table + " GROUP BY THE_GEOM;")
+    // group the time steps by receiver identifier if available, by receiver location otherwise
+    String receiverField = "THE_GEOM"
+    if (JDBCUtilities.getColumnNames(connection, table).contains("IDRECEIVER")) {
+        receiverField = "IDRECEIVER"
+    }
+    DynamicIndicators dynamicIndicators = new DynamicIndicators(receiverField, columnName)
+    dynamicIndicators.computeIndicators(connection, table, outputTableName)
+    sql.execute("UPDATE " + outputTableName + " SET LEQ = ROUND(LEQ, 1), L10 = ROUND(L10, 1), L50 = ROUND(L50, 1)," +
+            " L90 = ROUND(L90, 1)")
 
-    resultString = "L10,L50 and L90 have been computed in the table: " + outputTableName + "."
+    resultString = "LEQ, L10, L50 and L90 have been computed in the table: " + outputTableName + "."
 
     // print to command window
     logger.info('End : Add Dynamic Indicator')
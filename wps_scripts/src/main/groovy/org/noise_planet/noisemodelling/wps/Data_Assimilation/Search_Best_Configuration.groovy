@@ -0,0 +1,144 @@
+/**
+ * NoiseModelling is an open-source tool designed to produce environmental noise maps on very large urban areas. It can be used as a Java library or be controlled through a user friendly web interface.
+ *
+ * This version is developed by the DECIDE team from the Lab-STICC (CNRS) and by the Mixt Research Unit in Environmental Acoustics (Université Gustave Eiffel).
+ * <http://noise-planet.org/noisemodelling.html>
+ *
+ * NoiseModelling is distributed under GPL 3 license. You can read a copy of this License in the file LICENCE provided with this software.
+ *
+ * Contact: contact@noise-planet.org
+ *
+ */
+
+package org.noise_planet.noisemodelling.wps.Data_Assimilation
+
+import geoserver.GeoServer
+import geoserver.catalog.Store
+import org.geotools.jdbc.JDBCDataStore
+import org.h2gis.utilities.wrapper.ConnectionWrapper
+import org.noise_planet.noisemodelling.jdbc.utils.ConfigurationSearch
+import org.slf4j.Logger
+import org.slf4j.LoggerFactory
+
+import java.sql.Connection
+
+title = 'Search of the best configurations'
+description = 'Search the traffic factors of each road category that minimise the median difference between the measured and simulated levels, without creating the table of all the configurations. </br>' +
+        'The contributions table contains the level of each road category at each sensor with the reference traffic (one noise map per road category, the road category is stored in the PERIOD column and the optional emission temperature in the TEMP column).'
+
+inputs = [
+        contributionsTable: [
+                name: 'Contributions table',
+                title: 'Contributions table',
+                description: 'Table of the levels of each road category at the sensors (IDRECEIVER, PERIOD, LAEQ and optional TEMP)',
+                type: String.class
+        ],
+        observationTable: [
+                name: 'Sensors measurement training table',
+                title: 'Measurement table',
+                description: 'Table of the measured levels (IDRECEIVER, EPOCH, LAEQ and optional TEMP)',
+                type: String.class
+        ],
+        trafficValues: [
+                name: 'Traffic values',
+                title: 'Traffic values',
+                description: 'list of variation values in % for traffic like [0.01,1.0, 2.0,3,4]',
+                type: String.class
+        ],
+        roadCategories: [
+                name: 'Road categories',
+                title: 'Road categories',
+                description: 'Road categories from the major to the minor category (default PRIMARY,SECONDARY,TERTIARY,OTHERS)',
+                min: 0, max: 1,
+                type: String.class
+        ],
+        tempToleranceThreshold: [
+                name: 'temperature tolerance threshold ',
+                title: 'temperature tolerance threshold ',
+                description: 'Maximum difference between the measured temperature and the temperature of the contributions',
+                min: 0, max: 1,
+                type: Double.class
+        ],
+        topCount: [
+                name: 'Number of configurations',
+                title: 'Number of configurations',
+                description: 'Number of best configurations kept for each time step (default 1)',
+                min: 0, max: 1,
+                type: Integer.class
+        ],
+        outputTable: [
+                name: 'Output table',
+                title: 'Output table',
+                description: 'Name of the output table (default BEST_CONFIGURATIONS)',
+                min: 0, max: 1,
+                type: String.class
+        ]
+]
+
+outputs = [
+        result: [
+                name: 'Best Configuration Table',
+                title: 'Best Configuration Table',
+                description: 'Table of the best configurations of each time step',
+                type: String.class
+        ]
+]
+
+static def exec(Connection connection, input) {
+    connection = new ConnectionWrapper(connection)
+    Logger logger = LoggerFactory.getLogger("org.noise_planet.noisemodelling")
+    logger.info('Start Search best configuration')
+
+    String contributionsTable = input['contributionsTable'] as String
+    String observationTable = input['observationTable'] as String
+    double[] trafficValues = (input['trafficValues'] as String).replaceAll(" ", "").split(",")
+            .collect { it.trim().toDouble() } as double[]
+    List<String> roadCategories = ["PRIMARY", "SECONDARY", "TERTIARY", "OTHERS"]
+    if (input['roadCategories']) {
+        roadCategories = (input['roadCategories'] as String).replaceAll(" ", "").split(",") as List<String>
+    }
+    String outputTable = "BEST_CONFIGURATIONS"
+    if (input['outputTable']) {
+        outputTable = input['outputTable'] as String
+    }
+
+    ConfigurationSearch configurationSearch = new ConfigurationSearch(trafficValues)
+    configurationSearch.setGroups(roadCategories)
+    // Skip incoherent combinations as All_Possible_Configuration
+    configurationSearch.setMaximumFactorRatio(20)
+    if (input['tempToleranceThreshold'] != null) {
+        configurationSearch.setTemperatureTolerance(input['tempToleranceThreshold'] as Double)
+    }
+    if (input['topCount'] != null) {
+        configurationSearch.setTopCount(input['topCount'] as Integer)
+    }
+    configurationSearch.search(connection, contributionsTable, observationTable, outputTable)
+
+    logger.info('End Search best configuration')
+    return "Calculation Done ! The table " + outputTable + " has been created."
+}
+
+// run the script
+static def run(input) {
+
+    // Get name of the database
+    // by default an embedded h2gis database is created
+    // Advanced user can replace this database for a postGis or h2Gis server database.
+    String dbName = "h2gisdb"
+
+    // Open connection
+    openGeoserverDataStoreConnection(dbName).withCloseable {
+        Connection connection ->
+            return [result: exec(connection, input)]
+    }
+}
+
+// Open Connection to Geoserver
+static Connection openGeoserverDataStoreConnection(String dbName) {
+    if (dbName == null || dbName.isEmpty()) {
+        dbName = new GeoServer().catalog.getStoreNames().get(0)
+    }
+    Store store = new GeoServer().catalog.getStore(dbName)
+    JDBCDataStore jdbcDataStore = (JDBCDataStore) store.getDataStoreInfo().getDataStore(null)
+    return jdbcDataStore.getDataSource().getConnection()
+}
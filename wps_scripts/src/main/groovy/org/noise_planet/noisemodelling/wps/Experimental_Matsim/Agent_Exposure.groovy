@@ -21,9 +21,9 @@ import com.opencsv.CSVReaderHeaderAware
 import com.opencsv.CSVReaderHeaderAwareBuilder
 import geoserver.GeoServer
 import geoserver.catalog.Store
-import groovy.sql.Sql
 import org.geotools.jdbc.JDBCDataStore
 import org.h2gis.utilities.wrapper.ConnectionWrapper
+import org.noise_planet.noisemodelling.jdbc.utils.AgentExposure
 import org.matsim.api.core.v01.Id
 import org.matsim.api.core.v01.Scenario
 import org.matsim.api.core.v01.population.*
@@ -147,7 +147,6 @@ def run(input) {
 static def exec(Connection connection, input) {
 
     connection = new ConnectionWrapper(connection)
-    Sql sql = new Sql(connection)
 
     String resultString
 
@@ -190,49 +189,6 @@ static def exec(Connection connection, input) {
         }
     }
 
-    DatabaseMetaData dbMeta = connection.getMetaData();
-
-    logger.info("searching index on data table... ")
-    ResultSet rs = dbMeta.getIndexInfo(null, null, dataTable, false, false);
-    boolean indexIDRECEIVER = false;
-    boolean indexTIMESTRING = false;
-    while (rs.next()) {
-        String column = rs.getString("COLUMN_NAME");
-        if (column == "IDRECEIVER") {
-            indexIDRECEIVER = true;
-            logger.info("index on column IDSOURCE found")
-        }
-        else if (column == "PERIOD") {
-            indexTIMESTRING = true;
-            logger.info("index on column PERIOD found")
-        }
-    }
-
-    if (!indexIDRECEIVER) {
-        logger.info("index on column IDRECEIVER, NOT found, creating one...")
-        sql.execute("CREATE INDEX ON " + dataTable + " (IDRECEIVER)");
-    }
-    if (!indexTIMESTRING) {
-        logger.info("index on column PERIOD, NOT found, creating one...")
-        sql.execute("CREATE INDEX ON " + dataTable + " (PERIOD)");
-    }
-
-    logger.info("searching index on receivers table... ")
-    rs = dbMeta.getIndexInfo(null, null, receiversTable, false, false);
-    boolean indexFACILITY = false;
-    while (rs.next()) {
-        String column = rs.getString("COLUMN_NAME");
-        if (column == "FACILITY") {
-            indexFACILITY = true;
-            logger.info("index on column FACILITY found")
-        }
-    }
-
-    if (!indexFACILITY) {
-        logger.info("index on column FACILITY, NOT found, creating one...")
-        sql.execute("CREATE INDEX ON " + receiversTable + " (FACILITY)");
-    }
-
     Map<String, Map<String, String>> personsCsvData = new HashMap<String, Map<String, String>>();
     if (!personsCsvFile.isEmpty()) {
         logger.info("Start Reading personsCsv file ...");
@@ -267,320 +223,78 @@ static def exec(Connection connection, input) {
 
     Map<Id<Person>, Person> persons = (Map<Id<Person>, Person>) population.getPersons();
 
-    sql.execute("DROP TABLE IF EXISTS " + outTableName)
-    sql.execute("DROP TABLE IF EXISTS " + outTableName + "_SEQUENCE")
-    sql.execute("CREATE TABLE " + outTableName + ''' (
-        PK integer PRIMARY KEY AUTO_INCREMENT,
-        PERSON_ID varchar(255),
-        AGE int,
-        SEX varchar,
-        INCOME double,
-        EMPLOYED double,
-        HOME_FACILITY varchar(255),
-        HOME_GEOM geometry,
-        WORK_FACILITY varchar(255),
-        WORK_GEOM geometry,
-        LAEQ real
-    );''')
-    sql.execute("CREATE TABLE " + outTableName + '''_SEQUENCE (
-        PK integer PRIMARY KEY AUTO_INCREMENT,
-        PERSON_ID varchar(255),
-        TIME int,
-        LEVEL double,
-        START_ACTIVITY_ID varchar,
-        START_ACTIVITY_TYPE varchar,
-        START_ACTIVITY_GEOM geometry,
-        MAIN_ACTIVITY_ID varchar,
-        MAIN_ACTIVITY_TYPE varchar,
-        MAIN_ACTIVITY_GEOM geometry,
-        END_ACTIVITY_ID varchar,
-        END_ACTIVITY_TYPE varchar,
-        END_ACTIVITY_GEOM geometry
-    );''')
-    Statement stmt = connection.createStatement();
-
-    int doprint = 1
-    int counter = 0
-    long start = System.currentTimeMillis()
-    int nb_persons = persons.size()
-    for (Map.Entry<Id<Person>, Person> entry : persons.entrySet()) {
-        String personId = entry.getKey().toString();
-        Person person = entry.getValue();
-
-        def attributes = person.getAttributes();
-        Integer age = attributes.getAttribute("age") as Integer
-        if (age == null && personsCsvData[personId] != null && personsCsvData[personId].containsKey("age")) {
-            age = personsCsvData[personId]["age"] as Integer
-        }
-        String sex = attributes.getAttribute("sex")
-        if (sex == null && personsCsvData[personId] != null && personsCsvData[personId].containsKey("sex")) {
-            sex = personsCsvData[personId]["sex"]
-        }
-        Double income = attributes.getAttribute("householdIncome") as Double
-        if (income == null && personsCsvData[personId] != null && personsCsvData[personId].containsKey("householdIncome")) {
-            income = personsCsvData[personId]["householdIncome"] as Double
-        }
-        Boolean employed = attributes.getAttribute("employed")
-        if (employed == null && personsCsvData[personId] != null && personsCsvData[personId].containsKey("employed")) {
-            employed = personsCsvData[personId]["employed"] as Boolean
-        }
-        Plan plan = experiencedPlans.getPersons()[person.getId()].getSelectedPlan()
-
-        Map<String, Map<Integer, Double>> activitiesTimeSeries = new HashMap<String, Map<Integer, Double>>()
-
-        if (plan.getPlanElements().size() == 0) { // stays at home all day
-            plan = person.getSelectedPlan() // back to the not *experienced* version
-        }
-        String homeId = "";
-        String homeGeom = "POINT EMPTY";
-        String workId = "";
-        String workGeom = "POINT EMPTY";
-        for (PlanElement element : plan.getPlanElements()) {
-            if (!(element instanceof Activity)) {
-                continue;
-            }
-            Activity activity = (Activity) element;
-            if (activity.getFacilityId() == null) {
-                continue;
-            }
-            String activityId = activity.getFacilityId().toString();
-            if (activity.getType().contains("home")) {
-                homeId = activityId;
-                if (activity.getCoord() != null) {
-                    homeGeom = String.format("POINT(%s %s)", Double.toString(activity.getCoord().getX()), Double.toString(activity.getCoord().getY()))
-                }
-            }
-            if (activity.getType().contains("work")) {
-                workId = activityId;
-                if (activity.getCoord() != null) {
-                    workGeom = String.format("POINT(%s %s)", Double.toString(activity.getCoord().getX()), Double.toString(activity.getCoord().getY()))
-                }
-            }
-
-            String query = '''
-                        SELECT D.LAEQ, D.PERIOD
-                        FROM ''' + dataTable + ''' D
-                        INNER JOIN ''' + receiversTable + ''' R
-                        ON D.IDRECEIVER = R.PK
-                        WHERE R.FACILITY = \'''' + activityId + '''\'
-                        AND D.PERIOD != ''
-                    '''
-            ResultSet result = stmt.executeQuery(query)
-            Map<Integer, Double> timeSeries = new HashMap<Integer, Double>()
-            while(result.next()) {
-                int timeBin = Integer.parseInt(result.getString("PERIOD"));
-                Double value = result.getDouble("LAEQ")
-                timeSeries.put(timeBin, value)
-            }
-            activitiesTimeSeries.put(activityId, timeSeries)
-        }
-
-        double LAeq = -99.0;
-
-        Map<Integer, SequenceElement> sequence = new HashMap<Integer, SequenceElement>()
+    logger.info("Loading facilities noise levels...")
+    AgentExposure.FacilityNoiseIndex facilityNoiseIndex = AgentExposure.FacilityNoiseIndex.load(connection, dataTable,
+            receiversTable, timeBinSize)
 
-        int nbTimeBins = (int) (86400 / timeBinSize)
-        for (int timeBin = 0; timeBin < 86400; timeBin += timeBinSize) {
-
-            if (!sequence.containsKey(timeBin)) {
-                sequence.put(timeBin, new SequenceElement())
-            }
-
-            double timeSliceStart = timeBin;
-            double timeSliceEnd = timeBin + timeBinSize;
-
-            if (timeSliceStart < 4 * 3600) {
-                timeSliceStart += 86400
-            }
-            if (timeSliceEnd <= 4 * 3600) {
-                timeSliceEnd += 86400
-            }
-
-            boolean hasActivity = false;
-            boolean isOutside = false;
-            boolean hasLevel = false; // in cas there is no propagation path arriving to this facility's receiver.
-            boolean hasHomeLevel = false; // idem for home
-            for (PlanElement element : plan.getPlanElements()) {
-                if (!(element instanceof Activity)) {
-                    continue;
-                }
-                Activity activity = (Activity) element;
-                if (activity.getFacilityId() == null) { // pt interaction ?
-                    continue;
-                }
-                String activityId = activity.getFacilityId().toString();
-                if (activity.type == "outside") {
-                    isOutside = true
-                    continue;
-                }
-                double activityStart = activity.getStartTime().orElse(0);
-                double activityEnd = activity.getEndTime().orElse(86400 + 4 * 3600); // 28h
-                double timeWeight = 0.0;
-
-                if (activityStart >= activityEnd) {
-                    continue;
-                }
-                if (activityStart >= timeSliceEnd || activityEnd < timeSliceStart) {
-                    continue;
-                }
-
-                hasActivity = true;
-                String activity_geom = "POINT EMPTY"
-                if (activity.getCoord() == null) {
-                    if (activity.type == "home" && homeGeom != "") {
-                        activity_geom = homeGeom
-                    }
-                }
-                else {
-                    activity_geom = String.format("POINT(%s %s)", Double.toString(activity.getCoord().getX()), Double.toString(activity.getCoord().getY()))
-                }
-
-                // exemples with timeslice : 1h to 2h (timeBin = 3600, timeBinSize = 3600)
-                if (activityStart <= timeSliceStart) { // activity starts before the current timeslice  (ie. 00:05:07)
-                    sequence[timeBin].start_activity_id = activity.facilityId.toString()
-                    sequence[timeBin].start_activity_type = activity.type
-                    sequence[timeBin].start_activity_geom = activity_geom
-                    if (activityEnd > timeSliceEnd) { // activity ends after the current timeslice (ie. 02:30:00)
-                        timeWeight = 1 / nbTimeBins;
-                        sequence[timeBin].end_activity_id = activity.facilityId.toString()
-                        sequence[timeBin].end_activity_type = activity.type
-                        sequence[timeBin].end_activity_geom = activity_geom
-                    }
-                    if (activityEnd < timeSliceEnd) { // activity ends in current timeslice (ie. 01:38:00)
-                        timeWeight = ((activityEnd - timeSliceStart) / timeBinSize) / nbTimeBins;
-                    }
-                }
-                if (activityStart > timeSliceStart && activityStart < timeSliceEnd) { // activity start is in the current timeslice  (ie. 01:05:07)
-                    if (activityEnd > timeSliceEnd) { // activity ends after the current timeslice (ie. 02:30:00)
-                        timeWeight = ((timeSliceEnd - activityStart) / timeBinSize) / nbTimeBins;
-                        sequence[timeBin].end_activity_id = activity.facilityId.toString()
-                        sequence[timeBin].end_activity_type = activity.type
-                        sequence[timeBin].end_activity_geom = activity_geom
-                    }
-                    if (activityEnd < timeSliceEnd) { // activity ends in current timeslice (ie. 01:38:00)
-                        timeWeight = ((activityEnd - activityStart) / timeBinSize) / nbTimeBins;
-                    }
-                }
-                if (timeWeight > sequence[timeBin].weight) {
-                    sequence[timeBin].main_activity_id = activity.facilityId.toString()
-                    sequence[timeBin].main_activity_type = activity.type
-                    sequence[timeBin].main_activity_geom = activity_geom
-                }
-
-                Double value = activitiesTimeSeries[activityId][timeBin]
-                if (value != null) {
-                    LAeq = 10 * Math.log10(Math.pow(10, LAeq / 10) + timeWeight * Math.pow(10, (double) value / 10));
-                    sequence[timeBin].noise_laeq = value
-                    hasLevel = true;
-                }
-            }
-
-            if (!hasLevel) {
-                sequence[timeBin].noise_laeq = -99.0
-            }
-            if (!hasActivity) {
-                if (isOutside) {
-                    sequence[timeBin].start_activity_id = "outside"
-                    sequence[timeBin].start_activity_type = "outside"
-                    sequence[timeBin].main_activity_id = "outside"
-                    sequence[timeBin].main_activity_type = "outside"
-                    sequence[timeBin].end_activity_id = "outside"
-                    sequence[timeBin].end_activity_type = "outside"
-                }
-                else {
-                    // keep default 'travelling' activity
-                }
-            }
-        }
-
-        /*
-        PK integer PRIMARY KEY AUTO_INCREMENT,
-        PERSON_ID varchar(255),
-        AGE int,
-        SEX varchar,
-        INCOME double,
-        EMPLOYED double,
-        HOME_FACILITY varchar(255),
-        HOME_GEOM geometry,
-        WORK_FACILITY varchar(255),
-        WORK_GEOM geometry,
-        LAEQ real
-         */
-        PreparedStatement insert_stmt = connection.prepareStatement("INSERT INTO " + outTableName + " VALUES(" +
-                "DEFAULT, ?, ?, ?, ?, ?, " +
-                "?, ST_GeomFromText(?, "+SRID+"), ?, ST_GeomFromText(?, "+SRID+"), ?)")
-        insert_stmt.setString(1, personId)
-        insert_stmt.setInt(2, age)
-        insert_stmt.setString(3, sex)
-        insert_stmt.setDouble(4, income)
-        insert_stmt.setBoolean(5, employed)
-        insert_stmt.setString(6, homeId)
-        insert_stmt.setString(7, homeGeom)
-        insert_stmt.setString(8, workId)
-        insert_stmt.setString(9, workGeom)
-        insert_stmt.setDouble(10, LAeq)
-        insert_stmt.execute()
-        /*
-        PK integer PRIMARY KEY AUTO_INCREMENT,
-        PERSON_ID varchar(255),
-        TIME int,
-        LEVEL double,
-        START_ACTIVITY_ID varchar,
-        START_ACTIVITY_TYPE varchar,
-        START_ACTIVITY_GEOM geometry,
-        MAIN_ACTIVITY_ID varchar,
-        MAIN_ACTIVITY_TYPE varchar,
-        MAIN_ACTIVITY_GEOM geometry,
-        END_ACTIVITY_ID varchar,
-        END_ACTIVITY_TYPE varchar,
-        END_ACTIVITY_GEOM geometry
-         */
-        PreparedStatement insert_stmt_sequence = connection.prepareStatement(
-            "INSERT INTO " + outTableName + "_SEQUENCE VALUES(DEFAULT, '" + personId + "', ?, ?, ?, ?, ST_GeomFromText(?, "+SRID+"), ?, ?, ST_GeomFromText(?, "+SRID+"), ?, ?, ST_GeomFromText(?, "+SRID+"))"
-        )
-        for (int timeBin = 0; timeBin < 86400; timeBin += timeBinSize) {
-            insert_stmt_sequence.setInt(1, timeBin)
-            insert_stmt_sequence.setDouble(2, sequence[timeBin].noise_laeq)
-            insert_stmt_sequence.setString(3, sequence[timeBin].start_activity_id)
-            insert_stmt_sequence.setString(4, sequence[timeBin].start_activity_type)
-            insert_stmt_sequence.setString(5, sequence[timeBin].start_activity_geom)
-            insert_stmt_sequence.setString(6, sequence[timeBin].main_activity_id)
-            insert_stmt_sequence.setString(7, sequence[timeBin].main_activity_type)
-            insert_stmt_sequence.setString(8, sequence[timeBin].main_activity_geom)
-            insert_stmt_sequence.setString(9, sequence[timeBin].end_activity_id)
-            insert_stmt_sequence.setString(10, sequence[timeBin].end_activity_type)
-            insert_stmt_sequence.setString(11, sequence[timeBin].end_activity_geom)
-            insert_stmt_sequence.addBatch()
+    Iterator<Map.Entry<Id<Person>, Person>> personsIterator = persons.entrySet().iterator()
+    Iterator<AgentExposure.Agent> agents = new Iterator<AgentExposure.Agent>() {
+        @Override
+        boolean hasNext() {
+            return personsIterator.hasNext()
         }
-        insert_stmt_sequence.executeBatch()
 
-        if (counter >= doprint) {
-            doprint *= 2
-            double elapsed = (System.currentTimeMillis() - start + 1) / 1000
-            logger.info(String.format("Processing Person %d (max:%d) - elapsed : %ss (%.1fit/s)",
-                    counter, nb_persons, elapsed, counter/elapsed))
+        @Override
+        AgentExposure.Agent next() {
+            Map.Entry<Id<Person>, Person> entry = personsIterator.next()
+            return createAgent(entry.getKey().toString(), entry.getValue(), experiencedPlans, personsCsvData)
         }
-        counter++;
     }
 
+    AgentExposure agentExposure = new AgentExposure(facilityNoiseIndex)
+    long counter = agentExposure.computeExposures(connection, agents, outTableName, SRID as int)
+    logger.info(String.format("%d persons processed (max:%d)", counter, persons.size()))
+
     logger.info('End : Agent_Exposure')
     resultString = "Process done. Table " + outTableName + " created !"
     logger.info('Result : ' + resultString)
     return resultString
 }
 
-class SequenceElement {
-    double weight = -1 // used only to define 'main' activity
-
-    String start_activity_id = "travelling"
-    String start_activity_type = "travelling"
-    String start_activity_geom = "POINT EMPTY"
-    String main_activity_id = "travelling"
-    String main_activity_type = "travelling"
-    String main_activity_geom = "POINT EMPTY"
-    String end_activity_id = "travelling"
-    String end_activity_type = "travelling"
-    String end_activity_geom = "POINT EMPTY"
+/**
+ * Convert a Matsim person into an agent with its attributes and activities
+ */
+@CompileStatic
+static AgentExposure.Agent createAgent(String personId, Person person, Population experiencedPlans,
+                                       Map<String, Map<String, String>> personsCsvData) {
+    def attributes = person.getAttributes();
+    Integer age = attributes.getAttribute("age") as Integer
+    if (age == null && personsCsvData[personId] != null && personsCsvData[personId].containsKey("age")) {
+        age = personsCsvData[personId]["age"] as Integer
+    }
+    String sex = attributes.getAttribute("sex")
+    if (sex == null && personsCsvData[personId] != null && personsCsvData[personId].containsKey("sex")) {
+        sex = personsCsvData[personId]["sex"]
+    }
+    Double income = attributes.getAttribute("householdIncome") as Double
+    if (income == null && personsCsvData[personId] != null && personsCsvData[personId].containsKey("householdIncome")) {
+        income = personsCsvData[personId]["householdIncome"] as Double
+    }
+    Boolean employed = attributes.getAttribute("employed")
+    if (employed == null && personsCsvData[personId] != null && personsCsvData[personId].containsKey("employed")) {
+        employed = personsCsvData[personId]["employed"] as Boolean
+    }
+    Plan plan = experiencedPlans.getPersons()[person.getId()].getSelectedPlan()
 
-    double noise_laeq
-}
\ No newline at end of file
+    if (plan.getPlanElements().size() == 0) { // stays at home all day
+        plan = person.getSelectedPlan() // back to the not *experienced* version
+    }
+    List<AgentExposure.Activity> activities = new ArrayList<AgentExposure.Activity>()
+    for (PlanElement element : plan.getPlanElements()) {
+        if (!(element instanceof Activity)) {
+            continue;
+        }
+        Activity activity = (Activity) element;
+        if (activity.getFacilityId() == null) { // pt interaction ?
+            continue;
+        }
+        String geometry = null
+        if (activity.getCoord() != null) {
+            geometry = String.format("POINT(%s %s)", Double.toString(activity.getCoord().getX()), Double.toString(activity.getCoord().getY()))
+        }
+        activities.add(new AgentExposure.Activity(activity.getFacilityId().toString(), activity.getType(),
+                activity.getStartTime().orElse(0), activity.getEndTime().orElse(AgentExposure.DEFAULT_ACTIVITY_END),
+                geometry))
+    }
+    return new AgentExposure.Agent(personId, age, sex, income, employed, activities)
+}
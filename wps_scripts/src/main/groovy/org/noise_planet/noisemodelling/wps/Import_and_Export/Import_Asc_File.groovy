@@ -19,7 +19,6 @@ package org.noise_planet.noisemodelling.wps.Import_and_Export
 import geoserver.GeoServer
 import geoserver.catalog.Store
 import org.geotools.jdbc.JDBCDataStore
-import org.h2gis.functions.io.asc.AscReaderDriver
 import org.h2gis.functions.io.utility.PRJUtil
 import org.h2gis.functions.spatial.crs.ST_SetSRID
 import org.h2gis.functions.spatial.crs.ST_Transform
@@ -27,6 +26,7 @@ import org.h2gis.utilities.TableLocation
 import org.locationtech.jts.geom.Geometry
 import org.locationtech.jts.io.WKTReader
 import org.locationtech.jts.io.WKTWriter
+import org.noise_planet.noisemodelling.jdbc.utils.AscReaderDriver
 import org.noise_planet.noisemodelling.pathfinder.utils.profiler.RootProgressVisitor;
 import org.slf4j.Logger
 import org.slf4j.LoggerFactory
@@ -30,7 +30,7 @@ import org.h2gis.utilities.dbtypes.DBUtils
 import org.h2gis.utilities.wrapper.ConnectionWrapper
 import org.hsqldb.Table
 import org.locationtech.jts.geom.Geometry
-import org.noise_planet.noisemodelling.jdbc.EmissionTableGenerator
+import org.noise_planet.noisemodelling.jdbc.EmissionTablePipeline
 import org.noise_planet.noisemodelling.jdbc.input.DefaultTableLoader
 import org.noise_planet.noisemodelling.pathfinder.utils.AcousticIndicatorsFunctions
 import org.slf4j.Logger
@@ -177,42 +177,8 @@ def exec(Connection connection, input) {
     // Create a sql connection to interact with the database in SQL
     Sql sql = new Sql(connection)
 
-    def lowerCaseColumnNames = JDBCUtilities.getColumnNames(connection, sourceTableIdentifier).stream()
-            .map { it.toLowerCase() }
-            .collect(Collectors.toList())
-
-    // If there is a period field, it means that we will not found the D E N fields before traffic fields names
-    boolean hasPeriodField = lowerCaseColumnNames.contains("period")
-    boolean hasIdSourceField = lowerCaseColumnNames.contains("idsource")
-
-    // drop table LW_ROADS if exists and the create and prepare the table
-    sql.execute("drop table if exists LW_ROADS;")
-
-    def createTableQuery = new StringBuilder("CREATE TABLE LW_ROADS (")
-    def preparedInsertQuery = new StringBuilder("INSERT INTO LW_ROADS(")
-    int fieldCount = 0
-
-    if(primaryKeyColumn != null) {
-        createTableQuery.append(primaryKeyColumn.first())
-        createTableQuery.append(" integer not null, ")
-        preparedInsertQuery.append(primaryKeyColumn.first())
-        preparedInsertQuery.append(", ")
-        fieldCount++
-    }
-
-    if(hasIdSourceField) {
-        createTableQuery.append("IDSOURCE integer, ")
-        preparedInsertQuery.append("IDSOURCE, ")
-        fieldCount++
-    }
-
     def force3D = false
     if(geomFields.size() > 0) {
-        createTableQuery.append(geomFields.get(0))
-        createTableQuery.append(" Geometry, ")
-        preparedInsertQuery.append(geomFields.get(0))
-        preparedInsertQuery.append(", ")
-        fieldCount++
         def tupMeta = GeometryTableUtilities.getFirstColumnMetaData(connection, sourceTableIdentifier)
         if(tupMeta != null && !tupMeta.second().hasZ()) {
             force3D = true
@@ -220,49 +186,6 @@ def exec(Connection connection, input) {
         }
     }
 
-    if(!hasPeriodField) {
-        ["D", "E", "N"].each { period ->
-            ["63", "125", "250", "500", "1000", "2000", "4000", "8000"].each { freq ->
-                    createTableQuery.append("HZ")
-                    createTableQuery.append(period)
-                    createTableQuery.append(freq)
-                    createTableQuery.append(" double precision, ")
-                    preparedInsertQuery.append("HZ")
-                    preparedInsertQuery.append(period)
-                    preparedInsertQuery.append(freq)
-                    preparedInsertQuery.append(", ")
-                    fieldCount++
-            }
-        }
-    } else {
-        createTableQuery.append("PERIOD varchar, ")
-        fieldCount++
-        preparedInsertQuery.append("PERIOD, ")
-        ["63", "125", "250", "500", "1000", "2000", "4000", "8000"].each { freq ->
-            createTableQuery.append("HZ")
-            createTableQuery.append(freq)
-            createTableQuery.append(" double precision, ")
-            preparedInsertQuery.append("HZ")
-            preparedInsertQuery.append(freq)
-            preparedInsertQuery.append(", ")
-            fieldCount++
-        }
-    }
-
-    // Create table
-    createTableQuery.setLength(createTableQuery.length() - 2) // remove last comma
-    createTableQuery.append(");")
-    sql.execute(createTableQuery.toString())
-
-    // Prepared insert query
-    preparedInsertQuery.setLength(preparedInsertQuery.length() - 2) // remove last comma
-    preparedInsertQuery.append(") VALUES (")
-    String.join(", ", Collections.nCopies(fieldCount, "?")).each {
-        preparedInsertQuery.append(it)
-    }
-    preparedInsertQuery.append(");")
-    def qry = preparedInsertQuery.toString()
-
     // --------------------------------------
     // Start calculation and fill the table
     // --------------------------------------
@@ -275,48 +198,10 @@ def exec(Connection connection, input) {
         logger.info('The table '+sources_table_name+' has ' + nbRoads + ' lines.')
     }
 
-    sql.withBatch(100, qry) { ps ->
-        st = connection.prepareStatement("SELECT * FROM " + sources_table_name)
-        SpatialResultSet rs = st.executeQuery().unwrap(SpatialResultSet.class)
-
-        Map<String, Integer> sourceFieldsCache = new HashMap<>()
-        while (rs.next()) {
-            List<Object> parameters = new ArrayList<>()
-            if(primaryKeyColumn != null) {
-                parameters.add(rs.getInt(primaryKeyColumn.first()))
-            }
-            if(hasIdSourceField) {
-                parameters.add(rs.getInt("IDSOURCE"))
-            }
-            if(geomFields.size() > 0) {
-                parameters.add(rs.getGeometry(geomFields.get(0)))
-            }
-            if(hasPeriodField) {
-                parameters.add(rs.getString("PERIOD"))
-                // Slope value will be overwritten if the slope field is present
-                double slope = EmissionTableGenerator.getSlope(rs)
-                double[] emissionValues = EmissionTableGenerator.getEmissionFromTrafficTable(rs, "", slope, coefficientVersion, sourceFieldsCache)
-                for(double val : emissionValues) {
-                    parameters.add(val)
-                }
-            } else {
-                double[][] results = EmissionTableGenerator.computeLw(rs, coefficientVersion, sourceFieldsCache)
-                def lday = AcousticIndicatorsFunctions.wToDb(results[0])
-                def levening = AcousticIndicatorsFunctions.wToDb(results[1])
-                def lnight = AcousticIndicatorsFunctions.wToDb(results[2])
-                for(def val : lday) {
-                    parameters.add(val)
-                }
-                for(def val : levening) {
-                    parameters.add(val)
-                }
-                for(def val : lnight) {
-                    parameters.add(val)
-                }
-            }
-            ps.addBatch(parameters)
-        }
-    }
+    // drop table LW_ROADS if exists then create and fill the table
+    EmissionTablePipeline emissionTablePipeline = new EmissionTablePipeline()
+    emissionTablePipeline.setCoefficientVersion(coefficientVersion)
+    emissionTablePipeline.makeRoadLWTable(connection, sources_table_name, "LW_ROADS")
 
     if(force3D) {
         // Force the Z height to the road segments
@@ -41,10 +41,12 @@ import java.text.NumberFormat;
 import java.sql.Statement;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Properties;
@@ -56,6 +58,8 @@ import org.osgi.service.jdbc.DataSourceFactory;
 
 public class Main {
     public static final int SECONDS_BETWEEN_PROGRESSION_PRINT = 5;
+    public static final String SERVE_OPTION = "serve";
+    public static final String CONNECT_OPTION = "connect";
 
 
     public static DataSource createDataSource(String user, String password, String dbDirectory, String dbName, boolean debug) throws SQLException {
@@ -137,10 +141,41 @@ public class Main {
     }
 
 
-    public static void main(String... args) throws Exception {
-        PropertyConfigurator.configure(Main.class.getResource("log4j.properties"));
+    /**
+     * Add a rolling log file in the working directory
+     * @param workingDir Working directory
+     */
+    public static void configureFileLogger(String workingDir) {
+        try {
+            // Create rolling file appender
+            RollingFileAppender rollingAppender = new RollingFileAppender();
 
-        // Arguments parser
+            // Configure appender properties
+            rollingAppender.setName("rollingFile");
+            rollingAppender.setFile(new File(workingDir, "application.log").getPath());
+            rollingAppender.setAppend(true);
+            rollingAppender.setMaxBackupIndex(5);
+            rollingAppender.setMaximumFileSize(10_000_000);
+
+            // Create and set pattern layout
+            PatternLayout layout = new PatternLayout("[%t] %-5p %d{dd MMM HH:mm:ss} - %m%n");
+            rollingAppender.setLayout(layout);
+
+            // init stream
+            rollingAppender.activateOptions();
+
+            // Configure root logger
+            org.apache.log4j.Logger rootLogger = org.apache.log4j.Logger.getRootLogger();
+            rootLogger.addAppender(rollingAppender);
+        } catch (Exception e) {
+            System.err.println("Failed to configure logger: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return Options of the runner, the inputs of the script are added after parsing the script
+     */
+    public static Options createOptions() {
         Options options = new Options();
         Option workingDirOption = new Option("w", "working-dir", true, "Path where the database will be located");
         workingDirOption.setRequired(true);
@@ -156,13 +191,98 @@ public class Main {
         options.addOption(printVersionOption);
         Option shutdownOption = new Option("c", "shutdown" ,false,"Do not shutdown compact the database at the end of the execution");
         options.addOption(shutdownOption);
+        Option serveOption = new Option(null, SERVE_OPTION, true, "Start a persistent runner that keeps the compiled" +
+                " scripts and the opened databases, and execute the jobs received on this local port");
+        serveOption.setArgName("port");
+        options.addOption(serveOption);
+        Option connectOption = new Option(null, CONNECT_OPTION, true, "Send the job to the persistent runner listening" +
+                " on this local port");
+        connectOption.setArgName("port");
+        options.addOption(connectOption);
+        return options;
+    }
+
+    /**
+     * Read the inputs of the script and parse the values of the inputs from the command line arguments
+     * @param script Parsed script
+     * @param options Runner options, the script inputs are added to it
+     * @param args Command line arguments
+     * @return Inputs values
+     * @throws ParseException If the arguments does not match the script inputs
+     */
+    public static Map<String, Object> parseScriptInputs(Script script, Options options, String... args)
+            throws ParseException, java.text.ParseException {
+        script.run();
+        if(!script.getBinding().hasVariable("inputs")) {
+            throw new IllegalArgumentException("Script does not contains inputs variable");
+        }
+        ((Map) script.getBinding().getVariable("inputs")).forEach((key, value) -> {
+            Map<String, Object> optionAttributes = ((Map)value);
+            Option customOption = new Option(key.toString(),
+                    optionAttributes.get("type") != Boolean.class,
+                    optionAttributes.getOrDefault("description", "").
+                            toString().replaceAll("<[^>]*>", ""));
+            customOption.setType((Class)optionAttributes.get("type"));
+            customOption.setArgs(1);
+            customOption.setArgName(optionAttributes.get("name").toString());
+            customOption.setRequired(!optionAttributes.containsKey("min") || (Integer)optionAttributes.get("min") == 1);
+            options.addOption(customOption);
+        });
+        Map<String, Object> customParameters = new HashMap<>();
+        CommandLine commandLine = new DefaultParser().parse(options, args);
+        for (Iterator<Option> it = commandLine.iterator(); it.hasNext(); ) {
+            Option option = it.next();
+            if (option.getOpt() == null) {
+                continue;
+            }
+            if (option.getType() == String.class) {
+                customParameters.put(option.getOpt(), option.getValue());
+            } else if (option.getType() == Boolean.class) {
+                customParameters.put(option.getOpt(), Boolean.valueOf(option.getValue()));
+            } else if (option.getType() == Integer.class) {
+                customParameters.put(option.getOpt(), Integer.valueOf(option.getValue()));
+            } else if (option.getType() == Double.class) {
+                customParameters.put(option.getOpt(),
+                        NumberFormat.getInstance(Locale.ROOT).parse(option.getValue()).doubleValue());
+            } else {
+                throw new IllegalArgumentException("Unsupported type for option " + option.getOpt());
+            }
+        }
+        return customParameters;
+    }
+
+    public static void main(String... args) throws Exception {
+        PropertyConfigurator.configure(Main.class.getResource("log4j.properties"));
+
+        // Arguments parser
+        Options options = createOptions();
+        Option workingDirOption = options.getOption("w");
+        Option scriptPathOption = options.getOption("s");
+        Option databaseNameOption = options.getOption("d");
+        Option printVersionOption = options.getOption("v");
+        Option shutdownOption = options.getOption("c");
         Logger logger = LoggerFactory.getLogger("org.noise_planet");
+        // Persistent runner modes
+        for (int i = 0; i < args.length - 1; i++) {
+            if (("--" + SERVE_OPTION).equals(args[i])) {
+                try (ScriptRunnerServer server = new ScriptRunnerServer(Integer.parseInt(args[i + 1]))) {
+                    server.run();
+                }
+                return;
+            } else if (("--" + CONNECT_OPTION).equals(args[i])) {
+                List<String> jobArguments = new ArrayList<>(Arrays.asList(args));
+                jobArguments.subList(i, i + 2).clear();
+                if (!ScriptRunnerServer.submit(Integer.parseInt(args[i + 1]), jobArguments.toArray(new String[0]))) {
+                    System.exit(1);
+                }
+                return;
+            }
+        }
         try {
             // Read parameters
             String workingDir = "";
             String scriptPath = "";
             String databaseName = "";
-            Map<String, Object> customParameters = new HashMap<>();
             boolean printVersion = false;
 
             CommandLineParser commandLineParser = new DefaultParser();
@@ -187,30 +307,7 @@ public class Main {
             }
 
             // configure file logger
-            try {
-                // Create rolling file appender
-                RollingFileAppender rollingAppender = new RollingFileAppender();
-
-                // Configure appender properties
-                rollingAppender.setName("rollingFile");
-                rollingAppender.setFile(new File(workingDir, "application.log").getPath());
-                rollingAppender.setAppend(true);
-                rollingAppender.setMaxBackupIndex(5);
-                rollingAppender.setMaximumFileSize(10_000_000);
-
-                // Create and set pattern layout
-                PatternLayout layout = new PatternLayout("[%t] %-5p %d{dd MMM HH:mm:ss} - %m%n");
-                rollingAppender.setLayout(layout);
-
-                // init stream
-                rollingAppender.activateOptions();
-
-                // Configure root logger
-                org.apache.log4j.Logger rootLogger = org.apache.log4j.Logger.getRootLogger();
-                rootLogger.addAppender(rollingAppender);
-            } catch (Exception e) {
-                System.err.println("Failed to configure logger: " + e.getMessage());
-            }
+            configureFileLogger(workingDir);
 
             // Open database
             DataSource ds = createDataSource("", "", new File(workingDir).getAbsolutePath(), databaseName, false);
@@ -221,46 +318,15 @@ public class Main {
             try (Connection connection = new ConnectionWrapper(ds.getConnection())) {
                 GroovyShell shell = new GroovyShell();
                 Script script= shell.parse(new File(scriptPath));
-                script.run();
-                if(shell.getVariable("inputs") == null) {
-                    throw new IllegalArgumentException("Script does not contains inputs variable");
-                }
-                ((Map) shell.getVariable("inputs")).forEach((key, value) -> {
-                    Map<String, Object> optionAttributes = ((Map)value);
-                    Option customOption = new Option(key.toString(),
-                            optionAttributes.get("type") != Boolean.class,
-                            optionAttributes.getOrDefault("description", "").
-                                    toString().replaceAll("<[^>]*>", ""));
-                    customOption.setType((Class)optionAttributes.get("type"));
-                    customOption.setArgs(1);
-                    customOption.setArgName(optionAttributes.get("name").toString());
-                    customOption.setRequired(!optionAttributes.containsKey("min") || (Integer)optionAttributes.get("min") == 1);
-                    options.addOption(customOption);
-                });
+                Map<String, Object> inputs;
                 try {
-                    commandLine = commandLineParser.parse(options, args);
-                    for (Iterator<Option> it = commandLine.iterator(); it.hasNext(); ) {
-                        Option option = it.next();
-                        if (option.getType() == String.class) {
-                            customParameters.put(option.getOpt(), option.getValue());
-                        } else if (option.getType() == Boolean.class) {
-                            customParameters.put(option.getOpt(), Boolean.valueOf(option.getValue()));
-                        } else if (option.getType() == Integer.class) {
-                            customParameters.put(option.getOpt(), Integer.valueOf(option.getValue()));
-                        } else if (option.getType() == Double.class) {
-                            customParameters.put(option.getOpt(),
-                                    NumberFormat.getInstance(Locale.ROOT).parse(option.getValue()).doubleValue());
-                        } else {
-                            throw new IllegalArgumentException("Unsupported type for option " + option.getOpt());
-                        }
-                    }
+                    inputs = parseScriptInputs(script, options, args);
                 } catch (ParseException ex) {
                     logger.info(ex.getMessage());
                     helpFormatter.printHelp("NoiseModelling Script Runner", options);
                     System.exit(1);
                     return;
                 }
-                Map<String, Object> inputs = new HashMap<>(customParameters);
                 inputs.put("progressVisitor", progressVisitor);
                 Object result = script.invokeMethod("exec", new Object[] {connection, inputs});
                 if(result != null) {
@@ -0,0 +1,431 @@
+/**
+ * NoiseModelling is an open-source tool designed to produce environmental noise maps on very large urban areas. It can be used as a Java library or be controlled through a user friendly web interface.
+ *
+ * This version is developed by the DECIDE team from the Lab-STICC (CNRS) and by the Mixt Research Unit in Environmental Acoustics (Université Gustave Eiffel).
+ * <http://noise-planet.org/noisemodelling.html>
+ *
+ * NoiseModelling is distributed under GPL 3 license. You can read a copy of this License in the file LICENCE provided with this software.
+ *
+ * Contact: contact@noise-planet.org
+ *
+ */
+package org.noise_planet.noisemodelling.runner;
+
+import groovy.lang.Binding;
+import groovy.lang.GroovyShell;
+import groovy.lang.Script;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.Options;
+import org.codehaus.groovy.runtime.InvokerHelper;
+import org.h2.jdbcx.JdbcConnectionPool;
+import org.h2.jdbcx.JdbcDataSource;
+import org.h2gis.functions.factory.H2GISFunctions;
+import org.h2gis.utilities.wrapper.ConnectionWrapper;
+import org.noise_planet.noisemodelling.pathfinder.utils.profiler.RootProgressVisitor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.AclEntry;
+import java.nio.file.attribute.AclEntryPermission;
+import java.nio.file.attribute.AclEntryType;
+import java.nio.file.attribute.AclFileAttributeView;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Persistent script runner. The jobs are received on a local port, with the same arguments as the command line
+ * runner {@link Main}. The compiled scripts and the opened databases (with a connection pool) are kept between the
+ * jobs, so chained scripts do not pay again the start of the JVM, the compilation of the scripts and the opening of
+ * the database.
+ * Protocol: the client sends the access token, its working directory then the arguments of the job, one per line
+ * (UTF-8), then closes its output. The runner answers with OK or ERROR on the first line followed by the result or
+ * the error message.
+ * The access token is a random value generated by the runner and written in {@link #getTokenFile(int)}, a file
+ * readable only by the owner of the runner. Jobs without this token are rejected, so only the user that started the
+ * runner can submit scripts.
+ * The relative paths of the working directory and of the script are resolved against the working directory of the
+ * client. The script inputs are given to the script unchanged, as with the command line runner, so the client must
+ * give the absolute path of the input files.
+ * As with the command line runner, the logs are also written in the file application.log of the working directory
+ * of the jobs. The job {@link #STOP_JOB} stops the runner and shutdown compact the databases, except the databases
+ * of the jobs run with the option -c.
+ * @author Nicolas Fortin, Université Gustave Eiffel
+ */
+public class ScriptRunnerServer implements Closeable {
+    public static final String STOP_JOB = "--stop";
+    public static final String OK = "OK";
+    public static final String ERROR = "ERROR";
+    private static final Logger LOGGER = LoggerFactory.getLogger(ScriptRunnerServer.class);
+
+    private final ServerSocket serverSocket;
+    private final String token;
+    private final File tokenFile;
+    private final ExecutorService executorService = Executors.newCachedThreadPool();
+    private final GroovyShell shell = new GroovyShell();
+    private final Map<String, CompiledScript> scripts = new ConcurrentHashMap<>();
+    private final Map<String, JdbcConnectionPool> databases = new ConcurrentHashMap<>();
+    /** Databases to shutdown compact when the runner stops */
+    private final Map<String, Boolean> compactDatabases = new ConcurrentHashMap<>();
+    /** Working directories with a log file */
+    private final Set<String> loggedDirectories = new HashSet<>();
+    private volatile boolean running = true;
+    private boolean closed = false;
+
+    private static class CompiledScript {
+        final long lastModified;
+        final Class<? extends Script> scriptClass;
+
+        CompiledScript(long lastModified, Class<? extends Script> scriptClass) {
+            this.lastModified = lastModified;
+            this.scriptClass = scriptClass;
+        }
+    }
+
+    /**
+     * Listen on the local loopback address and write the access token in {@link #getTokenFile(int)}
+     * @param port Port, 0 for an automatically allocated port
+     * @throws IOException If the port is not available or the token file cannot be written
+     */
+    public ScriptRunnerServer(int port) throws IOException {
+        serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        byte[] randomBytes = new byte[32];
+        new SecureRandom().nextBytes(randomBytes);
+        StringBuilder sb = new StringBuilder();
+        for (byte b : randomBytes) {
+            sb.append(String.format("%02x", b));
+        }
+        token = sb.toString();
+        tokenFile = getTokenFile(getPort());
+        try {
+            writeTokenFile(tokenFile, token);
+        } catch (IOException ex) {
+            serverSocket.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * @param port Port of the script runner
+     * @return File containing the access token of the script runner listening on this port
+     */
+    public static File getTokenFile(int port) {
+        return new File(new File(System.getProperty("user.home"), ".noisemodelling"), "runner_" + port + ".token");
+    }
+
+    private static void writeTokenFile(File file, String token) throws IOException {
+        File directory = file.getParentFile();
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Cannot create the folder " + directory);
+        }
+        Path path = file.toPath();
+        Files.deleteIfExists(path);
+        Set<String> attributeViews = path.getFileSystem().supportedFileAttributeViews();
+        try {
+            if (attributeViews.contains("posix")) {
+                Files.createFile(path, PosixFilePermissions.asFileAttribute(
+                        PosixFilePermissions.fromString("rw-------")));
+            } else {
+                Files.createFile(path);
+            }
+        } catch (FileAlreadyExistsException ex) {
+            throw new IOException("The token file " + file + " has been created by another process", ex);
+        }
+        if (!attributeViews.contains("posix")) {
+            AclFileAttributeView aclView = Files.getFileAttributeView(path, AclFileAttributeView.class);
+            if (aclView != null) {
+                // readable only by the owner (ex: Windows)
+                AclEntry ownerEntry = AclEntry.newBuilder().setType(AclEntryType.ALLOW)
+                        .setPrincipal(aclView.getOwner())
+                        .setPermissions(AclEntryPermission.READ_DATA, AclEntryPermission.WRITE_DATA,
+                                AclEntryPermission.APPEND_DATA, AclEntryPermission.READ_ATTRIBUTES,
+                                AclEntryPermission.WRITE_ATTRIBUTES, AclEntryPermission.READ_NAMED_ATTRS,
+                                AclEntryPermission.WRITE_NAMED_ATTRS, AclEntryPermission.READ_ACL,
+                                AclEntryPermission.WRITE_ACL, AclEntryPermission.DELETE,
+                                AclEntryPermission.SYNCHRONIZE).build();
+                aclView.setAcl(Collections.singletonList(ownerEntry));
+            } else {
+                LOGGER.warn("The file system does not support access rights, the token file " + file +
+                        " may be readable by other users");
+            }
+        }
+        Files.write(path, token.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return Listening port
+     */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Accept the jobs until the reception of the stop job
+     * @throws IOException If the server socket fails
+     */
+    public void run() throws IOException {
+        LOGGER.info("NoiseModelling script runner listening on port " + getPort());
+        while (running) {
+            Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (SocketException ex) {
+                // closed by the stop job
+                break;
+            }
+            executorService.submit(() -> handle(socket));
+        }
+    }
+
+    private void handle(Socket socket) {
+        try (Socket client = socket;
+             BufferedReader reader = new BufferedReader(new InputStreamReader(client.getInputStream(),
+                     StandardCharsets.UTF_8));
+             Writer writer = new BufferedWriter(new OutputStreamWriter(client.getOutputStream(),
+                     StandardCharsets.UTF_8))) {
+            String clientToken = reader.readLine();
+            if (clientToken == null || !MessageDigest.isEqual(token.getBytes(StandardCharsets.UTF_8),
+                    clientToken.getBytes(StandardCharsets.UTF_8))) {
+                LOGGER.warn("Job rejected, invalid access token");
+                writer.write(ERROR + "\nInvalid access token");
+                return;
+            }
+            String clientDirectory = reader.readLine();
+            List<String> arguments = new ArrayList<>();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                arguments.add(line);
+            }
+            if (arguments.size() == 1 && STOP_JOB.equals(arguments.get(0))) {
+                writer.write(OK + "\n");
+                writer.flush();
+                stop();
+                return;
+            }
+            try {
+                Object result = execute(new File(clientDirectory == null ? "" : clientDirectory).getAbsoluteFile(),
+                        arguments.toArray(new String[0]));
+                writer.write(OK + "\n" + (result == null ? "" : result.toString()));
+            } catch (Throwable ex) {
+                LOGGER.error(ex.getLocalizedMessage(), ex);
+                StringWriter stackTrace = new StringWriter();
+                ex.printStackTrace(new PrintWriter(stackTrace));
+                writer.write(ERROR + "\n" + stackTrace);
+            }
+        } catch (IOException ex) {
+            LOGGER.error(ex.getLocalizedMessage(), ex);
+        }
+    }
+
+    private Class<? extends Script> getScriptClass(File scriptFile) throws IOException {
+        String key = scriptFile.getCanonicalPath();
+        long lastModified = scriptFile.lastModified();
+        CompiledScript compiledScript = scripts.get(key);
+        if (compiledScript == null || compiledScript.lastModified != lastModified) {
+            synchronized (shell) {
+                compiledScript = new CompiledScript(lastModified, shell.parse(scriptFile).getClass());
+            }
+            scripts.put(key, compiledScript);
+        }
+        return compiledScript.scriptClass;
+    }
+
+    private JdbcConnectionPool getDatabase(String workingDir, String databaseName) throws SQLException {
+        String databasePath = new File(workingDir, databaseName).getAbsolutePath();
+        synchronized (databases) {
+            JdbcConnectionPool pool = databases.get(databasePath);
+            if (pool == null) {
+                JdbcDataSource dataSource = new JdbcDataSource();
+                dataSource.setURL("jdbc:h2:" + databasePath);
+                dataSource.setUser("");
+                dataSource.setPassword("");
+                pool = JdbcConnectionPool.create(dataSource);
+                try (Connection connection = pool.getConnection()) {
+                    H2GISFunctions.load(connection);
+                }
+                databases.put(databasePath, pool);
+            }
+            return pool;
+        }
+    }
+
+    /**
+     * @param clientDirectory Working directory of the client
+     * @param path Path given by the client
+     * @return Absolute path
+     */
+    static File resolve(File clientDirectory, String path) {
+        File file = new File(path);
+        return file.isAbsolute() ? file : new File(clientDirectory, path).getAbsoluteFile();
+    }
+
+    /**
+     * Execute a job with the working directory of the runner
+     * @param args Same arguments as the command line runner
+     * @return Result of the script
+     * @throws Exception If the job fails
+     */
+    public Object execute(String... args) throws Exception {
+        return execute(new File("").getAbsoluteFile(), args);
+    }
+
+    /**
+     * Execute a job
+     * @param clientDirectory Working directory of the client, the relative paths of the job are resolved against it
+     * @param args Same arguments as the command line runner
+     * @return Result of the script
+     * @throws Exception If the job fails
+     */
+    public Object execute(File clientDirectory, String... args) throws Exception {
+        Options options = Main.createOptions();
+        CommandLine commandLine = new DefaultParser().parse(options, args, true);
+        String workingDir = resolve(clientDirectory, commandLine.getOptionValue("w")).getPath();
+        File scriptFile = resolve(clientDirectory, commandLine.getOptionValue("s"));
+        String databaseName = commandLine.getOptionValue("d", "h2gisdb");
+        synchronized (loggedDirectories) {
+            if (loggedDirectories.add(workingDir)) {
+                Main.configureFileLogger(workingDir);
+            }
+        }
+        Script script = InvokerHelper.createScript(getScriptClass(scriptFile), new Binding());
+        Map<String, Object> inputs = Main.parseScriptInputs(script, options, args);
+        inputs.put("progressVisitor", new RootProgressVisitor(1, true,
+                Main.SECONDS_BETWEEN_PROGRESSION_PRINT));
+        JdbcConnectionPool database = getDatabase(workingDir, databaseName);
+        // same option as the command line runner, the database is then not compacted when the runner stops
+        compactDatabases.put(new File(workingDir, databaseName).getAbsolutePath(), !commandLine.hasOption("c"));
+        try (Connection connection = new ConnectionWrapper(database.getConnection())) {
+            Object result = script.invokeMethod("exec", new Object[] {connection, inputs});
+            if (result != null) {
+                LOGGER.info(result.toString());
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Stop accepting jobs, {@link #run()} returns
+     * @throws IOException If the server socket fails
+     */
+    public void stop() throws IOException {
+        running = false;
+        serverSocket.close();
+    }
+
+    /**
+     * Stop accepting jobs, wait for the running jobs and shutdown compact the databases, except the databases of the
+     * jobs run with the option -c
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        stop();
+        Files.deleteIfExists(tokenFile.toPath());
+        executorService.shutdown();
+        try {
+            executorService.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        for (Map.Entry<String, JdbcConnectionPool> entry : databases.entrySet()) {
+            JdbcConnectionPool pool = entry.getValue();
+            if (compactDatabases.getOrDefault(entry.getKey(), true)) {
+                try (Connection connection = pool.getConnection();
+                     Statement st = connection.createStatement()) {
+                    st.execute("SHUTDOWN COMPACT");
+                } catch (SQLException ex) {
+                    LOGGER.error(ex.getLocalizedMessage(), ex);
+                }
+            }
+            pool.dispose();
+        }
+        databases.clear();
+    }
+
+    /**
+     * Send a job to a running script runner and log the result, the relative paths are resolved against the current
+     * working directory
+     * @param port Port of the script runner
+     * @param args Arguments of the job
+     * @return True if the job succeeded
+     * @throws IOException If the script runner is not reachable or its access token cannot be read
+     */
+    public static boolean submit(int port, String... args) throws IOException {
+        return submit(port, new File("").getAbsoluteFile(), args);
+    }
+
+    /**
+     * Send a job to a running script runner and log the result
+     * @param port Port of the script runner
+     * @param clientDirectory Folder used to resolve the relative paths of the job
+     * @param args Arguments of the job
+     * @return True if the job succeeded
+     * @throws IOException If the script runner is not reachable or its access token cannot be read
+     */
+    public static boolean submit(int port, File clientDirectory, String... args) throws IOException {
+        String token = new String(Files.readAllBytes(getTokenFile(port).toPath()), StandardCharsets.UTF_8).trim();
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(),
+                    StandardCharsets.UTF_8));
+            writer.write(token + "\n");
+            writer.write(clientDirectory.getAbsolutePath() + "\n");
+            for (String argument : args) {
+                writer.write(argument + "\n");
+            }
+            writer.flush();
+            socket.shutdownOutput();
+            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(),
+                    StandardCharsets.UTF_8));
+            String status = reader.readLine();
+            StringBuilder message = new StringBuilder();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                message.append(line).append("\n");
+            }
+            if (OK.equals(status)) {
+                if (message.length() > 0) {
+                    LOGGER.info(message.toString().trim());
+                }
+                return true;
+            } else {
+                LOGGER.error(message.toString().trim());
+                return false;
+            }
+        }
+    }
+}
@@ -3,7 +3,18 @@ package org.noise_planet.noisemodelling.wps;
 import junit.framework.TestCase;
 import org.junit.Test;
 import org.noise_planet.noisemodelling.runner.Main;
+import org.noise_planet.noisemodelling.runner.ScriptRunnerServer;
 
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
 import java.util.UUID;
 
 public class MainTest extends TestCase {
@@ -23,4 +34,59 @@ public class MainTest extends TestCase {
                 "-tableName", "RECEIVERS", "-height" , "1.5");
     }
 
+    @Test
+    public void testPersistentRunner() throws Exception {
+        String receiverPath = MainTest.class.getResource("receivers.shp").getPath();
+        try (ScriptRunnerServer server = new ScriptRunnerServer(0)) {
+            Thread runnerThread = new Thread(() -> {
+                try {
+                    server.run();
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            });
+            runnerThread.start();
+            assertTrue(ScriptRunnerServer.submit(server.getPort(), "-w", "build/tmp",
+                    "-d", dbName,
+                    "-s", "src/main/groovy/org/noise_planet/noisemodelling/wps/Import_and_Export/Import_File.groovy",
+                    "-pathFile", receiverPath));
+            // the second job reuse the compiled script and the opened database
+            for (String height : new String[] {"1.5", "4"}) {
+                assertTrue(ScriptRunnerServer.submit(server.getPort(), "-w", "build/tmp",
+                        "-d", dbName,
+                        "-s", "src/main/groovy/org/noise_planet/noisemodelling/wps/Geometric_Tools/Set_Height.groovy",
+                        "-tableName", "RECEIVERS", "-height", height));
+            }
+            // missing required input
+            assertFalse(ScriptRunnerServer.submit(server.getPort(), "-w", "build/tmp",
+                    "-d", dbName,
+                    "-s", "src/main/groovy/org/noise_planet/noisemodelling/wps/Geometric_Tools/Set_Height.groovy"));
+            // the working directory and the script are resolved against the folder of the client, not the folder
+            // of the runner, the script inputs are given unchanged
+            File clientDirectory = new File("src").getAbsoluteFile();
+            assertTrue(ScriptRunnerServer.submit(server.getPort(), clientDirectory, "-w", "../build/tmp",
+                    "-d", dbName,
+                    "-s", "main/groovy/org/noise_planet/noisemodelling/wps/Import_and_Export/Import_File.groovy",
+                    "-pathFile", new File(clientDirectory,
+                            "test/resources/org/noise_planet/noisemodelling/wps/receivers.shp").getAbsolutePath()));
+            // the logs of the jobs are written in the working directory, as with the command line runner
+            assertTrue(new File("build/tmp/application.log").exists());
+            // the access token is required
+            try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort())) {
+                Writer writer = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8);
+                writer.write("wrongtoken\n" + new File("").getAbsolutePath() + "\n" + ScriptRunnerServer.STOP_JOB + "\n");
+                writer.flush();
+                socket.shutdownOutput();
+                BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(),
+                        StandardCharsets.UTF_8));
+                assertEquals(ScriptRunnerServer.ERROR, reader.readLine());
+            }
+            File tokenFile = ScriptRunnerServer.getTokenFile(server.getPort());
+            assertTrue(tokenFile.exists());
+            assertTrue(ScriptRunnerServer.submit(server.getPort(), ScriptRunnerServer.STOP_JOB));
+            runnerThread.join();
+            server.close();
+            assertFalse(tokenFile.exists());
+        }
+    }
 }